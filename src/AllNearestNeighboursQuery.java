@@ -0,0 +1,407 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+
+/**
+ * {@code AllNearestNeighboursQuery} class finds the {@code k} nearest neighbours of every record of an {@link RStarTree}
+ * among the other records of the tree, a k-nearest neighbours join of the tree with itself.
+ * <p>
+ * Instead of one {@link NearestNeighboursQuery} per record, the records of every data block are searched for as one
+ * group: one best-first traversal per block, whose queue is keyed by the minimum distance of an entry's {@link MBR}
+ * from the {@link MBR} of the block, visits the nodes and data blocks near the group once for all its records. Every
+ * record keeps its own max-heap of the {@code k} nearest records found so far and its own pruning radius, and the
+ * traversal of a group stops when its queue is farther than the largest radius of the group. Since the records of a
+ * block are close to each other, the group is pruned nearly as well as its single records would be.
+ * <p>
+ * The groups are independent, so they can run in parallel over partitions of the leaf entries. The neighbours of the
+ * records are handed to a consumer, or written in a file, one group at a time, so the join never keeps its results in
+ * memory.
+ */
+
+
+class AllNearestNeighboursQuery {
+    /** The most data blocks that one task of a parallel join searches for, a task with more is split */
+    static final int PARALLEL_THRESHOLD_BLOCKS = 8;
+
+    /** The tree whose records are joined */
+    private final RStarTree tree;
+
+    /** The number of nearest neighbours of every record */
+    private final int k;
+
+
+    /**
+     * A record of the tree and its squared distance from a searched record.
+     */
+
+
+    private static final class Candidate {
+        final double squaredDistance;
+        final long recordId;
+
+        Candidate(double squaredDistance, long recordId) {
+            this.squaredDistance = squaredDistance;
+            this.recordId = recordId;
+        }
+    }
+
+
+    /**
+     * An {@link Entry} of a visited {@link Node} in the queue of a group, with the minimum distance of its {@link MBR}
+     * from the {@link MBR} of the group.
+     */
+
+
+    private static final class QueuedEntry {
+        final double minDistance;
+        final Node node;
+        final Entry entry;
+
+        QueuedEntry(double minDistance, Node node, Entry entry) {
+            this.minDistance = minDistance;
+            this.node = node;
+            this.entry = entry;
+        }
+    }
+
+
+    /**
+     * {@link AllNearestNeighboursQuery} constructor.
+     *
+     * @param tree The tree whose records are joined
+     * @param k The number of nearest neighbours of every record
+     */
+
+
+    private AllNearestNeighboursQuery(RStarTree tree, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("Parameter 'k' for the nearest neighbours must be a positive integer.");
+        this.tree = tree;
+        this.k = k;
+    }
+
+
+    /**
+     * Finds the {@code k} nearest neighbours of every record of the tree, among its other records, and hands them to
+     * the {@code consumer} one data block at a time.
+     *
+     * @param tree The {@link RStarTree} whose records are joined.
+     * @param k The number of nearest neighbours of every record.
+     * @param consumer Receives the id of every record and the ids of its nearest neighbours, nearest first.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static void allNearestNeighbours(RStarTree tree, int k, BiConsumer<Long, long[]> consumer) {
+        AllNearestNeighboursQuery query = new AllNearestNeighboursQuery(tree, k);
+        for (LeafEntry group : query.collectLeafEntries())
+            query.searchGroup(group, consumer);
+    }
+
+
+    /**
+     * Finds the {@code k} nearest neighbours of every record of the tree in parallel in the common {@link ForkJoinPool},
+     * see {@link #parallelAllNearestNeighbours(RStarTree, int, BiConsumer, ForkJoinPool)}.
+     *
+     * @param tree The {@link RStarTree} whose records are joined.
+     * @param k The number of nearest neighbours of every record.
+     * @param consumer Receives the id of every record and the ids of its nearest neighbours, nearest first, from several
+     *                 threads.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static void parallelAllNearestNeighbours(RStarTree tree, int k, BiConsumer<Long, long[]> consumer) {
+        parallelAllNearestNeighbours(tree, k, consumer, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Finds the {@code k} nearest neighbours of every record of the tree in parallel, with tasks of the {@code pool} over
+     * partitions of the leaf entries of at most {@code PARALLEL_THRESHOLD_BLOCKS} data blocks. The workers read the tree
+     * through the {@link IndexSnapshot} bound to the calling thread, if any.
+     * <p>The records are handed to the {@code consumer} in no particular order, from several threads at the same time,
+     * so it must be thread-safe.
+     *
+     * @param tree The {@link RStarTree} whose records are joined.
+     * @param k The number of nearest neighbours of every record.
+     * @param consumer Receives the id of every record and the ids of its nearest neighbours, nearest first.
+     * @param pool The pool that runs the tasks.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static void parallelAllNearestNeighbours(RStarTree tree, int k, BiConsumer<Long, long[]> consumer, ForkJoinPool pool) {
+        AllNearestNeighboursQuery query = new AllNearestNeighboursQuery(tree, k);
+        pool.invoke(query.new GroupsTask(tree.getStore().currentSnapshot(), query.collectLeafEntries(), consumer));
+    }
+
+
+    /**
+     * Finds the {@code k} nearest neighbours of every record of the tree in parallel in the common {@link ForkJoinPool}
+     * and writes them in a csv file, a line {@code recordId,neighbourId;neighbourId;...} per record, nearest neighbour
+     * first. The lines of a data block are written together, in no particular order of the blocks.
+     *
+     * @param tree The {@link RStarTree} whose records are joined.
+     * @param k The number of nearest neighbours of every record.
+     * @param outputFilePath The path of the csv file.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static void writeAllNearestNeighbours(RStarTree tree, int k, String outputFilePath) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            writer.write("recordId,neighbourIds\n");
+            AllNearestNeighboursQuery query = new AllNearestNeighboursQuery(tree, k);
+            ForkJoinPool.commonPool().invoke(query.new GroupsTask(tree.getStore().currentSnapshot(),
+                    query.collectLeafEntries(), writer));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+
+    /**
+     * A partition of the data blocks of a parallel join. The task binds the join's {@link IndexSnapshot} to the worker
+     * thread while it runs.
+     */
+
+
+    private final class GroupsTask extends RecursiveAction {
+        private final IndexSnapshot snapshot;
+        private final List<LeafEntry> groups;
+        private final BiConsumer<Long, long[]> consumer;
+        private final Writer writer;
+
+        GroupsTask(IndexSnapshot snapshot, List<LeafEntry> groups, BiConsumer<Long, long[]> consumer) {
+            this.snapshot = snapshot;
+            this.groups = groups;
+            this.consumer = consumer;
+            this.writer = null;
+        }
+
+        GroupsTask(IndexSnapshot snapshot, List<LeafEntry> groups, Writer writer) {
+            this.snapshot = snapshot;
+            this.groups = groups;
+            this.consumer = null;
+            this.writer = writer;
+        }
+
+        private GroupsTask(GroupsTask parent, List<LeafEntry> groups) {
+            this.snapshot = parent.snapshot;
+            this.groups = groups;
+            this.consumer = parent.consumer;
+            this.writer = parent.writer;
+        }
+
+        @Override
+        protected void compute() {
+            if (groups.size() > PARALLEL_THRESHOLD_BLOCKS) {
+                int middle = groups.size() / 2;
+                invokeAll(new GroupsTask(this, groups.subList(0, middle)),
+                        new GroupsTask(this, groups.subList(middle, groups.size())));
+                return;
+            }
+
+            IndexSnapshot previous = tree.getStore().bindSnapshot(snapshot);
+            try {
+                for (LeafEntry group : groups) {
+                    if (consumer != null) {
+                        searchGroup(group, consumer);
+                        continue;
+                    }
+                    StringBuilder lines = new StringBuilder();
+                    searchGroup(group, (recordId, neighbourIds) -> {
+                        lines.append(recordId).append(',');
+                        for (int i = 0; i < neighbourIds.length; i++) {
+                            if (i > 0)
+                                lines.append(';');
+                            lines.append(neighbourIds[i]);
+                        }
+                        lines.append('\n');
+                    });
+                    synchronized (writer) {
+                        writer.append(lines);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                tree.getStore().bindSnapshot(previous);
+            }
+        }
+    }
+
+
+    /**
+     * {@code collectLeafEntries} helper method that lists the leaf entries of the tree in tree order, so that the
+     * neighbouring data blocks of a partition are near each other.
+     *
+     * @return The leaf entries
+     */
+
+
+    private List<LeafEntry> collectLeafEntries() {
+        ArrayList<LeafEntry> leafEntries = new ArrayList<>();
+        collectLeafEntries(tree.getRootNode(), leafEntries);
+        return leafEntries;
+    }
+
+
+    /**
+     * Recursive helper of {@link #collectLeafEntries()}.
+     *
+     * @param node The current node
+     * @param leafEntries Receives the leaf entries of the node's subtree
+     */
+
+
+    private void collectLeafEntries(Node node, List<LeafEntry> leafEntries) {
+        for (Entry entry : node.getEntries()) {
+            if (node.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
+                leafEntries.add((LeafEntry) entry);
+            } else {
+                for (Node childNode : tree.readChildNodes(entry))
+                    collectLeafEntries(childNode, leafEntries);
+            }
+        }
+    }
+
+
+    /**
+     * {@code searchGroup} helper method that finds the nearest neighbours of the records of one data block with one
+     * best-first traversal.
+     *
+     * @param group The {@link LeafEntry} of the data block
+     * @param consumer Receives the id of every record of the block and the ids of its nearest neighbours
+     */
+
+
+    private void searchGroup(LeafEntry group, BiConsumer<Long, long[]> consumer) {
+        DataPage groupPage = tree.readDataPage(group.getDataBlockId());
+        if (groupPage == null || groupPage.size() == 0)
+            return;
+        int records = groupPage.size();
+        MBR groupMBR = group.getMBR();
+        double[][] points = new double[records][groupPage.getDimensions()];
+        ArrayList<PriorityQueue<Candidate>> nearest = new ArrayList<>(records);
+        double[] squaredRadius = new double[records];
+        for (int q = 0; q < records; q++) {
+            for (int d = 0; d < points[q].length; d++)
+                points[q][d] = groupPage.getColumn(d)[q];
+            nearest.add(new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.squaredDistance, a.squaredDistance)));
+            squaredRadius[q] = k == 0 ? 0 : Double.MAX_VALUE;
+        }
+
+        PriorityQueue<QueuedEntry> queue = new PriorityQueue<>(Comparator.comparingDouble(e -> e.minDistance));
+        double maxRadius = k == 0 ? 0 : Double.MAX_VALUE;
+        addEntries(tree.getRootNode(), groupMBR, maxRadius, queue);
+
+        double[] squaredDistances = new double[0];
+        while (!queue.isEmpty()) {
+            QueuedEntry queued = queue.poll();
+            if (queued.minDistance >= maxRadius)
+                break; // no record of the group can find a nearer neighbour
+            if (queued.node.getNodeLevelInTree() != RStarTree.getLeafLevel()) {
+                for (Node childNode : tree.readChildNodes(queued.entry))
+                    addEntries(childNode, groupMBR, maxRadius, queue);
+                continue;
+            }
+
+            DataPage page = tree.readDataPage(((LeafEntry) queued.entry).getDataBlockId());
+            if (page == null)
+                continue;
+            if (squaredDistances.length < page.size())
+                squaredDistances = new double[page.size()];
+            for (int q = 0; q < records; q++) {
+                if (squaredMinDistance(queued.entry.getMBR(), points[q]) >= squaredRadius[q])
+                    continue;
+                long recordId = groupPage.getRecordId(q);
+                page.squaredDistances(points[q], squaredDistances);
+                PriorityQueue<Candidate> candidates = nearest.get(q);
+                for (int row = 0; row < page.size(); row++) {
+                    if (squaredDistances[row] >= squaredRadius[q] || page.getRecordId(row) == recordId)
+                        continue;
+                    candidates.add(new Candidate(squaredDistances[row], page.getRecordId(row)));
+                    if (candidates.size() > k)
+                        candidates.poll();
+                    if (candidates.size() == k)
+                        squaredRadius[q] = candidates.peek().squaredDistance;
+                }
+            }
+            maxRadius = 0;
+            for (double radius : squaredRadius)
+                maxRadius = Math.max(maxRadius, radius);
+            maxRadius = Math.sqrt(maxRadius);
+        }
+
+        for (int q = 0; q < records; q++) {
+            PriorityQueue<Candidate> candidates = nearest.get(q);
+            long[] neighbourIds = new long[candidates.size()];
+            for (int i = neighbourIds.length - 1; i >= 0; i--) // the farthest neighbour is polled first
+                neighbourIds[i] = candidates.poll().recordId;
+            consumer.accept(groupPage.getRecordId(q), neighbourIds);
+        }
+    }
+
+
+    /**
+     * {@code addEntries} helper method that queues the entries of a {@link Node} that are nearer to the group than the
+     * largest radius of the group, by the minimum distance of their {@link MBR} from the group's {@link MBR}, and
+     * prefetches their blocks in that order.
+     *
+     * @param node The visited node
+     * @param groupMBR The {@link MBR} of the group
+     * @param maxRadius The largest radius of the records of the group
+     * @param queue The queue of the group
+     */
+
+
+    private void addEntries(Node node, MBR groupMBR, double maxRadius, PriorityQueue<QueuedEntry> queue) {
+        ArrayList<QueuedEntry> added = new ArrayList<>();
+        for (Entry entry : node.getEntries()) {
+            double minDistance = MBR.findMinDistanceBetweenMBRs(entry.getMBR(), groupMBR);
+            if (minDistance < maxRadius)
+                added.add(new QueuedEntry(minDistance, node, entry));
+        }
+        added.sort(Comparator.comparingDouble(e -> e.minDistance));
+        queue.addAll(added);
+
+        ArrayList<Entry> prefetched = new ArrayList<>(added.size());
+        for (QueuedEntry queued : added)
+            prefetched.add(queued.entry);
+        tree.prefetchChildren(node, prefetched, false);
+    }
+
+
+    /**
+     * {@code squaredMinDistance} helper method that returns the squared minimum distance of a point from an {@link MBR}.
+     *
+     * @param mbr The {@link MBR}
+     * @param point The coordinates of the point
+     * @return The squared minimum distance
+     */
+
+
+    private static double squaredMinDistance(MBR mbr, double[] point) {
+        double distance = 0;
+        for (int d = 0; d < point.length; d++) {
+            Bounds bounds = mbr.getBounds().get(d);
+            double gap = Math.max(bounds.getLower() - point[d], point[d] - bounds.getUpper());
+            if (gap > 0)
+                distance += gap * gap;
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * {@code BatchNearestNeighboursQuery} class runs many {@code k}-nearest neighbours queries over an {@link RStarTree},
+ * sharing the node and data block reads of search points that are close to each other.
+ * <p>
+ * The search points are sorted in Sort-Tile-Recursive order, by their first coordinate in slices and by their second
+ * coordinate within a slice, and cut into groups of {@code GROUP_SIZE} neighbouring points. Every group runs one
+ * best-first traversal, like {@link NearestNeighboursQuery}, whose queue is keyed by the smallest
+ * {@link MBR#findMinDistanceFromPoint} of an entry from the points of the group that may still need it. Every point
+ * keeps its own max-heap of the {@code k} nearest rows found so far and its own pruning radius, so an entry is visited
+ * once for the group and only compared with the points whose radius it is within, and the traversal of a group stops
+ * when no point can find nearer records. The results of every query have the same distances as the ones of
+ * {@link NearestNeighboursQuery#getNearestNeighbours}.
+ */
+
+
+class BatchNearestNeighboursQuery {
+    /** The number of neighbouring search points that share one traversal */
+    static final int GROUP_SIZE = 16;
+
+
+    /**
+     * A row of a {@link DataPage} and its distance from a search point, decoded into a {@link Record} only if it is one
+     * of the nearest.
+     */
+
+
+    private static final class Candidate {
+        final double distance;
+        final DataPage page;
+        final int row;
+
+        Candidate(double distance, DataPage page, int row) {
+            this.distance = distance;
+            this.page = page;
+            this.row = row;
+        }
+    }
+
+
+    /**
+     * An {@link Entry} of a visited {@link Node} in the queue of a group, with the smallest distance of its {@link MBR}
+     * from the points of the group that were still searching when it was added.
+     */
+
+
+    private static final class QueuedEntry {
+        final double minDistance;
+        final Node node;
+        final Entry entry;
+
+        QueuedEntry(double minDistance, Node node, Entry entry) {
+            this.minDistance = minDistance;
+            this.node = node;
+            this.entry = entry;
+        }
+    }
+
+
+    /**
+     * Executes a batch of {@code k}-nearest neighbours queries starting from the given {@code node}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param searchPoints The search points of the queries.
+     * @param k The number of nearest neighbours of every query.
+     * @return The nearest records of every query, nearest first, in the order of {@code searchPoints}.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static List<ArrayList<Record>> batchNearestNeighbours(RStarTree tree, Node node, List<ArrayList<Double>> searchPoints,
+                                                          int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("Parameter 'k' for the nearest neighbours must be a positive integer.");
+        ArrayList<ArrayList<Record>> results = new ArrayList<>(searchPoints.size());
+        for (int q = 0; q < searchPoints.size(); q++)
+            results.add(new ArrayList<>());
+        if (k == 0)
+            return results;
+
+        for (int[] group : groupSearchPoints(searchPoints))
+            nearestNeighbours(tree, node, searchPoints, group, k, results);
+        return results;
+    }
+
+
+    /**
+     * {@code groupSearchPoints} helper method that cuts the search points into groups of neighbouring points, sorting
+     * them in Sort-Tile-Recursive order.
+     *
+     * @param searchPoints The search points.
+     * @return The indices of the search points of every group.
+     */
+
+
+    private static List<int[]> groupSearchPoints(List<ArrayList<Double>> searchPoints) {
+        ArrayList<Integer> order = new ArrayList<>(searchPoints.size());
+        for (int q = 0; q < searchPoints.size(); q++)
+            order.add(q);
+        order.sort(Comparator.comparingDouble(q -> searchPoints.get(q).getFirst()));
+
+        int groups = (searchPoints.size() + GROUP_SIZE - 1) / GROUP_SIZE;
+        int sliceCount = Math.max(1, (int) Math.ceil(Math.sqrt(groups)));
+        int sliceSize = (int) Math.ceil((double) groups / sliceCount) * GROUP_SIZE;
+
+        ArrayList<int[]> grouped = new ArrayList<>(groups);
+        for (int i = 0; i < order.size(); i += sliceSize) {
+            List<Integer> slice = order.subList(i, Math.min(i + sliceSize, order.size()));
+            if (searchPoints.get(slice.getFirst()).size() > 1)
+                slice.sort(Comparator.comparingDouble(q -> searchPoints.get(q).get(1)));
+            for (int j = 0; j < slice.size(); j += GROUP_SIZE) {
+                List<Integer> group = slice.subList(j, Math.min(j + GROUP_SIZE, slice.size()));
+                grouped.add(group.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        return grouped;
+    }
+
+
+    /**
+     * {@code nearestNeighbours} helper method that runs the queries of one group with one best-first traversal.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from.
+     * @param searchPoints The search points of every query.
+     * @param group The queries of the group.
+     * @param k The number of nearest neighbours of every query.
+     * @param results Receives the nearest records of the queries of the group.
+     */
+
+
+    private static void nearestNeighbours(RStarTree tree, Node node, List<ArrayList<Double>> searchPoints, int[] group,
+                                          int k, List<ArrayList<Record>> results) {
+        double[][] coordinates = new double[group.length][];
+        ArrayList<PriorityQueue<Candidate>> nearest = new ArrayList<>(group.length);
+        double[] radius = new double[group.length];
+        for (int g = 0; g < group.length; g++) {
+            coordinates[g] = searchPoints.get(group[g]).stream().mapToDouble(Double::doubleValue).toArray();
+            nearest.add(new PriorityQueue<>(k, (a, b) -> Double.compare(b.distance, a.distance)));
+            radius[g] = Double.MAX_VALUE;
+        }
+
+        PriorityQueue<QueuedEntry> queue = new PriorityQueue<>(Comparator.comparingDouble(e -> e.minDistance));
+        addEntries(tree, node, searchPoints, group, radius, queue);
+
+        double[] squaredDistances = new double[0];
+        while (!queue.isEmpty()) {
+            QueuedEntry queued = queue.poll();
+            if (queued.minDistance >= maxRadius(radius))
+                break; // no query of the group can find a nearer record
+
+            if (queued.node.getNodeLevelInTree() != RStarTree.getLeafLevel()) {
+                if (!isWithinSomeRadius(queued.entry, searchPoints, group, radius))
+                    continue; // the radii shrank after the entry was queued
+                for (Node childNode : tree.readChildNodes(queued.entry))
+                    addEntries(tree, childNode, searchPoints, group, radius, queue);
+                continue;
+            }
+
+            DataPage page = null;
+            for (int g = 0; g < group.length; g++) {
+                if (queued.entry.getMBR().findMinDistanceFromPoint(searchPoints.get(group[g])) >= radius[g])
+                    continue;
+                if (page == null) {
+                    page = tree.readDataPage(((LeafEntry) queued.entry).getDataBlockId());
+                    if (page == null)
+                        break;
+                    if (squaredDistances.length < page.size())
+                        squaredDistances = new double[page.size()];
+                }
+                page.squaredDistances(coordinates[g], squaredDistances);
+                PriorityQueue<Candidate> candidates = nearest.get(g);
+                for (int row = 0; row < page.size(); row++) {
+                    double distance = Math.sqrt(squaredDistances[row]);
+                    if (candidates.size() < k) {
+                        candidates.add(new Candidate(distance, page, row));
+                    } else if (distance < candidates.peek().distance) {
+                        candidates.poll();
+                        candidates.add(new Candidate(distance, page, row));
+                    }
+                }
+                if (candidates.size() == k)
+                    radius[g] = candidates.peek().distance;
+            }
+        }
+
+        for (int g = 0; g < group.length; g++) {
+            ArrayList<Record> records = results.get(group[g]);
+            PriorityQueue<Candidate> candidates = nearest.get(g);
+            while (!candidates.isEmpty()) {
+                Candidate candidate = candidates.poll();
+                records.add(candidate.page.getRecord(candidate.row));
+            }
+            Collections.reverse(records); // In order to return closest neighbours first instead of farthest
+        }
+    }
+
+
+    /**
+     * {@code addEntries} helper method that queues the entries of a {@link Node} that are within the pruning radius of
+     * some query of the group, by their smallest distance from those queries, and prefetches their blocks in that order.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The visited node.
+     * @param searchPoints The search points of every query.
+     * @param group The queries of the group.
+     * @param radius The pruning radius of every query of the group.
+     * @param queue The queue of the group.
+     */
+
+
+    private static void addEntries(RStarTree tree, Node node, List<ArrayList<Double>> searchPoints, int[] group,
+                                   double[] radius, PriorityQueue<QueuedEntry> queue) {
+        ArrayList<QueuedEntry> added = new ArrayList<>();
+        for (Entry entry : node.getEntries()) {
+            double minDistance = Double.MAX_VALUE;
+            for (int g = 0; g < group.length; g++) {
+                double distance = entry.getMBR().findMinDistanceFromPoint(searchPoints.get(group[g]));
+                if (distance < radius[g])
+                    minDistance = Math.min(minDistance, distance);
+            }
+            if (minDistance < Double.MAX_VALUE)
+                added.add(new QueuedEntry(minDistance, node, entry));
+        }
+        added.sort(Comparator.comparingDouble(e -> e.minDistance));
+        queue.addAll(added);
+
+        ArrayList<Entry> prefetched = new ArrayList<>(added.size());
+        for (QueuedEntry queued : added)
+            prefetched.add(queued.entry);
+        tree.prefetchChildren(node, prefetched, false);
+    }
+
+
+    /**
+     * {@code isWithinSomeRadius} helper method that checks if some query of the group may still find a nearer record in
+     * the subtree of an {@link Entry}.
+     *
+     * @param entry The entry.
+     * @param searchPoints The search points of every query.
+     * @param group The queries of the group.
+     * @param radius The pruning radius of every query of the group.
+     * @return {@code true} if the {@link MBR} of the entry is within the radius of some query, else {@code false}
+     */
+
+
+    private static boolean isWithinSomeRadius(Entry entry, List<ArrayList<Double>> searchPoints, int[] group,
+                                              double[] radius) {
+        for (int g = 0; g < group.length; g++) {
+            if (entry.getMBR().findMinDistanceFromPoint(searchPoints.get(group[g])) < radius[g])
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * {@code maxRadius} helper method that finds the largest pruning radius of a group, beyond which no query of the
+     * group needs an entry.
+     *
+     * @param radius The pruning radius of every query of the group.
+     * @return The largest radius.
+     */
+
+
+    private static double maxRadius(double[] radius) {
+        double max = 0;
+        for (double r : radius)
+            max = Math.max(max, r);
+        return max;
+    }
+}
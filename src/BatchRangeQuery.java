@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * {@code BatchRangeQuery} class runs many range queries over an {@link RStarTree} with one shared traversal.
+ * <p>
+ * The tree is traversed once, carrying down every {@link Entry} the subset of the queries whose {@link MBR} overlaps it,
+ * so every node is read once per batch however many queries visit it, and every data block is read once and filtered
+ * over its coordinate columns for each query that reaches it. The results of every query are the same, and in the same
+ * order, as the ones of {@link RangeQuery#rangeQuery(RStarTree, Node, MBR, QueryResults.Projection)}.
+ */
+
+
+class BatchRangeQuery {
+
+
+    /**
+     * Executes a batch of range queries starting from the given {@code node}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param queryMBRs The {@link MBR}s of the queries.
+     * @param projection The columns of the results.
+     * @return The {@link QueryResults} of every query, in the order of {@code queryMBRs}.
+     */
+
+
+    static List<QueryResults> batchRangeQuery(RStarTree tree, Node node, List<MBR> queryMBRs,
+                                              QueryResults.Projection projection) {
+        int queries = queryMBRs.size();
+        double[][] lower = new double[queries][];
+        double[][] upper = new double[queries][];
+        ArrayList<QueryResults> results = new ArrayList<>(queries);
+        int[] activeQueries = new int[queries];
+        for (int q = 0; q < queries; q++) {
+            lower[q] = queryMBRs.get(q).getLowerCorner();
+            upper[q] = queryMBRs.get(q).getUpperCorner();
+            results.add(new QueryResults(projection, lower[q].length));
+            activeQueries[q] = q;
+        }
+        if (queries > 0)
+            batchRangeQuery(tree, node, queryMBRs, lower, upper, activeQueries, results);
+        return results;
+    }
+
+
+    /**
+     * Executes a batch of range queries starting from the given {@code node}, returning the {@link Record}s of every
+     * query.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param queryMBRs The {@link MBR}s of the queries.
+     * @return The records in range of every query, in the order of {@code queryMBRs}.
+     */
+
+
+    static List<ArrayList<Record>> batchRangeQuery(RStarTree tree, Node node, List<MBR> queryMBRs) {
+        ArrayList<ArrayList<Record>> records = new ArrayList<>(queryMBRs.size());
+        for (QueryResults results : batchRangeQuery(tree, node, queryMBRs, QueryResults.Projection.RECORDS))
+            records.add(results.getRecords());
+        return records;
+    }
+
+
+    /**
+     * Recursive helper of {@link #batchRangeQuery(RStarTree, Node, List, QueryResults.Projection)}. Finds the active
+     * queries that overlap every entry of the node, prefetches the blocks of the entries that some query overlaps, and
+     * visits each of them once with its own subset of the queries.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The current {@link Node} to explore.
+     * @param queryMBRs The {@link MBR}s of every query.
+     * @param lower The lower bounds of every query.
+     * @param upper The upper bounds of every query.
+     * @param activeQueries The queries that overlap the node.
+     * @param results The results of every query.
+     */
+
+
+    private static void batchRangeQuery(RStarTree tree, Node node, List<MBR> queryMBRs, double[][] lower, double[][] upper,
+                                        int[] activeQueries, List<QueryResults> results) {
+        ArrayList<Entry> entries = node.getEntries();
+        ArrayList<Entry> overlapping = new ArrayList<>(entries.size());
+        ArrayList<int[]> entryQueries = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            MBR entryMBR = entry.getMBR();
+            int[] queries = new int[activeQueries.length];
+            int count = 0;
+            for (int q : activeQueries) {
+                if (MBR.checkOverlap(entryMBR, queryMBRs.get(q)))
+                    queries[count++] = q;
+            }
+            if (count > 0) {
+                overlapping.add(entry);
+                entryQueries.add(count == queries.length ? queries : Arrays.copyOf(queries, count));
+            }
+        }
+        tree.prefetchChildren(node, overlapping, true);
+
+        boolean leaf = node.getNodeLevelInTree() == RStarTree.getLeafLevel();
+        int[] selection = null;
+        for (int e = 0; e < overlapping.size(); e++) {
+            Entry entry = overlapping.get(e);
+            int[] queries = entryQueries.get(e);
+            if (leaf) {
+                DataPage page = tree.readDataPage(((LeafEntry) entry).getDataBlockId());
+                if (page == null)
+                    continue;
+                if (selection == null || selection.length < page.size())
+                    selection = new int[page.size()];
+                for (int q : queries) {
+                    int selected = page.selectInRange(lower[q], upper[q], selection);
+                    results.get(q).addRows(page, selection, selected);
+                }
+            } else {
+                for (Node childNode : tree.readChildNodes(entry))
+                    batchRangeQuery(tree, childNode, queryMBRs, lower, upper, queries, results);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *
+ *
+ * Class {@link BlockPrefetcher} is the small pool of background I/O threads of a {@link SpatialStore} that loads blocks
+ * into its {@link BufferPool}s before the queries ask for them.
+ * <p>
+ * When a traversal knows which children of a node it will visit, it hands their block ids to
+ * {@link SpatialStore#prefetchIndexBlocks} or {@link SpatialStore#prefetchDataBlocks} in the order it will read them, and
+ * the blocks are read and decoded while the query works on the blocks it already has. Runs of near blocks are read with
+ * one coalesced read, see {@link SpatialStore#loadDataBlocks(long[])}. The blocks are registered in the pool while they
+ * are read, so a query that asks for such a block while it is prefetched waits for that load instead of reading it again.
+ * <p>
+ * Prefetches are only hints: they are started in the order they are requested, and when more than
+ * {@code MAX_PENDING_PREFETCHES} are waiting, new ones are dropped and the query reads the block itself. Prefetching is
+ * off unless it is turned on with {@link SpatialStore#setPrefetching}.
+ *
+ *
+ */
+
+
+class BlockPrefetcher {
+    /** Default number of I/O threads */
+    static final int DEFAULT_PREFETCH_THREADS = 4;
+
+    /** The most prefetches that wait for a thread, the ones requested after are dropped */
+    private static final int MAX_PENDING_PREFETCHES = 256;
+
+    /** The name prefix of the I/O threads */
+    private final String name;
+
+    /** The number of I/O threads */
+    private final int threads;
+
+    /** The I/O threads, {@code null} until the first prefetch and after {@link #stop} */
+    private ThreadPoolExecutor executor;
+
+    /** Total prefetches that were started */
+    private final LongAdder issued = new LongAdder();
+
+    /** Total prefetches that were dropped because too many were waiting */
+    private final LongAdder dropped = new LongAdder();
+
+
+    /**
+     * {@link BlockPrefetcher} constructor. The threads are not started until the first {@link #prefetch}.
+     *
+     * @param name The name prefix of the I/O threads
+     * @param threads The number of I/O threads
+     */
+
+
+    BlockPrefetcher(String name, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Prefetch threads must be a positive integer.");
+        this.name = name;
+        this.threads = threads;
+    }
+
+
+    /**
+     * {@code prefetch} method queues the load of a block, dropping it if too many loads are already waiting.
+     *
+     * @param load Loads the block into its {@link BufferPool}
+     */
+
+
+    void prefetch(Runnable load) {
+        if (start().getQueue().offer(load))
+            issued.increment();
+        else
+            dropped.increment();
+    }
+
+
+    /**
+     * {@code start} helper method that starts the I/O threads, if they are not running already.
+     *
+     * @return The running executor
+     */
+
+
+    private synchronized ThreadPoolExecutor start() {
+        if (executor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING_PREFETCHES), runnable -> {
+                        Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.prestartAllCoreThreads();
+        }
+        return executor;
+    }
+
+
+    /**
+     * {@code stop} method drops the waiting prefetches, waits for the running ones to finish and stops the I/O threads.
+     * A later {@link #prefetch} starts them again.
+     */
+
+
+    void stop() {
+        ThreadPoolExecutor running;
+        synchronized (this) {
+            running = executor;
+            executor = null;
+        }
+        if (running == null)
+            return;
+        // The running loads are not interrupted, since a query may be waiting for them
+        running.getQueue().clear();
+        running.shutdown();
+        try {
+            running.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Getter for the number of prefetches that were started
+     *
+     * @return The issued prefetches
+     */
+
+
+    long getIssued() {
+        return issued.sum();
+    }
+
+
+    /**
+     * Getter for the number of prefetches that were dropped because too many were waiting
+     *
+     * @return The dropped prefetches
+     */
+
+
+    long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -69,7 +69,7 @@ class Bounds implements Serializable {
 
     static ArrayList<Bounds> findMinimumBounds(ArrayList<Entry> entries) {
         ArrayList<Bounds> minimumBounds = new ArrayList<>();
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < entries.get(0).getMBR().getBounds().size(); d++)
         {
             Entry lowerEntry = Collections.min(entries, new EntryComparator.EntryBoundByAxisComparator(entries,d,false));
             Entry upperEntry = Collections.max(entries, new EntryComparator.EntryBoundByAxisComparator(entries,d,true));
@@ -91,7 +91,7 @@ class Bounds implements Serializable {
     static ArrayList<Bounds> findMinimumBounds(MBR MBRA, MBR MBRB) {
         ArrayList<Bounds> minimumBounds = new ArrayList<>();
         // For each dimension finds the minimum interval needed for the entries to fit
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < MBRA.getBounds().size(); d++)
         {
             double lower = Math.min(MBRA.getBounds().get(d).getLower(), MBRB.getBounds().get(d).getLower());
             double upper = Math.max(MBRA.getBounds().get(d).getUpper(), MBRB.getBounds().get(d).getUpper());
@@ -110,7 +110,7 @@ class Bounds implements Serializable {
 
 
     public static ArrayList<Bounds> findMinimumBoundsFromRecords(ArrayList<Record> records) {
-        int dimensions = FilesHandler.getDataDimensions();
+        int dimensions = records.get(0).getCoordinates().size();
         double[] min = new double[dimensions];
         double[] max = new double[dimensions];
         Arrays.fill(min, Double.POSITIVE_INFINITY);
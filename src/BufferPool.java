@@ -0,0 +1,304 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+
+/**
+ *
+ *
+ * Class {@link BufferPool} is a bounded, thread-safe cache of deserialized file blocks, shared by every query that runs
+ * in the JVM. <p></p>
+ * Blocks are kept by their {@code blockId}. When a block is missing it is loaded exactly once through the given loader,
+ * even if many threads ask for it at the same time. The load runs outside of the map, behind a {@link FutureTask} that
+ * the other threads wait for, so a slow read never holds up requests for other blocks. When the pool is full, the
+ * oldest loaded block is evicted (FIFO), which is cheap and works well for the root-to-leaf access pattern of the
+ * {@link RStarTree}.
+ * <p>
+ * Cached values are shared between threads, so callers must treat them as read-only.
+ *
+ * @param <T> The type of the deserialized block
+ *
+ *
+ */
+
+
+class BufferPool<T> {
+    /** The maximum number of blocks that are kept in the pool */
+    private final int capacity;
+
+    /** The cached blocks by their block id */
+    private final Map<Long, T> blocks = new ConcurrentHashMap<>();
+
+    /** The loads in progress by block id, which concurrent requests for the same block wait for */
+    private final Map<Long, FutureTask<T>> loads = new ConcurrentHashMap<>();
+
+    /** The order in which the blocks were loaded, used for eviction */
+    private final ConcurrentLinkedQueue<Long> loadOrder = new ConcurrentLinkedQueue<>();
+
+    /** Total requests that were served from the pool */
+    private final LongAdder hits = new LongAdder();
+
+    /** Total requests that had to be loaded from the file */
+    private final LongAdder misses = new LongAdder();
+
+
+    /**
+     * {@link BufferPool} constructor with the maximum amount of blocks that can be kept in memory
+     *
+     * @param capacity The maximum amount of blocks in the pool
+     */
+
+
+    BufferPool(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Buffer pool capacity must be a positive integer.");
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * {@code get} method returns the cached block, or loads it with the {@code loader} if it is not in the pool.
+     * Concurrent requests for the same missing block wait for a single load.
+     *
+     * @param blockId The block id
+     * @param loader The function that reads the block from the file. May return {@code null} on failure, which is not cached.
+     * @return The block, or {@code null} if it could not be loaded
+     */
+
+
+    T get(long blockId, LongFunction<T> loader) {
+        T block = blocks.get(blockId);
+        if (block != null) {
+            hits.increment();
+            return block;
+        }
+
+        boolean[] loaded = new boolean[1];
+        FutureTask<T> load = new FutureTask<>(() -> {
+            T cached = blocks.get(blockId);
+            if (cached != null)
+                return cached;
+            loaded[0] = true;
+            return loader.apply(blockId);
+        });
+        FutureTask<T> running = loads.putIfAbsent(blockId, load);
+        if (running != null) {
+            hits.increment();
+            return await(blockId, running);
+        }
+
+        boolean current = false;
+        try {
+            load.run();
+            block = await(blockId, load);
+        } finally {
+            current = loads.remove(blockId, load);
+        }
+
+        if (!loaded[0]) {
+            hits.increment();
+            return block;
+        }
+        misses.increment();
+        // A block invalidated during the load is not cached, since the load may have read the replaced version
+        if (block != null && current) {
+            T newer = blocks.putIfAbsent(blockId, block);
+            if (newer != null)
+                return newer;
+            loadOrder.add(blockId);
+            evictIfFull();
+        }
+        return block;
+    }
+
+
+    /**
+     * {@code contains} method checks whether a block is in the pool, without counting a hit or a miss.
+     *
+     * @param blockId The block id
+     * @return {@code true} if the block is cached, else {@code false}
+     */
+
+
+    boolean contains(long blockId) {
+        return blocks.containsKey(blockId);
+    }
+
+
+    /**
+     * {@code put} method replaces the cached block with a newer version, e.g. after the block was written in the file.
+     *
+     * @param blockId The block id
+     * @param block The new block
+     */
+
+
+    void put(long blockId, T block) {
+        if (blocks.put(blockId, block) == null) {
+            loadOrder.add(blockId);
+            evictIfFull();
+        }
+    }
+
+
+    /**
+     * {@code loadAll} method loads the given blocks that are missing from the pool with a single call of the
+     * {@code batchLoader}, e.g. a coalesced read. The blocks are registered as loads in progress first, so concurrent
+     * {@link #get} requests for them wait for the batch instead of reading them again. Blocks that another thread is
+     * already loading are left to that load. Every loaded block counts as a miss.
+     *
+     * @param blockIds The block ids, sorted and without repeats
+     * @param batchLoader The function that reads the blocks of the given ids from the file, in the same order. May return
+     *                    {@code null} on failure, in which case nothing is cached.
+     */
+
+
+    void loadAll(long[] blockIds, Function<long[], List<T>> batchLoader) {
+        Map<Long, FutureTask<T>> claimed = new LinkedHashMap<>();
+        Map<Long, T> batch = new HashMap<>();
+        RuntimeException[] failure = new RuntimeException[1];
+        for (long blockId : blockIds) {
+            if (blocks.containsKey(blockId))
+                continue;
+            FutureTask<T> load = new FutureTask<>(() -> {
+                if (failure[0] != null)
+                    throw failure[0];
+                return batch.get(blockId);
+            });
+            if (loads.putIfAbsent(blockId, load) == null)
+                claimed.put(blockId, load);
+        }
+        if (claimed.isEmpty())
+            return;
+
+        try {
+            List<T> loaded = batchLoader.apply(claimed.keySet().stream().mapToLong(Long::longValue).toArray());
+            if (loaded != null) {
+                Iterator<Long> ids = claimed.keySet().iterator();
+                for (T block : loaded)
+                    batch.put(ids.next(), block);
+            }
+        } catch (RuntimeException e) {
+            failure[0] = e;
+        }
+
+        for (Map.Entry<Long, FutureTask<T>> entry : claimed.entrySet()) {
+            long blockId = entry.getKey();
+            FutureTask<T> load = entry.getValue();
+            load.run();
+            boolean current = loads.remove(blockId, load);
+            T block = batch.get(blockId);
+            if (block == null)
+                continue;
+            misses.increment();
+            // A block invalidated during the load is not cached, since the load may have read the replaced version
+            if (current && blocks.putIfAbsent(blockId, block) == null) {
+                loadOrder.add(blockId);
+                evictIfFull();
+            }
+        }
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+
+    /**
+     * {@code invalidate} method removes a block from the pool, so that the next request reads it again from the file.
+     * Its id leaves the eviction order too, so the copy loaded next is not evicted as if it were the old one.
+     *
+     * @param blockId The block id
+     */
+
+
+    void invalidate(long blockId) {
+        loads.remove(blockId);
+        if (blocks.remove(blockId) != null)
+            loadOrder.remove(blockId);
+    }
+
+
+    /**
+     * {@code clear} method empties the pool, used when the underlying file is recreated
+     */
+
+
+    void clear() {
+        loads.clear();
+        blocks.clear();
+        loadOrder.clear();
+    }
+
+
+    /**
+     * Getter for the number of requests served from the pool
+     *
+     * @return The pool hits
+     */
+
+
+    long getHits() {
+        return hits.sum();
+    }
+
+
+    /**
+     * Getter for the number of requests that were loaded from the file
+     *
+     * @return The pool misses
+     */
+
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+
+    /**
+     * {@code evictIfFull} helper method that evicts the oldest loaded blocks until the pool fits in its capacity.
+     */
+
+
+    private void evictIfFull() {
+        while (blocks.size() > capacity) {
+            Long oldest = loadOrder.poll();
+            if (oldest == null)
+                return;
+            blocks.remove(oldest);
+        }
+    }
+
+
+    /**
+     * {@code await} helper method that waits for a load of {@link #get} and returns its block. The loader's unchecked
+     * exceptions are thrown as they are, so every thread waiting for a failed load sees the same failure.
+     *
+     * @param blockId The block id
+     * @param load The load of the block
+     * @return The loaded block, or {@code null} if it could not be loaded
+     */
+
+
+    private T await(long blockId, FutureTask<T> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for block " + blockId + " to load", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException("Could not load block " + blockId, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,497 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+
+/**
+ * {@code ClosestPairsQuery} class finds the pairs of a record of a left and a record of a right {@link RStarTree} in
+ * ascending distance, incrementally, without joining the whole datasets.
+ * <p>
+ * It implements the incremental distance join of Hjaltason and Samet, with the pruning of the k closest pairs query of
+ * Corral et al.: one priority queue holds pairs of entries, keyed by the minimum distance of their {@link MBR}s, and the
+ * rows of the visited data blocks, keyed by their distance. The head of the queue is expanded until it is a pair of rows,
+ * which is then closer than every pair still in unvisited subtrees. A pair of entries at the same level is replaced by
+ * the pairs of the entries of their child nodes, a pair at different levels by the pairs of the higher entry's children
+ * with the other entry, and a pair of leaf entries by every left row paired with the right data block, keyed by the
+ * minimum distance of the row from the block's {@link MBR}. Only when such a row reaches the head are its distances from
+ * the right rows computed, and it is queued again with a heap of them, which orders only the rows that are taken, so the
+ * queue holds one element per row instead of one per pair of rows.
+ * <p>
+ * When only the {@code k} closest pairs are needed, the {@code k} smallest distances of the pairs of rows found so far
+ * bound the search: pairs at least as far as the {@code k}-th of them are never queued, and queued pairs of entries or
+ * rows that became as far are dropped unexpanded. Without {@code k}, a consumer that stops early only pays for the pairs
+ * it took.
+ * <p>
+ * When both trees are the same object, the query is a self-join: every unordered pair of different records is returned
+ * once. A {@link ClosestPairsQuery} is not thread-safe.
+ */
+
+
+class ClosestPairsQuery implements Iterator<RecordPair> {
+    /** The left tree */
+    private final RStarTree left;
+
+    /** The right tree */
+    private final RStarTree right;
+
+    /** If the query is a self-join */
+    private final boolean selfJoin;
+
+    /** The number of pairs to return, {@code Integer.MAX_VALUE} for an incremental query */
+    private final int k;
+
+    /** The number of pairs returned */
+    private int returned;
+
+    /** The pairs of entries and rows still to visit, closest first, and pairs of rows before the others at a tie */
+    private final PriorityQueue<PairElement> queue = new PriorityQueue<>(
+            Comparator.comparingDouble((PairElement element) -> element.distance)
+                    .thenComparingInt(element -> element.rightRows != null ? 0 : element.leftPage != null ? 1 : 2));
+
+    /** The {@code k} smallest distances of the pairs of rows found so far, the largest first */
+    private final PriorityQueue<Double> bestDistances = new PriorityQueue<>(Comparator.reverseOrder());
+
+    /** The number of nodes and data blocks read */
+    private long nodeAccesses;
+
+    /** The number of distances of pairs of rows computed */
+    private long distanceComputations;
+
+
+    /**
+     * An element of the queue: a pair of entries, with the {@link Node}s that keep them, a left row with a right data
+     * block, or a left row with the rows of a right data block it may still be paired with, at the closest of them.
+     */
+
+
+    private static final class PairElement {
+        final double distance;
+        final Node leftNode;
+        final Entry leftEntry;
+        final Node rightNode;
+        final Entry rightEntry;
+        final DataPage leftPage;
+        final int leftRow;
+        final DataPage rightPage;
+        final boolean sameBlock;
+        final RowHeap rightRows;
+
+        PairElement(double distance, Node leftNode, Entry leftEntry, Node rightNode, Entry rightEntry) {
+            this(distance, leftNode, leftEntry, rightNode, rightEntry, null, -1, null, false, null);
+        }
+
+        PairElement(double distance, DataPage leftPage, int leftRow, DataPage rightPage, boolean sameBlock) {
+            this(distance, null, null, null, null, leftPage, leftRow, rightPage, sameBlock, null);
+        }
+
+        PairElement(DataPage leftPage, int leftRow, DataPage rightPage, RowHeap rightRows) {
+            this(rightRows.peekDistance(), null, null, null, null, leftPage, leftRow, rightPage, false, rightRows);
+        }
+
+        private PairElement(double distance, Node leftNode, Entry leftEntry, Node rightNode, Entry rightEntry,
+                            DataPage leftPage, int leftRow, DataPage rightPage, boolean sameBlock, RowHeap rightRows) {
+            this.distance = distance;
+            this.leftNode = leftNode;
+            this.leftEntry = leftEntry;
+            this.rightNode = rightNode;
+            this.rightEntry = rightEntry;
+            this.leftPage = leftPage;
+            this.leftRow = leftRow;
+            this.rightPage = rightPage;
+            this.sameBlock = sameBlock;
+            this.rightRows = rightRows;
+        }
+    }
+
+
+    /**
+     * The rows of a right data block that a left row may still be paired with, in a binary min-heap of their distances
+     * from the left row, so that only the rows that are taken get ordered.
+     */
+
+
+    private static final class RowHeap {
+        /** The heap of the rows */
+        private final int[] rows;
+
+        /** The distances of the rows from the left row, by row */
+        private final double[] distances;
+
+        /** The number of rows in the heap */
+        private int size;
+
+        RowHeap(int[] rows, int size, double[] distances) {
+            this.rows = rows;
+            this.size = size;
+            this.distances = distances;
+            for (int i = size / 2 - 1; i >= 0; i--)
+                siftDown(i);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int peekRow() {
+            return rows[0];
+        }
+
+        double peekDistance() {
+            return distances[rows[0]];
+        }
+
+        void pop() {
+            rows[0] = rows[--size];
+            siftDown(0);
+        }
+
+        private void siftDown(int index) {
+            int row = rows[index];
+            double distance = distances[row];
+            while (2 * index + 1 < size) {
+                int child = 2 * index + 1;
+                if (child + 1 < size && distances[rows[child + 1]] < distances[rows[child]])
+                    child++;
+                if (distances[rows[child]] >= distance)
+                    break;
+                rows[index] = rows[child];
+                index = child;
+            }
+            rows[index] = row;
+        }
+    }
+
+
+    /**
+     * {@link ClosestPairsQuery} constructor. Only the pairs of the entries of the roots are queued until the first
+     * {@link #hasNext}.
+     *
+     * @param left The left {@link RStarTree}
+     * @param right The right {@link RStarTree}, the {@code left} one for a self-join
+     * @param k The number of pairs to return, {@code Integer.MAX_VALUE} for an incremental query
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    ClosestPairsQuery(RStarTree left, RStarTree right, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("Parameter 'k' for the closest pairs must be a positive integer.");
+        this.left = left;
+        this.right = right;
+        this.selfJoin = left == right;
+        this.k = k;
+        Node leftRoot = left.getRootNode();
+        Node rightRoot = selfJoin ? leftRoot : right.getRootNode();
+        nodeAccesses += selfJoin ? 1 : 2;
+        addEntryPairs(List.of(leftRoot), List.of(rightRoot), selfJoin);
+    }
+
+
+    /**
+     * Finds the {@code k} closest pairs of a record of the left and a record of the right tree.
+     *
+     * @param left The left {@link RStarTree}.
+     * @param right The right {@link RStarTree}, the {@code left} one for the closest pairs within one dataset.
+     * @param k The number of pairs.
+     * @return The pairs, closest first.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static ArrayList<RecordPair> closestPairs(RStarTree left, RStarTree right, int k) {
+        ArrayList<RecordPair> pairs = new ArrayList<>();
+        ClosestPairsQuery query = new ClosestPairsQuery(left, right, k);
+        while (query.hasNext())
+            pairs.add(query.next());
+        return pairs;
+    }
+
+
+    /**
+     * Browses the pairs of a record of the left and a record of the right tree by distance, without a fixed {@code k}.
+     *
+     * @param left The left {@link RStarTree}.
+     * @param right The right {@link RStarTree}, the {@code left} one for the pairs within one dataset.
+     * @return An {@link Iterator} over the pairs, closest first.
+     */
+
+
+    static Iterator<RecordPair> iterator(RStarTree left, RStarTree right) {
+        return new ClosestPairsQuery(left, right, Integer.MAX_VALUE);
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        if (returned >= k)
+            return false;
+        while (!queue.isEmpty() && queue.peek().rightRows == null) {
+            PairElement element = queue.poll();
+            if (isPruned(element.distance))
+                continue;
+            if (element.leftPage != null)
+                addRowCursor(element.leftPage, element.leftRow, element.rightPage, element.sameBlock);
+            else
+                expand(element);
+        }
+        return !queue.isEmpty();
+    }
+
+
+    @Override
+    public RecordPair next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        PairElement element = queue.poll();
+        RowHeap rightRows = element.rightRows;
+        int rightRow = rightRows.peekRow();
+        rightRows.pop();
+        if (!rightRows.isEmpty())
+            queue.add(new PairElement(element.leftPage, element.leftRow, element.rightPage, rightRows));
+        returned++;
+        return new RecordPair(element.leftPage.getRecord(element.leftRow), element.rightPage.getRecord(rightRow),
+                element.distance);
+    }
+
+
+    /**
+     * Getter for the number of nodes and data blocks read so far
+     *
+     * @return The node accesses
+     */
+
+
+    long getNodeAccesses() {
+        return nodeAccesses;
+    }
+
+
+    /**
+     * Getter for the number of distances of pairs of records computed so far
+     *
+     * @return The distance computations
+     */
+
+
+    long getDistanceComputations() {
+        return distanceComputations;
+    }
+
+
+    /**
+     * {@code isPruned} helper method that checks if the pairs not found yet at a distance can no longer be among the
+     * {@code k} closest, because {@code k} pairs at most as far have been found already.
+     *
+     * @param distance The distance
+     * @return {@code true} if the pairs at the distance are not needed, {@code false} otherwise
+     */
+
+
+    private boolean isPruned(double distance) {
+        return bestDistances.size() >= k && distance >= bestDistances.peek();
+    }
+
+
+    /**
+     * {@code expand} helper method that replaces a pair of entries of the queue with the pairs one level down.
+     *
+     * @param element The pair of entries
+     */
+
+
+    private void expand(PairElement element) {
+        int leftLevel = element.leftNode.getNodeLevelInTree();
+        int rightLevel = element.rightNode.getNodeLevelInTree();
+        if (leftLevel == RStarTree.getLeafLevel() && rightLevel == RStarTree.getLeafLevel()) {
+            addRowPairs((LeafEntry) element.leftEntry, (LeafEntry) element.rightEntry, element.distance);
+        } else if (leftLevel > rightLevel) {
+            addEntryPairs(readChildNodes(left, element.leftEntry), List.of(element.rightNode), element.rightEntry);
+        } else if (rightLevel > leftLevel) {
+            addEntryPairs(List.of(element.leftNode), element.leftEntry, readChildNodes(right, element.rightEntry));
+        } else {
+            boolean sameEntry = selfJoin && element.leftEntry == element.rightEntry;
+            List<Node> leftChildren = readChildNodes(left, element.leftEntry);
+            addEntryPairs(leftChildren, sameEntry ? leftChildren : readChildNodes(right, element.rightEntry), sameEntry);
+        }
+    }
+
+
+    /**
+     * {@code readChildNodes} helper method that reads the child nodes of an {@link Entry} and counts them.
+     *
+     * @param tree The tree of the entry
+     * @param entry The entry
+     * @return The child node and its split siblings
+     */
+
+
+    private List<Node> readChildNodes(RStarTree tree, Entry entry) {
+        ArrayList<Node> childNodes = tree.readChildNodes(entry);
+        nodeAccesses += childNodes.size();
+        return childNodes;
+    }
+
+
+    /**
+     * {@code addEntryPairs} helper method that queues the pairs of the entries of left and right nodes that may still be
+     * among the {@code k} closest.
+     *
+     * @param leftNodes The left nodes
+     * @param rightNodes The right nodes
+     * @param sameNodes If the left and the right nodes are the same nodes of a self-join, in which case every unordered
+     *                  pair of entries is queued once, including the pairs of an entry with itself
+     */
+
+
+    private void addEntryPairs(List<Node> leftNodes, List<Node> rightNodes, boolean sameNodes) {
+        ArrayList<Node> rightEntryNodes = new ArrayList<>();
+        ArrayList<Entry> rightEntries = new ArrayList<>();
+        for (Node rightNode : rightNodes) {
+            for (Entry rightEntry : rightNode.getEntries()) {
+                rightEntryNodes.add(rightNode);
+                rightEntries.add(rightEntry);
+            }
+        }
+        int leftIndex = 0;
+        for (Node leftNode : leftNodes) {
+            for (Entry leftEntry : leftNode.getEntries()) {
+                for (int r = sameNodes ? leftIndex : 0; r < rightEntries.size(); r++)
+                    addEntryPair(leftNode, leftEntry, rightEntryNodes.get(r), rightEntries.get(r));
+                leftIndex++;
+            }
+        }
+    }
+
+
+    /**
+     * {@code addEntryPairs} helper method that queues the pairs of the entries of left nodes with a right {@link Entry}.
+     *
+     * @param leftNodes The left nodes
+     * @param rightNodes The node of the right entry
+     * @param rightEntry The right entry
+     */
+
+
+    private void addEntryPairs(List<Node> leftNodes, List<Node> rightNodes, Entry rightEntry) {
+        for (Node leftNode : leftNodes) {
+            for (Entry leftEntry : leftNode.getEntries())
+                addEntryPair(leftNode, leftEntry, rightNodes.getFirst(), rightEntry);
+        }
+    }
+
+
+    /**
+     * {@code addEntryPairs} helper method that queues the pairs of a left {@link Entry} with the entries of right nodes.
+     *
+     * @param leftNodes The node of the left entry
+     * @param leftEntry The left entry
+     * @param rightNodes The right nodes
+     */
+
+
+    private void addEntryPairs(List<Node> leftNodes, Entry leftEntry, List<Node> rightNodes) {
+        for (Node rightNode : rightNodes) {
+            for (Entry rightEntry : rightNode.getEntries())
+                addEntryPair(leftNodes.getFirst(), leftEntry, rightNode, rightEntry);
+        }
+    }
+
+
+    /**
+     * {@code addEntryPair} helper method that queues a pair of entries if it may still be among the {@code k} closest.
+     *
+     * @param leftNode The node of the left entry
+     * @param leftEntry The left entry
+     * @param rightNode The node of the right entry
+     * @param rightEntry The right entry
+     */
+
+
+    private void addEntryPair(Node leftNode, Entry leftEntry, Node rightNode, Entry rightEntry) {
+        double distance = MBR.findMinDistanceBetweenMBRs(leftEntry.getMBR(), rightEntry.getMBR());
+        if (!isPruned(distance))
+            queue.add(new PairElement(distance, leftNode, leftEntry, rightNode, rightEntry));
+    }
+
+
+    /**
+     * {@code addRowPairs} helper method that reads the data blocks of a pair of leaf entries and queues every left row
+     * with the right data block, if the row may still be in one of the {@code k} closest pairs. A row that is no farther
+     * from the right data block than the pair of leaf entries was from each other would be next in the queue, so its
+     * distances are computed at once instead. The data block of a leaf entry paired with itself in a self-join is read
+     * once.
+     *
+     * @param leftEntry The left leaf entry
+     * @param rightEntry The right leaf entry
+     * @param entriesDistance The minimum distance of the leaf entries, the smallest of the queue
+     */
+
+
+    private void addRowPairs(LeafEntry leftEntry, LeafEntry rightEntry, double entriesDistance) {
+        boolean sameBlock = selfJoin && leftEntry == rightEntry;
+        DataPage leftPage = left.readDataPage(leftEntry.getDataBlockId());
+        DataPage rightPage = sameBlock ? leftPage : right.readDataPage(rightEntry.getDataBlockId());
+        nodeAccesses += sameBlock ? 1 : 2;
+        if (leftPage == null || rightPage == null)
+            return;
+
+        ArrayList<Bounds> rightBounds = rightEntry.getMBR().getBounds();
+        for (int leftRow = 0; leftRow < leftPage.size(); leftRow++) {
+            double sum = 0;
+            for (int d = 0; d < rightBounds.size(); d++) {
+                double coordinate = leftPage.getColumn(d)[leftRow];
+                double difference = Math.max(0, Math.max(rightBounds.get(d).getLower() - coordinate,
+                        coordinate - rightBounds.get(d).getUpper()));
+                sum += difference * difference;
+            }
+            double distance = Math.sqrt(sum);
+            if (distance <= entriesDistance)
+                addRowCursor(leftPage, leftRow, rightPage, sameBlock);
+            else if (!isPruned(distance))
+                queue.add(new PairElement(distance, leftPage, leftRow, rightPage, sameBlock));
+        }
+    }
+
+
+    /**
+     * {@code addRowCursor} helper method that computes the distances of a left row from the rows of a right data block,
+     * and queues the row again with a {@link RowHeap} of the right rows that may still be in one of the {@code k} closest
+     * pairs. In a self-join, a row of a data block paired with itself is only paired with the rows after it.
+     *
+     * @param leftPage The data block of the left row
+     * @param leftRow The left row
+     * @param rightPage The right data block
+     * @param sameBlock If the data blocks are the same block of a self-join
+     */
+
+
+    private void addRowCursor(DataPage leftPage, int leftRow, DataPage rightPage, boolean sameBlock) {
+        double[] point = new double[leftPage.getDimensions()];
+        for (int d = 0; d < point.length; d++)
+            point[d] = leftPage.getColumn(d)[leftRow];
+        double[] distances = new double[rightPage.size()];
+        rightPage.squaredDistances(point, distances);
+        int firstRightRow = sameBlock ? leftRow + 1 : 0;
+        distanceComputations += rightPage.size() - firstRightRow;
+
+        int[] candidates = new int[rightPage.size() - firstRightRow];
+        int size = 0;
+        for (int rightRow = firstRightRow; rightRow < rightPage.size(); rightRow++) {
+            double distance = Math.sqrt(distances[rightRow]);
+            distances[rightRow] = distance;
+            if (isPruned(distance))
+                continue;
+            candidates[size++] = rightRow;
+            if (k != Integer.MAX_VALUE) {
+                bestDistances.add(distance);
+                if (bestDistances.size() > k)
+                    bestDistances.poll();
+            }
+        }
+        if (size > 0)
+            queue.add(new PairElement(leftPage, leftRow, rightPage, new RowHeap(candidates, size, distances)));
+    }
+}
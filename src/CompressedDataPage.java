@@ -0,0 +1,298 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ *
+ *
+ * Class {@link CompressedDataPage} is the compressed codec of the datafile blocks, used instead of Java serialization
+ * when the {@link SpatialStore} is created with {@link SpatialStore.DataPageFormat#COMPRESSED}.
+ * <p>
+ * The records of a block are stored column by column, so that similar values are next to each other:
+ * <ul>
+ *     <li>the record ids, as deltas from the previous id, zigzag varint encoded</li>
+ *     <li>every coordinate dimension, as fixed-point values with {@code COORDINATE_DECIMALS} decimals, delta and zigzag
+ *     varint encoded, if every value of the column has at most that many decimals (OSM coordinates have 7); otherwise as
+ *     the XOR of the bits of consecutive values, varint encoded, so the encoding is always lossless</li>
+ *     <li>the names, as a dictionary of the distinct names of the block followed by the dictionary index of every record</li>
+ * </ul>
+ * The columns are then compressed with Deflate (LZ77 and Huffman coding). Records have no fixed size or slot: the block
+ * header only keeps the lengths of the columns, so a block holds as many records as fit once compressed.
+ * <p>
+ * Block layout: {@code [FORMAT][int columns length][int compressed length][compressed columns]}, followed by the
+ * checksum of the block. Serialized blocks start with the Java serialization magic number instead, so blocks of both
+ * codecs can be told apart and read from the same file.
+ *
+ *
+ */
+
+
+class CompressedDataPage {
+    /** First byte of a compressed block */
+    static final byte FORMAT = 'Z';
+
+    /** Decimals kept by the fixed-point coordinate encoding */
+    private static final int COORDINATE_DECIMALS = 7;
+
+    /** Scale of the fixed-point coordinate encoding */
+    private static final double COORDINATE_SCALE = Math.pow(10, COORDINATE_DECIMALS);
+
+    /** Column encoding of coordinates stored as fixed-point values */
+    private static final byte FIXED_POINT_COLUMN = 0;
+
+    /** Column encoding of coordinates stored as raw bits */
+    private static final byte RAW_BITS_COLUMN = 1;
+
+    /** Bytes of the block header */
+    private static final int HEADER_SIZE = 9;
+
+
+    /**
+     * {@code isCompressed} method checks whether a block was written by this codec.
+     *
+     * @param block The block's bytes
+     * @return {@code true} if the block is compressed, else {@code false}
+     */
+
+
+    static boolean isCompressed(byte[] block) {
+        return block[0] == FORMAT;
+    }
+
+
+    /**
+     * {@code encode} method encodes the records of a block.
+     *
+     * @param records The records, all with the same number of coordinates
+     * @return The encoded block, without padding and checksum
+     */
+
+
+    static byte[] encode(List<Record> records) {
+        ByteArrayOutputStream columns = new ByteArrayOutputStream(records.size() * 16);
+        int dimensions = records.isEmpty() ? 0 : records.get(0).getCoordinates().size();
+        writeVarLong(columns, records.size());
+        writeVarLong(columns, dimensions);
+
+        long previousId = 0;
+        for (Record record : records) {
+            writeVarLong(columns, zigzag(record.getRecordID() - previousId));
+            previousId = record.getRecordID();
+        }
+
+        for (int d = 0; d < dimensions; d++)
+            writeCoordinateColumn(columns, records, d);
+
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        for (Record record : records) {
+            if (record.getName() != null && dictionary.putIfAbsent(record.getName(), names.size()) == null)
+                names.add(record.getName());
+        }
+        writeVarLong(columns, names.size());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(columns, bytes.length);
+            columns.writeBytes(bytes);
+        }
+        for (Record record : records)
+            writeVarLong(columns, record.getName() == null ? 0 : dictionary.get(record.getName()) + 1);
+
+        byte[] uncompressed = columns.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(uncompressed);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(uncompressed.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished())
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+
+        ByteBuffer block = ByteBuffer.allocate(HEADER_SIZE + compressed.size());
+        block.put(FORMAT).putInt(uncompressed.length).putInt(compressed.size()).put(compressed.toByteArray());
+        return block.array();
+    }
+
+
+    /**
+     * {@code writeCoordinateColumn} helper method for {@link #encode} that writes one coordinate dimension of every record,
+     * fixed-point if that is lossless for the whole column, else as raw bits.
+     *
+     * @param columns The encoded columns
+     * @param records The records
+     * @param dimension The coordinate dimension
+     */
+
+
+    private static void writeCoordinateColumn(ByteArrayOutputStream columns, List<Record> records, int dimension) {
+        boolean fixedPoint = true;
+        for (Record record : records) {
+            double value = record.getCoordinateFromDimension(dimension);
+            if (Math.abs(value) > Long.MAX_VALUE / COORDINATE_SCALE || Math.round(value * COORDINATE_SCALE) / COORDINATE_SCALE != value
+                    || Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(-0.0)) {
+                fixedPoint = false;
+                break;
+            }
+        }
+
+        columns.write(fixedPoint ? FIXED_POINT_COLUMN : RAW_BITS_COLUMN);
+        long previous = 0;
+        for (Record record : records) {
+            double value = record.getCoordinateFromDimension(dimension);
+            if (fixedPoint) {
+                long fixed = Math.round(value * COORDINATE_SCALE);
+                writeVarLong(columns, zigzag(fixed - previous));
+                previous = fixed;
+            } else {
+                long bits = Double.doubleToRawLongBits(value);
+                writeVarLong(columns, bits ^ previous);
+                previous = bits;
+            }
+        }
+    }
+
+
+    /**
+     * {@code decode} method decodes the records of a compressed block.
+     *
+     * @param block The block's bytes, starting with {@code FORMAT}
+     * @return The {@link DataPage} of the block, whose columns are the decoded columns
+     * @throws IllegalStateException if the block cannot be decoded
+     */
+
+
+    static DataPage decode(byte[] block) {
+        ByteBuffer header = ByteBuffer.wrap(block);
+        header.get();
+        int uncompressedLength = header.getInt();
+        int compressedLength = header.getInt();
+        if (uncompressedLength < 0 || compressedLength < 0 || HEADER_SIZE + compressedLength > block.length)
+            throw new IllegalStateException("Invalid compressed block header");
+
+        byte[] uncompressed = new byte[uncompressedLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block, HEADER_SIZE, compressedLength);
+            int length = 0;
+            while (length < uncompressedLength && !inflater.finished()) {
+                int inflated = inflater.inflate(uncompressed, length, uncompressedLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalStateException("Truncated compressed block");
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed block", e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer columns = ByteBuffer.wrap(uncompressed);
+        int count = (int) readVarLong(columns);
+        int dimensions = (int) readVarLong(columns);
+
+        long[] ids = new long[count];
+        long id = 0;
+        for (int i = 0; i < count; i++) {
+            id += unzigzag(readVarLong(columns));
+            ids[i] = id;
+        }
+
+        double[][] coordinates = new double[dimensions][count];
+        for (int d = 0; d < dimensions; d++) {
+            boolean fixedPoint = columns.get() == FIXED_POINT_COLUMN;
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                if (fixedPoint) {
+                    previous += unzigzag(readVarLong(columns));
+                    coordinates[d][i] = previous / COORDINATE_SCALE;
+                } else {
+                    previous ^= readVarLong(columns);
+                    coordinates[d][i] = Double.longBitsToDouble(previous);
+                }
+            }
+        }
+
+        String[] names = new String[(int) readVarLong(columns)];
+        for (int n = 0; n < names.length; n++) {
+            byte[] bytes = new byte[(int) readVarLong(columns)];
+            columns.get(bytes);
+            names[n] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String[] rowNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            int nameIndex = (int) readVarLong(columns);
+            rowNames[i] = nameIndex == 0 ? null : names[nameIndex - 1];
+        }
+        return DataPage.of(ids, coordinates, rowNames);
+    }
+
+
+    /**
+     * {@code zigzag} helper method that maps signed values to unsigned ones, small magnitudes to small values.
+     *
+     * @param value The signed value
+     * @return The zigzag encoded value
+     */
+
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    /**
+     * {@code unzigzag} helper method that reverses {@link #zigzag}.
+     *
+     * @param value The zigzag encoded value
+     * @return The signed value
+     */
+
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    /**
+     * {@code writeVarLong} helper method that writes an unsigned value in 7-bit groups, lowest first.
+     *
+     * @param out The output
+     * @param value The value, read as unsigned
+     */
+
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+
+    /**
+     * {@code readVarLong} helper method that reads a value written by {@link #writeVarLong}.
+     *
+     * @param in The input
+     * @return The value
+     */
+
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
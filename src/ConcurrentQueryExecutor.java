@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ *
+ *
+ * Public class {@link ConcurrentQueryExecutor} that runs many range, k-nearest neighbours and skyline queries in parallel
+ * over one shared {@link RStarTree}, using one virtual thread per query.
+ * <p>
+ * Every query keeps its state confined to its own thread ({@link NearestNeighboursQuery} objects are created per query,
+ * {@link RangeQuery} and {@link OptimalSkylineQuery} only use local variables), reads blocks through the shared
+ * {@link BufferPool}s of the tree's {@link SpatialStore} and reads nodes through {@link NodeLatches}, so it can run alongside
+ * {@link RStarTree#insertSingleRecord} and {@link RStarTree#deleteRecord}. With snapshot reads, every query runs on its own
+ * {@link IndexSnapshot} of the last committed version instead, and never waits for a writer.
+ * <p>
+ * The amount of queries that run at the same time can be limited, which is used by {@link QueryBenchmark} to measure
+ * how throughput scales with cores.
+ *
+ *
+ */
+
+
+public class ConcurrentQueryExecutor implements AutoCloseable {
+    /** The tree that the queries run on */
+    private final RStarTree tree;
+
+    /** Executor that starts a new virtual thread for every submitted query */
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /** Permits for the queries that may run at the same time */
+    private final Semaphore runningQueries;
+
+    /** Whether every query reads an {@link IndexSnapshot} of the last committed version */
+    private final boolean snapshotReads;
+
+
+    /**
+     * {@link ConcurrentQueryExecutor} constructor that lets up to one query per available core run at the same time.
+     *
+     * @param tree The tree that the queries run on
+     */
+
+
+    public ConcurrentQueryExecutor(RStarTree tree) {
+        this(tree, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * {@link ConcurrentQueryExecutor} constructor with the maximum amount of queries that can run at the same time.
+     *
+     * @param tree The tree that the queries run on
+     * @param maxParallelQueries The maximum amount of queries running in parallel
+     */
+
+
+    public ConcurrentQueryExecutor(RStarTree tree, int maxParallelQueries) {
+        this(tree, maxParallelQueries, false);
+    }
+
+
+    /**
+     * {@link ConcurrentQueryExecutor} constructor with the maximum amount of queries that can run at the same time, and
+     * whether the queries read the latest version of the tree or a snapshot of the last committed version.
+     *
+     * @param tree The tree that the queries run on
+     * @param maxParallelQueries The maximum amount of queries running in parallel
+     * @param snapshotReads {@code true} to run every query on an {@link IndexSnapshot}
+     */
+
+
+    public ConcurrentQueryExecutor(RStarTree tree, int maxParallelQueries, boolean snapshotReads) {
+        if (maxParallelQueries < 1)
+            throw new IllegalArgumentException("Parameter 'maxParallelQueries' must be a positive integer.");
+        this.tree = tree;
+        this.runningQueries = new Semaphore(maxParallelQueries);
+        this.snapshotReads = snapshotReads;
+    }
+
+
+    /**
+     * Submits a {@link RangeQuery} over the R*Tree index.
+     *
+     * @param queryMBR The query {@link MBR}
+     * @return A {@link Future} with the records in range
+     */
+
+
+    public Future<ArrayList<Record>> submitRangeQuery(MBR queryMBR) {
+        return submit(() -> RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR));
+    }
+
+
+    /**
+     * Submits a {@link RangeQuery} over the R*Tree index that returns only the columns of a projection.
+     *
+     * @param queryMBR The query {@link MBR}
+     * @param projection The columns of the results
+     * @return A {@link Future} with the {@link QueryResults} of the records in range
+     */
+
+
+    Future<QueryResults> submitRangeQuery(MBR queryMBR, QueryResults.Projection projection) {
+        return submit(() -> RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR, projection));
+    }
+
+
+    /**
+     * Submits a {@link NearestNeighboursQuery} over the R*Tree index.
+     *
+     * @param searchPoint The query point
+     * @param k The number of nearest neighbours to retrieve
+     * @return A {@link Future} with the {@code k} nearest records, nearest first
+     */
+
+
+    public Future<ArrayList<Record>> submitNearestNeighboursQuery(ArrayList<Double> searchPoint, int k) {
+        return submit(() -> NearestNeighboursQuery.getNearestNeighbours(tree, searchPoint, k));
+    }
+
+
+    /**
+     * Submits an {@link OptimalSkylineQuery} over the R*Tree index.
+     *
+     * @return A {@link Future} with the skyline records
+     */
+
+
+    public Future<ArrayList<Record>> submitSkylineQuery() {
+        return submit(() -> OptimalSkylineQuery.computeSkyline(tree));
+    }
+
+
+    /**
+     * {@code submit} helper method that runs a query in a new virtual thread, after acquiring a permit, on its own
+     * {@link IndexSnapshot} if snapshot reads are enabled.
+     *
+     * @param query The query to run
+     * @param <T> The type of the query results
+     * @return A {@link Future} with the query results
+     */
+
+
+    @SuppressWarnings("try") // the snapshot is only opened for the reads of the query's thread
+    private <T> Future<T> submit(Callable<T> query) {
+        return executor.submit(() -> {
+            runningQueries.acquire();
+            try {
+                if (!snapshotReads)
+                    return query.call();
+                try (IndexSnapshot snapshot = tree.openSnapshot()) {
+                    return query.call();
+                }
+            } finally {
+                runningQueries.release();
+            }
+        });
+    }
+
+
+    /**
+     * Waits for the running queries to finish and stops the executor.
+     */
+
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
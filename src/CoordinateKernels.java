@@ -0,0 +1,108 @@
+/**
+ *
+ *
+ * Interface {@link CoordinateKernels} holds the tight loops that queries run over packed coordinate columns, like the
+ * columns of a {@link DataPage}: {@code columns[dimension][row]}, of which only the first {@code rows} entries are used.
+ * <p>
+ * {@link #INSTANCE} is selected once, when the class is first used: {@link VectorCoordinateKernels}, which runs the loops
+ * with SIMD instructions through the {@code jdk.incubator.vector} API, or {@link ScalarCoordinateKernels} if that module
+ * is not available, i.e. the JVM was not started with {@code --add-modules jdk.incubator.vector}. The system property
+ * {@code spatialstore.kernels} set to {@code scalar} or {@code vector} forces one of them. Both implementations return
+ * exactly the same results, including for {@code NaN} coordinates.
+ *
+ *
+ */
+
+
+interface CoordinateKernels {
+    /** The kernels used by the queries */
+    CoordinateKernels INSTANCE = select();
+
+
+    /**
+     * {@code select} method picks the vectorized kernels if the Vector API can be loaded, else the scalar ones.
+     *
+     * @return The kernels to use
+     */
+
+
+    private static CoordinateKernels select() {
+        String kernels = System.getProperty("spatialstore.kernels", "vector");
+        if (kernels.equals("scalar"))
+            return new ScalarCoordinateKernels();
+        try {
+            return (CoordinateKernels) Class.forName("VectorCoordinateKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarCoordinateKernels();
+        }
+    }
+
+
+    /**
+     * Getter for the name of the implementation, printed by the benchmarks
+     *
+     * @return The name
+     */
+
+
+    String getName();
+
+
+    /**
+     * {@code selectInRange} kernel finds the rows whose coordinates are all within the bounds. A coordinate is out of
+     * range only if it is lower than the lower bound or higher than the upper bound.
+     *
+     * @param columns The coordinate columns
+     * @param rows The number of rows
+     * @param lower The lower bound of every dimension
+     * @param upper The upper bound of every dimension
+     * @param selection Receives the matching rows in row order, at least {@code rows} long
+     * @return The number of matching rows
+     */
+
+
+    int selectInRange(double[][] columns, int rows, double[] lower, double[] upper, int[] selection);
+
+
+    /**
+     * {@code squaredDistances} kernel computes the squared Euclidean distance of every row from a point. The squared
+     * differences are added in dimension order, so the result is the same as the scalar loop over a {@link Record}'s
+     * coordinates.
+     *
+     * @param columns The coordinate columns
+     * @param rows The number of rows
+     * @param point The point, with a coordinate for every column
+     * @param distances Receives the squared distance of every row, at least {@code rows} long
+     */
+
+
+    void squaredDistances(double[][] columns, int rows, double[] point, double[] distances);
+
+
+    /**
+     * {@code isDominated} kernel checks whether any row dominates a point: it is no higher than the point in every
+     * dimension and lower in at least one.
+     *
+     * @param columns The coordinate columns
+     * @param rows The number of rows
+     * @param point The point, with a coordinate for every column
+     * @return {@code true} if a row dominates the point, else {@code false}
+     */
+
+
+    boolean isDominated(double[][] columns, int rows, double[] point);
+
+
+    /**
+     * {@code selectDominatedBy} kernel finds the rows that a point dominates.
+     *
+     * @param columns The coordinate columns
+     * @param rows The number of rows
+     * @param point The point, with a coordinate for every column
+     * @param selection Receives the dominated rows in row order, at least {@code rows} long
+     * @return The number of dominated rows
+     */
+
+
+    int selectDominatedBy(double[][] columns, int rows, double[] point, int[] selection);
+}
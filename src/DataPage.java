@@ -0,0 +1,384 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ *
+ *
+ * Class {@link DataPage} is the in-memory layout of a data block: the record ids, every coordinate dimension and the
+ * names are kept in separate contiguous columns (struct of arrays) instead of one {@link Record} object per row.
+ * <p>
+ * Queries filter and compute distances directly over the packed {@code double[]} coordinate columns with the
+ * {@link CoordinateKernels}, through {@link #selectInRange} and {@link #squaredDistances}, and only build a
+ * {@link Record} with {@link #getRecord} for the rows that qualify. Names are decoded from their UTF-8 bytes only when a row's name is first asked for.
+ * <p>
+ * A {@link DataPage} never changes once built, so the same page is shared by every thread through the
+ * {@link SpatialStore}'s buffer pool and block versions. The {@link Record} view of the whole page, used by the code that
+ * modifies blocks, is built on the first call of {@link #getRecords} and then kept.
+ * <p>
+ * It is also the {@link SpatialStore.DataPageFormat#COLUMNAR} block codec, with block layout
+ * {@code [FORMAT][int rows][int dimensions][long ids][double coordinates, one column per dimension][int name lengths, -1
+ * for null][UTF-8 names]}, followed by the checksum of the block.
+ *
+ *
+ */
+
+
+class DataPage {
+    /** First byte of a columnar block */
+    static final byte FORMAT = 'C';
+
+    /** Bytes of the block header */
+    private static final int HEADER_SIZE = 9;
+
+    /** An empty page without dimensions */
+    private static final DataPage EMPTY = new DataPage(new long[0], new double[0][0], new String[0], null, null, null);
+
+    /** The record id of every row */
+    private final long[] recordIds;
+
+    /** The coordinates, {@code columns[dimension][row]} */
+    private final double[][] columns;
+
+    /** The decoded names, a {@code null} entry is not decoded yet if {@code nameBytes} is set */
+    private final String[] names;
+
+    /** The UTF-8 bytes of the names that are decoded on demand, {@code null} if every name is decoded */
+    private final byte[] nameBytes;
+
+    /** The offset of every row's name in {@code nameBytes} */
+    private final int[] nameOffsets;
+
+    /** The length of every row's name in {@code nameBytes}, -1 for a {@code null} name */
+    private final int[] nameLengths;
+
+    /** The {@link Record} view of the page, built on the first {@link #getRecords} */
+    private volatile List<Record> records;
+
+
+    /**
+     * {@link DataPage} constructor from its columns, which are not copied.
+     *
+     * @param recordIds The record id of every row
+     * @param columns The coordinates, {@code columns[dimension][row]}
+     * @param names The decoded names
+     * @param nameBytes The UTF-8 bytes of the names to decode on demand, or {@code null}
+     * @param nameOffsets The offset of every row's name in {@code nameBytes}, or {@code null}
+     * @param nameLengths The length of every row's name in {@code nameBytes}, or {@code null}
+     */
+
+
+    private DataPage(long[] recordIds, double[][] columns, String[] names, byte[] nameBytes, int[] nameOffsets,
+                     int[] nameLengths) {
+        this.recordIds = recordIds;
+        this.columns = columns;
+        this.names = names;
+        this.nameBytes = nameBytes;
+        this.nameOffsets = nameOffsets;
+        this.nameLengths = nameLengths;
+    }
+
+
+    /**
+     * {@code of} method builds the page of a list of records, which is kept as the page's {@link Record} view.
+     *
+     * @param records The records, all with the same number of coordinates
+     * @return The page
+     */
+
+
+    static DataPage of(List<Record> records) {
+        if (records.isEmpty())
+            return EMPTY;
+        int rows = records.size();
+        int dimensions = records.get(0).getCoordinates().size();
+        long[] recordIds = new long[rows];
+        double[][] columns = new double[dimensions][rows];
+        String[] names = new String[rows];
+        for (int row = 0; row < rows; row++) {
+            Record record = records.get(row);
+            recordIds[row] = record.getRecordID();
+            names[row] = record.getName();
+            for (int d = 0; d < dimensions; d++)
+                columns[d][row] = record.getCoordinateFromDimension(d);
+        }
+        DataPage page = new DataPage(recordIds, columns, names, null, null, null);
+        page.records = Collections.unmodifiableList(new ArrayList<>(records));
+        return page;
+    }
+
+
+    /**
+     * {@code of} method builds a page from decoded columns, which are not copied.
+     *
+     * @param recordIds The record id of every row
+     * @param columns The coordinates, {@code columns[dimension][row]}
+     * @param names The name of every row
+     * @return The page
+     */
+
+
+    static DataPage of(long[] recordIds, double[][] columns, String[] names) {
+        return new DataPage(recordIds, columns, names, null, null, null);
+    }
+
+
+    /**
+     * Getter for the number of rows
+     *
+     * @return The number of records in the page
+     */
+
+
+    int size() {
+        return recordIds.length;
+    }
+
+
+    /**
+     * Getter for the number of coordinate columns
+     *
+     * @return The data dimensions, 0 for an empty page
+     */
+
+
+    int getDimensions() {
+        return columns.length;
+    }
+
+
+    /**
+     * Getter for the record id of a row
+     *
+     * @param row The row
+     * @return The record id
+     */
+
+
+    long getRecordId(int row) {
+        return recordIds[row];
+    }
+
+
+    /**
+     * Getter for a coordinate column. The array is the page's own and must not be changed.
+     *
+     * @param dimension The dimension
+     * @return The coordinates of every row in the dimension
+     */
+
+
+    double[] getColumn(int dimension) {
+        return columns[dimension];
+    }
+
+
+    /**
+     * Getter for the name of a row, decoded on the first call. Concurrent first calls may decode the same name twice,
+     * which is harmless since {@link String}s are immutable.
+     *
+     * @param row The row
+     * @return The name, may be {@code null}
+     */
+
+
+    String getName(int row) {
+        String name = names[row];
+        if (name == null && nameBytes != null && nameLengths[row] >= 0) {
+            name = new String(nameBytes, nameOffsets[row], nameLengths[row], StandardCharsets.UTF_8);
+            names[row] = name;
+        }
+        return name;
+    }
+
+
+    /**
+     * {@code getRecord} method returns the {@link Record} of a row, the one of the {@link Record} view if it is built,
+     * else a new one.
+     *
+     * @param row The row
+     * @return The record
+     */
+
+
+    Record getRecord(int row) {
+        List<Record> view = records;
+        if (view != null)
+            return view.get(row);
+        ArrayList<Double> coor = new ArrayList<>(columns.length);
+        for (double[] column : columns)
+            coor.add(column[row]);
+        return new Record(recordIds[row], getName(row), coor);
+    }
+
+
+    /**
+     * {@code getRecords} method returns the {@link Record} view of the whole page, built on the first call.
+     *
+     * @return Unmodifiable {@link List} of the page's records, in row order
+     */
+
+
+    List<Record> getRecords() {
+        List<Record> view = records;
+        if (view == null) {
+            ArrayList<Record> built = new ArrayList<>(size());
+            for (int row = 0; row < size(); row++)
+                built.add(getRecord(row));
+            view = Collections.unmodifiableList(built);
+            records = view;
+        }
+        return view;
+    }
+
+
+    /**
+     * {@code selectInRange} method finds the rows whose coordinates are all within the bounds, with the
+     * {@link CoordinateKernels}.
+     *
+     * @param lower The lower bound of every dimension
+     * @param upper The upper bound of every dimension
+     * @param selection Receives the matching rows in row order, at least {@link #size} long
+     * @return The number of matching rows
+     */
+
+
+    int selectInRange(double[] lower, double[] upper, int[] selection) {
+        return CoordinateKernels.INSTANCE.selectInRange(columns, size(), lower, upper, selection);
+    }
+
+
+    /**
+     * {@code squaredDistances} method computes the squared Euclidean distance of every row from a point, with the
+     * {@link CoordinateKernels}. The dimensions are added in order, so {@code Math.sqrt} of the result equals the distance
+     * computed over the {@link Record}'s coordinates.
+     *
+     * @param point The point, with at least {@link #getDimensions} coordinates
+     * @param distances Receives the squared distance of every row, at least {@link #size} long
+     */
+
+
+    void squaredDistances(double[] point, double[] distances) {
+        CoordinateKernels.INSTANCE.squaredDistances(columns, size(), point, distances);
+    }
+
+
+    /**
+     * {@code isColumnar} method checks whether a block was written by the columnar codec.
+     *
+     * @param block The block's bytes
+     * @return {@code true} if the block is columnar, else {@code false}
+     */
+
+
+    static boolean isColumnar(byte[] block) {
+        return block[0] == FORMAT;
+    }
+
+
+    /**
+     * {@code encodedSize} method computes the size of the columnar encoding of records without encoding them.
+     *
+     * @param records The records, all with the same number of coordinates
+     * @return The encoded size in bytes, without padding and checksum
+     */
+
+
+    static int encodedSize(List<Record> records) {
+        int dimensions = records.isEmpty() ? 0 : records.get(0).getCoordinates().size();
+        long size = HEADER_SIZE + (long) records.size() * (Long.BYTES + (long) dimensions * Double.BYTES + Integer.BYTES);
+        for (Record record : records) {
+            if (record.getName() != null)
+                size += record.getName().getBytes(StandardCharsets.UTF_8).length;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * {@code encode} method encodes the records of a block in the columnar layout.
+     *
+     * @param records The records, all with the same number of coordinates
+     * @return The encoded block, without padding and checksum
+     */
+
+
+    static byte[] encode(List<Record> records) {
+        int rows = records.size();
+        int dimensions = rows == 0 ? 0 : records.get(0).getCoordinates().size();
+        byte[][] encodedNames = new byte[rows][];
+        int nameSize = 0;
+        for (int row = 0; row < rows; row++) {
+            String name = records.get(row).getName();
+            if (name != null) {
+                encodedNames[row] = name.getBytes(StandardCharsets.UTF_8);
+                nameSize += encodedNames[row].length;
+            }
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(HEADER_SIZE + rows * (Long.BYTES + dimensions * Double.BYTES + Integer.BYTES)
+                + nameSize);
+        block.put(FORMAT).putInt(rows).putInt(dimensions);
+        for (Record record : records)
+            block.putLong(record.getRecordID());
+        for (int d = 0; d < dimensions; d++) {
+            for (Record record : records)
+                block.putDouble(record.getCoordinateFromDimension(d));
+        }
+        for (byte[] name : encodedNames)
+            block.putInt(name == null ? -1 : name.length);
+        for (byte[] name : encodedNames) {
+            if (name != null)
+                block.put(name);
+        }
+        return block.array();
+    }
+
+
+    /**
+     * {@code decode} method decodes a columnar block. The coordinate columns are copied in bulk and the names are kept as
+     * bytes until they are asked for.
+     *
+     * @param block The block's bytes, starting with {@code FORMAT}
+     * @return The page
+     * @throws IllegalStateException if the block cannot be decoded
+     */
+
+
+    static DataPage decode(byte[] block) {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        buffer.get();
+        int rows = buffer.getInt();
+        int dimensions = buffer.getInt();
+        if (rows < 0 || dimensions < 0
+                || HEADER_SIZE + (long) rows * (Long.BYTES + (long) dimensions * Double.BYTES + Integer.BYTES) > block.length)
+            throw new IllegalStateException("Invalid columnar block header");
+
+        long[] recordIds = new long[rows];
+        buffer.asLongBuffer().get(recordIds);
+        buffer.position(buffer.position() + rows * Long.BYTES);
+        double[][] columns = new double[dimensions][rows];
+        for (int d = 0; d < dimensions; d++) {
+            buffer.asDoubleBuffer().get(columns[d]);
+            buffer.position(buffer.position() + rows * Double.BYTES);
+        }
+
+        int[] nameOffsets = new int[rows];
+        int[] nameLengths = new int[rows];
+        int nameSize = 0;
+        for (int row = 0; row < rows; row++) {
+            nameLengths[row] = buffer.getInt();
+            nameOffsets[row] = nameSize;
+            if (nameLengths[row] > 0)
+                nameSize += nameLengths[row];
+        }
+        if (nameSize > buffer.remaining())
+            throw new IllegalStateException("Invalid columnar block names");
+        byte[] nameBytes = new byte[nameSize];
+        buffer.get(nameBytes);
+        return new DataPage(recordIds, columns, new String[rows], nameBytes, nameOffsets, nameLengths);
+    }
+}
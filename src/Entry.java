@@ -1,5 +1,6 @@
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -14,10 +15,13 @@ class Entry implements Serializable {
     private MBR MBR; // The Minimum Bounding Rectangle that closes all the Objects in each dimension
     private Long childNodeBlockId; // The Block Id of a child Node in indexFile
     private int childNodeIndexInBlock; // The Index in the Block of a child Node in the IndexFile
+    private long childNodeSequenceNumber; // The child Node's NSN when this Entry was last updated
+    private long recordCount; // The number of records in the subtree that the Entry points to
 
 
     /**
-     * Constructor with {@code childNode} as parameter. The {@link MBR} is adjusted to fit the new child node
+     * Constructor with {@code childNode} as parameter. The {@link MBR} and the record count are adjusted to fit the new
+     * child node
      *
      * @param childNode The lower {@link Node} that the {@link Entry} points to.
      */
@@ -26,6 +30,7 @@ class Entry implements Serializable {
     Entry(Node childNode) {
         this.childNodeBlockId = childNode.getNodeBlockId();
         this.childNodeIndexInBlock = childNode.getNodeIndexInBlock();
+        this.childNodeSequenceNumber = childNode.getNodeSequenceNumber();
         adjustMBRToFitEntries(childNode.getEntries());
     }
 
@@ -43,6 +48,21 @@ class Entry implements Serializable {
     }
 
 
+    /**
+     * Constructor with the {@link Entry}'s {@link MBR} and the record count of its subtree as parameters.
+     *
+     * @param MBR The entry's {@link MBR}.
+     * @param recordCount The subtree's record count
+     */
+
+
+    Entry(MBR MBR, long recordCount)
+    {
+        this.MBR = MBR;
+        this.recordCount = recordCount;
+    }
+
+
     /**
      * Getter for the {@link Entry}'s {@link MBR}
      *
@@ -87,9 +107,85 @@ class Entry implements Serializable {
     void setChildNodeIndexInBlock(int nodeIndex) { this.childNodeIndexInBlock = nodeIndex; }
 
 
+    /**
+     * Getter for the child {@link Node}'s sequence number when this {@link Entry} was last updated. If the child's current
+     * sequence number is bigger, the child was split since, and its right siblings must be visited too.
+     *
+     * @return The child's {@code NSN} known by the {@link Entry}
+     */
+
+
+    long getChildNodeSequenceNumber() { return childNodeSequenceNumber; }
+
+
+    /**
+     * Setter for the child {@link Node}'s sequence number known by the {@link Entry}
+     *
+     * @param nodeSequenceNumber The child's {@code NSN}
+     */
+
+
+    void setChildNodeSequenceNumber(long nodeSequenceNumber) { this.childNodeSequenceNumber = nodeSequenceNumber; }
+
+
+    /**
+     * Getter for the number of records in the subtree that the {@link Entry} points to, the records of the data block for
+     * a {@link LeafEntry}
+     *
+     * @return The subtree's record count
+     */
+
+
+    long getRecordCount() { return recordCount; }
+
+
+    /**
+     * Setter for the number of records in the subtree that the {@link Entry} points to
+     *
+     * @param recordCount The subtree's record count
+     */
+
+
+    void setRecordCount(long recordCount) { this.recordCount = recordCount; }
+
+
+    /**
+     * {@code sumRecordCounts} method adds up the record counts of entries, the record count of the {@link Node} that keeps
+     * them.
+     *
+     * @param entries The entries
+     * @return The sum of their record counts
+     */
+
+
+    static long sumRecordCounts(List<Entry> entries) {
+        long recordCount = 0;
+        for (Entry entry : entries)
+            recordCount += entry.recordCount;
+        return recordCount;
+    }
+
+
+    /**
+     * {@code copy} method returns a copy of the {@link Entry}, which can be read without holding its {@link Node}'s latch.
+     *
+     * @return The copy of the {@link Entry}
+     */
+
+
+    Entry copy() {
+        Entry copy = new Entry(MBR);
+        copy.childNodeBlockId = childNodeBlockId;
+        copy.childNodeIndexInBlock = childNodeIndexInBlock;
+        copy.childNodeSequenceNumber = childNodeSequenceNumber;
+        copy.recordCount = recordCount;
+        return copy;
+    }
+
+
     /**
      * {@code adjustMBRToFitEntries} method adjusts the {@link MBR} of the {@link Entry} by assigning a new {@link MBR} based on the new minimum {@link Bounds}
-     * of the {@link ArrayList} parameter entries
+     * of the {@link ArrayList} parameter entries, and its record count to the sum of theirs
      *
      * @param entries {@link ArrayList} of {@link Entry}
      */
@@ -97,6 +193,7 @@ class Entry implements Serializable {
 
     void adjustMBRToFitEntries(ArrayList<Entry> entries){
         MBR = new MBR(Bounds.findMinimumBounds(entries));
+        recordCount = sumRecordCounts(entries);
     }
 
 
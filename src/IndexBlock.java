@@ -12,16 +12,19 @@ import java.util.ArrayList;
  *
  */
 public class IndexBlock implements Serializable {
-    private static final int MAX_NODES_PER_BLOCK = 48;
+    private final int maxNodesPerBlock;
     private ArrayList<Node> nodes;
 
 
     /**
      * {@link IndexBlock} constructor that initializes an index block with an empty {@link Node} {@link ArrayList}
+     *
+     * @param maxNodesPerBlock The maximum amount of nodes that fit in the block, depends on the store's block size
      */
 
 
-    IndexBlock() {
+    IndexBlock(int maxNodesPerBlock) {
+        this.maxNodesPerBlock = maxNodesPerBlock;
         this.nodes = new ArrayList<>();
     }
 
@@ -44,18 +47,46 @@ public class IndexBlock implements Serializable {
 
 
     boolean hasSpace() {
-        return nodes.size() < MAX_NODES_PER_BLOCK;
+        return nodes.size() < maxNodesPerBlock;
     }
 
 
     /**
-     * {@code addNode} method that adds a new {@link Node} in the {@link IndexBlock}
-     * @param node The {@link Node} to be added
+     * {@code copy} method returns a copy of the {@link IndexBlock} with copies of its nodes, used to change a committed block
+     * without changing the image that snapshots and queries read.
+     *
+     * @return The copy of the {@link IndexBlock}
+     */
+
+
+    IndexBlock copy() {
+        IndexBlock copy = new IndexBlock(maxNodesPerBlock);
+        for (Node node : nodes)
+            copy.nodes.add(node.copy());
+        return copy;
+    }
+
+
+    /**
+     * {@code addNode} method that adds a new {@link Node} at the end of the {@link IndexBlock}
+     * @param node The {@link Node} to be added, not already in the block
      */
 
 
     void addNode(Node node) {
-        if (!nodes.contains(node)) nodes.add(node);
+        nodes.add(node);
+    }
+
+
+    /**
+     * {@code setNode} method that replaces the {@link Node} at an index of the {@link IndexBlock}
+     * @param nodeIndex The {@link Node}'s index in the block
+     * @param node The new {@link Node}
+     */
+
+
+    void setNode(int nodeIndex, Node node) {
+        nodes.set(nodeIndex, node);
     }
 
 }
\ No newline at end of file
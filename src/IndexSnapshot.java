@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+
+
+/**
+ *
+ *
+ * Class {@link IndexSnapshot} lets queries read a consistent, committed version of the {@link RStarTree} while inserts
+ * and deletes change it (multi-version concurrency control).
+ * <p>
+ * Every {@link RStarTree#commitUpdates} publishes a new version. The index blocks changed by the writers are copied on
+ * write into the {@code indexBuffer} of the {@link SpatialStore}, so the committed blocks are never changed; a commit installs
+ * new images and keeps the older ones in {@link PageVersions} chains. A snapshot pins the version that was committed
+ * when it was opened, including the root at that version, and reads the matching images of the index and data blocks
+ * without any latch. Older images are reclaimed once no open snapshot can read them.
+ * <p>
+ * A snapshot is bound to the thread that opened it: while it is open, the query reads of that thread through
+ * {@link NodeLatches} and {@link SpatialStore#readDataFileBlock} return the snapshot's images. Such a thread must not
+ * insert or delete records. Snapshots of different stores are independent.
+ * <pre>{@code
+ * try (IndexSnapshot snapshot = tree.openSnapshot()) {
+ *     ArrayList<Record> records = RangeQuery.rangeQuery(tree, snapshot.getRootNode(), queryMBR);
+ * }
+ * }</pre>
+ *
+ *
+ */
+
+
+class IndexSnapshot implements AutoCloseable {
+    /** The store whose version is pinned */
+    private final SpatialStore store;
+
+    /** The pinned version */
+    private final long version;
+
+    /** The total levels of the tree at the pinned version */
+    private final int totalLevels;
+
+    /** The snapshot that was bound to the thread before this one */
+    private final IndexSnapshot previous;
+
+    /** Whether the snapshot was closed */
+    private boolean closed;
+
+
+    /**
+     * {@link IndexSnapshot} constructor, used by {@link SpatialStore#openSnapshot}.
+     *
+     * @param store The store whose version is pinned
+     * @param version The pinned version
+     * @param totalLevels The total levels of the tree at the pinned version
+     * @param previous The snapshot that was bound to the thread before
+     */
+
+
+    IndexSnapshot(SpatialStore store, long version, int totalLevels, IndexSnapshot previous) {
+        this.store = store;
+        this.version = version;
+        this.totalLevels = totalLevels;
+        this.previous = previous;
+    }
+
+
+    /**
+     * Getter for the pinned version
+     *
+     * @return The version
+     */
+
+
+    long getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Getter for the total levels of the tree at the pinned version
+     *
+     * @return The total levels
+     */
+
+
+    int getTotalLevels() {
+        return totalLevels;
+    }
+
+
+    /**
+     * Getter for the root {@link Node} at the pinned version
+     *
+     * @return The root {@link Node}
+     */
+
+
+    Node getRootNode() {
+        return readNode(RStarTree.getRootNodeBlockId(), 0);
+    }
+
+
+    /**
+     * {@code readNode} method reads a {@link Node} at the pinned version. The {@link Node} is shared and must not be changed.
+     *
+     * @param blockId The {@link Node}'s {@link IndexBlock} id
+     * @param nodeIndex The {@link Node}'s index in the {@link IndexBlock}
+     * @return The {@link Node}
+     */
+
+
+    Node readNode(long blockId, int nodeIndex) {
+        return store.readNode(blockId, nodeIndex, version);
+    }
+
+
+    /**
+     * {@code readDataFileBlock} method reads a data block at the pinned version.
+     *
+     * @param blockId The data block id
+     * @return A new {@link ArrayList} with the block's records
+     */
+
+
+    ArrayList<Record> readDataFileBlock(long blockId) {
+        return store.readDataFileBlock(blockId, version);
+    }
+
+
+    /**
+     * {@code readDataPage} method reads a data block at the pinned version. The {@link DataPage} is shared.
+     *
+     * @param blockId The data block id
+     * @return The block's {@link DataPage}
+     */
+
+
+    DataPage readDataPage(long blockId) {
+        return store.readDataPage(blockId, version);
+    }
+
+
+    /**
+     * Unpins the version, restores the snapshot that was bound to the thread before, and reclaims the block images
+     * that are not needed anymore.
+     */
+
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        store.closeSnapshot(this, previous);
+    }
+}
@@ -11,19 +11,19 @@ import java.util.List;
 
 public class IndexToCSVExporter {
 
-    public static void exportMBRsToCSV(String outputFilePath) {
+    public static void exportMBRsToCSV(RStarTree tree, String outputFilePath) {
         try (PrintWriter writer = new PrintWriter(new FileWriter(outputFilePath))) {
             writer.println("nodeBlockId,nodeLevelInTree,isLeaf,dataBlockId,boundingBox");
 
-            Node root = FilesHandler.readNode(RStarTree.getRootNodeBlockId(), 0);
-            traverseAndExport(root, writer);
+            Node root = tree.getRootNode();
+            traverseAndExport(tree, root, writer);
             System.out.println("✅ Export complete: " + outputFilePath);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private static void traverseAndExport(Node node, PrintWriter writer) {
+    private static void traverseAndExport(RStarTree tree, Node node, PrintWriter writer) {
         if (node == null) return;
 
         boolean isLeaf = node.getNodeLevelInTree() == RStarTree.getLeafLevel();
@@ -56,13 +56,16 @@ public class IndexToCSVExporter {
 
             // recursive traversal
             if (!isLeaf && entry.getChildNodeBlockId() != -1) {
-                Node child = FilesHandler.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
-                traverseAndExport(child, writer);
+                Node child = tree.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
+                traverseAndExport(tree, child, writer);
             }
         }
     }
 
-    public static void main(String[] args) {
-        exportMBRsToCSV("index_mbrs.csv");
+    public static void main(String[] args) throws Exception {
+        SpatialStore store = new SpatialStore(SpatialStore.DEFAULT_DIRECTORY);
+        store.initializeDataFile(0, false);
+        store.initializeIndexFile(0, false);
+        exportMBRsToCSV(new RStarTree(store, store.getIndexMetaData()), "index_mbrs.csv");
     }
 }
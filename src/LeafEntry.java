@@ -13,14 +13,15 @@ public class LeafEntry extends Entry {
 
 
     /**
-     * {@link LeafEntry} constructor with {@code datafileBlockId} and {@link MBR} as parameters.
+     * {@link LeafEntry} constructor with {@code datafileBlockId}, {@link MBR} and record count as parameters.
      * @param datafileBlockId Data block id that the {@link LeafEntry} refers to
      * @param mbr The {@link LeafEntry}'s records' {@link MBR}
+     * @param recordCount The number of records in the data block
      */
 
 
-    public LeafEntry(long datafileBlockId, MBR mbr) {
-        super(mbr);  // sets bounding box
+    public LeafEntry(long datafileBlockId, MBR mbr, long recordCount) {
+        super(mbr, recordCount);  // sets bounding box and record count
         this.datafileBlockId = datafileBlockId;  // sets block pointer
     }
 
@@ -33,4 +34,17 @@ public class LeafEntry extends Entry {
     public long getDataBlockId() {
         return datafileBlockId;
     }
+
+
+    /**
+     * {@code copy} method returns a copy of the {@link LeafEntry} pointing to the same data block.
+     *
+     * @return The copy of the {@link LeafEntry}
+     */
+
+
+    @Override
+    LeafEntry copy() {
+        return new LeafEntry(datafileBlockId, getMBR(), getRecordCount());
+    }
 }
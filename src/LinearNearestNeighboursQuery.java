@@ -19,9 +19,15 @@ import java.util.PriorityQueue;
 
 
 class LinearNearestNeighboursQuery {
+    /** The store whose datafile is scanned. */
+    private final SpatialStore store;
+
     /** The query point for which nearest neighbours are searched. */
     private ArrayList<Double> searchPoint;
 
+    /** The coordinates of the query point, compared to the coordinate columns of every {@link DataPage}. */
+    private final double[] searchPointCoordinates;
+
     /** The number of nearest neighbours to find. */
     private int k;
 
@@ -32,16 +38,19 @@ class LinearNearestNeighboursQuery {
     /**
      * Constructs a {@link LinearNearestNeighboursQuery} with the specified search point and number of neighbours ({@code k}).
      *
+     * @param store The {@link SpatialStore} whose datafile is scanned.
      * @param searchPoint The coordinates of the query point.
      * @param k The number of nearest neighbours to retrieve. Must be a positive integer.
      * @throws IllegalArgumentException If {@code k} is negative.
      */
 
 
-    LinearNearestNeighboursQuery(ArrayList<Double> searchPoint, int k) {
+    LinearNearestNeighboursQuery(SpatialStore store, ArrayList<Double> searchPoint, int k) {
         if (k < 0)
             throw new IllegalArgumentException("Parameter 'k' for the nearest neighbours must be a positive integer.");
+        this.store = store;
         this.searchPoint = searchPoint;
+        this.searchPointCoordinates = searchPoint.stream().mapToDouble(Double::doubleValue).toArray();
         this.k = k;
         this.nearestNeighbours = new PriorityQueue<>(k, (a, b) -> Double.compare(b.getDistance(), a.getDistance()));
     }
@@ -68,45 +77,34 @@ class LinearNearestNeighboursQuery {
     /**
      * Finds the {@code k} nearest neighbours by scanning all records in the data file sequentially.
      * <p>
-     * Uses a max-heap ({@link PriorityQueue}) to maintain the {@code k} closest records seen so far.
+     * Uses a max-heap ({@link PriorityQueue}) to maintain the {@code k} closest records seen so far. The distances of a
+     * block are computed over the coordinate columns of its {@link DataPage}, and a {@link Record} is only built for the
+     * rows that enter the heap.
      */
 
 
     private void findNeighbours() {
-        int totalBlocks = FilesHandler.getTotalBlocksInDataFile();
+        int totalBlocks = store.getTotalBlocksInDataFile();
+        double[] squaredDistances = new double[0];
         for (int blockId = 1; blockId < totalBlocks; blockId++) {
-            ArrayList<Record> recordsInBlock = FilesHandler.readDataFileBlock(blockId);
-            if (recordsInBlock == null) continue;
+            if ((blockId - 1) % SpatialStore.MAX_COALESCED_BLOCKS == 0)
+                store.loadDataBlocks(blockId, Math.min(blockId + SpatialStore.MAX_COALESCED_BLOCKS, totalBlocks));
+            DataPage page = store.readDataPage(blockId);
+            if (page == null) continue;
 
-            for (Record record : recordsInBlock) {
-                double distance = calculateEuclideanDistance(record.getCoordinates(), searchPoint);
+            if (squaredDistances.length < page.size())
+                squaredDistances = new double[page.size()];
+            page.squaredDistances(searchPointCoordinates, squaredDistances);
+            for (int row = 0; row < page.size(); row++) {
+                double distance = Math.sqrt(squaredDistances[row]);
 
                 if (nearestNeighbours.size() < k) {
-                    nearestNeighbours.add(new RecordDistancePair(record, distance));
+                    nearestNeighbours.add(new RecordDistancePair(page.getRecord(row), distance));
                 } else if (distance < nearestNeighbours.peek().getDistance()) {
                     nearestNeighbours.poll();
-                    nearestNeighbours.add(new RecordDistancePair(record, distance));
+                    nearestNeighbours.add(new RecordDistancePair(page.getRecord(row), distance));
                 }
             }
         }
     }
-
-
-    /**
-     * Calculates the Euclidean distance between two points in a n-dimensional space.
-     *
-     * @param a The first point.
-     * @param b The second point.
-     * @return The Euclidean distance between a and b.
-     */
-
-
-    private double calculateEuclideanDistance(ArrayList<Double> a, ArrayList<Double> b) {
-        double sum = 0;
-        for (int i = 0; i < a.size(); i++) {
-            double diff = a.get(i) - b.get(i);
-            sum += diff * diff;
-        }
-        return Math.sqrt(sum);
-    }
 }
@@ -6,7 +6,9 @@ import  java.util.ArrayList;
  * <p>
  * It scans all records and returns those whose coordinates lie within a specified {@link MBR} (Minimum Bounding Rectangle).
  * <p>
- * This implementation does not use any index structure (like an R*-Tree); it performs a full scan of the data blocks.
+ * This implementation does not use any index structure (like an R*-Tree); it performs a full scan of the data blocks,
+ * filtering the coordinate columns of every {@link DataPage}. Blocks missing from the buffer pool are read in runs of
+ * adjacent blocks with one read each, see {@link SpatialStore#loadDataBlocks(long, long)}.
  */
 
 
@@ -14,42 +16,40 @@ public class LinearRangeQuery {
 
 
     /**
-     * Checks if the given coordinates are within the provided minimum and maximum {@link Bounds} for all dimensions.
+     * Executes a linear range query by scanning all records in the datafile.
+     * <p>
+     * Returns all {@link Record}s whose coordinates fall within the given {@link MBR}.
      *
-     * @param coords The coordinates of a {@link Record}.
-     * @param minCoor An array of minimum {@link Bounds} for each dimension.
-     * @param maxCoor An array of maximum {@link Bounds} for each dimension.
-     * @return {@code true} if the coordinates lie within the {@link Bounds} in all dimensions; {@code false} otherwise.
+     * @param store The {@link SpatialStore} whose datafile is scanned.
+     * @param queryMBR The query {@link MBR} that defines the range of interest.
+     * @return A list of {@link Record}s that lie within the specified range.
      */
 
 
-    private static boolean inRange(ArrayList<Double> coords, double[] minCoor, double[] maxCoor) {
-        for (int i = 0; i < coords.size(); i++) {
-            if (coords.get(i) < minCoor[i] || coords.get(i) > maxCoor[i]) {
-                return false;
-            }
-        }
-        return true;
+    public static ArrayList<Record> runLinearRangeQuery(SpatialStore store, MBR queryMBR){
+        return runLinearRangeQuery(store, queryMBR, QueryResults.Projection.RECORDS).getRecords();
     }
 
 
     /**
-     * Executes a linear range query by scanning all records in the datafile.
-     * <p>
-     * Returns all {@link Record}s whose coordinates fall within the given {@link MBR}.
+     * Executes a linear range query by scanning all records in the datafile, returning only the columns of the
+     * {@code projection}. With {@link QueryResults.Projection#IDS} or {@link QueryResults.Projection#COORDINATES} no name
+     * is decoded and no {@link Record} is built.
      *
+     * @param store The {@link SpatialStore} whose datafile is scanned.
      * @param queryMBR The query {@link MBR} that defines the range of interest.
-     * @return A list of {@link Record}s that lie within the specified range.
+     * @param projection The columns of the results.
+     * @return The {@link QueryResults} of the records that lie within the specified range.
      */
 
 
-    public static ArrayList<Record> runLinearRangeQuery(MBR queryMBR){
-        ArrayList<Record> results = new ArrayList<>();
+    static QueryResults runLinearRangeQuery(SpatialStore store, MBR queryMBR, QueryResults.Projection projection){
 
-        int totalBlocks = FilesHandler.getTotalBlocksInDataFile();
+        int totalBlocks = store.getTotalBlocksInDataFile();
         ArrayList<Bounds> boundsList = queryMBR.getBounds();
 
-        int dimensions = FilesHandler.getDataDimensions();
+        int dimensions = store.getDataDimensions();
+        QueryResults results = new QueryResults(projection, dimensions);
         double[] minCoor = new double[dimensions];
         double[] maxCoor = new double[dimensions];
 
@@ -59,15 +59,17 @@ public class LinearRangeQuery {
             maxCoor[i]= b.getUpper();
         }
 
+        int[] selection = new int[0];
         for(int blockId=1; blockId<totalBlocks; blockId++){
-            ArrayList<Record> records = FilesHandler.readDataFileBlock(blockId);
-            if(records == null) continue;
-
-            for(Record rec : records){
-                if(inRange(rec.getCoordinates(), minCoor, maxCoor)){
-                    results.add(rec);
-                }
-            }
+            if ((blockId - 1) % SpatialStore.MAX_COALESCED_BLOCKS == 0)
+                store.loadDataBlocks(blockId, Math.min(blockId + SpatialStore.MAX_COALESCED_BLOCKS, totalBlocks));
+            DataPage page = store.readDataPage(blockId);
+            if(page == null) continue;
+
+            if(selection.length < page.size())
+                selection = new int[page.size()];
+            int selected = page.selectInRange(minCoor, maxCoor, selection);
+            results.addRows(page, selection, selected);
         }
         return results;
     }
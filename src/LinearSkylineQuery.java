@@ -22,84 +22,68 @@ public class LinearSkylineQuery {
      * Computes and returns the {@code Skyline} of all {@link Record}s stored in the datafile.
      * <p>
      * The {@code Skyline} is computed by comparing each {@link Record} to all others and retaining those that are not dominated.
+     * The coordinates of every {@link DataPage} are copied into one set of columns, which the
+     * {@link CoordinateKernels#isDominated} kernel scans for every candidate, and only the skyline rows are built as
+     * {@link Record}s.
      *
+     * @param store The {@link SpatialStore} whose datafile is scanned.
      * @return A list of {@link Record} objects representing the Skyline points.
      */
 
 
-    public static ArrayList<Record> computeSkyline() {
+    public static ArrayList<Record> computeSkyline(SpatialStore store) {
         ArrayList<Record> skyline = new ArrayList<>();
 
         System.out.println("Calculating Linear Skyline...");
         long startTime = System.currentTimeMillis();
 
-        ArrayList<Record> allRecords = new ArrayList<>();
-        int totalBlocks = FilesHandler.getTotalBlocksInDataFile();
+        ArrayList<DataPage> pages = new ArrayList<>();
+        int total = 0;
+        int totalBlocks = store.getTotalBlocksInDataFile();
         for (int i = 1; i < totalBlocks; i++) {
-            ArrayList<Record> blockRecords = FilesHandler.readDataFileBlock(i);
-            if (blockRecords != null)
-                allRecords.addAll(blockRecords);
+            if ((i - 1) % SpatialStore.MAX_COALESCED_BLOCKS == 0)
+                store.loadDataBlocks(i, Math.min(i + SpatialStore.MAX_COALESCED_BLOCKS, totalBlocks));
+            DataPage page = store.readDataPage(i);
+            if (page != null && page.size() > 0) {
+                pages.add(page);
+                total += page.size();
+            }
+        }
+
+        int dimensions = pages.isEmpty() ? 0 : pages.get(0).getDimensions();
+        double[][] columns = new double[dimensions][total];
+        int offset = 0;
+        for (DataPage page : pages) {
+            for (int d = 0; d < dimensions; d++)
+                System.arraycopy(page.getColumn(d), 0, columns[d], offset, page.size());
+            offset += page.size();
         }
 
-        int total = allRecords.size();
         System.out.println("Total records loaded: " + total);
         System.out.println();
 
-        for (int i = 0; i < total; i++) {
-            Record candidate = allRecords.get(i);
-            boolean dominated = false;
-            for (Record other : allRecords) {
-                if (dominates(other, candidate)) {
-                    dominated = true;
-                    break;
+        CoordinateKernels kernels = CoordinateKernels.INSTANCE;
+        double[] candidate = new double[dimensions];
+        int i = 0;
+        for (DataPage page : pages) {
+            for (int row = 0; row < page.size(); row++, i++) {
+                for (int d = 0; d < dimensions; d++)
+                    candidate[d] = columns[d][i];
+                if (!kernels.isDominated(columns, total, candidate)) {
+                    skyline.add(page.getRecord(row));
                 }
-            }
-            if (!dominated) {
-                skyline.add(candidate);
-            }
 
-            // Progress Bar
-            if ((i + 1) % 1000 == 0 || i + 1 == total) {
-                long now = System.currentTimeMillis();
-                long elapsed = now - startTime;
-                double progress = (100.0 * (i + 1)) / total;
-                System.out.printf("Checked %d/%d records (%.2f%%) - Elapsed: %d ms%n",
-                        i + 1, total, progress, elapsed);
+                // Progress Bar
+                if ((i + 1) % 1000 == 0 || i + 1 == total) {
+                    long now = System.currentTimeMillis();
+                    long elapsed = now - startTime;
+                    double progress = (100.0 * (i + 1)) / total;
+                    System.out.printf("Checked %d/%d records (%.2f%%) - Elapsed: %d ms%n",
+                            i + 1, total, progress, elapsed);
+                }
             }
         }
 
         return skyline;
     }
-
-
-    /**
-     * Determines whether {@link Record} {@code a} dominates {@link Record} {@code b}.
-     * <p>
-     * A record {@code a} dominates another record {@code b} if for all dimensions:
-     * <ul>
-     *     <li>{@code a}'s coordinate is less than or equal to {@code b}'s coordinate</li>
-     *     <li>and {@code a} is strictly better (lower) in at least one dimension</li>
-     * </ul>
-     *
-     * @param a The record that is tested as the potential dominator.
-     * @param b The record that is tested as the potential dominated record.
-     * @return {@code true} if {@code a} dominates {@code b}; {@code false} otherwise.
-     */
-
-
-    private static boolean dominates(Record a, Record b) {
-        ArrayList<Double> coordsA = a.getCoordinates();
-        ArrayList<Double> coordsB = b.getCoordinates();
-        boolean strictlyBetterInOne = false;
-
-        for (int i = 0; i < coordsA.size(); i++) {
-            if (coordsA.get(i) > coordsB.get(i)) {
-                return false;
-            } else if (coordsA.get(i) < coordsB.get(i)) {
-                strictlyBetterInOne = true;
-            }
-        }
-
-        return strictlyBetterInOne;
-    }
 }
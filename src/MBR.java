@@ -43,6 +43,34 @@ class MBR implements Serializable {
     }
 
 
+    /**
+     * Getter for the lower {@link Bounds} of every dimension, in a new array that the caller may change
+     * @return The lower corner of the {@link MBR}
+     */
+
+
+    double[] getLowerCorner() {
+        double[] corner = new double[bounds.size()];
+        for (int d = 0; d < corner.length; d++)
+            corner[d] = bounds.get(d).getLower();
+        return corner;
+    }
+
+
+    /**
+     * Getter for the upper {@link Bounds} of every dimension, in a new array that the caller may change
+     * @return The upper corner of the {@link MBR}
+     */
+
+
+    double[] getUpperCorner() {
+        double[] corner = new double[bounds.size()];
+        for (int d = 0; d < corner.length; d++)
+            corner[d] = bounds.get(d).getUpper();
+        return corner;
+    }
+
+
     /**
      * Getter for the {@link MBR}'s {@code area}
      * @return {@link MBR}'s {@code area}
@@ -82,7 +110,7 @@ class MBR implements Serializable {
         {
             center = new ArrayList<>();
 
-            for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+            for (int d = 0; d < bounds.size(); d++)
                 center.add((bounds.get(d).getUpper()+bounds.get(d).getLower())/2);
         }
         return center;
@@ -99,7 +127,7 @@ class MBR implements Serializable {
     double findMinDistanceFromPoint(ArrayList<Double> point){
         double minDistance = 0;
         double rd;
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < bounds.size(); d++)
         {
             if(getBounds().get(d).getLower() > point.get(d))
                 rd = getBounds().get(d).getLower();
@@ -122,7 +150,7 @@ class MBR implements Serializable {
 
     private double calculateMargin() {
         double sum = 0;
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < bounds.size(); d++)
             sum += abs(bounds.get(d).getUpper() - bounds.get(d).getLower());
         return sum;
     }
@@ -136,7 +164,7 @@ class MBR implements Serializable {
 
     private double calculateArea() {
         double productOfEdges = 1;
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < bounds.size(); d++)
             productOfEdges = productOfEdges * (bounds.get(d).getUpper() - bounds.get(d).getLower());
         return abs(productOfEdges);
     }
@@ -151,7 +179,7 @@ class MBR implements Serializable {
 
 
     static boolean checkOverlap(MBR MBRA, MBR MBRB) {
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < MBRA.getBounds().size(); d++)
         {
             double overlapD = Math.min(MBRA.getBounds().get(d).getUpper(), MBRB.getBounds().get(d).getUpper())
                     - Math.max(MBRA.getBounds().get(d).getLower(), MBRB.getBounds().get(d).getLower());
@@ -163,6 +191,25 @@ class MBR implements Serializable {
     }
 
 
+    /**
+     * Checks if the first MBR contains the second one
+     * @param outer The containing {@link MBR}
+     * @param inner The contained {@link MBR}
+     * @return {@code true} if {@code inner} is inside {@code outer} in every dimension, else {@code false}
+     */
+
+
+    static boolean checkContainment(MBR outer, MBR inner) {
+        for (int d = 0; d < outer.getBounds().size(); d++)
+        {
+            if (inner.getBounds().get(d).getLower() < outer.getBounds().get(d).getLower()
+                    || inner.getBounds().get(d).getUpper() > outer.getBounds().get(d).getUpper())
+                return false;
+        }
+        return true;
+    }
+
+
     /**
      * Calculates and returns the given MBRs {@code overlapValue}
      * @param MBRA The first {@link MBR}
@@ -173,7 +220,7 @@ class MBR implements Serializable {
 
     static double calculateOverlapValue(MBR MBRA, MBR MBRB) {
         double overlapValue = 1;
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < MBRA.getBounds().size(); d++)
         {
             double overlapD = Math.min(MBRA.getBounds().get(d).getUpper(), MBRB.getBounds().get(d).getUpper())
                     - Math.max(MBRA.getBounds().get(d).getLower(), MBRB.getBounds().get(d).getLower());
@@ -198,7 +245,7 @@ class MBR implements Serializable {
     static double findDistanceBetweenMBRs(MBR MBRA, MBR MBRB) {
         double distance = 0;
         // For every dimension find the intersection point
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < MBRA.getBounds().size(); d++)
         {
             distance += Math.pow(MBRA.getCenter().get(d) - MBRB.getCenter().get(d),2);
         }
@@ -206,6 +253,27 @@ class MBR implements Serializable {
     }
 
 
+    /**
+     * Calculates and returns the minimum distance between any two points of the two given MBRs, 0 if they overlap
+     * @param MBRA The first {@link MBR}
+     * @param MBRB The second {@link MBR}
+     * @return The minimum distance
+     */
+
+
+    static double findMinDistanceBetweenMBRs(MBR MBRA, MBR MBRB) {
+        double distance = 0;
+        for (int d = 0; d < MBRA.getBounds().size(); d++)
+        {
+            double gap = Math.max(MBRA.getBounds().get(d).getLower(), MBRB.getBounds().get(d).getLower())
+                    - Math.min(MBRA.getBounds().get(d).getUpper(), MBRB.getBounds().get(d).getUpper());
+            if (gap > 0)
+                distance += gap * gap;
+        }
+        return sqrt(distance);
+    }
+
+
     /**
      * Calculates the sum of the lower {@link Bounds} in each dimension
      * <p></p> Used as priority metric for {@link OptimalSkylineQuery}
@@ -5,14 +5,20 @@ import java.util.*;
 
 public class Main {
     public static void main(String[] args) throws IOException {
-        boolean filesExist = Files.exists(Paths.get(FilesHandler.PATH_TO_DATAFILE));
+        SpatialStore store = new SpatialStore(SpatialStore.DEFAULT_DIRECTORY);
+        boolean filesExist = Files.exists(Paths.get(store.getPathToDataFile()));
         boolean resetFiles = false;
 
         Scanner scanner = new Scanner(System.in);
 
-        if (filesExist) {
+        if (filesExist && !store.hasCurrentFileFormat()) {
+            System.out.println("Data-file and index-file were written by an older version and must be rebuilt from the "
+                    + store.getPathToCsv() + " file");
+            resetFiles = true;
+        }
+        else if (filesExist) {
             System.out.println("Data-file and index-file already exist");
-            System.out.print("Do you want to make new ones based on the data of the " + FilesHandler.getPathToCsv() +  " file? (y/n): ");
+            System.out.print("Do you want to make new ones based on the data of the " + store.getPathToCsv() +  " file? (y/n): ");
             String answer;
             while (true)
             {
@@ -35,14 +41,14 @@ public class Main {
 
         if(!filesExist || resetFiles) {
             insertRecordsFromDataFile = true;
-            System.out.print("Give the dimensions of the spacial data (dimensions need to be the same as the data saved in " + FilesHandler.getPathToCsv() + "): ");
+            System.out.print("Give the dimensions of the spacial data (dimensions need to be the same as the data saved in " + store.getPathToCsv() + "): ");
             dataDimensions = scanner.nextInt();
             scanner.nextLine();
             System.out.println();
         }
 
-        FilesHandler.initializeDataFile(dataDimensions, resetFiles);
-        FilesHandler.initializeIndexFile(dataDimensions, resetFiles);
+        store.initializeDataFile(dataDimensions, resetFiles);
+        store.initializeIndexFile(dataDimensions, resetFiles);
 
         double duration_in_ms;
         long startTime;
@@ -71,16 +77,16 @@ public class Main {
             System.out.println("Building R*Tree index from datafile...");
             System.out.println();
             startTime = System.nanoTime();
-            tree = new RStarTree(useBulkLoad);
+            tree = new RStarTree(store, useBulkLoad);
             endTime = System.nanoTime();
             duration_in_ms = (endTime - startTime);
             System.out.println();
             System.out.println("R*Tree index built in " +duration_in_ms / 1000000.0 + "ms");
         }
-        ArrayList<Integer> dataMetaData = FilesHandler.getDataMetaData();
-        ArrayList<Integer> indexMetaData = FilesHandler.getIndexMetaData();
+        ArrayList<Integer> dataMetaData = store.getDataMetaData();
+        ArrayList<Integer> indexMetaData = store.getIndexMetaData();
         if(!insertRecordsFromDataFile){
-            tree = new RStarTree(indexMetaData);
+            tree = new RStarTree(store, indexMetaData);
         }
 
         System.out.println("Datafile Metadata: [Dimensions: " + dataMetaData.getFirst() +
@@ -117,6 +123,7 @@ public class Main {
 
                 //      EXIT
                 case "0":
+                    store.close();
                     System.out.println("Exiting application");
                     break;
 
@@ -126,7 +133,7 @@ public class Main {
 
                     //Runs for more than 2 dimensions if needed
                     boundsList = new ArrayList<>();
-                    dims = FilesHandler.getDataDimensions();
+                    dims = store.getDataDimensions();
 
                     System.out.println("Give Lower and Upper bounds for the Query MBR for each dimension: ");
                     for (int i = 0; i < dims; i++) {
@@ -146,7 +153,7 @@ public class Main {
 
                     queryMBR = new MBR(boundsList);
                     startTime = System.nanoTime();
-                    queryResults = LinearRangeQuery.runLinearRangeQuery(queryMBR);
+                    queryResults = LinearRangeQuery.runLinearRangeQuery(store, queryMBR);
                     endTime = System.nanoTime();
                     duration_in_ms = (endTime - startTime) / 1000000.0;
 
@@ -168,7 +175,7 @@ public class Main {
                 case "2":
                     System.out.println("Range Query using R* Tree index Selected");
                     boundsList = new ArrayList<>();
-                    dims = FilesHandler.getDataDimensions();
+                    dims = store.getDataDimensions();
 
 
                     System.out.println("Give Lower and Upper bounds for the Query MBR for each dimension: ");
@@ -190,7 +197,7 @@ public class Main {
 
                     queryMBR = new MBR(boundsList);
                     startTime = System.nanoTime();
-                    queryResults = RangeQuery.rangeQuery(FilesHandler.readNode(RStarTree.getRootNodeBlockId(), 0), queryMBR);
+                    queryResults = RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR);
                     endTime = System.nanoTime();
                     duration_in_ms = (endTime - startTime) / 1000000.0;
 
@@ -213,7 +220,7 @@ public class Main {
                     int k = scanner.nextInt();
                     scanner.nextLine(); // <-- Απαραίτητο!
 
-                    int dimensions = FilesHandler.getDataDimensions();
+                    int dimensions = store.getDataDimensions();
                     ArrayList<Double> queryPoint = new ArrayList<>();
                     System.out.println("Enter coordinates of the query point (you have " + dimensions + " dimensions):");
                     for (int i = 0; i < dimensions; i++) {
@@ -225,7 +232,7 @@ public class Main {
 
                     // Run k-NN query
                     startTime = System.nanoTime();
-                    LinearNearestNeighboursQuery query = new LinearNearestNeighboursQuery(queryPoint, k);
+                    LinearNearestNeighboursQuery query = new LinearNearestNeighboursQuery(store, queryPoint, k);
                     queryResults = query.getNearestRecords();
                     endTime = System.nanoTime();
 
@@ -250,7 +257,7 @@ public class Main {
                     System.out.print("Enter value for K: ");
                     int k2 = scanner.nextInt();
                     scanner.nextLine(); // <-- Απαραίτητο!
-                    int dimensions2 = FilesHandler.getDataDimensions();
+                    int dimensions2 = store.getDataDimensions();
                     ArrayList<Double> queryPoint2 = new ArrayList<>();
                     System.out.println("Enter coordinates of the query point (you have " + dimensions2 + " dimensions):");
                     for (int i = 0; i < dimensions2; i++) {
@@ -261,7 +268,7 @@ public class Main {
                     }
                     // Run k-NN query
                     startTime = System.nanoTime();
-                    queryResults = NearestNeighboursQuery.getNearestNeighbours(queryPoint2, k2);
+                    queryResults = NearestNeighboursQuery.getNearestNeighbours(tree, queryPoint2, k2);
                     endTime = System.nanoTime();
 
                     double duration2 = (endTime - startTime) / 1_000_000.0;
@@ -284,7 +291,7 @@ public class Main {
                     System.out.println("Linear Skyline Query Selected");
 
                     startTime = System.nanoTime();
-                    queryResults = LinearSkylineQuery.computeSkyline();
+                    queryResults = LinearSkylineQuery.computeSkyline(store);
                     endTime = System.nanoTime();
 
                     duration_in_ms = (endTime - startTime) / 1_000_000.0;
@@ -307,7 +314,7 @@ public class Main {
 
                     startTime = System.nanoTime();
 
-                    ArrayList<Record> skylineResults = OptimalSkylineQuery.computeSkyline();
+                    ArrayList<Record> skylineResults = OptimalSkylineQuery.computeSkyline(tree);
 
                      endTime = System.nanoTime();
                     double durationInMs = (endTime - startTime) / 1_000_000.0;
@@ -327,7 +334,7 @@ public class Main {
                 //      SINGLE RECORD INSERT
                 case "7":
                     System.out.println("Single Record Insert Selected");
-                    dims = FilesHandler.getDataDimensions();
+                    dims = store.getDataDimensions();
                     ArrayList<Double> newCoords = new ArrayList<>();
                     System.out.println("Enter coordinates for the new record (you have " + dims + " dimensions):");
 
@@ -367,8 +374,14 @@ public class Main {
                     Record newRecord = new Record(recordID, recordName,newCoords);
 
                     try {
-                        tree.insertSingleRecord(newRecord);
+                        if (tree.insertSingleRecord(newRecord)) {
+                            tree.commitUpdates();
+                            System.out.println("Record added to R*-Tree.");
+                        } else {
+                            System.out.println("Record with ID " + recordID + " already exists in Index");
+                        }
                     } catch (Exception e) {
+                        tree.rollbackUpdates();
                         System.out.println("Error inserting record: " + e.getMessage());
                     }
 
@@ -391,8 +404,14 @@ public class Main {
 
                     try {
                         assert tree != null;
-                        tree.deleteRecord(deleteRecordID);
+                        if (tree.deleteRecord(deleteRecordID)) {
+                            tree.commitUpdates();
+                            System.out.println("Record removed from R*-Tree.");
+                        } else {
+                            System.out.println("Record not found in index!");
+                        }
                     } catch (Exception e) {
+                        tree.rollbackUpdates();
                         System.out.println("Error deleting record: " + e.getMessage());
                     }
 
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+
+/**
+ *
+ *
+ * Class {@link NearestNeighboursIterator} browses the records of an {@link RStarTree} by distance from a search point:
+ * every {@link #next} returns the nearest record that was not returned yet, without knowing up front how many records
+ * the consumer needs.
+ * <p>
+ * It implements the incremental nearest neighbour algorithm of Hjaltason and Samet with one priority queue over the
+ * entries of the visited nodes, keyed by the minimum distance of their {@link MBR}, and the rows of the visited data
+ * blocks, keyed by their distance. The head of the queue is expanded until it is a row, which is then nearer than every
+ * record that is still in an unvisited subtree. So the next record costs only the blocks that were not needed for the
+ * previous ones, and a consumer that stops early never reads the rest of the tree.
+ * <p>
+ * A row keeps its {@link DataPage} and is only decoded into a {@link Record} when it is returned. Nodes are read through
+ * {@link RStarTree#readChildNodes} when they are reached, so the iterator sees the tree as it is at that moment, or the
+ * {@link IndexSnapshot} bound to the consuming thread. A {@link NearestNeighboursIterator} is not thread-safe.
+ *
+ *
+ */
+
+
+class NearestNeighboursIterator implements Iterator<RecordDistancePair> {
+    /** The tree that is browsed */
+    private final RStarTree tree;
+
+    /** The search point */
+    private final ArrayList<Double> searchPoint;
+
+    /** The coordinates of the search point */
+    private final double[] searchPointCoordinates;
+
+    /** The entries and rows still to visit, nearest first */
+    private final PriorityQueue<QueueElement> queue = new PriorityQueue<>(
+            Comparator.comparingDouble((QueueElement element) -> element.distance)
+                    .thenComparing(element -> element.page == null) // rows before entries at the same distance
+                    .thenComparingLong(element -> element.order));
+
+    /** The number of elements added to the queue, so that elements at the same distance keep the tree order */
+    private long order;
+
+    /** The distances of the rows of a page, reused for every page */
+    private double[] squaredDistances = new double[0];
+
+
+    /**
+     * An element of the queue: an {@link Entry} of a visited {@link Node}, or a row of a visited {@link DataPage}.
+     */
+
+
+    private static final class QueueElement {
+        final double distance;
+        final long order;
+        final Node node;
+        final Entry entry;
+        final DataPage page;
+        final int row;
+
+        QueueElement(double distance, long order, Node node, Entry entry, DataPage page, int row) {
+            this.distance = distance;
+            this.order = order;
+            this.node = node;
+            this.entry = entry;
+            this.page = page;
+            this.row = row;
+        }
+    }
+
+
+    /**
+     * {@link NearestNeighboursIterator} constructor. Only the entries of the start {@code node} are queued until the first
+     * {@link #hasNext}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to
+     * @param node The node to start from, usually the root
+     * @param searchPoint The search point
+     */
+
+
+    NearestNeighboursIterator(RStarTree tree, Node node, ArrayList<Double> searchPoint) {
+        this.tree = tree;
+        this.searchPoint = searchPoint;
+        this.searchPointCoordinates = searchPoint.stream().mapToDouble(Double::doubleValue).toArray();
+        addEntries(node);
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        while (!queue.isEmpty() && queue.peek().page == null)
+            expand(queue.poll());
+        return !queue.isEmpty();
+    }
+
+
+    @Override
+    public RecordDistancePair next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        QueueElement element = queue.poll();
+        return new RecordDistancePair(element.page.getRecord(element.row), element.distance);
+    }
+
+
+    /**
+     * {@code expand} helper method that replaces an {@link Entry} of the queue with the rows of its data block, or with
+     * the entries of its child {@link Node} and of the child's split siblings.
+     *
+     * @param element The queue element of the {@link Entry}
+     */
+
+
+    private void expand(QueueElement element) {
+        if (element.node.getNodeLevelInTree() != RStarTree.getLeafLevel()) {
+            for (Node childNode : tree.readChildNodes(element.entry))
+                addEntries(childNode);
+            return;
+        }
+
+        DataPage page = tree.readDataPage(((LeafEntry) element.entry).getDataBlockId());
+        if (page == null)
+            return;
+        if (squaredDistances.length < page.size())
+            squaredDistances = new double[page.size()];
+        page.squaredDistances(searchPointCoordinates, squaredDistances);
+        for (int row = 0; row < page.size(); row++)
+            queue.add(new QueueElement(Math.sqrt(squaredDistances[row]), order++, null, null, page, row));
+    }
+
+
+    /**
+     * {@code addEntries} helper method that queues the entries of a {@link Node} by the minimum distance of their
+     * {@link MBR}s from the search point.
+     *
+     * @param node The node
+     */
+
+
+    private void addEntries(Node node) {
+        for (Entry entry : node.getEntries())
+            queue.add(new QueueElement(entry.getMBR().findMinDistanceFromPoint(searchPoint), order++, node, entry, null, -1));
+    }
+}
@@ -1,5 +1,7 @@
 import javax.management.Query;
 import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -16,7 +18,9 @@ import java.util.*;
 
 
 class NearestNeighboursQuery extends Query {
+    private final RStarTree tree;
     private ArrayList<Double> searchPoint;
+    private final double[] searchPointCoordinates;
     private double searchPointRadius;
     private int k;
     private PriorityQueue<RecordDistancePair> nearestNeighbours;
@@ -25,16 +29,19 @@ class NearestNeighboursQuery extends Query {
     /**
      * Constructs a nearest neighbours query for the given {@code searchPoint} and {@code k}.
      *
+     * @param tree The {@link RStarTree} to search.
      * @param searchPoint The point for which the nearest neighbours are to be found.
      * @param k The number of nearest neighbours to retrieve.
      * @throws IllegalArgumentException if {@code k} is not positive.
      */
 
 
-    NearestNeighboursQuery(ArrayList<Double> searchPoint, int k) {
+    NearestNeighboursQuery(RStarTree tree, ArrayList<Double> searchPoint, int k) {
         if (k < 0)
             throw new IllegalArgumentException("Parameter 'k' for the nearest neighbours must be a positive integer.");
+        this.tree = tree;
         this.searchPoint = searchPoint;
+        this.searchPointCoordinates = searchPoint.stream().mapToDouble(Double::doubleValue).toArray();
         this.k = k;
         this.searchPointRadius = Double.MAX_VALUE;
         this.nearestNeighbours = new PriorityQueue<>(k, (recordDistancePairA, recordDistancePairB) -> Double.compare(recordDistancePairB.getDistance(), recordDistancePairA.getDistance()));
@@ -66,15 +73,49 @@ class NearestNeighboursQuery extends Query {
      * Static helper method to retrieve the {@code k} nearest neighbours for a {@code searchPoint},
      * starting from the root of the {@link RStarTree}.
      *
+     * @param tree The {@link RStarTree} to search.
      * @param searchPoint The query point.
      * @param k The number of nearest neighbours to retrieve.
      * @return A list of {@link Record} objects representing the nearest neighbours.
      */
 
 
-    static ArrayList<Record> getNearestNeighbours(ArrayList<Double> searchPoint, int k){
-        NearestNeighboursQuery query = new NearestNeighboursQuery(searchPoint,k);
-        return query.getQueryRecord(FilesHandler.readNode(RStarTree.getRootNodeBlockId(), 0));
+    static ArrayList<Record> getNearestNeighbours(RStarTree tree, ArrayList<Double> searchPoint, int k){
+        NearestNeighboursQuery query = new NearestNeighboursQuery(tree, searchPoint,k);
+        return query.getQueryRecord(tree.getRootNode());
+    }
+
+
+    /**
+     * Browses the records by distance from a {@code searchPoint}, starting from the given {@code node}, without a fixed
+     * {@code k}: every record is found only when it is asked for, see {@link NearestNeighboursIterator}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The node to start from, usually the root.
+     * @param searchPoint The query point.
+     * @return An {@link Iterator} over the records and their distances, nearest first.
+     */
+
+
+    static Iterator<RecordDistancePair> iterator(RStarTree tree, Node node, ArrayList<Double> searchPoint) {
+        return new NearestNeighboursIterator(tree, node, searchPoint);
+    }
+
+
+    /**
+     * Browses the records by distance from a {@code searchPoint} as a lazy sequential {@link Stream}, e.g. to take the
+     * nearest records that match a condition with {@link Stream#filter} and {@link Stream#limit}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The node to start from, usually the root.
+     * @param searchPoint The query point.
+     * @return A {@link Stream} of the records and their distances, nearest first.
+     */
+
+
+    static Stream<RecordDistancePair> stream(RStarTree tree, Node node, ArrayList<Double> searchPoint) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(tree, node, searchPoint),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
     }
 
 
@@ -96,6 +137,7 @@ class NearestNeighboursQuery extends Query {
         for (Entry e : node.getEntries()) {
             queue.add(new NodeEntryPair(node, e));
         }
+        prefetchByMinDistance(node);
 
         while (!queue.isEmpty()) {
             NodeEntryPair pair = queue.poll();
@@ -106,19 +148,19 @@ class NearestNeighboursQuery extends Query {
             if (nearestNeighbours.size() == k && minDistance >= searchPointRadius) continue;
 
 
-            Node childNode = FilesHandler.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
-            if (childNode == null) continue;
-
-            if (childNode.getNodeLevelInTree() == RStarTree.getLeafLevel()){
-                ArrayList<Record> records = FilesHandler.readDataFileBlock(entry.getChildNodeBlockId());
-                if (records != null){
-                    for (Record record : records) {
-                        double distance = calculateEuclideanDistance(record.getCoordinates(), searchPoint);
+            // The entries of a leaf point to data blocks, the others to nodes
+            if (pair.node.getNodeLevelInTree() == RStarTree.getLeafLevel()){
+                DataPage page = tree.readDataPage(((LeafEntry) entry).getDataBlockId());
+                if (page != null){
+                    double[] squaredDistances = new double[page.size()];
+                    page.squaredDistances(searchPointCoordinates, squaredDistances);
+                    for (int row = 0; row < page.size(); row++) {
+                        double distance = Math.sqrt(squaredDistances[row]);
                         if (nearestNeighbours.size() < k){
-                            nearestNeighbours.add(new RecordDistancePair(record, distance));
+                            nearestNeighbours.add(new RecordDistancePair(page.getRecord(row), distance));
                         } else if (distance < nearestNeighbours.peek().getDistance()){
                             nearestNeighbours.poll();
-                            nearestNeighbours.add(new RecordDistancePair(record, distance));
+                            nearestNeighbours.add(new RecordDistancePair(page.getRecord(row), distance));
                             searchPointRadius = nearestNeighbours.peek().getDistance();
                         }
 
@@ -128,8 +170,11 @@ class NearestNeighboursQuery extends Query {
                     }
                 }
             } else {
-                for(Entry childEntry : childNode.getEntries()){
-                    queue.add(new NodeEntryPair(childNode, childEntry));
+                for (Node splitNode : tree.readChildNodes(entry)) {
+                    for(Entry childEntry : splitNode.getEntries()){
+                        queue.add(new NodeEntryPair(splitNode, childEntry));
+                    }
+                    prefetchByMinDistance(splitNode);
                 }
             }
         }
@@ -138,37 +183,35 @@ class NearestNeighboursQuery extends Query {
 
 
     /**
-     * Helper class to associate a {@link Node} and an {@link Entry} in the traversal queue.
+     * Starts loading the blocks of a node's entries in the background, nearest {@link MBR} first, which is the order the
+     * queue visits them in. Entries that are farther than the current {@code k}-th neighbour are not prefetched.
+     *
+     * @param node The node whose entries were added to the queue.
      */
 
 
-    private static class NodeEntryPair {
-        Node node;
-        Entry entry;
-        NodeEntryPair(Node node, Entry entry) {
-            this.node = node;
-            this.entry = entry;
+    private void prefetchByMinDistance(Node node) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (Entry entry : node.getEntries()) {
+            if (nearestNeighbours.size() < k || entry.getMBR().findMinDistanceFromPoint(searchPoint) < searchPointRadius)
+                entries.add(entry);
         }
+        entries.sort(Comparator.comparingDouble(entry -> entry.getMBR().findMinDistanceFromPoint(searchPoint)));
+        tree.prefetchChildren(node, entries, false);
     }
 
 
     /**
-     * Calculates the Euclidean distance between two points in n-dimensional space.
-     *
-     * @param a The first point.
-     * @param b The second point.
-     * @return The Euclidean distance between {@code a} and {@code b}.
+     * Helper class to associate a {@link Node} and an {@link Entry} in the traversal queue.
      */
 
-    private double calculateEuclideanDistance(ArrayList<Double> a, ArrayList<Double> b) {
-        double sum = 0;
-        for (int i = 0; i < a.size(); i++) {
-            double diff = a.get(i) - b.get(i);
-            sum += diff * diff;
+
+    private static class NodeEntryPair {
+        Node node;
+        Entry entry;
+        NodeEntryPair(Node node, Entry entry) {
+            this.node = node;
+            this.entry = entry;
         }
-        return Math.sqrt(sum);
     }
 }
-
-
-
@@ -19,17 +19,25 @@ import java.util.ArrayList;
  * <p>In this class, there is also the implementation of the {@link #chooseSplitAxis} and {@link #chooseSplitIndex} algorithms
  * described in the R*Tree paper.
  *
+ * <p>For concurrent inserts and deletes every {@link Node} also keeps a right-sibling link and a node sequence number
+ * ({@code NSN}), as in the R-link tree of Kornacker and Banks. When a {@link Node} is split, the new right half takes over
+ * its old right link and NSN, and the {@link Node} links to it and increases its NSN. A query that reaches the {@link Node}
+ * through an {@link Entry} that remembers an older NSN knows that the {@link Node} was split after the {@link Entry}
+ * was read, and also visits the right siblings. See {@link NodeLatches}.
+ *
  *
  */
 
 
 class Node implements Serializable {
-    private static final int MAX_ENTRIES = 4; // The maximum entries that a Node can fit based on the file parameters
-    private static final int MIN_ENTRIES = (int)(0.5 * MAX_ENTRIES); // Setting m to 50%
+    static final int DEFAULT_MAX_ENTRIES = 4; // The maximum entries of a Node in a block of the default size, see SpatialStore#getMaxEntriesInNode
     private int level; // The level of the tree that this Node is located
     private long blockId = -1; // The unique ID of the file block that this Node refers to
     private ArrayList<Entry> entries; // The ArrayList with the Entries of the Node
     private int nodeIndexInBlock = -1;
+    private long nodeSequenceNumber = 0; // Increased every time the Node is split by a concurrent insert
+    private long rightSiblingBlockId = -1; // The Block Id of the Node created by the last split, -1 if none
+    private int rightSiblingIndexInBlock = -1; // The Index in the Block of the right sibling
 
 
     /**
@@ -87,27 +95,6 @@ class Node implements Serializable {
     }
 
 
-    /**
-     * Getter for M.
-     *
-     * @return {@code MAX_ENTRIES}
-     */
-
-
-    static int getMaxEntriesInNode() {
-        return MAX_ENTRIES;
-    }
-
-
-    /**
-     * Getter for m = M/2.
-     *
-     * @return {@code MIN_ENTRIES}
-     */
-
-    static int getMinEntriesInNode() {return MIN_ENTRIES;}
-
-
     /**
      * Getter for the {@link Node}'s {@link IndexBlock} id
      *
@@ -172,6 +159,114 @@ class Node implements Serializable {
     public int getNodeIndexInBlock() { return nodeIndexInBlock; }
 
 
+    /**
+     * Getter for the {@link Node}'s sequence number ({@code NSN}).
+     *
+     * @return The {@code NSN}.
+     */
+
+
+    long getNodeSequenceNumber() {
+        return nodeSequenceNumber;
+    }
+
+
+    /**
+     * Setter for the {@link Node}'s sequence number ({@code NSN}).
+     *
+     * @param nodeSequenceNumber The {@code NSN} to set.
+     */
+
+
+    void setNodeSequenceNumber(long nodeSequenceNumber) {
+        this.nodeSequenceNumber = nodeSequenceNumber;
+    }
+
+
+    /**
+     * Checks whether the {@link Node} links to a right sibling.
+     *
+     * @return {@code true} if the {@link Node} has been split by a concurrent insert, else {@code false}
+     */
+
+
+    boolean hasRightSibling() {
+        return rightSiblingBlockId != -1;
+    }
+
+
+    /**
+     * Getter for the right sibling's {@link IndexBlock} id
+     *
+     * @return The right sibling's {@link IndexBlock} id, -1 if there is no right sibling
+     */
+
+
+    long getRightSiblingBlockId() {
+        return rightSiblingBlockId;
+    }
+
+
+    /**
+     * Getter for the right sibling's {@code nodeIndex} in its {@link IndexBlock}
+     *
+     * @return The right sibling's {@code nodeIndex}, -1 if there is no right sibling
+     */
+
+
+    int getRightSiblingIndexInBlock() {
+        return rightSiblingIndexInBlock;
+    }
+
+
+    /**
+     * Setter for the right sibling link.
+     *
+     * @param blockId The right sibling's {@link IndexBlock} id
+     * @param nodeIndex The right sibling's {@code nodeIndex} in the {@link IndexBlock}
+     */
+
+
+    void setRightSibling(long blockId, int nodeIndex) {
+        this.rightSiblingBlockId = blockId;
+        this.rightSiblingIndexInBlock = nodeIndex;
+    }
+
+
+    /**
+     * Getter for the number of records in the {@link Node}'s subtree, the sum of its entries' record counts
+     *
+     * @return The subtree's record count
+     */
+
+
+    long getRecordCount() {
+        return Entry.sumRecordCounts(entries);
+    }
+
+
+    /**
+     * {@code copy} method returns a private copy of the {@link Node} with copies of its entries, so that a query can
+     * read it after releasing the {@link Node}'s latch.
+     *
+     * @return The copy of the {@link Node}
+     */
+
+
+    Node copy() {
+        ArrayList<Entry> copiedEntries = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+            copiedEntries.add(entry.copy());
+        Node copy = new Node(level, copiedEntries);
+        copy.blockId = blockId;
+        copy.nodeIndexInBlock = nodeIndexInBlock;
+        copy.nodeSequenceNumber = nodeSequenceNumber;
+        copy.rightSiblingBlockId = rightSiblingBlockId;
+        copy.rightSiblingIndexInBlock = rightSiblingIndexInBlock;
+        return copy;
+    }
+
+
     /**
      * Getter for the {@link Node}'s combined entries' {@link MBR}.
      *
@@ -182,9 +277,8 @@ class Node implements Serializable {
         if (entries == null || entries.isEmpty()) return null;
 
         ArrayList<Bounds> combinedBounds = new ArrayList<>();
-        int dimensions = FilesHandler.getDataDimensions();
-
         MBR firstMBR = entries.get(0).getMBR();
+        int dimensions = firstMBR.getBounds().size();
         for (int d = 0; d < dimensions; d++) {
             double lower = firstMBR.getBounds().get(d).getLower();
             double upper = firstMBR.getBounds().get(d).getUpper();
@@ -221,12 +315,13 @@ class Node implements Serializable {
     /**
      * Splits the {@link Node} into two nodes.
      *
+     * @param maxEntries M, the maximum entries of a {@link Node} of the store, see {@link SpatialStore#getMaxEntriesInNode}
      * @return {@link ArrayList} of the split nodes.
      */
 
 
-    ArrayList<Node> splitNode() {
-        ArrayList<Distribution> splitAxisDistributions = chooseSplitAxis();
+    ArrayList<Node> splitNode(int maxEntries) {
+        ArrayList<Distribution> splitAxisDistributions = chooseSplitAxis(maxEntries);
         return chooseSplitIndex(splitAxisDistributions);
     }
 
@@ -238,15 +333,17 @@ class Node implements Serializable {
      * For each axis it sorts the entries by the lower and then by the upper value of their rectangles and
      * determines all the distributions by the sum of all margin-values of the different distributions
      *
+     * @param maxEntries M, the maximum entries of a {@link Node} of the store
      * @return The {@code bestAxisDistributions}
      *
      */
 
 
-    private ArrayList<Distribution> chooseSplitAxis() {
+    private ArrayList<Distribution> chooseSplitAxis(int maxEntries) {
+        int minEntries = (int) (0.5 * maxEntries); // Setting m to 50%
         ArrayList<Distribution> bestAxisDistributions = new ArrayList<>();
         double minTotalMarginSum = Double.MAX_VALUE;
-        for (int d = 0; d < FilesHandler.getDataDimensions(); d++)
+        for (int d = 0; d < entries.get(0).getMBR().getBounds().size(); d++)
         {
             ArrayList<Entry> entriesSortedByUpper = new ArrayList<>();
             ArrayList<Entry> entriesSortedByLower = new ArrayList<>();
@@ -268,13 +365,13 @@ class Node implements Serializable {
             ArrayList<Distribution>  axisDistributions = new ArrayList<>();
             for (ArrayList<Entry> sortedEntryList: sortedEntries)
             {
-                for (int k = 1; k <= MAX_ENTRIES - 2* MIN_ENTRIES +2; k++)
+                for (int k = 1; k <= maxEntries - 2* minEntries +2; k++)
                 {
                     ArrayList<Entry> firstGroup = new ArrayList<>();
                     ArrayList<Entry> secondGroup = new ArrayList<>();
-                    for (int j = 0; j < (MIN_ENTRIES -1)+k; j++)
+                    for (int j = 0; j < (minEntries -1)+k; j++)
                         firstGroup.add(sortedEntryList.get(j));
-                    for (int j = (MIN_ENTRIES -1)+k; j < entries.size(); j++)
+                    for (int j = (minEntries -1)+k; j < entries.size(); j++)
                         secondGroup.add(sortedEntryList.get(j));
 
                     MBR bbFirstGroup = new MBR(Bounds.findMinimumBounds(firstGroup));
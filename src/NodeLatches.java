@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ *
+ *
+ * Class {@link NodeLatches} keeps a read/write latch for every {@link Node} of the {@link RStarTree} and implements the
+ * read side of the R-link protocol (Kornacker and Banks, "High-Concurrency Locking in R-Trees").
+ * <p>
+ * Queries never hold more than one latch: they latch a {@link Node} in shared mode, take a private copy of it with
+ * {@link Node#copy} and release the latch before visiting its children. If a child was split after its parent was copied,
+ * the child's sequence number is bigger than the one remembered by the parent's {@link Entry}, so the query also follows
+ * the child's right links to reach the entries that moved to the new siblings.
+ * <p>
+ * Writers descend like the queries, over copies read under shared latches, and latch in exclusive mode only the
+ * {@link Node} that they change: an insert descends again if the root was split in between, and an update or delete
+ * moves right, latch to latch, if the leaf's entry moved to a split sibling. Splits and {@link MBR} changes are
+ * then propagated upwards child-before-parent: the child's latch is held until its parent is latched and updated (see
+ * {@link RStarTree#insertSingleRecord} and {@link RStarTree#deleteRecord}).
+ * <p>
+ * If the current thread has an open {@link IndexSnapshot} of the store, nodes are read from the snapshot's committed
+ * version instead, without any latch. Every {@link SpatialStore} has its own latches.
+ *
+ *
+ */
+
+
+class NodeLatches {
+    /** The store of the latched nodes */
+    private final SpatialStore store;
+
+    /** The maximum amount of nodes in an {@link IndexBlock} of the store, used to build a unique key for every {@link Node} */
+    private final int nodeKeyStride;
+
+    /** The latches of the nodes by their key */
+    private final Map<Long, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+
+
+    /**
+     * {@link NodeLatches} constructor, used by the {@link SpatialStore} that owns the nodes.
+     *
+     * @param store The store of the latched nodes
+     * @param maxNodesInIndexBlock The maximum amount of nodes in an {@link IndexBlock} of the store
+     */
+
+
+    NodeLatches(SpatialStore store, int maxNodesInIndexBlock) {
+        this.store = store;
+        this.nodeKeyStride = maxNodesInIndexBlock;
+    }
+
+
+    /**
+     * Getter for the latch of a {@link Node}, created on first use.
+     *
+     * @param blockId The {@link Node}'s {@link IndexBlock} id
+     * @param nodeIndex The {@link Node}'s index in the {@link IndexBlock}
+     * @return The {@link Node}'s latch
+     */
+
+
+    ReentrantReadWriteLock getLatch(long blockId, int nodeIndex) {
+        return latches.computeIfAbsent(blockId * nodeKeyStride + nodeIndex, key -> new ReentrantReadWriteLock());
+    }
+
+
+    /**
+     * Getter for the exclusive side of a {@link Node}'s latch.
+     *
+     * @param node The {@link Node}, or a copy of it
+     * @return The exclusive {@link Lock}
+     */
+
+
+    Lock writeLatch(Node node) {
+        return getLatch(node.getNodeBlockId(), node.getNodeIndexInBlock()).writeLock();
+    }
+
+
+    /**
+     * {@code readNode} method reads a {@link Node} while holding its shared latch and returns a private copy of it.
+     * Under an open {@link IndexSnapshot}, returns the shared, never changed {@link Node} of the snapshot's version.
+     *
+     * @param blockId The {@link Node}'s {@link IndexBlock} id
+     * @param nodeIndex The {@link Node}'s index in the {@link IndexBlock}
+     * @return A copy of the {@link Node}
+     */
+
+
+    Node readNode(long blockId, int nodeIndex) {
+        IndexSnapshot snapshot = store.currentSnapshot();
+        if (snapshot != null)
+            return snapshot.readNode(blockId, nodeIndex);
+
+        Lock readLatch = getLatch(blockId, nodeIndex).readLock();
+        readLatch.lock();
+        try {
+            return store.readNode(blockId, nodeIndex).copy();
+        } finally {
+            readLatch.unlock();
+        }
+    }
+
+
+    /**
+     * {@code readChildNodes} method reads the child {@link Node} that an {@link Entry} points to, together with every right
+     * sibling that was split off the child after the {@link Entry} was read.
+     *
+     * @param entry The parent {@link Entry}, from a copy of the parent {@link Node}
+     * @return Copies of the child {@link Node} and the right siblings that the parent copy does not point to
+     */
+
+
+    ArrayList<Node> readChildNodes(Entry entry) {
+        ArrayList<Node> childNodes = new ArrayList<>();
+        Node node = readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
+        childNodes.add(node);
+        while (node.getNodeSequenceNumber() > entry.getChildNodeSequenceNumber() && node.hasRightSibling()) {
+            node = readNode(node.getRightSiblingBlockId(), node.getRightSiblingIndexInBlock());
+            childNodes.add(node);
+        }
+        return childNodes;
+    }
+}
@@ -1,15 +1,22 @@
 import java.io.File;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
- * {@code OptimalSkylineQuery} class implements a branch-and-bound algorithm for computing the {@code Skyline} of a dataset
- * stored in an {@link RStarTree} index. The algorithm traverses the R*-tree efficiently, pruning dominated entries
- * based on the Minimum Bounding Rectangle ({@link MBR}) sums.
+ * {@code OptimalSkylineQuery} class implements the Branch-and-Bound Skyline (BBS) algorithm of Papadias et al. for
+ * computing the {@code Skyline} of a dataset stored in an {@link RStarTree} index.
  * <p>
  * The skyline consists of all records that are not dominated by any other record in the dataset. A point
  * dominates another if it is equal or better in all dimensions and strictly better in at least one.
+ * <p>
+ * Entries and records are visited in ascending sum of coordinates, the sum of the lower corner of the {@link MBR} for
+ * an entry, so a record that dominates another is always visited first. A visited record that the skyline found so far
+ * does not dominate is therefore a skyline record, and is returned at once, which makes the skyline progressive. An
+ * entry whose lower corner is dominated only holds dominated records, so it is dropped both when it would be queued and
+ * when it is dequeued, without reading its subtree.
  * </p>
  */
 
@@ -20,90 +27,241 @@ public class OptimalSkylineQuery {
     /**
      * Computes the skyline set from all records stored in the {@link RStarTree}.
      *
-     * @return An {@link ArrayList} of {@link Record} objects that represent the skyline points.
+     * @param tree The {@link RStarTree} to search.
+     * @return An {@link ArrayList} of {@link Record} objects that represent the skyline points, in ascending sum of
+     * coordinates.
      */
 
 
-     public static ArrayList<Record> computeSkyline(){
+     public static ArrayList<Record> computeSkyline(RStarTree tree){
          ArrayList<Record> skyline = new ArrayList<>();
+         iterator(tree).forEachRemaining(skyline::add);
+         return skyline;
+     }
+
+
+    /**
+     * Returns the skyline records progressively, each one as soon as it is found, so that the first ones are available
+     * before the rest of the tree is read.
+     *
+     * @param tree The {@link RStarTree} to search.
+     * @return An {@link Iterator} over the skyline records, in ascending sum of coordinates.
+     */
+
+
+     static Iterator<Record> iterator(RStarTree tree){
+         return new SkylineIterator(tree);
+     }
+
+
+    /**
+     * Returns the skyline records progressively as a lazy sequential {@link Stream}, e.g. to take the first ones with
+     * {@link Stream#limit}.
+     *
+     * @param tree The {@link RStarTree} to search.
+     * @return A {@link Stream} of the skyline records, in ascending sum of coordinates.
+     */
+
+
+     static Stream<Record> stream(RStarTree tree){
+         return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(tree),
+                 Spliterator.ORDERED | Spliterator.NONNULL), false);
+     }
+
+
+    /**
+     * The BBS traversal, one skyline record per {@link #next}.
+     */
 
-         long rootBlockID = RStarTree.getRootNodeBlockId();
-         Node root = FilesHandler.readNode(rootBlockID, 0);
 
-         if (root==null) return skyline;
+     private static class SkylineIterator implements Iterator<Record> {
+         /** The tree to search */
+         private final RStarTree tree;
 
-         PriorityQueue<Entry> queue = new PriorityQueue<>(
-                 Comparator.comparingDouble(e -> e.getMBR().minSum())
-         );
+         /** The skyline records returned so far */
+         private final SkylinePoints skyline;
 
-         queue.addAll(root.getEntries());
+         /** The entries and records to visit, in ascending sum of coordinates */
+         private final PriorityQueue<QueueElement> queue = new PriorityQueue<>();
 
-         while (!queue.isEmpty()){
-             Entry e = queue.poll();
+         /** The next skyline record, once {@link #hasNext} found it */
+         private Record next;
 
-             if (e instanceof LeafEntry){
-                 LeafEntry le = (LeafEntry) e;
-                 long recordsID = le.getDataBlockId();
-                 ArrayList<Record> records = FilesHandler.readDataFileBlock(recordsID);
-                 for (Record r: records){
-                     ArrayList<Double> coords = r.getCoordinates();
-                     if (!isDominated(coords, skyline)){
-                         skyline.removeIf(s -> dominates(coords, s.getCoordinates()));
 
-                         skyline.add(r);
+         SkylineIterator(RStarTree tree){
+             this.tree = tree;
+             this.skyline = new SkylinePoints(tree.getStore().getDataDimensions());
+             Node root = tree.getRootNode();
+             if (root != null)
+                 addEntries(List.of(root));
+         }
+
+
+         @Override
+         public boolean hasNext(){
+             while (next == null && !queue.isEmpty()){
+                 QueueElement element = queue.poll();
+                 if (skyline.isDominated(element.coords)) continue; // dominated by a record found after it was queued
+
+                 if (element.entry == null){
+                     skyline.add(element.coords);
+                     next = element.page.getRecord(element.row);
+                 }
+                 else if (element.entry instanceof LeafEntry le){
+                     DataPage page = tree.readDataPage(le.getDataBlockId());
+                     if (page == null) continue;
+                     for (int row = 0; row < page.size(); row++){
+                         double[] coords = new double[page.getDimensions()];
+                         double sum = 0.0;
+                         for (int d = 0; d < coords.length; d++){
+                             coords[d] = page.getColumn(d)[row];
+                             sum += coords[d];
+                         }
+                         if (!skyline.isDominated(coords))
+                             queue.add(new QueueElement(coords, sum, null, page, row));
                      }
                  }
+                 else {
+                     addEntries(tree.readChildNodes(element.entry));
+                 }
              }
-             else {
-                 long childBlockID = e.getChildNodeBlockId();
-                 int childBlockIndex = e.getChildNodeIndexInBlock();
-                 Node childNode = FilesHandler.readNode(childBlockID, childBlockIndex);
-                 if (childNode==null) continue;
-                 for (Entry child_entry: childNode.getEntries()){
-                     queue.add(child_entry);
+             return next != null;
+         }
+
+
+         @Override
+         public Record next(){
+             if (!hasNext())
+                 throw new NoSuchElementException();
+             Record record = next;
+             next = null;
+             return record;
+         }
+
+
+         /**
+          * Queues the entries of nodes whose lower corner is not dominated by the skyline found so far.
+          *
+          * @param nodes The nodes.
+          */
+
+
+         private void addEntries(List<Node> nodes){
+             for (Node node : nodes){
+                 for (Entry entry : node.getEntries()){
+                     ArrayList<Bounds> bounds = entry.getMBR().getBounds();
+                     double[] lowerCorner = new double[bounds.size()];
+                     for (int d = 0; d < lowerCorner.length; d++)
+                         lowerCorner[d] = bounds.get(d).getLower();
+                     if (!skyline.isDominated(lowerCorner))
+                         queue.add(new QueueElement(lowerCorner, entry.getMBR().minSum(), entry, null, -1));
                  }
              }
          }
-         return skyline;
      }
 
 
     /**
-     * Checks if the candidate point is dominated by any point in the current skyline set.
-     *
-     * @param candidate The point to check.
-     * @param skyline The current skyline set.
-     * @return {@code true} if the candidate is dominated by any skyline point, {@code false} otherwise.
+     * An element of the BBS queue: an {@link Entry} with the lower corner of its {@link MBR}, or a row of a
+     * {@link DataPage} with its coordinates.
+     * <p>
+     * Elements are ordered by the sum of the coordinates. At equal sums, entries come first, since they may still hold a
+     * dominating record, and records follow in lexicographic order of their coordinates, which puts a dominating record
+     * before the records it dominates even when rounding made their sums equal.
      */
 
 
-     private static boolean isDominated(ArrayList<Double> candidate, ArrayList<Record> skyline){
-         for (Record s : skyline) {
-             if (dominates(s.getCoordinates(), candidate)) return true;
+     private static class QueueElement implements Comparable<QueueElement> {
+         final double[] coords;
+         final double sum;
+         final Entry entry;
+         final DataPage page;
+         final int row;
+
+
+         QueueElement(double[] coords, double sum, Entry entry, DataPage page, int row){
+             this.coords = coords;
+             this.sum = sum;
+             this.entry = entry;
+             this.page = page;
+             this.row = row;
+         }
+
+
+         @Override
+         public int compareTo(QueueElement other){
+             int order = Double.compare(sum, other.sum);
+             if (order != 0) return order;
+             if ((entry == null) != (other.entry == null)) return entry != null ? -1 : 1;
+             return Arrays.compare(coords, other.coords);
          }
-         return false;
      }
 
 
     /**
-     * Determines if one point dominates another in all dimensions.
-     *
-     * @param skylinePoint The potential dominating point.
-     * @param candidate The candidate point.
-     * @return {@code true} if {@code skylinePoint} dominates {@code candidate}, {@code false} otherwise.
+     * The current skyline set, for the dominance checks. For two dimensions it is a staircase: the skyline points sorted
+     * by the first coordinate have a descending second coordinate, so the point before a candidate in that order is the
+     * lowest of the points no higher in the first dimension, and the only one to check, in O(log n). For other
+     * dimensions, the coordinates of the points are kept in columns for the {@link CoordinateKernels}.
+     * <p>
+     * Since BBS finds every skyline point before any point it dominates, points are never removed.
      */
 
 
-     private static boolean dominates(ArrayList<Double> skylinePoint, ArrayList<Double> candidate){
-         boolean strictlyBetterInOne = false;
-         for (int i=0; i<skylinePoint.size(); i++){
-             if (skylinePoint.get(i)>candidate.get(i)){
-                 return false;
+     private static class SkylinePoints {
+         /** The second coordinate of the skyline points by their first coordinate, for two dimensions */
+         private final TreeMap<Double, Double> staircase;
+
+         /** The coordinates of the skyline points, {@code columns[dimension][index]}, for other dimensions */
+         private double[][] columns;
+
+         /** The number of skyline points in {@code columns} */
+         private int size;
+
+
+         SkylinePoints(int dimensions){
+             staircase = dimensions == 2 ? new TreeMap<>() : null;
+             columns = new double[dimensions][16];
+         }
+
+
+         /**
+          * Checks if the candidate point is dominated by any point in the current skyline set.
+          *
+          * @param candidate The point to check.
+          * @return {@code true} if the candidate is dominated by any skyline point, {@code false} otherwise.
+          */
+
+
+         boolean isDominated(double[] candidate){
+             if (staircase != null){
+                 Map.Entry<Double, Double> step = staircase.floorEntry(candidate[0]);
+                 return step != null && step.getValue() <= candidate[1]
+                         && (step.getKey() < candidate[0] || step.getValue() < candidate[1]);
+             }
+             return size > 0 && CoordinateKernels.INSTANCE.isDominated(columns, size, candidate);
+         }
+
+
+         /**
+          * Adds a point to the skyline set.
+          *
+          * @param coords The point's coordinates.
+          */
+
+
+         void add(double[] coords){
+             if (staircase != null){
+                 staircase.put(coords[0], coords[1]);
+                 return;
              }
-             else if (skylinePoint.get(i)<candidate.get(i)){
-                 strictlyBetterInOne = true;
+             if (size == columns[0].length){
+                 for (int d = 0; d < columns.length; d++)
+                     columns[d] = Arrays.copyOf(columns[d], size * 2);
              }
+             for (int d = 0; d < coords.length; d++)
+                 columns[d][size] = coords[d];
+             size++;
          }
-         return strictlyBetterInOne;
      }
 }
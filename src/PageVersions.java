@@ -0,0 +1,130 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+
+/**
+ *
+ *
+ * Class {@link PageVersions} keeps the older committed versions of file blocks that are still needed by open
+ * {@link IndexSnapshot}s. <p></p>
+ * Every block that was changed while a snapshot was open gets a version chain, ordered by the commit version that wrote
+ * each image. A snapshot reads the newest image with a version not bigger than its own. A block without a chain did not
+ * change since the oldest open snapshot, so its latest committed image (in the file) is valid for every snapshot.
+ * <p>
+ * The images are shared between threads and are never changed after they are installed.
+ *
+ * @param <T> The type of the deserialized block
+ *
+ *
+ */
+
+
+class PageVersions<T> {
+    /** Version of the image that a block had before its first change since the oldest open snapshot */
+    private static final long BASE_VERSION = 0;
+
+    /** The version chains by block id */
+    private final Map<Long, ConcurrentSkipListMap<Long, T>> chains = new ConcurrentHashMap<>();
+
+
+    /**
+     * {@code installBase} method keeps the image that a block had before it was changed, if the block has no chain yet.
+     *
+     * @param blockId The block id
+     * @param image The last committed image of the block
+     */
+
+
+    void installBase(long blockId, T image) {
+        chains.compute(blockId, (id, chain) -> {
+            if (chain == null) {
+                chain = new ConcurrentSkipListMap<>();
+                chain.put(BASE_VERSION, image);
+            }
+            return chain;
+        });
+    }
+
+
+    /**
+     * {@code install} method adds the image that a commit wrote for a block.
+     *
+     * @param blockId The block id
+     * @param version The commit version
+     * @param image The new image of the block
+     */
+
+
+    void install(long blockId, long version, T image) {
+        chains.compute(blockId, (id, chain) -> {
+            if (chain == null)
+                chain = new ConcurrentSkipListMap<>();
+            chain.put(version, image);
+            return chain;
+        });
+    }
+
+
+    /**
+     * {@code read} method returns the image of a block as of a version.
+     *
+     * @param blockId The block id
+     * @param version The snapshot version
+     * @return The newest image with a version not bigger than {@code version}, or {@code null} if the block has no chain
+     */
+
+
+    T read(long blockId, long version) {
+        ConcurrentSkipListMap<Long, T> chain = chains.get(blockId);
+        if (chain == null)
+            return null;
+        Map.Entry<Long, T> image = chain.floorEntry(version);
+        return image == null ? null : image.getValue();
+    }
+
+
+    /**
+     * {@code reclaim} method drops the images that no open snapshot can read anymore, and the chains that only keep the
+     * latest committed image.
+     *
+     * @param oldestVersion The version of the oldest open snapshot, or the last commit version if none is open
+     */
+
+
+    void reclaim(long oldestVersion) {
+        for (Long blockId : chains.keySet()) {
+            chains.computeIfPresent(blockId, (id, chain) -> {
+                Long oldestNeeded = chain.floorKey(oldestVersion);
+                if (oldestNeeded != null)
+                    chain.headMap(oldestNeeded, false).clear();
+                return chain.size() == 1 && oldestNeeded != null ? null : chain;
+            });
+        }
+    }
+
+
+    /**
+     * {@code clear} method drops every chain, used when the underlying file is recreated
+     */
+
+
+    void clear() {
+        chains.clear();
+    }
+
+
+    /**
+     * Getter for the number of images kept in the chains
+     *
+     * @return The kept images
+     */
+
+
+    int getImageCount() {
+        int images = 0;
+        for (ConcurrentSkipListMap<Long, T> chain : chains.values())
+            images += chain.size();
+        return images;
+    }
+}
@@ -0,0 +1,2039 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *
+ * Public class {@link QueryBenchmark} that measures the query engine on the existing datafile and indexfile in
+ * {@code src/resources}. The files must already be built through {@link Main}.
+ * <p>
+ * Usage: {@code java QueryBenchmark <benchmark> [queries]}, where {@code <benchmark>} is one of:
+ * <ul>
+ *     <li>{@code concurrent}: throughput of mixed range / kNN queries for 1, 2, 4, ... parallel queries up to the
+ *     available cores, using {@link ConcurrentQueryExecutor}</li>
+ *     <li>{@code mixed}: stress test and throughput of range queries running alongside single record inserts and deletes.
+ *     Checks the tree invariants afterwards, and that every inserted record is found and every deleted record is not.
+ *     Changes the files.</li>
+ *     <li>{@code snapshot}: throughput of range queries on {@link IndexSnapshot}s while update batches are committed,
+ *     and a last batch is rolled back. Checks that a snapshot returns the same results before and after the updates,
+ *     that the rolled back batch left no trace, and that the older block images are reclaimed. Changes the files.</li>
+ *     <li>{@code multistore}: copies the files into several temporary directories, opens every copy as its own
+ *     {@link SpatialStore} with a share of the buffer pool budget, and runs the range queries on all of them at the same
+ *     time. Checks that every copy returns the results of the original index, and that an insert into one copy is not
+ *     seen by the others.</li>
+ *     <li>{@code recovery}: copies the files into a temporary directory, commits single record inserts from several
+ *     threads at the same time and prints the commit throughput of every {@link SpatialStore.Durability}, taking turns
+ *     after a warm-up. Then drops the store without a checkpoint, cuts its {@link WriteAheadLog} back to the forced part
+ *     as a power loss would, and tears its end. Checks that opening the directory again recovers every forced commit and
+ *     a valid tree, and prints how many of the unforced ASYNC commits survived.</li>
+ *     <li>{@code formats}: creates a datafile of every {@link SpatialStore.DataPageFormat} from the same csv file in
+ *     temporary directories, prints their size, and the time of linear range queries, linear nearest neighbours queries
+ *     and of the linear skyline on each. Checks that all of them return the same results.</li>
+ *     <li>{@code kernels}: time per row of every {@link CoordinateKernels} kernel over the coordinates of the whole
+ *     datafile, for the scalar and the vectorized implementation. Checks that both return the same results. The JVM
+ *     must be started with {@code --add-modules jdk.incubator.vector} to measure the vectorized kernels.</li>
+ *     <li>{@code projections}: creates a {@link SpatialStore.DataPageFormat#COLUMNAR} datafile from the csv file in a
+ *     temporary directory, and prints the latency and the bytes allocated per query of large linear range queries for
+ *     every {@link QueryResults.Projection}. Checks that all of them return the same record ids.</li>
+ *     <li>{@code streaming}: latency and bytes allocated per query of large range queries that build the whole result
+ *     list, streamed through {@link RangeQuery#stream}, and streamed but stopped early. Checks that the streams return the
+ *     same records in the same order.</li>
+ *     <li>{@code parallelrange}: latency of large range queries run sequentially and with
+ *     {@link RangeQuery#parallelRangeQuery} on fork-join pools of an increasing parallelism. Checks that the parallel
+ *     queries return the same records in the same order, on the latest version and on an {@link IndexSnapshot}.</li>
+ *     <li>{@code prefetch}: latency of range and k-nearest neighbours queries on a cold buffer pool, with and without
+ *     block prefetching, on the page cache and with a simulated device latency, and the prefetches issued. Checks that
+ *     the queries return the same records either way.</li>
+ *     <li>{@code coalesced}: latency of linear range and k-nearest neighbours scans of the whole datafile on a cold
+ *     buffer pool, with coalesced reads and with every block read on its own, on the page cache and with a simulated
+ *     device latency, and how many reads they issued for the blocks they read. Checks that the scans return the same
+ *     records either way.</li>
+ *     <li>{@code batch}: latency, block requests and blocks read of a batch of range queries run one by one and as one
+ *     {@link BatchRangeQuery}, on a cold and a warm buffer pool. Checks that the batch returns the same records in the
+ *     same order for every query.</li>
+ *     <li>{@code count}: latency and block requests of counting the records of small and large range queries with a
+ *     {@link RangeQuery} and with {@link RangeQuery#rangeCount}. Checks that both return the same counts, and that the
+ *     subtree record counts of the tree are valid.</li>
+ *     <li>{@code browsing}: latency and block requests of paging through the nearest records of search points, with a
+ *     new {@link NearestNeighboursQuery} per page and with one {@link NearestNeighboursIterator}. Checks the iterator
+ *     against the {@link LinearNearestNeighboursQuery}.</li>
+ *     <li>{@code batchknn}: throughput and block requests of k-nearest neighbours queries run one by one and as one
+ *     {@link BatchNearestNeighboursQuery}. Checks that the batch returns the same distances for every query.</li>
+ *     <li>{@code join}: copies the files into a temporary directory and joins the index with its copy within a distance,
+ *     with one {@link RangeQuery} per record, with a {@link SpatialJoin} and with a parallel {@link SpatialJoin}. Checks
+ *     that all of them find the same pairs. The {@code queries} argument is not used.</li>
+ *     <li>{@code allknn}: time of finding the k-nearest neighbours of every record with an
+ *     {@link AllNearestNeighboursQuery}, sequentially and in parallel into a csv file, against one
+ *     {@link NearestNeighboursQuery} per record for a sample of them. Checks that both agree on the sampled records.</li>
+ *     <li>{@code rknn}: time per query of reverse k-nearest neighbours queries with a
+ *     {@link ReverseNearestNeighboursQuery}, with and without parallel verification, and with the naive method for the
+ *     first few. Checks the results against the k-th nearest neighbour of every record.</li>
+ *     <li>{@code closestpairs}: time, node accesses and distance computations of the k closest pairs of records with a
+ *     {@link ClosestPairsQuery} self-join, an incremental query that stops after a few pairs, and a brute force nested
+ *     loop, where {@code queries} is k. Checks that they find the same distances, and that the incremental query is
+ *     faster than the nested loop.</li>
+ *     <li>{@code skyline}: time and buffer pool requests of the {@link OptimalSkylineQuery}, computed whole repeatedly
+ *     and stopped after its first record, where {@code queries} is the number of runs. Checks the skyline against a
+ *     {@link LinearSkylineQuery}.</li>
+ *     <li>{@code fsck}: copies the files into a temporary directory and runs the {@link StoreChecker} on them, then
+ *     corrupts an index block and a data block of the copy and runs it again. Checks that the intact copy has no
+ *     violations, and that the check of the corrupted one completes and reports both blocks.</li>
+ * </ul>
+ */
+
+
+public class QueryBenchmark {
+    /** Seed of the random query generator, so that all runs use the same queries */
+    private static final long SEED = 42;
+
+    /** Width of the generated range queries, as a fraction of the data space in each dimension */
+    private static final double RANGE_QUERY_FRACTION = 0.05;
+
+    /** Width of the large range queries of the {@code projections} benchmark */
+    private static final double LARGE_RANGE_QUERY_FRACTION = 0.5;
+
+    /** k of the generated k-nearest neighbours queries */
+    private static final int NEAREST_NEIGHBOURS_K = 10;
+
+    /** Latency added to every file read by the prefetch and coalesced benchmarks, about a random read of a solid state drive */
+    private static final long SIMULATED_READ_LATENCY_MICROS = 100;
+
+    /** Number of copies of the index opened by the {@code multistore} benchmark */
+    private static final int STORE_COPIES = 4;
+
+    /** Number of threads committing at the same time in the {@code recovery} benchmark */
+    private static final int COMMITTING_THREADS = 4;
+
+    /** Untimed rounds of commits of every durability in the {@code recovery} benchmark, so the JIT compiles the commit path */
+    private static final int COMMIT_WARMUP_ROUNDS = 2;
+
+    /** Timed rounds of commits of every durability in the {@code recovery} benchmark, that share its {@code queries} */
+    private static final int COMMIT_TIMED_ROUNDS = 4;
+
+    /** Untimed runs of every kernel before it is timed in the {@code kernels} benchmark, so the JIT compiles it */
+    private static final int KERNEL_WARMUP_ROUNDS = 5;
+
+    /** Timed runs of every kernel in the {@code kernels} benchmark, of which the fastest is printed */
+    private static final int KERNEL_TIMED_ROUNDS = 5;
+
+    /** The number of records that the limited streaming range queries return */
+    private static final int STREAMING_LIMIT = 100;
+
+    /** Pages of {@code NEAREST_NEIGHBOURS_K} records that the {@code browsing} benchmark asks for */
+    private static final int BROWSING_PAGES = 10;
+
+    /** The largest distance of the pairs of the {@code join} benchmark, in the units of the coordinates */
+    private static final double JOIN_EPSILON = 0.0005;
+
+    /** k of the reverse k-nearest neighbours queries */
+    private static final int REVERSE_NEAREST_NEIGHBOURS_K = 4;
+
+    /** The reverse k-nearest neighbours queries of the {@code rknn} benchmark that also run with the naive method */
+    private static final int NAIVE_REVERSE_QUERIES = 2;
+
+    /** The index block that the {@code fsck} benchmark corrupts */
+    private static final long CORRUPTED_INDEX_BLOCK = 3;
+
+    /** Pairs that the incremental closest pairs query of the {@code closestpairs} benchmark takes before it stops */
+    private static final int INCREMENTAL_CLOSEST_PAIRS = 10;
+
+
+    public static void main(String[] args) throws Exception {
+        String benchmark = args.length > 0 ? args[0] : "concurrent";
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        SpatialStore store = new SpatialStore(SpatialStore.DEFAULT_DIRECTORY);
+        store.initializeDataFile(0, false);
+        store.initializeIndexFile(0, false);
+        RStarTree tree = new RStarTree(store, store.getIndexMetaData());
+
+        switch (benchmark) {
+            case "concurrent":
+                benchmarkConcurrentQueries(tree, queries);
+                break;
+            case "mixed":
+                benchmarkMixedWorkload(tree, queries);
+                break;
+            case "snapshot":
+                benchmarkSnapshotReads(tree, queries);
+                break;
+            case "multistore":
+                benchmarkMultipleStores(tree, queries);
+                break;
+            case "recovery":
+                benchmarkCommitRecovery(tree, queries);
+                break;
+            case "formats":
+                benchmarkDataPageFormats(tree, queries);
+                break;
+            case "kernels":
+                benchmarkCoordinateKernels(tree, queries);
+                break;
+            case "projections":
+                benchmarkProjections(tree, queries);
+                break;
+            case "streaming":
+                benchmarkStreamingRangeQueries(tree, queries);
+                break;
+            case "parallelrange":
+                benchmarkParallelRangeQueries(tree, queries);
+                break;
+            case "prefetch":
+                benchmarkPrefetching(tree, queries);
+                break;
+            case "coalesced":
+                benchmarkCoalescedScans(tree, queries);
+                break;
+            case "batch":
+                benchmarkBatchRangeQueries(tree, queries);
+                break;
+            case "count":
+                benchmarkRangeCounts(tree, queries);
+                break;
+            case "browsing":
+                benchmarkDistanceBrowsing(tree, queries);
+                break;
+            case "batchknn":
+                benchmarkBatchNearestNeighbours(tree, queries);
+                break;
+            case "join":
+                benchmarkSpatialJoin(tree);
+                break;
+            case "allknn":
+                benchmarkAllNearestNeighbours(tree, queries);
+                break;
+            case "rknn":
+                benchmarkReverseNearestNeighbours(tree, queries);
+                break;
+            case "closestpairs":
+                benchmarkClosestPairs(tree, queries);
+                break;
+            case "skyline":
+                benchmarkSkyline(tree, queries);
+                break;
+            case "fsck":
+                benchmarkStoreChecker(tree);
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + benchmark);
+        }
+        store.close();
+    }
+
+
+    /**
+     * Runs the same mix of range and k-nearest neighbours queries with an increasing number of parallel queries and
+     * prints the throughput of each run. The first run also warms up the buffer pools.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of queries of each run
+     * @throws Exception to catch any query errors
+     */
+
+
+    private static void benchmarkConcurrentQueries(RStarTree tree, int queries) throws Exception {
+        MBR dataSpace = tree.getRootNode().getMBR();
+        List<MBR> rangeQueries = randomRangeQueries(dataSpace, queries / 2);
+        List<ArrayList<Double>> searchPoints = randomPoints(dataSpace, queries - queries / 2);
+
+        runConcurrentQueries(tree, rangeQueries, searchPoints, 1); // warm-up
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int parallelQueries = 1; ; parallelQueries = Math.min(parallelQueries * 2, cores)) {
+            long startTime = System.nanoTime();
+            long totalResults = runConcurrentQueries(tree, rangeQueries, searchPoints, parallelQueries);
+            double duration_in_ms = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            System.out.printf("%2d parallel queries: %d queries in %.2f ms (%.1f queries/s, %d results)%n",
+                    parallelQueries, queries, duration_in_ms, queries * 1000.0 / duration_in_ms, totalResults);
+            if (parallelQueries == cores)
+                break;
+        }
+    }
+
+
+    /**
+     * Runs range queries, single record inserts and single record deletes at the same time, half of the operations being
+     * queries and the rest split between inserts and deletes, and prints the throughput. Then checks the tree with
+     * {@link RStarTree#checkInvariants} and verifies with range queries that the inserted records are found and the deleted
+     * ones are not.
+     *
+     * @param tree The {@link RStarTree} to query and change
+     * @param operations The total number of operations
+     * @throws Exception to catch any operation errors
+     */
+
+
+    private static void benchmarkMixedWorkload(RStarTree tree, int operations) throws Exception {
+        MBR dataSpace = tree.getRootNode().getMBR();
+
+        ArrayList<Record> existingRecords = readAllRecords(tree);
+        long nextRecordId = existingRecords.stream().mapToLong(Record::getRecordID).max().orElse(0) + 1;
+
+        List<MBR> rangeQueries = randomRangeQueries(dataSpace, operations / 2);
+        Collections.shuffle(existingRecords, new Random(SEED));
+        List<Record> deletedRecords = existingRecords.subList(0, Math.min(operations / 4, existingRecords.size()));
+        ArrayList<Record> insertedRecords = new ArrayList<>();
+        for (ArrayList<Double> point : randomPoints(dataSpace, operations - rangeQueries.size() - deletedRecords.size()))
+            insertedRecords.add(new Record(nextRecordId++, "benchmark", point));
+
+        ArrayList<Callable<Integer>> tasks = new ArrayList<>();
+        for (MBR queryMBR : rangeQueries)
+            tasks.add(() -> RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR).size());
+        for (Record record : insertedRecords)
+            tasks.add(() -> { tree.insertSingleRecord(record); return 1; });
+        for (Record record : deletedRecords)
+            tasks.add(() -> { tree.deleteRecord(record.getRecordID()); return 1; });
+        Collections.shuffle(tasks, new Random(SEED));
+
+        int parallelOperations = Math.max(2, Runtime.getRuntime().availableProcessors());
+        Semaphore runningOperations = new Semaphore(parallelOperations);
+        long startTime = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            ArrayList<Future<Integer>> results = new ArrayList<>();
+            for (Callable<Integer> task : tasks) {
+                results.add(executor.submit(() -> {
+                    runningOperations.acquire();
+                    try {
+                        return task.call();
+                    } finally {
+                        runningOperations.release();
+                    }
+                }));
+            }
+            for (Future<Integer> result : results)
+                result.get();
+        }
+        double duration_in_ms = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        System.out.printf("%2d parallel operations: %d queries, %d inserts, %d deletes in %.2f ms (%.1f operations/s)%n",
+                parallelOperations, rangeQueries.size(), insertedRecords.size(), deletedRecords.size(), duration_in_ms,
+                tasks.size() * 1000.0 / duration_in_ms);
+
+        boolean valid = tree.checkInvariants();
+        for (Record record : insertedRecords) {
+            if (!isRecordIndexed(tree, record)) {
+                System.out.println("Inserted record " + record.getRecordID() + " not found.");
+                valid = false;
+            }
+        }
+        for (Record record : deletedRecords) {
+            if (isRecordIndexed(tree, record)) {
+                System.out.println("Deleted record " + record.getRecordID() + " still found.");
+                valid = false;
+            }
+        }
+        System.out.println(valid ? "Tree invariants hold." : "Tree invariants violated!");
+        tree.commitUpdates();
+        tree.getStore().printPageWriteStats();
+    }
+
+
+    /**
+     * Runs range queries, each on its own {@link IndexSnapshot}, while one writer commits batches of inserts and deletes,
+     * and prints the query throughput. Every query is run twice on its snapshot, with the writer going on in between,
+     * and must return the same records. A snapshot opened before the updates must still return the original results
+     * after them. The last batch is rolled back and must leave no trace.
+     *
+     * @param tree The {@link RStarTree} to query and change
+     * @param queries The number of queries
+     * @throws Exception to catch any query or update errors
+     */
+
+
+    @SuppressWarnings("try") // the snapshots are only opened for the reads of the querying threads
+    private static void benchmarkSnapshotReads(RStarTree tree, int queries) throws Exception {
+        final int batchSize = 50;
+        MBR dataSpace = tree.getRootNode().getMBR();
+
+        ArrayList<Record> existingRecords = readAllRecords(tree);
+        long nextRecordId = existingRecords.stream().mapToLong(Record::getRecordID).max().orElse(0) + 1;
+        Collections.shuffle(existingRecords, new Random(SEED));
+
+        ArrayList<Record> insertedRecords = new ArrayList<>();
+        for (ArrayList<Double> point : randomPoints(dataSpace, queries))
+            insertedRecords.add(new Record(nextRecordId++, "benchmark", point));
+        List<Record> deletedRecords = existingRecords.subList(0, Math.min(queries, existingRecords.size()));
+        List<MBR> rangeQueries = randomRangeQueries(dataSpace, queries);
+
+        IndexSnapshot initialSnapshot = tree.openSnapshot();
+        List<List<Long>> initialResults = runSnapshotQueries(tree, rangeQueries);
+
+        AtomicInteger inconsistentQueries = new AtomicInteger();
+        int batches = (insertedRecords.size() + batchSize - 1) / batchSize;
+        long startTime = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?> writer = executor.submit(() -> {
+                for (int batch = 0; batch < batches; batch++) {
+                    int from = batch * batchSize;
+                    for (Record record : insertedRecords.subList(from, Math.min(from + batchSize, insertedRecords.size())))
+                        tree.insertSingleRecord(record);
+                    for (Record record : deletedRecords.subList(Math.min(from, deletedRecords.size()), Math.min(from + batchSize, deletedRecords.size())))
+                        tree.deleteRecord(record.getRecordID());
+                    if (batch < batches - 1)
+                        tree.commitUpdates();
+                    else
+                        tree.rollbackUpdates(); // the last batch fails
+                }
+                return null;
+            });
+
+            ArrayList<Future<?>> readers = new ArrayList<>();
+            for (MBR queryMBR : rangeQueries) {
+                readers.add(executor.submit(() -> {
+                    try (IndexSnapshot snapshot = tree.openSnapshot()) {
+                        List<Long> firstResult = rangeQueryIds(tree, queryMBR);
+                        Thread.yield();
+                        if (!firstResult.equals(rangeQueryIds(tree, queryMBR)))
+                            inconsistentQueries.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> reader : readers)
+                reader.get();
+            writer.get();
+        }
+        double duration_in_ms = (System.nanoTime() - startTime) / 1_000_000.0;
+        System.out.printf("%d snapshot queries alongside %d committed batches and 1 rollback in %.2f ms (%.1f queries/s)%n",
+                queries * 2, batches - 1, duration_in_ms, queries * 2 * 1000.0 / duration_in_ms);
+
+        boolean valid = inconsistentQueries.get() == 0;
+        if (!valid)
+            System.out.println(inconsistentQueries.get() + " queries saw different results in the same snapshot.");
+        if (!initialResults.equals(runSnapshotQueries(tree, rangeQueries))) {
+            System.out.println("The initial snapshot changed after the updates.");
+            valid = false;
+        }
+        initialSnapshot.close();
+
+        int rolledBackFrom = (batches - 1) * batchSize;
+        for (int i = 0; i < insertedRecords.size(); i++) {
+            if (isRecordIndexed(tree, insertedRecords.get(i)) != i < rolledBackFrom) {
+                System.out.println("Inserted record " + insertedRecords.get(i).getRecordID() + " has a wrong state after the rollback.");
+                valid = false;
+            }
+        }
+        for (int i = 0; i < deletedRecords.size(); i++) {
+            if (isRecordIndexed(tree, deletedRecords.get(i)) != i >= rolledBackFrom) {
+                System.out.println("Deleted record " + deletedRecords.get(i).getRecordID() + " has a wrong state after the rollback.");
+                valid = false;
+            }
+        }
+        valid &= tree.checkInvariants();
+        System.out.println("Open snapshots: " + tree.getStore().getOpenSnapshots() + ", older block images kept: "
+                + tree.getStore().getBlockVersionCount());
+        valid &= tree.getStore().getBlockVersionCount() == 0;
+        System.out.println(valid ? "Snapshot reads are consistent." : "Snapshot reads are inconsistent!");
+    }
+
+
+    /**
+     * Opens {@code STORE_COPIES} copies of the index, each in its own temporary directory and {@link SpatialStore} with an
+     * equal share of the default buffer pool budget, and runs the same range queries on all of them at the same time.
+     * Prints the throughput, checks that every copy returns the results of the original index, and that a record
+     * inserted into one copy is only found in that copy.
+     *
+     * @param tree The original {@link RStarTree}
+     * @param queries The number of range queries run on every copy
+     * @throws Exception to catch any query or file errors
+     */
+
+
+    private static void benchmarkMultipleStores(RStarTree tree, int queries) throws Exception {
+        SpatialStore store = tree.getStore();
+        MBR dataSpace = tree.getRootNode().getMBR();
+        List<MBR> rangeQueries = randomRangeQueries(dataSpace, queries);
+        List<List<Long>> expectedResults = runSnapshotQueries(tree, rangeQueries);
+
+        ArrayList<Path> directories = new ArrayList<>();
+        ArrayList<RStarTree> trees = new ArrayList<>();
+        PrintStream out = System.out;
+        tree.checkpoint(); // the copies only see the blocks written in the files
+        try {
+            System.setOut(new PrintStream(PrintStream.nullOutputStream())); // opening a tree prints its record map
+            for (int i = 0; i < STORE_COPIES; i++) {
+                Path directory = Files.createTempDirectory("spatialstore");
+                directories.add(directory);
+                Files.copy(Paths.get(store.getPathToDataFile()), directory.resolve("datafile.dat"));
+                Files.copy(Paths.get(store.getPathToIndexFile()), directory.resolve("indexfile.dat"));
+                SpatialStore copy = new SpatialStore(directory.toString(), store.getBlockSize(),
+                        SpatialStore.DEFAULT_INDEX_POOL_CAPACITY / STORE_COPIES, SpatialStore.DEFAULT_DATA_POOL_CAPACITY / STORE_COPIES);
+                copy.initializeDataFile(0, false);
+                copy.initializeIndexFile(0, false);
+                trees.add(new RStarTree(copy, copy.getIndexMetaData()));
+            }
+            System.setOut(out);
+
+            int parallelQueries = Math.max(1, Runtime.getRuntime().availableProcessors() / STORE_COPIES);
+            ArrayList<ConcurrentQueryExecutor> executors = new ArrayList<>();
+            ArrayList<List<Future<ArrayList<Record>>>> results = new ArrayList<>();
+            long startTime = System.nanoTime();
+            for (RStarTree copyTree : trees) {
+                ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(copyTree, parallelQueries);
+                executors.add(executor);
+                ArrayList<Future<ArrayList<Record>>> copyResults = new ArrayList<>();
+                for (MBR queryMBR : rangeQueries)
+                    copyResults.add(executor.submitRangeQuery(queryMBR));
+                results.add(copyResults);
+            }
+            boolean valid = true;
+            for (int i = 0; i < trees.size(); i++) {
+                for (int q = 0; q < rangeQueries.size(); q++) {
+                    List<Long> ids = results.get(i).get(q).get().stream().map(Record::getRecordID).sorted().toList();
+                    if (!ids.equals(expectedResults.get(q))) {
+                        System.out.println("Store " + i + " returned different results for query " + q + ".");
+                        valid = false;
+                    }
+                }
+            }
+            double duration_in_ms = (System.nanoTime() - startTime) / 1_000_000.0;
+            for (ConcurrentQueryExecutor executor : executors)
+                executor.close();
+            System.out.printf("%d stores x %d parallel queries: %d queries in %.2f ms (%.1f queries/s)%n",
+                    trees.size(), parallelQueries, trees.size() * queries, duration_in_ms,
+                    trees.size() * queries * 1000.0 / duration_in_ms);
+
+            ArrayList<Double> point = randomPoints(dataSpace, 1).get(0);
+            long recordId = readAllRecords(tree).stream().mapToLong(Record::getRecordID).max().orElse(0) + 1;
+            Record record = new Record(recordId, "benchmark", point);
+            trees.get(0).insertSingleRecord(record);
+            trees.get(0).commitUpdates();
+            valid &= isRecordIndexed(trees.get(0), record);
+            for (int i = 1; i < trees.size(); i++)
+                valid &= !isRecordIndexed(trees.get(i), record);
+            valid &= !isRecordIndexed(tree, record);
+            System.out.println(valid ? "Stores are isolated and consistent." : "Stores are not isolated or inconsistent!");
+            for (RStarTree copyTree : trees)
+                copyTree.getStore().close();
+        } finally {
+            System.setOut(out);
+            for (Path directory : directories) {
+                try (var files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                        Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Copies the files into a temporary directory and commits single record inserts on the copy from
+     * {@code COMMITTING_THREADS} threads at the same time, so that their commits share the {@code fsync}s of the
+     * {@link WriteAheadLog}, and prints the commit throughput of every {@link SpatialStore.Durability}. The durabilities
+     * take turns in {@code COMMIT_WARMUP_ROUNDS} untimed and {@code COMMIT_TIMED_ROUNDS} timed rounds, each round starting
+     * with the next one, so that none of them runs alone on a cold JIT.
+     * <p>
+     * Then commits a {@link SpatialStore.Durability#SYNC} insert and {@code COMMITTING_THREADS}
+     * {@link SpatialStore.Durability#ASYNC} inserts, and crashes the copy: the store is dropped without a checkpoint, its
+     * log is cut back to the part that was forced, as a power loss would, and a torn record is appended. Checks that
+     * opening the directory again recovers every insert up to the {@link SpatialStore.Durability#SYNC} one and a valid
+     * tree, and prints how many of the unforced {@link SpatialStore.Durability#ASYNC} inserts survived.
+     *
+     * @param tree The original {@link RStarTree}
+     * @param commits The number of committed inserts of every durability
+     * @throws Exception to catch any update or file errors
+     */
+
+
+    private static void benchmarkCommitRecovery(RStarTree tree, int commits) throws Exception {
+        SpatialStore store = tree.getStore();
+        MBR dataSpace = tree.getRootNode().getMBR();
+        long nextRecordId = readAllRecords(tree).stream().mapToLong(Record::getRecordID).max().orElse(0) + 1;
+        SpatialStore.Durability[] durabilities = SpatialStore.Durability.values();
+        int commitsPerRound = Math.max(1, commits / COMMIT_TIMED_ROUNDS);
+        int rounds = COMMIT_WARMUP_ROUNDS + COMMIT_TIMED_ROUNDS;
+        ArrayList<Record> insertedRecords = new ArrayList<>();
+        for (ArrayList<Double> point : randomPoints(dataSpace, rounds * durabilities.length * commitsPerRound + 1 + COMMITTING_THREADS))
+            insertedRecords.add(new Record(nextRecordId++, "benchmark", point));
+        int durableRecords = rounds * durabilities.length * commitsPerRound + 1;
+
+        tree.checkpoint();
+        Path directory = Files.createTempDirectory("spatialstore");
+        PrintStream out = System.out;
+        try {
+            Files.copy(Paths.get(store.getPathToDataFile()), directory.resolve("datafile.dat"));
+            Files.copy(Paths.get(store.getPathToIndexFile()), directory.resolve("indexfile.dat"));
+            SpatialStore copy = new SpatialStore(directory.toString());
+            copy.initializeDataFile(0, false);
+            copy.initializeIndexFile(0, false);
+            System.setOut(new PrintStream(PrintStream.nullOutputStream())); // opening a tree prints its record map
+            RStarTree copyTree = new RStarTree(copy, copy.getIndexMetaData());
+            System.setOut(out);
+
+            ExecutorService pool = Executors.newFixedThreadPool(COMMITTING_THREADS);
+            try {
+                double[] durationMillis = new double[durabilities.length];
+                int nextRecord = 0;
+                for (int round = 0; round < rounds; round++) {
+                    for (int turn = 0; turn < durabilities.length; turn++) {
+                        int d = (round + turn) % durabilities.length;
+                        List<Record> records = insertedRecords.subList(nextRecord, nextRecord + commitsPerRound);
+                        nextRecord += commitsPerRound;
+                        double millis = commitConcurrently(pool, copyTree, records, durabilities[d]);
+                        if (round >= COMMIT_WARMUP_ROUNDS)
+                            durationMillis[d] += millis;
+                    }
+                }
+                int timedCommits = COMMIT_TIMED_ROUNDS * commitsPerRound;
+                for (int d = 0; d < durabilities.length; d++) {
+                    System.out.printf("%-10s %d threads: %d committed inserts in %.2f ms (%.1f commits/s)%n", durabilities[d],
+                            COMMITTING_THREADS, timedCommits, durationMillis[d], timedCommits * 1000.0 / durationMillis[d]);
+                }
+
+                commitConcurrently(pool, copyTree, insertedRecords.subList(nextRecord, durableRecords), SpatialStore.Durability.SYNC);
+                commitConcurrently(pool, copyTree, insertedRecords.subList(durableRecords, insertedRecords.size()),
+                        SpatialStore.Durability.ASYNC);
+            } finally {
+                pool.shutdown();
+            }
+
+            // Crash: the store is dropped without a checkpoint, the unforced end of its log is lost, as in a power loss,
+            // and the last commit is torn
+            copy.stopFlusher();
+            try (FileChannel log = FileChannel.open(directory.resolve("wal.log"), StandardOpenOption.WRITE)) {
+                log.truncate(copy.getDurableLogSize());
+            }
+            Files.write(directory.resolve("wal.log"), new byte[]{0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+            SpatialStore recovered = new SpatialStore(directory.toString());
+            recovered.initializeDataFile(0, false);
+            recovered.initializeIndexFile(0, false);
+            System.setOut(new PrintStream(PrintStream.nullOutputStream())); // opening a tree prints its record map
+            RStarTree recoveredTree = new RStarTree(recovered, recovered.getIndexMetaData());
+            System.setOut(out);
+
+            boolean valid = recoveredTree.checkInvariants();
+            for (Record record : insertedRecords.subList(0, durableRecords))
+                valid &= isRecordIndexed(recoveredTree, record);
+            long recoveredAsync = insertedRecords.subList(durableRecords, insertedRecords.size()).stream()
+                    .filter(record -> isRecordIndexed(recoveredTree, record)).count();
+            System.out.println(valid ? "Every forced commit was recovered." : "Recovery lost forced commits!");
+            System.out.printf("%d of %d ASYNC commits after the last forced one survived the loss of the unforced log%n",
+                    recoveredAsync, insertedRecords.size() - durableRecords);
+            recovered.close();
+        } finally {
+            System.setOut(out);
+            try (var files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+
+    /**
+     * {@code commitConcurrently} helper method that inserts every record and commits it with the given durability, from
+     * the threads of the pool at the same time.
+     *
+     * @param pool The committing threads
+     * @param tree The {@link RStarTree} to insert into
+     * @param records The records to insert
+     * @param durability The durability of the commits
+     * @return The time until every commit returned, in milliseconds
+     * @throws Exception to catch any update errors
+     */
+
+
+    private static double commitConcurrently(ExecutorService pool, RStarTree tree, List<Record> records,
+                                             SpatialStore.Durability durability) throws Exception {
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (Record record : records) {
+            tasks.add(() -> {
+                tree.insertSingleRecord(record);
+                tree.commitUpdates(durability);
+                return null;
+            });
+        }
+        long startTime = System.nanoTime();
+        for (Future<Void> result : pool.invokeAll(tasks))
+            result.get();
+        return (System.nanoTime() - startTime) / 1_000_000.0;
+    }
+
+
+    /**
+     * Copies the files into a temporary directory and runs the {@link StoreChecker} on the copy, then flips 4 bytes of
+     * index block {@code CORRUPTED_INDEX_BLOCK} and of a data block, and runs it again. Prints the time of both checks,
+     * and checks that the first finds no violation and that the second completes and reports both corrupted blocks.
+     *
+     * @param tree The original {@link RStarTree}
+     * @throws Exception to catch any file errors
+     */
+
+
+    private static void benchmarkStoreChecker(RStarTree tree) throws Exception {
+        SpatialStore store = tree.getStore();
+        tree.checkpoint();
+        Path directory = Files.createTempDirectory("spatialstore");
+        PrintStream out = System.out;
+        try {
+            Files.copy(Paths.get(store.getPathToDataFile()), directory.resolve("datafile.dat"));
+            Files.copy(Paths.get(store.getPathToIndexFile()), directory.resolve("indexfile.dat"));
+            int threads = Runtime.getRuntime().availableProcessors();
+
+            long startTime = System.nanoTime();
+            SpatialStore copy = new SpatialStore(directory.toString());
+            copy.initializeDataFile(0, false);
+            copy.initializeIndexFile(0, false);
+            boolean intactValid = new StoreChecker(new RStarTree(copy, copy.getIndexMetaData(), false), threads).check();
+            double intactMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            copy.close();
+
+            long dataBlock = store.getTotalBlocksInDataFile() / 2;
+            corruptBlock(directory.resolve("indexfile.dat"), CORRUPTED_INDEX_BLOCK, store.getBlockSize());
+            corruptBlock(directory.resolve("datafile.dat"), dataBlock, store.getBlockSize());
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(report));
+            startTime = System.nanoTime();
+            SpatialStore corrupted = new SpatialStore(directory.toString());
+            corrupted.initializeDataFile(0, false);
+            corrupted.initializeIndexFile(0, false);
+            boolean corruptedValid = new StoreChecker(new RStarTree(corrupted, corrupted.getIndexMetaData(), false),
+                    threads).check();
+            double corruptedMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            corrupted.close();
+            System.setOut(out);
+            System.out.print(report);
+
+            String text = report.toString();
+            boolean valid = intactValid && !corruptedValid
+                    && text.contains("block " + CORRUPTED_INDEX_BLOCK + " of") && text.contains("block " + dataBlock + " of")
+                    && text.contains("cannot be read");
+            System.out.printf("Intact store checked in %.2f ms, corrupted store checked in %.2f ms%n", intactMillis,
+                    corruptedMillis);
+            System.out.println(valid ? "The checker reports the corrupted blocks." : "The checker missed the corrupted blocks!");
+        } finally {
+            System.setOut(out);
+            try (var files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+
+    /**
+     * {@code corruptBlock} helper method that flips 4 bytes in the middle of a block of a file.
+     *
+     * @param path The file
+     * @param blockId The block
+     * @param blockSize The size of the blocks of the file
+     * @throws IOException to catch any file errors
+     */
+
+
+    private static void corruptBlock(Path path, long blockId, int blockSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(4);
+            long position = blockId * blockSize + blockSize / 2;
+            channel.read(bytes, position);
+            for (int i = 0; i < 4; i++)
+                bytes.put(i, (byte) ~bytes.get(i));
+            channel.write(bytes.rewind(), position);
+        }
+    }
+
+
+    /**
+     * Creates a datafile of every {@link SpatialStore.DataPageFormat} from the store's csv file, and compares their size
+     * and the time of the scan-based queries, {@link LinearRangeQuery}, {@link LinearNearestNeighboursQuery} and
+     * {@link LinearSkylineQuery}, on each.
+     *
+     * @param tree The original {@link RStarTree}, whose store's csv file is used
+     * @param queries The number of linear range and nearest neighbours queries
+     * @throws Exception to catch any query or file errors
+     */
+
+
+    private static void benchmarkDataPageFormats(RStarTree tree, int queries) throws Exception {
+        SpatialStore store = tree.getStore();
+        List<MBR> rangeQueries = randomRangeQueries(tree.getRootNode().getMBR(), queries);
+        List<ArrayList<Double>> searchPoints = randomPoints(tree.getRootNode().getMBR(), queries);
+        ArrayList<List<List<Long>>> rangeResults = new ArrayList<>();
+        ArrayList<List<List<Long>>> neighbourResults = new ArrayList<>();
+        ArrayList<List<Long>> skylines = new ArrayList<>();
+        PrintStream out = System.out;
+        for (SpatialStore.DataPageFormat format : SpatialStore.DataPageFormat.values()) {
+            Path directory = Files.createTempDirectory("spatialstore");
+            try {
+                Files.copy(Paths.get(store.getPathToCsv()), directory.resolve("data.csv"));
+                SpatialStore copy = new SpatialStore(directory.toString());
+                copy.setDataPageFormat(format);
+                long startTime = System.nanoTime();
+                copy.initializeDataFile(store.getDataDimensions(), true);
+                double buildMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+                ArrayList<List<Long>> results = new ArrayList<>();
+                System.setOut(new PrintStream(PrintStream.nullOutputStream())); // linear queries print their progress
+                startTime = System.nanoTime();
+                for (MBR queryMBR : rangeQueries) {
+                    results.add(LinearRangeQuery.runLinearRangeQuery(copy, queryMBR).stream()
+                            .map(Record::getRecordID).sorted().toList());
+                }
+                double rangeMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+                ArrayList<List<Long>> neighbours = new ArrayList<>();
+                startTime = System.nanoTime();
+                for (ArrayList<Double> searchPoint : searchPoints) {
+                    neighbours.add(new LinearNearestNeighboursQuery(copy, searchPoint, 10).getNearestRecords().stream()
+                            .map(Record::getRecordID).toList());
+                }
+                double neighboursMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+                startTime = System.nanoTime();
+                List<Long> skyline = LinearSkylineQuery.computeSkyline(copy).stream()
+                        .map(Record::getRecordID).sorted().toList();
+                double skylineMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+                System.setOut(out);
+                rangeResults.add(results);
+                neighbourResults.add(neighbours);
+                skylines.add(skyline);
+
+                System.out.printf("%-10s %d blocks (%.1f KB) built in %.2f ms, %d linear range queries in %.2f ms, "
+                                + "%d linear 10-NN queries in %.2f ms, linear skyline in %.2f ms%n",
+                        format.name().toLowerCase(), copy.getTotalBlocksInDataFile(),
+                        Files.size(Paths.get(copy.getPathToDataFile())) / 1024.0, buildMillis, queries, rangeMillis,
+                        queries, neighboursMillis, skylineMillis);
+                copy.close();
+            } finally {
+                System.setOut(out);
+                try (var files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                        Files.deleteIfExists(file);
+                }
+            }
+        }
+        boolean valid = true;
+        for (int i = 1; i < skylines.size(); i++) {
+            valid &= rangeResults.get(i).equals(rangeResults.get(0)) && neighbourResults.get(i).equals(neighbourResults.get(0))
+                    && skylines.get(i).equals(skylines.get(0));
+        }
+        System.out.println(valid ? "All datafiles return the same results." : "The datafiles return different results!");
+    }
+
+
+    /**
+     * Times every {@link CoordinateKernels} kernel of the scalar and of the selected implementation over the coordinates of
+     * the whole datafile, and checks that both return the same results. Every kernel is warmed up, then timed several
+     * times, and the fastest time is printed. The range kernel runs random range queries, the
+     * distance kernel random points, and the dominance kernels the skyline points, which no row dominates, so every call
+     * scans all rows.
+     *
+     * @param tree The {@link RStarTree} whose datafile is used
+     * @param iterations The number of calls of every kernel
+     */
+
+
+    private static void benchmarkCoordinateKernels(RStarTree tree, int iterations) {
+        ArrayList<Record> records = readAllRecords(tree);
+        int rows = records.size();
+        int dimensions = tree.getStore().getDataDimensions();
+        double[][] columns = new double[dimensions][rows];
+        for (int row = 0; row < rows; row++) {
+            for (int d = 0; d < dimensions; d++)
+                columns[d][row] = records.get(row).getCoordinateFromDimension(d);
+        }
+
+        MBR dataSpace = tree.getRootNode().getMBR();
+        List<MBR> rangeQueries = randomRangeQueries(dataSpace, iterations);
+        List<ArrayList<Double>> searchPoints = randomPoints(dataSpace, iterations);
+        ArrayList<Record> skyline = OptimalSkylineQuery.computeSkyline(tree);
+        double[][] lower = new double[iterations][dimensions];
+        double[][] upper = new double[iterations][dimensions];
+        double[][] points = new double[iterations][dimensions];
+        double[][] candidates = new double[iterations][dimensions];
+        for (int i = 0; i < iterations; i++) {
+            for (int d = 0; d < dimensions; d++) {
+                lower[i][d] = rangeQueries.get(i).getBounds().get(d).getLower();
+                upper[i][d] = rangeQueries.get(i).getBounds().get(d).getUpper();
+                points[i][d] = searchPoints.get(i).get(d);
+                candidates[i][d] = skyline.get(i % skyline.size()).getCoordinateFromDimension(d);
+            }
+        }
+
+        List<CoordinateKernels> implementations = List.of(new ScalarCoordinateKernels(), CoordinateKernels.INSTANCE);
+        if (CoordinateKernels.INSTANCE instanceof ScalarCoordinateKernels) {
+            System.out.println("The Vector API is not available, start the JVM with --add-modules jdk.incubator.vector");
+            implementations = List.of(CoordinateKernels.INSTANCE);
+        }
+        String[] kernels = {"selectInRange", "squaredDistances", "isDominated", "selectDominatedBy"};
+        int[] selection = new int[rows];
+        double[] distances = new double[rows];
+
+        System.out.printf("%d rows, %d calls of every kernel%n", rows, iterations);
+        // The implementations take turns in every round, so that both run with the same JIT profile of runKernel
+        double[][] nanosPerRow = new double[implementations.size()][kernels.length];
+        long[][] results = new long[implementations.size()][kernels.length];
+        for (double[] implementationNanos : nanosPerRow)
+            Arrays.fill(implementationNanos, Double.MAX_VALUE);
+        for (int kernel = 0; kernel < kernels.length; kernel++) {
+            for (int round = 0; round < KERNEL_WARMUP_ROUNDS + KERNEL_TIMED_ROUNDS; round++) {
+                for (int i = 0; i < implementations.size(); i++) {
+                    long startTime = System.nanoTime();
+                    results[i][kernel] = runKernel(implementations.get(i), kernel, columns, rows, lower, upper, points,
+                            candidates, selection, distances);
+                    if (round >= KERNEL_WARMUP_ROUNDS)
+                        nanosPerRow[i][kernel] = Math.min(nanosPerRow[i][kernel],
+                                (System.nanoTime() - startTime) / ((double) iterations * rows));
+                }
+            }
+        }
+
+        boolean valid = true;
+        for (int i = 0; i < implementations.size(); i++) {
+            for (int kernel = 0; kernel < kernels.length; kernel++) {
+                if (i == 0) {
+                    System.out.printf("%-18s %-22s %8.4f ns/row%n", kernels[kernel], implementations.get(i).getName(),
+                            nanosPerRow[i][kernel]);
+                } else {
+                    valid &= results[i][kernel] == results[0][kernel];
+                    System.out.printf("%-18s %-22s %8.4f ns/row (%.2fx)%n", kernels[kernel],
+                            implementations.get(i).getName(), nanosPerRow[i][kernel],
+                            nanosPerRow[0][kernel] / nanosPerRow[i][kernel]);
+                }
+            }
+        }
+        System.out.println(valid ? "All kernels return the same results." : "The kernels return different results!");
+    }
+
+
+    /**
+     * {@code runKernel} helper method for {@link #benchmarkCoordinateKernels} that calls a kernel once per query, and
+     * sums the results into one value, so they can be compared and are not optimized away.
+     *
+     * @param kernels The implementation
+     * @param kernel The index of the kernel
+     * @param columns The coordinate columns
+     * @param rows The number of rows
+     * @param lower The lower bounds of the range queries
+     * @param upper The upper bounds of the range queries
+     * @param points The points of the distance queries
+     * @param candidates The points of the dominance queries
+     * @param selection Scratch selection
+     * @param distances Scratch distances
+     * @return The sum of the results
+     */
+
+
+    private static long runKernel(CoordinateKernels kernels, int kernel, double[][] columns, int rows, double[][] lower,
+                                  double[][] upper, double[][] points, double[][] candidates, int[] selection,
+                                  double[] distances) {
+        long result = 0;
+        for (int i = 0; i < points.length; i++) {
+            switch (kernel) {
+                case 0: {
+                    int selected = kernels.selectInRange(columns, rows, lower[i], upper[i], selection);
+                    for (int j = 0; j < selected; j++)
+                        result += selection[j];
+                    break;
+                }
+                case 1:
+                    kernels.squaredDistances(columns, rows, points[i], distances);
+                    for (int row = 0; row < rows; row++)
+                        result += Double.doubleToLongBits(distances[row]);
+                    break;
+                case 2:
+                    result += kernels.isDominated(columns, rows, candidates[i]) ? 1 : 0;
+                    break;
+                default: {
+                    int selected = kernels.selectDominatedBy(columns, rows, candidates[i], selection);
+                    for (int j = 0; j < selected; j++)
+                        result += selection[j];
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Creates a columnar datafile from the store's csv file and runs the same large linear range queries with every
+     * {@link QueryResults.Projection}, printing their latency and the bytes that the querying thread allocated per query.
+     * Every projection is warmed up first, so the blocks are in the buffer pool and only the cost of building the
+     * results is compared.
+     *
+     * @param tree The original {@link RStarTree}, whose store's csv file is used
+     * @param queries The number of range queries per projection
+     * @throws Exception to catch any query or file errors
+     */
+
+
+    private static void benchmarkProjections(RStarTree tree, int queries) throws Exception {
+        SpatialStore store = tree.getStore();
+        List<MBR> rangeQueries = randomRangeQueries(tree.getRootNode().getMBR(), queries, LARGE_RANGE_QUERY_FRACTION);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Path directory = Files.createTempDirectory("spatialstore");
+        try {
+            Files.copy(Paths.get(store.getPathToCsv()), directory.resolve("data.csv"));
+            SpatialStore copy = new SpatialStore(directory.toString());
+            copy.setDataPageFormat(SpatialStore.DataPageFormat.COLUMNAR);
+            copy.initializeDataFile(store.getDataDimensions(), true);
+
+            ArrayList<List<Long>> resultIds = new ArrayList<>();
+            for (QueryResults.Projection projection : QueryResults.Projection.values()) {
+                for (MBR queryMBR : rangeQueries) // warm-up
+                    LinearRangeQuery.runLinearRangeQuery(copy, queryMBR, projection);
+
+                ArrayList<Long> ids = new ArrayList<>(); // hash of the record ids of every query
+                long totalResults = 0;
+                long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                long startTime = System.nanoTime();
+                for (MBR queryMBR : rangeQueries) {
+                    QueryResults results = LinearRangeQuery.runLinearRangeQuery(copy, queryMBR, projection);
+                    totalResults += results.size();
+                    ids.add((long) Arrays.hashCode(results.getRecordIds()));
+                }
+                double durationMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+                long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                resultIds.add(ids);
+
+                System.out.printf("%-11s %d queries, %d results in %.2f ms (%.3f ms/query), %.1f KB allocated per query%n",
+                        projection.name().toLowerCase(), queries, totalResults, durationMillis, durationMillis / queries,
+                        allocated / 1024.0 / queries);
+            }
+            copy.close();
+            boolean valid = resultIds.stream().allMatch(ids -> ids.equals(resultIds.get(0)));
+            System.out.println(valid ? "All projections return the same records." : "The projections return different records!");
+        } finally {
+            try (var files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+
+    /**
+     * Compares large range queries that build the whole result list with the same queries streamed through
+     * {@link RangeQuery#stream}, fully and limited to their first {@code STREAMING_LIMIT} records, printing their latency
+     * and the bytes that the querying thread allocated per query. Also checks that the streams return the same records in
+     * the same order as {@link RangeQuery#rangeQuery(RStarTree, Node, MBR)}.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of range queries per run
+     */
+
+
+    private static void benchmarkStreamingRangeQueries(RStarTree tree, int queries) {
+        List<MBR> rangeQueries = randomRangeQueries(tree.getRootNode().getMBR(), queries, LARGE_RANGE_QUERY_FRACTION);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        boolean valid = true;
+        for (MBR queryMBR : rangeQueries) { // warm-up and validation
+            ArrayList<Record> expected = RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR);
+            List<Record> streamed = RangeQuery.stream(tree, tree.getRootNode(), queryMBR).toList();
+            List<Record> limited = RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR, STREAMING_LIMIT);
+            valid &= recordIds(streamed).equals(recordIds(expected))
+                    && recordIds(limited).equals(recordIds(expected.subList(0, Math.min(STREAMING_LIMIT, expected.size()))));
+        }
+
+        String[] runs = {"list", "stream", "stream-limit"};
+        for (int run = 0; run < runs.length; run++) {
+            long totalResults = 0;
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long startTime = System.nanoTime();
+            for (MBR queryMBR : rangeQueries) {
+                if (run == 0)
+                    totalResults += RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR).size();
+                else if (run == 1)
+                    totalResults += RangeQuery.stream(tree, tree.getRootNode(), queryMBR).count();
+                else
+                    totalResults += RangeQuery.stream(tree, tree.getRootNode(), queryMBR).limit(STREAMING_LIMIT).count();
+            }
+            double durationMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            System.out.printf("%-12s %d queries, %d results in %.2f ms (%.3f ms/query), %.1f KB allocated per query%n",
+                    runs[run], queries, totalResults, durationMillis, durationMillis / queries, allocated / 1024.0 / queries);
+        }
+        System.out.println(valid ? "The streams return the same records." : "The streams return different records!");
+    }
+
+
+    /**
+     * Runs the same large range queries sequentially and with {@link RangeQuery#parallelRangeQuery} on
+     * {@link ForkJoinPool}s of an increasing parallelism, printing the latency of each run. Also checks that the parallel
+     * queries return the same records in the same order, both on the latest version and on an {@link IndexSnapshot}.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of range queries per run
+     */
+
+
+    private static void benchmarkParallelRangeQueries(RStarTree tree, int queries) {
+        List<MBR> rangeQueries = randomRangeQueries(tree.getRootNode().getMBR(), queries, LARGE_RANGE_QUERY_FRACTION);
+        QueryResults.Projection projection = QueryResults.Projection.IDS;
+
+        for (MBR queryMBR : rangeQueries) // warm-up
+            RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR, projection);
+        ArrayList<long[]> expected = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (MBR queryMBR : rangeQueries)
+            expected.add(RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR, projection).getRecordIds());
+        double sequentialMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+        System.out.printf("sequential     %d queries in %.2f ms (%.3f ms/query)%n", queries, sequentialMillis,
+                sequentialMillis / queries);
+
+        boolean valid = true;
+        int maxParallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            for (MBR queryMBR : rangeQueries) // warm-up
+                RangeQuery.parallelRangeQuery(tree, tree.getRootNode(), queryMBR, projection, pool);
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < rangeQueries.size(); i++) {
+                QueryResults results = RangeQuery.parallelRangeQuery(tree, tree.getRootNode(), rangeQueries.get(i),
+                        projection, pool);
+                valid &= Arrays.equals(results.getRecordIds(), expected.get(i));
+            }
+            double durationMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            pool.shutdown();
+            System.out.printf("parallelism %-2d %d queries in %.2f ms (%.3f ms/query), %.2fx%n", parallelism, queries,
+                    durationMillis, durationMillis / queries, sequentialMillis / durationMillis);
+        }
+
+        try (IndexSnapshot snapshot = tree.openSnapshot()) {
+            for (int i = 0; i < rangeQueries.size(); i++) {
+                QueryResults results = RangeQuery.parallelRangeQuery(tree, snapshot.getRootNode(), rangeQueries.get(i),
+                        projection);
+                valid &= Arrays.equals(results.getRecordIds(), expected.get(i));
+            }
+        }
+        System.out.println(valid ? "The parallel queries return the same records." : "The parallel queries return different records!");
+    }
+
+
+    /**
+     * Runs the same range and k-nearest neighbours queries on a cold buffer pool, emptied before every query, with and
+     * without block prefetching, printing the latency of each run, the prefetches issued and the blocks read. The queries
+     * run once on the operating system's page cache and once with {@code SIMULATED_READ_LATENCY_MICROS} added to every
+     * read, since prefetching only pays off when the reads wait for a device. Also checks that the queries return the same
+     * records either way.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of queries of each kind per run
+     */
+
+
+    private static void benchmarkPrefetching(RStarTree tree, int queries) {
+        SpatialStore store = tree.getStore();
+        MBR dataSpace = tree.getRootNode().getMBR();
+        List<MBR> rangeQueries = randomRangeQueries(dataSpace, queries, RANGE_QUERY_FRACTION);
+        List<ArrayList<Double>> searchPoints = randomPoints(dataSpace, queries);
+        boolean prefetchingBefore = store.isPrefetching();
+
+        ArrayList<List<Long>> results = new ArrayList<>();
+        long[] readLatencies = {0, 0, SIMULATED_READ_LATENCY_MICROS}; // the first run warms up the JIT
+        for (long readLatency : readLatencies) {
+            store.setReadLatency(readLatency);
+            for (boolean prefetching : new boolean[]{false, true}) {
+                store.setPrefetching(prefetching);
+                ArrayList<Long> ids = new ArrayList<>();
+                long issuedBefore = store.getPrefetcher().getIssued();
+                long pageReadsBefore = store.getPhysicalPageReads();
+                long gapReadsBefore = store.getGapPageReads();
+                long fileReadsBefore = store.getFileReads();
+
+                long rangeNanos = 0;
+                for (MBR queryMBR : rangeQueries) {
+                    store.clearBufferPools();
+                    long startTime = System.nanoTime();
+                    ArrayList<Record> records = RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR);
+                    rangeNanos += System.nanoTime() - startTime;
+                    ids.add((long) recordIds(records).hashCode());
+                }
+                long nearestNanos = 0;
+                for (ArrayList<Double> searchPoint : searchPoints) {
+                    store.clearBufferPools();
+                    long startTime = System.nanoTime();
+                    ArrayList<Record> records = NearestNeighboursQuery.getNearestNeighbours(tree, searchPoint, NEAREST_NEIGHBOURS_K);
+                    nearestNanos += System.nanoTime() - startTime;
+                    ids.add((long) recordIds(records).hashCode());
+                }
+                results.add(ids);
+
+                System.out.printf("read latency %3d us, prefetching %-3s range %.3f ms/query, %d-NN %.3f ms/query, "
+                                + "%d prefetches, %d blocks (+%d gap blocks) in %d reads%n", readLatency,
+                        prefetching ? "on" : "off", rangeNanos / 1_000_000.0 / queries, NEAREST_NEIGHBOURS_K,
+                        nearestNanos / 1_000_000.0 / queries, store.getPrefetcher().getIssued() - issuedBefore,
+                        store.getPhysicalPageReads() - pageReadsBefore, store.getGapPageReads() - gapReadsBefore,
+                        store.getFileReads() - fileReadsBefore);
+            }
+        }
+        store.setReadLatency(0);
+        store.setPrefetching(prefetchingBefore);
+        boolean valid = results.stream().allMatch(ids -> ids.equals(results.get(0)));
+        System.out.println(valid ? "Prefetching returns the same records." : "Prefetching returns different records!");
+    }
+
+
+    /**
+     * Runs linear range and k-nearest neighbours scans of the whole datafile on a cold buffer pool, emptied before every
+     * scan, with the coalesced reads of {@link SpatialStore#loadDataBlocks} and with every block read on its own, printing
+     * their latency and how many reads they issued for the blocks they read. The scans run once on the operating system's
+     * page cache and once with {@code SIMULATED_READ_LATENCY_MICROS} added to every read. Also checks that the scans
+     * return the same records either way.
+     *
+     * @param tree The {@link RStarTree} whose store is scanned
+     * @param queries The number of scans of each kind
+     */
+
+
+    private static void benchmarkCoalescedScans(RStarTree tree, int queries) {
+        SpatialStore store = tree.getStore();
+        MBR dataSpace = tree.getRootNode().getMBR();
+        List<MBR> rangeQueries = randomRangeQueries(dataSpace, queries);
+        List<ArrayList<Double>> searchPoints = randomPoints(dataSpace, queries);
+
+        ArrayList<List<Long>> results = new ArrayList<>();
+        long[] readLatencies = {0, 0, SIMULATED_READ_LATENCY_MICROS}; // the first run warms up the JIT
+        for (long readLatency : readLatencies) {
+            store.setReadLatency(readLatency);
+            for (boolean coalescing : new boolean[]{false, true}) {
+                store.setCoalescingReads(coalescing);
+                ArrayList<Long> ids = new ArrayList<>();
+                long pageReadsBefore = store.getPhysicalPageReads();
+                long gapReadsBefore = store.getGapPageReads();
+                long fileReadsBefore = store.getFileReads();
+                long rangeNanos = 0;
+                for (MBR queryMBR : rangeQueries) {
+                    store.clearBufferPools();
+                    long startTime = System.nanoTime();
+                    long[] recordIds = LinearRangeQuery.runLinearRangeQuery(store, queryMBR, QueryResults.Projection.IDS).getRecordIds();
+                    rangeNanos += System.nanoTime() - startTime;
+                    ids.add((long) Arrays.hashCode(recordIds));
+                }
+                long nearestNanos = 0;
+                for (ArrayList<Double> searchPoint : searchPoints) {
+                    store.clearBufferPools();
+                    long startTime = System.nanoTime();
+                    ArrayList<Record> records = new LinearNearestNeighboursQuery(store, searchPoint, NEAREST_NEIGHBOURS_K).getNearestRecords();
+                    nearestNanos += System.nanoTime() - startTime;
+                    ids.add((long) recordIds(records).hashCode());
+                }
+                results.add(ids);
+                System.out.printf("read latency %3d us, cold scans %-10s range %.3f ms/scan, %d-NN %.3f ms/scan, "
+                                + "%d blocks (+%d gap blocks) in %d reads%n", readLatency, coalescing ? "coalesced" : "one by one",
+                        rangeNanos / 1_000_000.0 / queries, NEAREST_NEIGHBOURS_K,
+                        nearestNanos / 1_000_000.0 / queries, store.getPhysicalPageReads() - pageReadsBefore,
+                        store.getGapPageReads() - gapReadsBefore, store.getFileReads() - fileReadsBefore);
+            }
+        }
+        store.setReadLatency(0);
+        store.setCoalescingReads(true);
+        boolean valid = results.stream().allMatch(ids -> ids.equals(results.get(0)));
+        System.out.println(valid ? "Coalesced reads return the same records." : "Coalesced reads return different records!");
+    }
+
+
+    /**
+     * Runs a batch of range queries as independent {@link RangeQuery}s and as one {@link BatchRangeQuery}, on a cold and on
+     * a warm buffer pool, printing the latency, the block requests to the pools and the blocks read from the files of each
+     * run. Also checks that the batch
+     * returns the same records in the same order for every query.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of range queries in the batch
+     */
+
+
+    private static void benchmarkBatchRangeQueries(RStarTree tree, int queries) {
+        SpatialStore store = tree.getStore();
+        List<MBR> rangeQueries = randomRangeQueries(tree.getRootNode().getMBR(), queries);
+        QueryResults.Projection projection = QueryResults.Projection.IDS;
+        boolean prefetchingBefore = store.isPrefetching();
+        store.setPrefetching(false);
+
+        boolean valid = true;
+        for (int run = 0; run < 3; run++) { // the first run warms up the JIT
+            boolean cold = run < 2;
+            ArrayList<long[]> expected = new ArrayList<>();
+            if (cold)
+                store.clearBufferPools();
+            long pageReadsBefore = store.getPhysicalPageReads();
+            long requestsBefore = store.getPoolRequests();
+            long startTime = System.nanoTime();
+            for (MBR queryMBR : rangeQueries)
+                expected.add(RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR, projection).getRecordIds());
+            double independentMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long independentReads = store.getPhysicalPageReads() - pageReadsBefore;
+            long independentRequests = store.getPoolRequests() - requestsBefore;
+
+            if (cold)
+                store.clearBufferPools();
+            pageReadsBefore = store.getPhysicalPageReads();
+            requestsBefore = store.getPoolRequests();
+            startTime = System.nanoTime();
+            List<QueryResults> batch = BatchRangeQuery.batchRangeQuery(tree, tree.getRootNode(), rangeQueries, projection);
+            double batchMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long batchReads = store.getPhysicalPageReads() - pageReadsBefore;
+            long batchRequests = store.getPoolRequests() - requestsBefore;
+            for (int q = 0; q < queries; q++)
+                valid &= Arrays.equals(batch.get(q).getRecordIds(), expected.get(q));
+
+            System.out.printf("%s pool: %d independent queries in %.2f ms (%d block requests, %d read), "
+                            + "one batch in %.2f ms (%d block requests, %d read)%n", cold ? "cold" : "warm", queries,
+                    independentMillis, independentRequests, independentReads, batchMillis, batchRequests, batchReads);
+        }
+        store.setPrefetching(prefetchingBefore);
+        System.out.println(valid ? "The batch returns the same records." : "The batch returns different records!");
+    }
+
+
+    /**
+     * Counts the records in range of small and large range queries by running the {@link RangeQuery} and by
+     * {@link RangeQuery#rangeCount} over the subtree record counts, printing the latency and the block requests to the
+     * pools of both. Checks that both return the same counts, and that the record counts of the tree are valid.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of range queries of every size
+     */
+
+
+    private static void benchmarkRangeCounts(RStarTree tree, int queries) {
+        SpatialStore store = tree.getStore();
+        boolean valid = true;
+        for (double fraction : new double[]{RANGE_QUERY_FRACTION, LARGE_RANGE_QUERY_FRACTION}) {
+            List<MBR> rangeQueries = randomRangeQueries(tree.getRootNode().getMBR(), queries, fraction);
+            for (int run = 0; run < 2; run++) { // the first run warms up the JIT and the buffer pools
+                long[] expected = new long[queries];
+                long requestsBefore = store.getPoolRequests();
+                long startTime = System.nanoTime();
+                for (int q = 0; q < queries; q++)
+                    expected[q] = RangeQuery.rangeQuery(tree, tree.getRootNode(), rangeQueries.get(q), QueryResults.Projection.IDS).size();
+                double queryMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+                long queryRequests = store.getPoolRequests() - requestsBefore;
+
+                long[] counts = new long[queries];
+                requestsBefore = store.getPoolRequests();
+                startTime = System.nanoTime();
+                for (int q = 0; q < queries; q++)
+                    counts[q] = RangeQuery.rangeCount(tree, tree.getRootNode(), rangeQueries.get(q));
+                double countMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+                long countRequests = store.getPoolRequests() - requestsBefore;
+                valid &= Arrays.equals(counts, expected);
+
+                if (run > 0)
+                    System.out.printf("%.0f%% wide queries: %d range queries in %.2f ms (%d block requests), "
+                                    + "%d range counts in %.2f ms (%d block requests)%n", fraction * 100, queries,
+                            queryMillis, queryRequests, queries, countMillis, countRequests);
+            }
+        }
+        System.out.println(valid ? "The range counts match the range queries." : "The range counts differ from the range queries!");
+        System.out.println("Tree invariants " + (tree.checkInvariants() ? "hold." : "are violated!"));
+    }
+
+
+    /**
+     * Asks for the nearest records of search points one page of {@code NEAREST_NEIGHBOURS_K} records at a time, up to
+     * {@code BROWSING_PAGES} pages, by running a new {@link NearestNeighboursQuery} with a larger {@code k} for every page
+     * and by pulling the next page from one {@link NearestNeighboursIterator}. Prints the latency and the block requests to
+     * the pools of both, and checks that the iterator returns the distances of the {@link LinearNearestNeighboursQuery}.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of search points
+     */
+
+
+    private static void benchmarkDistanceBrowsing(RStarTree tree, int queries) {
+        SpatialStore store = tree.getStore();
+        List<ArrayList<Double>> searchPoints = randomPoints(tree.getRootNode().getMBR(), queries);
+        int browsed = BROWSING_PAGES * NEAREST_NEIGHBOURS_K;
+
+        for (int run = 0; run < 2; run++) { // the first run warms up the JIT and the buffer pools
+            long requestsBefore = store.getPoolRequests();
+            long startTime = System.nanoTime();
+            for (ArrayList<Double> searchPoint : searchPoints) {
+                for (int page = 1; page <= BROWSING_PAGES; page++)
+                    NearestNeighboursQuery.getNearestNeighbours(tree, searchPoint, page * NEAREST_NEIGHBOURS_K);
+            }
+            double rerunMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long rerunRequests = store.getPoolRequests() - requestsBefore;
+
+            requestsBefore = store.getPoolRequests();
+            startTime = System.nanoTime();
+            for (ArrayList<Double> searchPoint : searchPoints) {
+                Iterator<RecordDistancePair> neighbours = NearestNeighboursQuery.iterator(tree, tree.getRootNode(), searchPoint);
+                for (int i = 0; i < browsed && neighbours.hasNext(); i++)
+                    neighbours.next();
+            }
+            double iteratorMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long iteratorRequests = store.getPoolRequests() - requestsBefore;
+
+            if (run > 0)
+                System.out.printf("%d pages of %d neighbours for %d points: new query per page in %.2f ms (%d block requests), "
+                                + "iterator in %.2f ms (%d block requests)%n", BROWSING_PAGES, NEAREST_NEIGHBOURS_K, queries,
+                        rerunMillis, rerunRequests, iteratorMillis, iteratorRequests);
+        }
+
+        boolean valid = true;
+        for (ArrayList<Double> searchPoint : searchPoints) {
+            double[] expected = new LinearNearestNeighboursQuery(store, searchPoint, browsed).getNearestRecords().stream()
+                    .mapToDouble(record -> distance(record, searchPoint)).toArray();
+            double[] distances = NearestNeighboursQuery.stream(tree, tree.getRootNode(), searchPoint).limit(browsed)
+                    .mapToDouble(RecordDistancePair::getDistance).toArray();
+            valid &= distances.length == expected.length;
+            for (int i = 0; valid && i < distances.length; i++)
+                valid = Math.abs(distances[i] - expected[i]) < 1e-9;
+        }
+        System.out.println(valid ? "The iterator returns the nearest records in order." : "The iterator returns different records!");
+    }
+
+
+    /**
+     * Runs the k-nearest neighbours queries of random search points one {@link NearestNeighboursQuery} at a time and as
+     * one {@link BatchNearestNeighboursQuery}, printing the throughput and the block requests to the pools of both. Also
+     * checks that the batch returns the same distances for every query.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of search points in the batch
+     */
+
+
+    private static void benchmarkBatchNearestNeighbours(RStarTree tree, int queries) {
+        SpatialStore store = tree.getStore();
+        List<ArrayList<Double>> searchPoints = randomPoints(tree.getRootNode().getMBR(), queries);
+
+        boolean valid = true;
+        for (int run = 0; run < 2; run++) { // the first run warms up the JIT and the buffer pools
+            ArrayList<ArrayList<Record>> expected = new ArrayList<>();
+            long requestsBefore = store.getPoolRequests();
+            long startTime = System.nanoTime();
+            for (ArrayList<Double> searchPoint : searchPoints)
+                expected.add(NearestNeighboursQuery.getNearestNeighbours(tree, searchPoint, NEAREST_NEIGHBOURS_K));
+            double singleMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long singleRequests = store.getPoolRequests() - requestsBefore;
+
+            requestsBefore = store.getPoolRequests();
+            startTime = System.nanoTime();
+            List<ArrayList<Record>> batch = BatchNearestNeighboursQuery.batchNearestNeighbours(tree, tree.getRootNode(),
+                    searchPoints, NEAREST_NEIGHBOURS_K);
+            double batchMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long batchRequests = store.getPoolRequests() - requestsBefore;
+
+            for (int q = 0; q < queries; q++) {
+                ArrayList<Double> searchPoint = searchPoints.get(q);
+                valid &= batch.get(q).size() == expected.get(q).size();
+                for (int i = 0; valid && i < batch.get(q).size(); i++)
+                    valid = Math.abs(distance(batch.get(q).get(i), searchPoint) - distance(expected.get(q).get(i), searchPoint)) < 1e-9;
+            }
+            if (run > 0)
+                System.out.printf("%d queries of k=%d: one at a time %.0f queries/s (%d block requests), "
+                                + "batched %.0f queries/s (%d block requests)%n", queries, NEAREST_NEIGHBOURS_K,
+                        queries * 1000.0 / singleMillis, singleRequests, queries * 1000.0 / batchMillis, batchRequests);
+        }
+        System.out.println(valid ? "The batch returns the same neighbours." : "The batch returns different neighbours!");
+    }
+
+
+    /**
+     * Copies the files into a temporary directory and joins the records of the index with the ones of its copy, the
+     * pairs within {@code JOIN_EPSILON}, with one {@link RangeQuery} per left record, with a {@link SpatialJoin} and with
+     * a parallel {@link SpatialJoin}. Prints the time of each and checks that all of them find the same pairs.
+     *
+     * @param tree The {@link RStarTree} to join
+     * @throws Exception to catch any file errors
+     */
+
+
+    private static void benchmarkSpatialJoin(RStarTree tree) throws Exception {
+        SpatialStore store = tree.getStore();
+        PrintStream out = System.out;
+        tree.checkpoint(); // the copy only sees the blocks written in the files
+        Path directory = Files.createTempDirectory("spatialstore");
+        try {
+            Files.copy(Paths.get(store.getPathToDataFile()), directory.resolve("datafile.dat"));
+            Files.copy(Paths.get(store.getPathToIndexFile()), directory.resolve("indexfile.dat"));
+            System.setOut(new PrintStream(PrintStream.nullOutputStream())); // opening a tree prints its record map
+            SpatialStore copy = new SpatialStore(directory.toString(), store.getBlockSize(),
+                    SpatialStore.DEFAULT_INDEX_POOL_CAPACITY, SpatialStore.DEFAULT_DATA_POOL_CAPACITY);
+            copy.initializeDataFile(0, false);
+            copy.initializeIndexFile(0, false);
+            RStarTree copyTree = new RStarTree(copy, copy.getIndexMetaData());
+            System.setOut(out);
+
+            ArrayList<Record> leftRecords = readAllRecords(tree);
+            double squaredEpsilon = JOIN_EPSILON * JOIN_EPSILON;
+            for (int run = 0; run < 2; run++) { // the first run warms up the JIT and the buffer pools
+                LongAdder nestedPairs = new LongAdder();
+                LongAdder nestedChecksum = new LongAdder();
+                long startTime = System.nanoTime();
+                for (Record leftRecord : leftRecords) {
+                    ArrayList<Bounds> bounds = new ArrayList<>();
+                    for (int d = 0; d < store.getDataDimensions(); d++) {
+                        double coordinate = leftRecord.getCoordinateFromDimension(d);
+                        bounds.add(new Bounds(coordinate - JOIN_EPSILON, coordinate + JOIN_EPSILON));
+                    }
+                    for (Record rightRecord : RangeQuery.rangeQuery(copyTree, copyTree.getRootNode(), new MBR(bounds))) {
+                        if (squaredDistance(leftRecord, rightRecord) <= squaredEpsilon)
+                            countPair(leftRecord, rightRecord, nestedPairs, nestedChecksum);
+                    }
+                }
+                double nestedMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+                LongAdder joinPairs = new LongAdder();
+                LongAdder joinChecksum = new LongAdder();
+                startTime = System.nanoTime();
+                SpatialJoin.join(tree, copyTree, JOIN_EPSILON, (l, r) -> countPair(l, r, joinPairs, joinChecksum));
+                double joinMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+                LongAdder parallelPairs = new LongAdder();
+                LongAdder parallelChecksum = new LongAdder();
+                startTime = System.nanoTime();
+                SpatialJoin.parallelJoin(tree, copyTree, JOIN_EPSILON, (l, r) -> countPair(l, r, parallelPairs, parallelChecksum));
+                double parallelMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+                if (run > 0) {
+                    System.out.printf("%d pairs within %s: range query per record in %.2f ms, join in %.2f ms, "
+                                    + "parallel join in %.2f ms (%d threads)%n", joinPairs.sum(), JOIN_EPSILON, nestedMillis,
+                            joinMillis, parallelMillis, ForkJoinPool.commonPool().getParallelism());
+                    boolean valid = joinPairs.sum() == nestedPairs.sum() && joinChecksum.sum() == nestedChecksum.sum()
+                            && parallelPairs.sum() == nestedPairs.sum() && parallelChecksum.sum() == nestedChecksum.sum();
+                    System.out.println(valid ? "The joins find the same pairs." : "The joins find different pairs!");
+                }
+            }
+            copy.close();
+        } finally {
+            System.setOut(out);
+            try (var files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+
+    /**
+     * Finds the {@code NEAREST_NEIGHBOURS_K} nearest neighbours of every record with an {@link AllNearestNeighboursQuery},
+     * sequentially and in parallel into a csv file in a temporary directory, and of a sample of the records with one
+     * {@link NearestNeighboursQuery} per record. Prints the time of each, the time per record, and checks that both find
+     * neighbours at the same distances for the sampled records.
+     *
+     * @param tree The {@link RStarTree} to join
+     * @param queries The number of sampled records
+     * @throws Exception to catch any file errors
+     */
+
+
+    private static void benchmarkAllNearestNeighbours(RStarTree tree, int queries) throws Exception {
+        HashMap<Long, Record> records = new HashMap<>();
+        for (Record record : readAllRecords(tree))
+            records.put(record.getRecordID(), record);
+        List<Record> sample = new ArrayList<>(records.values());
+        Collections.shuffle(sample, new Random(SEED));
+        sample = sample.subList(0, Math.min(queries, sample.size()));
+
+        HashMap<Long, long[]> sampledNeighbours = new HashMap<>();
+        for (Record record : sample)
+            sampledNeighbours.put(record.getRecordID(), null);
+        LongAdder joined = new LongAdder();
+        long startTime = System.nanoTime();
+        AllNearestNeighboursQuery.allNearestNeighbours(tree, NEAREST_NEIGHBOURS_K, (recordId, neighbourIds) -> {
+            joined.increment();
+            if (sampledNeighbours.containsKey(recordId))
+                sampledNeighbours.put(recordId, neighbourIds);
+        });
+        double joinMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        startTime = System.nanoTime();
+        ArrayList<List<Double>> expected = new ArrayList<>();
+        for (Record record : sample) {
+            ArrayList<Record> neighbours = NearestNeighboursQuery.getNearestNeighbours(tree, record.getCoordinates(),
+                    NEAREST_NEIGHBOURS_K + 1);
+            ArrayList<Double> distances = new ArrayList<>();
+            for (Record neighbour : neighbours)
+                distances.add(distance(neighbour, record.getCoordinates()));
+            distances.remove(0.0); // the record itself
+            expected.add(distances);
+        }
+        double singleMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        Path directory = Files.createTempDirectory("allknn");
+        Path file = directory.resolve("neighbours.csv");
+        try {
+            startTime = System.nanoTime();
+            AllNearestNeighboursQuery.writeAllNearestNeighbours(tree, NEAREST_NEIGHBOURS_K, file.toString());
+            double parallelMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+            long lines;
+            try (var fileLines = Files.lines(file)) {
+                lines = fileLines.count() - 1;
+            }
+
+            System.out.printf("%d records, k=%d: one query per record %.3f ms/record (%d sampled), join %.3f ms/record "
+                            + "(%.2f ms), parallel join into a %d KB file in %.2f ms (%d threads)%n", records.size(),
+                    NEAREST_NEIGHBOURS_K, singleMillis / sample.size(), sample.size(), joinMillis / records.size(),
+                    joinMillis, Files.size(file) / 1024, parallelMillis, ForkJoinPool.commonPool().getParallelism());
+
+            boolean valid = joined.sum() == records.size() && lines == records.size();
+            for (int q = 0; q < sample.size(); q++) {
+                Record record = sample.get(q);
+                long[] neighbourIds = sampledNeighbours.get(record.getRecordID());
+                valid &= neighbourIds != null && neighbourIds.length == expected.get(q).size();
+                for (int i = 0; valid && i < neighbourIds.length; i++)
+                    valid = Math.abs(distance(records.get(neighbourIds[i]), record.getCoordinates()) - expected.get(q).get(i)) < 1e-9;
+            }
+            System.out.println(valid ? "The join finds the nearest neighbours of every record." : "The join finds different neighbours!");
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+
+    /**
+     * Runs reverse k-nearest neighbours queries of the points of random records with a
+     * {@link ReverseNearestNeighboursQuery}, with and without parallel verification, and the first
+     * {@code NAIVE_REVERSE_QUERIES} of them with the naive method, one {@link NearestNeighboursQuery} per record. Prints
+     * the time per query of each, and checks the results against the k-th nearest neighbour of every record, found with
+     * an {@link AllNearestNeighboursQuery}.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queries The number of query points
+     */
+
+
+    private static void benchmarkReverseNearestNeighbours(RStarTree tree, int queries) {
+        int k = REVERSE_NEAREST_NEIGHBOURS_K;
+        HashMap<Long, Record> records = new HashMap<>();
+        for (Record record : readAllRecords(tree))
+            records.put(record.getRecordID(), record);
+        HashMap<Long, Double> kthDistances = new HashMap<>();
+        AllNearestNeighboursQuery.allNearestNeighbours(tree, k, (recordId, neighbourIds) -> kthDistances.put(recordId,
+                neighbourIds.length < k ? Double.MAX_VALUE
+                        : distance(records.get(neighbourIds[k - 1]), records.get(recordId).getCoordinates())));
+        // Points among the records, since random points of the data space mostly fall where there are no records
+        List<Record> sample = new ArrayList<>(records.values());
+        Collections.shuffle(sample, new Random(SEED));
+        List<ArrayList<Double>> queryPoints = sample.subList(0, Math.min(queries, sample.size())).stream()
+                .map(record -> new ArrayList<>(record.getCoordinates())).toList();
+        queries = queryPoints.size();
+
+        boolean valid = true;
+        long results = 0;
+        for (int run = 0; run < 2; run++) { // the first run warms up the JIT and the buffer pools
+            long startTime = System.nanoTime();
+            ArrayList<List<Long>> sequential = new ArrayList<>();
+            for (ArrayList<Double> queryPoint : queryPoints)
+                sequential.add(sortedIds(ReverseNearestNeighboursQuery.reverseNearestNeighbours(tree, queryPoint, k)));
+            double sequentialMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            startTime = System.nanoTime();
+            ArrayList<List<Long>> parallel = new ArrayList<>();
+            for (ArrayList<Double> queryPoint : queryPoints)
+                parallel.add(sortedIds(ReverseNearestNeighboursQuery.parallelReverseNearestNeighbours(tree, queryPoint, k)));
+            double parallelMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            if (run == 0)
+                continue;
+            for (int q = 0; q < queries; q++) {
+                ArrayList<Double> queryPoint = queryPoints.get(q);
+                List<Long> expected = records.values().stream()
+                        .filter(record -> distance(record, queryPoint) <= kthDistances.get(record.getRecordID()))
+                        .map(Record::getRecordID).sorted().toList();
+                valid &= sequential.get(q).equals(expected) && parallel.get(q).equals(expected);
+                results += expected.size();
+            }
+
+            int naiveQueries = Math.min(NAIVE_REVERSE_QUERIES, queries);
+            startTime = System.nanoTime();
+            for (int q = 0; q < naiveQueries; q++) {
+                ArrayList<Double> queryPoint = queryPoints.get(q);
+                ArrayList<Long> naive = new ArrayList<>();
+                for (Record record : records.values()) {
+                    double queryDistance = distance(record, queryPoint);
+                    int nearer = 0;
+                    for (Record neighbour : NearestNeighboursQuery.getNearestNeighbours(tree, record.getCoordinates(), k + 1)) {
+                        if (neighbour.getRecordID() != record.getRecordID() && distance(neighbour, record.getCoordinates()) < queryDistance)
+                            nearer++;
+                    }
+                    if (nearer < k)
+                        naive.add(record.getRecordID());
+                }
+                valid &= naive.stream().sorted().toList().equals(sequential.get(q));
+            }
+            double naiveMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            System.out.printf("%d queries of k=%d (%.1f results/query): naive %.2f ms/query (%d queries), "
+                            + "TPL %.2f ms/query, TPL with parallel verification %.2f ms/query (%d threads)%n", queries, k,
+                    (double) results / queries, naiveMillis / naiveQueries, naiveQueries, sequentialMillis / queries,
+                    parallelMillis / queries, ForkJoinPool.commonPool().getParallelism());
+        }
+        System.out.println(valid ? "The queries find the reverse nearest neighbours." : "The queries find different records!");
+    }
+
+
+    /**
+     * Finds the k closest pairs of records of the index with a {@link ClosestPairsQuery} self-join, and with a brute
+     * force nested loop over all the records. Prints the time, the node accesses and the distance computations of both,
+     * and of an incremental query that stops after {@code INCREMENTAL_CLOSEST_PAIRS} pairs. Checks that both find the
+     * same distances, and that the incremental query is faster than the nested loop.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param k The number of pairs
+     */
+
+
+    private static void benchmarkClosestPairs(RStarTree tree, int k) {
+        ArrayList<Record> records = readAllRecords(tree);
+        long dataBlocks = tree.getStore().getTotalBlocksInDataFile() - 1;
+        double[][] points = new double[records.size()][];
+        for (int i = 0; i < points.length; i++)
+            points[i] = records.get(i).getCoordinates().stream().mapToDouble(Double::doubleValue).toArray();
+
+        boolean valid = true;
+        for (int run = 0; run < 2; run++) { // the first run warms up the JIT and the buffer pools
+            long startTime = System.nanoTime();
+            ClosestPairsQuery query = new ClosestPairsQuery(tree, tree, k);
+            ArrayList<RecordPair> pairs = new ArrayList<>();
+            while (query.hasNext())
+                pairs.add(query.next());
+            double queryMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            startTime = System.nanoTime();
+            ClosestPairsQuery incremental = (ClosestPairsQuery) ClosestPairsQuery.iterator(tree, tree);
+            for (int i = 0; i < INCREMENTAL_CLOSEST_PAIRS && incremental.hasNext(); i++)
+                incremental.next();
+            double incrementalMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            startTime = System.nanoTime();
+            PriorityQueue<Double> bruteForce = new PriorityQueue<>(Comparator.reverseOrder());
+            for (int i = 0; i < points.length; i++) {
+                for (int j = i + 1; j < points.length; j++) {
+                    double sum = 0;
+                    for (int d = 0; d < points[i].length; d++) {
+                        double difference = points[i][d] - points[j][d];
+                        sum += difference * difference;
+                    }
+                    if (bruteForce.size() < k || sum < bruteForce.peek()) {
+                        bruteForce.add(sum);
+                        if (bruteForce.size() > k)
+                            bruteForce.poll();
+                    }
+                }
+            }
+            double bruteForceMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            if (run == 0)
+                continue;
+            List<Double> expected = bruteForce.stream().map(Math::sqrt).sorted().toList();
+            valid &= pairs.size() == expected.size() && incrementalMillis < bruteForceMillis;
+            for (int i = 0; valid && i < pairs.size(); i++) {
+                RecordPair pair = pairs.get(i);
+                valid = pair.getLeft().getRecordID() != pair.getRight().getRecordID()
+                        && Math.abs(pair.getDistance() - expected.get(i)) <= 1e-12
+                        && Math.abs(Math.sqrt(squaredDistance(pair.getLeft(), pair.getRight())) - pair.getDistance()) <= 1e-12;
+            }
+            long comparisons = (long) points.length * (points.length - 1) / 2;
+            System.out.printf("%d closest pairs of %d records: brute force %.2f ms (%d blocks, %d distances), "
+                            + "closest pairs query %.2f ms (%d node accesses, %d distances), "
+                            + "first %d pairs incrementally %.2f ms (%d node accesses, %d distances)%n", k, points.length,
+                    bruteForceMillis, dataBlocks, comparisons, queryMillis, query.getNodeAccesses(),
+                    query.getDistanceComputations(), INCREMENTAL_CLOSEST_PAIRS, incrementalMillis,
+                    incremental.getNodeAccesses(), incremental.getDistanceComputations());
+        }
+        System.out.println(valid ? "The query finds the closest pairs." : "The query finds different pairs, or is slow!");
+    }
+
+
+    /**
+     * Computes the skyline of the index with the {@link OptimalSkylineQuery} repeatedly, and takes its first record
+     * progressively. Prints the time and the buffer pool requests of both, and checks the skyline against a
+     * {@link LinearSkylineQuery}.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param runs The number of timed skyline computations
+     */
+
+
+    private static void benchmarkSkyline(RStarTree tree, int runs) {
+        SpatialStore store = tree.getStore();
+        List<Long> expected = sortedIds(LinearSkylineQuery.computeSkyline(store));
+        for (int run = 0; run < runs; run++) // warms up the JIT and the buffer pools
+            OptimalSkylineQuery.computeSkyline(tree);
+
+        long requestsBefore = store.getPoolRequests();
+        long startTime = System.nanoTime();
+        ArrayList<Record> skyline = null;
+        for (int run = 0; run < runs; run++)
+            skyline = OptimalSkylineQuery.computeSkyline(tree);
+        double skylineMillis = (System.nanoTime() - startTime) / 1_000_000.0 / runs;
+        long skylineRequests = (store.getPoolRequests() - requestsBefore) / runs;
+
+        requestsBefore = store.getPoolRequests();
+        startTime = System.nanoTime();
+        for (int run = 0; run < runs; run++)
+            OptimalSkylineQuery.stream(tree).findFirst();
+        double firstMillis = (System.nanoTime() - startTime) / 1_000_000.0 / runs;
+        long firstRequests = (store.getPoolRequests() - requestsBefore) / runs;
+
+        System.out.printf("skyline of %d records: %.3f ms, %d pool requests (%d data blocks); first skyline record "
+                        + "%.3f ms, %d pool requests%n", skyline.size(), skylineMillis, skylineRequests,
+                store.getTotalBlocksInDataFile() - 1, firstMillis, firstRequests);
+        System.out.println(sortedIds(skyline).equals(expected) ? "The query finds the skyline." : "The query finds different records!");
+    }
+
+
+    /**
+     * {@code sortedIds} helper method that lists the sorted ids of records.
+     *
+     * @param records The records
+     * @return The sorted record ids
+     */
+
+
+    private static List<Long> sortedIds(List<Record> records) {
+        return records.stream().map(Record::getRecordID).sorted().toList();
+    }
+
+
+    /**
+     * {@code countPair} helper method that counts a joined pair and adds it to an order independent checksum of the
+     * pairs.
+     *
+     * @param left The left record
+     * @param right The right record
+     * @param pairs The number of pairs
+     * @param checksum The checksum of the pairs
+     */
+
+
+    private static void countPair(Record left, Record right, LongAdder pairs, LongAdder checksum) {
+        pairs.increment();
+        checksum.add(left.getRecordID() * 1_000_003L + right.getRecordID());
+    }
+
+
+    /**
+     * {@code squaredDistance} helper method that computes the squared euclidean distance of two records.
+     *
+     * @param a The first record
+     * @param b The second record
+     * @return The squared distance
+     */
+
+
+    private static double squaredDistance(Record a, Record b) {
+        double sum = 0;
+        for (int i = 0; i < a.getCoordinates().size(); i++) {
+            double difference = a.getCoordinateFromDimension(i) - b.getCoordinateFromDimension(i);
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+
+    /**
+     * {@code distance} helper method that computes the euclidean distance of a record from a point.
+     *
+     * @param record The record
+     * @param point The point
+     * @return The distance
+     */
+
+
+    private static double distance(Record record, List<Double> point) {
+        double sum = 0;
+        for (int i = 0; i < point.size(); i++) {
+            double difference = record.getCoordinateFromDimension(i) - point.get(i);
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+
+    /**
+     * {@code recordIds} helper method that lists the ids of records.
+     *
+     * @param records The records
+     * @return The record ids, in the order of the records
+     */
+
+
+    private static List<Long> recordIds(List<Record> records) {
+        return records.stream().map(Record::getRecordID).toList();
+    }
+
+
+    /**
+     * {@code readAllRecords} helper method that reads every record of the tree's datafile.
+     *
+     * @param tree The {@link RStarTree}
+     * @return The records
+     */
+
+
+    private static ArrayList<Record> readAllRecords(RStarTree tree) {
+        ArrayList<Record> records = new ArrayList<>();
+        for (int i = 1; i < tree.getStore().getTotalBlocksInDataFile(); i++)
+            records.addAll(tree.readDataFileBlock(i));
+        return records;
+    }
+
+
+    /**
+     * {@code runSnapshotQueries} helper method that runs range queries on the snapshot bound to the current thread.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param rangeQueries The range queries
+     * @return The sorted record ids of every query
+     */
+
+
+    private static List<List<Long>> runSnapshotQueries(RStarTree tree, List<MBR> rangeQueries) {
+        ArrayList<List<Long>> results = new ArrayList<>();
+        for (MBR queryMBR : rangeQueries)
+            results.add(rangeQueryIds(tree, queryMBR));
+        return results;
+    }
+
+
+    /**
+     * {@code rangeQueryIds} helper method that runs a range query from the root and returns the sorted record ids.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param queryMBR The query {@link MBR}
+     * @return The sorted record ids
+     */
+
+
+    private static List<Long> rangeQueryIds(RStarTree tree, MBR queryMBR) {
+        return RangeQuery.rangeQuery(tree, tree.getRootNode(), queryMBR).stream()
+                .map(Record::getRecordID).sorted().toList();
+    }
+
+
+    /**
+     * {@code isRecordIndexed} helper method that checks with a range query on the record's point whether a
+     * {@link Record} can be found through the R*Tree index.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param record The {@link Record}
+     * @return {@code true} if the range query returns the record, else {@code false}
+     */
+
+
+    private static boolean isRecordIndexed(RStarTree tree, Record record) {
+        MBR recordMBR = new MBR(Bounds.findMinimumBoundsFromRecord(record));
+        for (Record result : RangeQuery.rangeQuery(tree, tree.getRootNode(), recordMBR)) {
+            if (result.getRecordID() == record.getRecordID())
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * {@code runConcurrentQueries} helper method that submits all queries to a {@link ConcurrentQueryExecutor} and waits
+     * for their results.
+     *
+     * @param tree The {@link RStarTree} to query
+     * @param rangeQueries The range queries
+     * @param searchPoints The k-nearest neighbours query points
+     * @param parallelQueries The maximum number of queries running at the same time
+     * @return The total number of records returned
+     * @throws Exception to catch any query errors
+     */
+
+
+    private static long runConcurrentQueries(RStarTree tree, List<MBR> rangeQueries, List<ArrayList<Double>> searchPoints,
+                                             int parallelQueries) throws Exception {
+        ArrayList<Future<ArrayList<Record>>> results = new ArrayList<>();
+        try (ConcurrentQueryExecutor executor = new ConcurrentQueryExecutor(tree, parallelQueries)) {
+            for (MBR queryMBR : rangeQueries)
+                results.add(executor.submitRangeQuery(queryMBR));
+            for (ArrayList<Double> searchPoint : searchPoints)
+                results.add(executor.submitNearestNeighboursQuery(searchPoint, NEAREST_NEIGHBOURS_K));
+
+            long totalResults = 0;
+            for (Future<ArrayList<Record>> result : results)
+                totalResults += result.get().size();
+            return totalResults;
+        }
+    }
+
+
+    /**
+     * Generates random range queries inside the data space.
+     *
+     * @param dataSpace The {@link MBR} of the whole dataset
+     * @param count The number of queries
+     * @return The query {@link MBR}s
+     */
+
+
+    static List<MBR> randomRangeQueries(MBR dataSpace, int count) {
+        return randomRangeQueries(dataSpace, count, RANGE_QUERY_FRACTION);
+    }
+
+
+    /**
+     * Generates random range queries of a given width inside the data space.
+     *
+     * @param dataSpace The {@link MBR} of the whole dataset
+     * @param count The number of queries
+     * @param fraction Width of the queries, as a fraction of the data space in each dimension
+     * @return The query {@link MBR}s
+     */
+
+
+    static List<MBR> randomRangeQueries(MBR dataSpace, int count, double fraction) {
+        Random random = new Random(SEED);
+        ArrayList<MBR> queryMBRs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ArrayList<Bounds> boundsList = new ArrayList<>();
+            for (Bounds dimension : dataSpace.getBounds()) {
+                double width = (dimension.getUpper() - dimension.getLower()) * fraction;
+                double lower = dimension.getLower() + random.nextDouble() * (dimension.getUpper() - dimension.getLower() - width);
+                boundsList.add(new Bounds(lower, lower + width));
+            }
+            queryMBRs.add(new MBR(boundsList));
+        }
+        return queryMBRs;
+    }
+
+
+    /**
+     * Generates random points inside the data space.
+     *
+     * @param dataSpace The {@link MBR} of the whole dataset
+     * @param count The number of points
+     * @return The points
+     */
+
+
+    static List<ArrayList<Double>> randomPoints(MBR dataSpace, int count) {
+        Random random = new Random(SEED + 1);
+        ArrayList<ArrayList<Double>> points = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ArrayList<Double> point = new ArrayList<>();
+            for (Bounds dimension : dataSpace.getBounds())
+                point.add(dimension.getLower() + random.nextDouble() * (dimension.getUpper() - dimension.getLower()));
+            points.add(point);
+        }
+        return points;
+    }
+}
@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ *
+ *
+ * Class {@link QueryResults} holds the rows returned by a query in the columns of its {@link Projection}, so queries that
+ * only need ids, or ids and coordinates, never decode the names or build a {@link Record} per row. The rows are copied
+ * from the query's {@link DataPage}s into growing arrays, in the order the query finds them.
+ *
+ *
+ */
+
+
+class QueryResults {
+    /**
+     * The columns of a row that a query returns.
+     */
+
+
+    enum Projection {
+        /** Only the record ids */
+        IDS,
+        /** The record ids and coordinates, without the names */
+        COORDINATES,
+        /** Full {@link Record}s, names included */
+        RECORDS
+    }
+
+
+    /** The columns that are kept */
+    private final Projection projection;
+
+    /** The number of coordinates of every row */
+    private final int dimensions;
+
+    /** The record id of every row */
+    private long[] recordIds = new long[16];
+
+    /** The coordinates of every row, {@code coordinates[dimension][row]}, only for {@link Projection#COORDINATES} */
+    private double[][] coordinates;
+
+    /** The records, only for {@link Projection#RECORDS} */
+    private final ArrayList<Record> records;
+
+    /** The number of rows */
+    private int size;
+
+
+    /**
+     * {@link QueryResults} constructor of empty results.
+     *
+     * @param projection The columns that are kept
+     * @param dimensions The number of coordinates of every row
+     */
+
+
+    QueryResults(Projection projection, int dimensions) {
+        this.projection = projection;
+        this.dimensions = dimensions;
+        this.coordinates = projection == Projection.COORDINATES ? new double[dimensions][16] : null;
+        this.records = projection == Projection.RECORDS ? new ArrayList<>() : null;
+    }
+
+
+    /**
+     * {@code addRows} method adds the selected rows of a {@link DataPage}, in the columns of the projection.
+     *
+     * @param page The page
+     * @param selection The selected rows of the page
+     * @param count The number of selected rows
+     */
+
+
+    void addRows(DataPage page, int[] selection, int count) {
+        ensureCapacity(size + count);
+        for (int i = 0; i < count; i++)
+            recordIds[size + i] = page.getRecordId(selection[i]);
+        if (projection == Projection.COORDINATES) {
+            for (int d = 0; d < dimensions; d++) {
+                double[] column = page.getColumn(d);
+                double[] results = coordinates[d];
+                for (int i = 0; i < count; i++)
+                    results[size + i] = column[selection[i]];
+            }
+        } else if (projection == Projection.RECORDS) {
+            for (int i = 0; i < count; i++)
+                records.add(page.getRecord(selection[i]));
+        }
+        size += count;
+    }
+
+
+    /**
+     * {@code addResults} method appends every row of other results with the same projection, after the rows already
+     * added.
+     *
+     * @param other The results to append
+     * @throws IllegalArgumentException if the projections differ
+     */
+
+
+    void addResults(QueryResults other) {
+        if (other.projection != projection)
+            throw new IllegalArgumentException("Cannot add " + other.projection + " results to " + projection + " results");
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.recordIds, 0, recordIds, size, other.size);
+        if (projection == Projection.COORDINATES) {
+            for (int d = 0; d < dimensions; d++)
+                System.arraycopy(other.coordinates[d], 0, coordinates[d], size, other.size);
+        } else if (projection == Projection.RECORDS) {
+            records.addAll(other.records);
+        }
+        size += other.size;
+    }
+
+
+    /**
+     * {@code ensureCapacity} helper method that grows the columns to hold at least {@code capacity} rows.
+     *
+     * @param capacity The rows needed
+     */
+
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= recordIds.length)
+            return;
+        int newCapacity = Math.max(capacity, recordIds.length * 2);
+        recordIds = Arrays.copyOf(recordIds, newCapacity);
+        if (coordinates != null) {
+            for (int d = 0; d < dimensions; d++)
+                coordinates[d] = Arrays.copyOf(coordinates[d], newCapacity);
+        }
+    }
+
+
+    /**
+     * Getter for the columns that are kept
+     *
+     * @return The {@link Projection}
+     */
+
+
+    Projection getProjection() {
+        return projection;
+    }
+
+
+    /**
+     * Getter for the number of rows
+     *
+     * @return The number of results
+     */
+
+
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Getter for the record id of a row
+     *
+     * @param row The row
+     * @return The record id
+     */
+
+
+    long getRecordId(int row) {
+        if (row >= size)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size + " results");
+        return recordIds[row];
+    }
+
+
+    /**
+     * Getter for the record ids of every row
+     *
+     * @return A new array with the record ids, in row order
+     */
+
+
+    long[] getRecordIds() {
+        return Arrays.copyOf(recordIds, size);
+    }
+
+
+    /**
+     * Getter for a coordinate of a row
+     *
+     * @param row The row
+     * @param dimension The dimension
+     * @return The coordinate
+     * @throws IllegalStateException if the projection has no coordinates
+     */
+
+
+    double getCoordinate(int row, int dimension) {
+        if (projection == Projection.IDS)
+            throw new IllegalStateException("The " + projection + " projection has no coordinates");
+        if (projection == Projection.RECORDS)
+            return records.get(row).getCoordinateFromDimension(dimension);
+        if (row >= size)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size + " results");
+        return coordinates[dimension][row];
+    }
+
+
+    /**
+     * Getter for the records of every row
+     *
+     * @return The results' own {@link ArrayList} of {@link Record}, in row order
+     * @throws IllegalStateException if the projection is not {@link Projection#RECORDS}
+     */
+
+
+    ArrayList<Record> getRecords() {
+        if (projection != Projection.RECORDS)
+            throw new IllegalStateException("The " + projection + " projection has no records");
+        return records;
+    }
+}
@@ -1,5 +1,8 @@
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 
@@ -8,7 +11,7 @@ import java.util.stream.Collectors;
  *
  * Public class {@link RStarTree} that implements the R*Tree index on top of the datafile. Uses an {@code indexBuffer} to limit I/O's in memory
  * and does all the job regarding the index. <p>
- * Mostly uses {@link FilesHandler} Index File methods. Each {@link LeafEntry} points to a different
+ * Mostly uses the Index File methods of its {@link SpatialStore}. Each {@link LeafEntry} points to a different
  * Datafile Block, and multiple Nodes can be saved to a single IndexFile Block, making the indexfile several times smaller
  * than the datafile (e.g for a 50MB datafile with 1721 blocks of 32KB each, the indexfile was only 500KB).
  * <p>Model is based
@@ -19,14 +22,31 @@ import java.util.stream.Collectors;
  * <p></p></?>By:    Norbert Beckmann, Hans-Peterbegel
  *        Ralf Schneider,Bernhard Seeger
  * Praktuche Informatlk, Umversltaet Bremen, D-2800 Bremen 33, West Germany
+ * <p>
+ * Queries may run in parallel (see {@link ConcurrentQueryExecutor}), alongside {@link #insertSingleRecord} and
+ * {@link #deleteRecord}. There is no tree-wide lock: every {@link Node} has its own latch in {@link NodeLatches}, and
+ * splits made by concurrent inserts follow the R-link protocol, so a query that already passed the parent still reaches
+ * the entries that moved to a new right sibling.
+ * <p>
+ * Inserts and deletes form an update batch that {@link #commitUpdates} publishes as a new version for
+ * {@link IndexSnapshot}s, or {@link #rollbackUpdates} discards.
+ * <p>
+ * Every tree works on its own {@link SpatialStore}, so several trees can be opened side by side in the same JVM. Queries
+ * read the tree through {@link #readNode}, {@link #readChildNodes} and {@link #readDataFileBlock}.
  *
  *
  */
 
 
 public class RStarTree {
+    /** The store of the tree's indexfile and datafile */
+    private final SpatialStore store;
+
+    /** The latches of the tree's nodes, owned by the {@code store} */
+    private final NodeLatches nodeLatches;
+
     /** Total levels of the R*Tree */
-    private int totalLevels;
+    private volatile int totalLevels;
 
     /** {@link Boolean} {@link ArrayList} to keep track of which levels where reinserted */
     private boolean[] levelsInserted;
@@ -40,11 +60,23 @@ public class RStarTree {
     /** P = 32 for {@link #chooseSubTree} as described in paper, to limit cpu usage*/
     private static final int CHOOSE_SUBTREE_LEVEL = 32;
 
-    /** p entries that will be reinserted in Tree */
-    private static final int REINSERT_TREE_ENTRIES = (int) (0.3 * Node.getMaxEntriesInNode());
+    /** M, the maximum entries of a {@link Node}, see {@link SpatialStore#getMaxEntriesInNode} */
+    private final int maxEntriesInNode;
+
+    /** p entries that will be reinserted in Tree, 30% of M */
+    private final int reinsertTreeEntries;
 
     /** {@link Map} that keeps {@code RecordIds} and their corresponding leaf {@link Node}s, used in {@link #deleteRecord} */
-    private static Map<Long, Long> recordToLeafMap = new HashMap<>(); //
+    private final Map<Long, Long> recordToLeafMap = new ConcurrentHashMap<>(); //
+
+    /** Block id kept in {@code recordToLeafMap} while a record is being inserted, so that it is not inserted twice */
+    private static final long UNINDEXED_RECORD = -1;
+
+    /** The committed block ids of the records changed since the last commit, {@code UNINDEXED_RECORD} if they were absent */
+    private final Map<Long, Long> recordToLeafMapUndo = new ConcurrentHashMap<>();
+
+    /** Held shared by every insert and delete, and exclusively by {@link #commitUpdates} and {@link #rollbackUpdates} */
+    private final ReentrantReadWriteLock updateGate = new ReentrantReadWriteLock();
 
 
     /**
@@ -52,19 +84,24 @@ public class RStarTree {
      * Depending on user selection, the tree will be bulk-Loaded or every {@link Entry} will be inserted
      * one by one. Uses an {@code indexBuffer} to limit I/O speeds.
      *
+     * @param store The {@link SpatialStore} with the initialized datafile and indexfile
      * @param doBulkLoad {@code boolean} to check whether to bulkLoad or not
      * @throws IOException to catch any IOException errors
      */
 
 
-    RStarTree(boolean doBulkLoad) throws IOException {
-        this.totalLevels = FilesHandler.getTotalLevelsFile();
+    RStarTree(SpatialStore store, boolean doBulkLoad) throws IOException {
+        this.store = store;
+        this.nodeLatches = store.getNodeLatches();
+        this.maxEntriesInNode = store.getMaxEntriesInNode();
+        this.reinsertTreeEntries = (int) (0.3 * maxEntriesInNode);
+        this.totalLevels = store.getTotalLevelsFile();
         if (doBulkLoad) {
             ArrayList<RecordBlockPairID> allRecordsPairs = new ArrayList<>();
-            int totalBlocks = FilesHandler.getTotalBlocksInDataFile();
+            int totalBlocks = store.getTotalBlocksInDataFile();
 
             for (int i = 1; i < totalBlocks; i++) {
-                ArrayList<Record> blockRecords = FilesHandler.readDataFileBlock(i);
+                ArrayList<Record> blockRecords = store.readDataFileBlock(i);
                 if (blockRecords != null) {
                     for (Record record : blockRecords) {
                         allRecordsPairs.add(new RecordBlockPairID(record, i));
@@ -77,10 +114,9 @@ public class RStarTree {
             bulkLoadFromRecords(allRecordsPairs);
         } else {
             Node root = new Node(ROOT_NODE_BLOCK_ID);
-            FilesHandler.writeNewIndexFileBlock(root);
-            FilesHandler.indexBuffer.put(FilesHandler.currentBlockId, FilesHandler.currentIndexBlock);
-            for (int i = 1; i < FilesHandler.getTotalBlocksInDataFile(); i++) {
-                ArrayList<Record> records = FilesHandler.readDataFileBlock(i);
+            store.writeNewIndexFileBlock(root);
+            for (int i = 1; i < store.getTotalBlocksInDataFile(); i++) {
+                ArrayList<Record> records = store.readDataFileBlock(i);
                 if (records != null) {
                     insertData(records,i);
                 } else {
@@ -88,7 +124,9 @@ public class RStarTree {
                 }
             }
             printTreeStats();
-            FilesHandler.flushIndexBufferToDisk();
+            store.flushIndexBufferToDisk();
+            store.checkpoint();
+            store.printPageWriteStats();
 
             System.out.println("✅ Total levels after insertion: " + totalLevels);
         }
@@ -97,16 +135,40 @@ public class RStarTree {
 
     /**
      * Constructor for reading already existing {@link RStarTree} from indexfile
+     *
+     * @param store The {@link SpatialStore} with the initialized datafile and indexfile
+     * @param metadata The indexfile's metadata block
+     */
+
+
+    public RStarTree(SpatialStore store, ArrayList<Integer> metadata) throws IOException {
+        this(store, metadata, true);
+    }
+
+
+    /**
+     * Constructor for reading already existing {@link RStarTree} from indexfile, optionally without reading it whole.
+     *
+     * @param store The {@link SpatialStore} with the initialized datafile and indexfile
+     * @param metadata The indexfile's metadata block
+     * @param buildRecordToLeafMap Whether to build {@code recordToLeafMap}, which reads every node and data block. Without
+     *                             it the tree is only read, e.g. by {@link StoreChecker}, and {@link #deleteRecord} does
+     *                             not find the records
      */
 
 
-    public RStarTree(ArrayList<Integer> metadata) throws IOException {
+    RStarTree(SpatialStore store, ArrayList<Integer> metadata, boolean buildRecordToLeafMap) throws IOException {
+        this.store = store;
+        this.nodeLatches = store.getNodeLatches();
+        this.maxEntriesInNode = store.getMaxEntriesInNode();
+        this.reinsertTreeEntries = (int) (0.3 * maxEntriesInNode);
         if (metadata == null || metadata.size() < 4) {
             throw new IllegalStateException("Index metadata is missing or incomplete. Cannot load existing R*-Tree.");
         }
 
         this.totalLevels = metadata.get(3);
-        buildRecordToLeafMap();
+        if (buildRecordToLeafMap)
+            buildRecordToLeafMap();
     }
 
 
@@ -115,11 +177,11 @@ public class RStarTree {
      */
 
 
-    public void buildRecordToLeafMap() throws IOException {
-        this.recordToLeafMap = new HashMap<>();
+    private void buildRecordToLeafMap() throws IOException {
+        recordToLeafMap.clear();
 
         Queue<Node> queue = new LinkedList<>();
-        Node root = FilesHandler.readNode(ROOT_NODE_BLOCK_ID, 0);
+        Node root = store.readNode(ROOT_NODE_BLOCK_ID, 0);
         if (root == null) {
             throw new IllegalStateException("Root node is null. Cannot build recordToLeafMap.");
         }
@@ -132,7 +194,7 @@ public class RStarTree {
                 for (Entry e : currentNode.getEntries()) {
                     if (e instanceof LeafEntry leafEntry) {
                         long dataBlockId = leafEntry.getDataBlockId();
-                        ArrayList<Record> records = FilesHandler.readDataFileBlock(dataBlockId);
+                        ArrayList<Record> records = store.readDataFileBlock(dataBlockId);
                         if (records != null) {
                             for (Record r : records) {
                                 recordToLeafMap.put(r.getRecordID(), dataBlockId);
@@ -145,7 +207,7 @@ public class RStarTree {
                 for (Entry e : currentNode.getEntries()) {
                     long childBlockId = e.getChildNodeBlockId();
                     int childNodeIndex = e.getChildNodeIndexInBlock();
-                    Node childNode = FilesHandler.readNode(childBlockId, childNodeIndex);
+                    Node childNode = store.readNode(childBlockId, childNodeIndex);
                     if (childNode != null) {
                         queue.add(childNode);
                     }
@@ -160,12 +222,120 @@ public class RStarTree {
     /**
      * Getter method that returns the tree's Root Node
      *
-     * @return The tree's Root Node
+     * @return A copy of the tree's Root Node, or the root of the open {@link IndexSnapshot}
      */
 
 
     Node getRootNode() {
-        return FilesHandler.readNode(ROOT_NODE_BLOCK_ID, 0);
+        return nodeLatches.readNode(ROOT_NODE_BLOCK_ID, 0);
+    }
+
+
+    /**
+     * Getter for the tree's {@link SpatialStore}
+     *
+     * @return The store
+     */
+
+
+    SpatialStore getStore() {
+        return store;
+    }
+
+
+    /**
+     * {@code readNode} method reads a {@link Node} of the tree for a query, see {@link NodeLatches#readNode}.
+     *
+     * @param blockId The {@link Node}'s {@link IndexBlock} id
+     * @param nodeIndex The {@link Node}'s index in the {@link IndexBlock}
+     * @return A copy of the {@link Node}
+     */
+
+
+    Node readNode(long blockId, int nodeIndex) {
+        return nodeLatches.readNode(blockId, nodeIndex);
+    }
+
+
+    /**
+     * {@code readChildNodes} method reads the child {@link Node}s that an {@link Entry} points to, see
+     * {@link NodeLatches#readChildNodes}.
+     *
+     * @param entry The parent {@link Entry}
+     * @return Copies of the child {@link Node} and the right siblings that were split off it
+     */
+
+
+    ArrayList<Node> readChildNodes(Entry entry) {
+        return nodeLatches.readChildNodes(entry);
+    }
+
+
+    /**
+     * {@code readDataFileBlock} method reads a data block of the tree's datafile for a query.
+     *
+     * @param blockId The data block id
+     * @return A new {@link ArrayList} with the block's records
+     */
+
+
+    ArrayList<Record> readDataFileBlock(long blockId) {
+        return store.readDataFileBlock(blockId);
+    }
+
+
+    /**
+     * {@code readDataPage} method reads a data block of the tree's datafile for a query, as a shared columnar
+     * {@link DataPage}.
+     *
+     * @param blockId The data block id
+     * @return The block's {@link DataPage}
+     */
+
+
+    DataPage readDataPage(long blockId) {
+        return store.readDataPage(blockId);
+    }
+
+
+    /**
+     * {@code prefetchChildren} method starts loading the blocks that entries of a node point to in the background, the
+     * data blocks of a leaf node's entries or the index blocks of an inner node's children, see {@link BlockPrefetcher}.
+     * Nothing is prefetched for a single entry, which the query reads right away anyway.
+     *
+     * @param node The node of the entries
+     * @param entries The entries that a query is about to visit, in the order it will visit them
+     * @param inBlockOrder {@code true} to prefetch the blocks in block id order instead of the order of the entries
+     */
+
+
+    void prefetchChildren(Node node, List<Entry> entries, boolean inBlockOrder) {
+        if (entries.size() < 2 || !store.isPrefetching())
+            return;
+        boolean leaf = node.getNodeLevelInTree() == getLeafLevel();
+        long[] blockIds = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            blockIds[i] = leaf ? ((LeafEntry) entry).getDataBlockId() : entry.getChildNodeBlockId();
+        }
+        if (inBlockOrder)
+            Arrays.sort(blockIds);
+        if (leaf)
+            store.prefetchDataBlocks(blockIds);
+        else
+            store.prefetchIndexBlocks(blockIds);
+    }
+
+
+    /**
+     * {@code openSnapshot} method pins the last committed version of the tree for the current thread.
+     *
+     * @return The open {@link IndexSnapshot}
+     */
+
+
+    IndexSnapshot openSnapshot() {
+        return store.openSnapshot();
     }
 
 
@@ -205,11 +375,11 @@ public class RStarTree {
     private void insertData(ArrayList<Record> records, long datafileBlockId) throws IOException {
         ArrayList<Bounds> boundsList = Bounds.findMinimumBoundsFromRecords(records);
         MBR blockMBR = new MBR(boundsList);
-        LeafEntry entry = new LeafEntry(datafileBlockId, blockMBR);
+        LeafEntry entry = new LeafEntry(datafileBlockId, blockMBR, records.size());
         this.levelsInserted = new boolean[totalLevels];
         insert(null, null, entry, LEAF_LEVEL);
         for (Record r : records) {
-            RStarTree.recordToLeafMap.put(r.getRecordID(), datafileBlockId);
+            recordToLeafMap.put(r.getRecordID(), datafileBlockId);
         }
     }
 
@@ -237,10 +407,10 @@ public class RStarTree {
 
         if (parentEntry != null) {
             parentEntry.adjustMBRToFitEntry(dataEntry);
-            FilesHandler.updateIndexFileBlock(parentNode, totalLevels);
+            store.updateIndexFileBlock(parentNode, totalLevels);
         }
 
-        Node currentNode = FilesHandler.readNode(nodeBlockId, nodeBlockIndex);
+        Node currentNode = store.readNode(nodeBlockId, nodeBlockIndex);
         if (currentNode == null) {
             throw new IllegalStateException("Node-block is null");
         }
@@ -255,25 +425,28 @@ public class RStarTree {
 
         if (currentNode.getNodeLevelInTree() == levelToAdd) {
             currentNode.insertEntry(dataEntry);
-            FilesHandler.updateIndexFileBlock(currentNode, totalLevels);
+            store.updateIndexFileBlock(currentNode, totalLevels);
         } else {
             Entry bestEntry = chooseSubTree(currentNode, dataEntry.getMBR(), levelToAdd);
             Entry newEntry = insert(currentNode, bestEntry, dataEntry, levelToAdd);
 
+            // Recounted after the child's subtree is final, since a reinsert may have moved entries out of it
+            Node childNode = store.readNode(bestEntry.getChildNodeBlockId(), bestEntry.getChildNodeIndexInBlock());
+            bestEntry.setRecordCount(childNode.getRecordCount());
             if (newEntry != null) {
                 currentNode.insertEntry(newEntry);
             }
 
-            FilesHandler.updateIndexFileBlock(currentNode, totalLevels);
+            store.updateIndexFileBlock(currentNode, totalLevels);
 
-            if (currentNode.getEntries().size() <= Node.getMaxEntriesInNode()) {
+            if (currentNode.getEntries().size() <= maxEntriesInNode) {
                 return null;
             }
 
             return overflowTreatment(parentNode, parentEntry, currentNode);
         }
 
-        if (currentNode.getEntries().size() > Node.getMaxEntriesInNode()) {
+        if (currentNode.getEntries().size() > maxEntriesInNode) {
             return overflowTreatment(parentNode, parentEntry, currentNode);
         }
 
@@ -295,7 +468,7 @@ public class RStarTree {
     private Entry chooseSubTree(Node node, MBR MBRToAdd, int levelToAdd) {
         ArrayList<Entry> entries = node.getEntries();
         if (node.getNodeLevelInTree() == levelToAdd + 1) {
-            if (Node.getMaxEntriesInNode() > (CHOOSE_SUBTREE_LEVEL * 2) / 3 && entries.size() > CHOOSE_SUBTREE_LEVEL) {
+            if (maxEntriesInNode > (CHOOSE_SUBTREE_LEVEL * 2) / 3 && entries.size() > CHOOSE_SUBTREE_LEVEL) {
                 ArrayList<Entry> topEntries = getEntriesWithMinimalAreaEnlargement(entries, MBRToAdd);
                 return Collections.min(topEntries, new EntryComparator.OverlapEnlargementComparator(topEntries, MBRToAdd, entries));
             }
@@ -416,7 +589,7 @@ public class RStarTree {
 
 
     private Entry handleSplit(Node parentNode, Entry parentEntry, Node currentNode) throws IOException {
-        ArrayList<Node> splitNodes = currentNode.splitNode();
+        ArrayList<Node> splitNodes = currentNode.splitNode(maxEntriesInNode);
         if (splitNodes.size() != 2) {
             throw new IllegalStateException("Split must produce exactly two nodes.");
         }
@@ -426,23 +599,16 @@ public class RStarTree {
         currentNode.setEntries(leftNode.getEntries());
 
         if (currentNode.getNodeBlockId() != ROOT_NODE_BLOCK_ID || currentNode.getNodeIndexInBlock() != 0) {
-            FilesHandler.updateIndexFileBlock(currentNode, totalLevels);
-            rightNode.setNodeBlockId(FilesHandler.getTotalBlocksInIndexFile());
-            rightNode.setNodeIndexInBlock(FilesHandler.currentIndexBlock.getNodes().size());
-            FilesHandler.writeNewIndexFileBlock(rightNode);
+            store.updateIndexFileBlock(currentNode, totalLevels);
+            store.writeNewIndexFileBlock(rightNode);
             parentEntry.adjustMBRToFitEntries(currentNode.getEntries());
-            FilesHandler.updateIndexFileBlock(parentNode, totalLevels);
+            store.updateIndexFileBlock(parentNode, totalLevels);
             return new Entry(rightNode);
         }
 
         // Handle root split
-        leftNode.setNodeBlockId(FilesHandler.getTotalBlocksInIndexFile());
-        leftNode.setNodeIndexInBlock(FilesHandler.currentIndexBlock.getNodes().size());
-        FilesHandler.writeNewIndexFileBlock(leftNode);
-
-        rightNode.setNodeBlockId(FilesHandler.getTotalBlocksInIndexFile());
-        rightNode.setNodeIndexInBlock(FilesHandler.currentIndexBlock.getNodes().size());
-        FilesHandler.writeNewIndexFileBlock(rightNode);
+        store.writeNewIndexFileBlock(leftNode);
+        store.writeNewIndexFileBlock(rightNode);
 
         ArrayList<Entry> newRootEntries = new ArrayList<>();
         newRootEntries.add(new Entry(leftNode));
@@ -454,8 +620,8 @@ public class RStarTree {
         currentNode.setEntries(newRootEntries);
         currentNode.setNodeBlockId(ROOT_NODE_BLOCK_ID);
         currentNode.setNodeIndexInBlock(0);
-        FilesHandler.setLevelsOfTreeIndex(++totalLevels);
-        FilesHandler.updateIndexFileBlock(currentNode, totalLevels);
+        store.setLevelsOfTreeIndex(++totalLevels);
+        store.updateIndexFileBlock(currentNode, totalLevels);
 
         return null;
 
@@ -476,7 +642,7 @@ public class RStarTree {
 
     private void reInsert(Node parentNode, Entry parentEntry, Node currentNode) throws IOException {
         int totalEntries = currentNode.getEntries().size();
-        int expectedEntries = Node.getMaxEntriesInNode() + 1;
+        int expectedEntries = maxEntriesInNode + 1;
 
         if (totalEntries != expectedEntries) {
             throw new IllegalStateException("Reinsert requires exactly M+1 entries.");
@@ -488,12 +654,12 @@ public class RStarTree {
                 )
         );
 
-        ArrayList<Entry> removedEntries = new ArrayList<>(currentNode.getEntries().subList(0, REINSERT_TREE_ENTRIES));
-        currentNode.getEntries().subList(0, REINSERT_TREE_ENTRIES).clear();
+        ArrayList<Entry> removedEntries = new ArrayList<>(currentNode.getEntries().subList(0, reinsertTreeEntries));
+        currentNode.getEntries().subList(0, reinsertTreeEntries).clear();
 
         parentEntry.adjustMBRToFitEntries(currentNode.getEntries());
-        FilesHandler.updateIndexFileBlock(parentNode, totalLevels);
-        FilesHandler.updateIndexFileBlock(currentNode, totalLevels);
+        store.updateIndexFileBlock(parentNode, totalLevels);
+        store.updateIndexFileBlock(currentNode, totalLevels);
 
         Queue<Entry> reinsertQueue = new LinkedList<>(removedEntries);
         while (!reinsertQueue.isEmpty()) {
@@ -505,246 +671,653 @@ public class RStarTree {
     /**
      * {@code insertSingleRecord} method that inserts a single {@link Record} into a datafile block and the R*Tree, reusing space by appending it to
      * a suitable block with space.
+     * <p>Can run alongside queries and other inserts or deletes. The data block is changed while holding its
+     * {@link SpatialStore#getDataBlockLatch}, and the index while holding the {@link NodeLatches} of the changed nodes only.
+     * Prints nothing, so that concurrent writers do not serialize on the console; the caller reports the result.
      *
      * @param record The record to be added.
+     * @return {@code true} if the record was inserted, {@code false} if a record with the same id is already indexed
      * @throws IOException To catch any IOException errors
      */
 
 
-    public void insertSingleRecord(Record record) throws IOException {
-        Long recordId = recordToLeafMap.get(record.getRecordID());
-        if (recordId != null) {
-            System.out.println("Record with ID " + recordId + " already exists in Index");
-            return;
-        }
-
-        long dataBlockId = FilesHandler.appendRecordToDataBlock(record);
-
-        // Build MBR for the new record
-        ArrayList<Bounds> boundsList = Bounds.findMinimumBoundsFromRecord(record);
-        MBR recordMBR = new MBR(boundsList);
+    public boolean insertSingleRecord(Record record) throws IOException {
+        checkNoSnapshotOpen();
+        Lock gate = updateGate.readLock();
+        gate.lock();
+        try {
+            if (recordToLeafMap.putIfAbsent(record.getRecordID(), UNINDEXED_RECORD) != null)
+                return false;
+            recordToLeafMapUndo.putIfAbsent(record.getRecordID(), UNINDEXED_RECORD);
+
+            long dataBlockId;
+            try {
+                dataBlockId = store.appendRecordToDataBlock(record);
+            } catch (IOException | RuntimeException e) {
+                recordToLeafMap.remove(record.getRecordID());
+                throw e;
+            }
 
-        // If leaf Node exists
-        Node leafNode = findLeafNodeContainingDataBlock(dataBlockId);
-        if (leafNode != null) {
-            for (Entry e : leafNode.getEntries()) {
-                if (e instanceof LeafEntry leafEntry && leafEntry.getDataBlockId() == dataBlockId) {
-                    // Adjust existing MBR to include the new record
-                    leafEntry.adjustMBRToFitMBR(recordMBR);
-                    FilesHandler.updateIndexFileBlock(leafNode, totalLevels);
-                    System.out.println("Record added to existing data block and LeafEntry MBR updated.");
-                    recordToLeafMap.put(record.getRecordID(), dataBlockId);
-                    return;
+            // Build MBR for the new record
+            ArrayList<Bounds> boundsList = Bounds.findMinimumBoundsFromRecord(record);
+            MBR recordMBR = new MBR(boundsList);
+
+            // The latch makes finding or creating the block's LeafEntry atomic for concurrent appends to the same block
+            Lock dataBlockLatch = store.getDataBlockLatch(dataBlockId);
+            dataBlockLatch.lock();
+            try {
+                // If no LeafEntry of the block is found, create a new one
+                if (!adjustLeafEntryToFitRecord(dataBlockId, recordMBR)) {
+                    ArrayList<Record> blockRecords = store.readDataFileBlock(dataBlockId);
+                    insertLatched(new LeafEntry(dataBlockId, recordMBR, blockRecords.size()), LEAF_LEVEL);
                 }
+                recordToLeafMap.put(record.getRecordID(), dataBlockId);
+            } finally {
+                dataBlockLatch.unlock();
             }
+            return true;
+        } finally {
+            gate.unlock();
         }
+    }
 
-        // If no LeafEntry found, create a new one
-        LeafEntry newEntry = new LeafEntry(dataBlockId, recordMBR);
-        insert(null, null, newEntry, LEAF_LEVEL);
-        recordToLeafMap.put(record.getRecordID(), dataBlockId);
 
-        System.out.println("New LeafEntry created and Record added to R*-Tree.");
-    }
+    /**
+     * {@code commitUpdates} method commits the inserts and deletes made since the last commit as a new version of the tree,
+     * which is read by the {@link IndexSnapshot}s opened from now on, with the default durability of the store. Waits for
+     * the running inserts and deletes to finish.
+     */
 
 
+    public void commitUpdates() {
+        commitUpdates(store.getDurability());
+    }
+
 
     /**
-     * {@code deleteRecord} method that deletes a single {@link Record} from R*Tree index using {@code recordToLeafMap} to map records to their blocks in datafile.
-     *
-     * <p>Firstly it tries to find the leaf node containing the {@link LeafEntry} with the record.
-     * And deletes it if everything is handled correctly. If It detects underflow, it calls {@link #condenseTree} to remove underflowed nodes
-     * and reinsert their entries.
+     * {@code commitUpdates} method commits the inserts and deletes made since the last commit as a new version of the tree.
+     * Waits for the running inserts and deletes to finish, and returns once the commit is as durable as requested. Commits
+     * that wait for the {@link WriteAheadLog} at the same time share one {@code fsync}.
      *
-     * @param recordId the recordId of the {@link Record} to be deleted.
-     * @throws IOException to catch any IOException errors
+     * @param durability When to return, compared to the moment the commit reaches the disk
+     * @throws IllegalStateException if a changed block does not fit in a page, after rolling the changes back
      */
 
 
-    public void deleteRecord(long recordId) throws IOException {
-        //Search for record in Map
-        Long dataBlockId = recordToLeafMap.get(recordId);
-        if (dataBlockId == null) {
-            System.out.println("Record not found in index!");
-            return;
+    public void commitUpdates(SpatialStore.Durability durability) {
+        long lsn;
+        updateGate.writeLock().lock();
+        try {
+            lsn = store.flushIndexBufferToDisk();
+            recordToLeafMapUndo.clear();
+        } catch (IllegalStateException e) { // the store rolled the changes back
+            undoRecordToLeafMap();
+            throw e;
+        } finally {
+            updateGate.writeLock().unlock();
         }
+        store.awaitDurable(lsn, durability);
+    }
 
-        ArrayList<Record> records = FilesHandler.readDataFileBlock(dataBlockId);
-        if (records == null) {
-            System.out.println("Data block not found.");
-            return;
+
+    /**
+     * {@code checkpoint} method writes the committed blocks kept in the {@link WriteAheadLog} in the datafile and the
+     * indexfile and truncates the log, e.g. before the files are copied. Waits for the running inserts and deletes to
+     * finish.
+     */
+
+
+    public void checkpoint() {
+        updateGate.writeLock().lock();
+        try {
+            store.checkpoint();
+        } finally {
+            updateGate.writeLock().unlock();
         }
+    }
 
-        boolean removed = records.removeIf(r -> r.getRecordID() == recordId);
-        if (!removed) {
-            System.out.println("Record not found in block.");
-            return;
+
+    /**
+     * {@code rollbackUpdates} method discards the inserts and deletes made since the last commit, e.g. after a failed update
+     * batch. The index, the datafile and {@code recordToLeafMap} return to the last committed version. Waits for the
+     * running inserts and deletes to finish.
+     */
+
+
+    public void rollbackUpdates() {
+        updateGate.writeLock().lock();
+        try {
+            store.rollbackUpdates();
+            undoRecordToLeafMap();
+        } finally {
+            updateGate.writeLock().unlock();
         }
+    }
 
-        if (records.isEmpty()) {
-            Node leafNode = findLeafNodeContainingDataBlock(dataBlockId);
-            if (leafNode == null) {
-                System.out.println("Leaf Node not found.");
-                return;
-            }
 
-            boolean leafEntryRemoved = leafNode.getEntries().removeIf(e ->
-                    e instanceof LeafEntry && ((LeafEntry) e).getDataBlockId() == dataBlockId
-            );
+    /**
+     * {@code undoRecordToLeafMap} helper method that returns {@code recordToLeafMap} and {@code totalLevels} to the last
+     * committed version, once the store rolled back.
+     */
 
-            if (leafEntryRemoved) {
-                System.out.println("LeafEntry removed from index (block was empty");
-                FilesHandler.updateIndexFileBlock(leafNode, totalLevels);
-                condenseTree(leafNode);
-            }
 
-        } else {
-            FilesHandler.overwriteDataFileBlock(dataBlockId, records);
-            System.out.println("Record removed from data block, leafEntry remains");
+    private void undoRecordToLeafMap() {
+        for (Map.Entry<Long, Long> entry : recordToLeafMapUndo.entrySet()) {
+            if (entry.getValue() == UNINDEXED_RECORD)
+                recordToLeafMap.remove(entry.getKey());
+            else
+                recordToLeafMap.put(entry.getKey(), entry.getValue());
         }
+        recordToLeafMapUndo.clear();
+        totalLevels = store.getTotalLevelsFile();
+    }
+
 
-        recordToLeafMap.remove(recordId);
+    /**
+     * {@code checkNoSnapshotOpen} helper method that rejects inserts and deletes from a thread that reads an
+     * {@link IndexSnapshot}, whose reads would not see the latest version of the tree.
+     */
+
+
+    private void checkNoSnapshotOpen() {
+        if (store.currentSnapshot() != null)
+            throw new IllegalStateException("Cannot change the R*-Tree while an IndexSnapshot is open in this thread.");
     }
 
+
     /**
-     * {@code findLeafNodeContainingDataBlock} helper function that returns the leaf {@link Node} that contains the data block
+     * {@code adjustLeafEntryToFitRecord} helper method for {@link #insertSingleRecord} that finds the {@link LeafEntry} of a data
+     * block, enlarges its {@link MBR} to include a new record, updates its record count, and propagates the change to the
+     * ancestors.
      *
-     * @param dataBlockId The data block Id
-     * @return The leaf that contains the data block with current id
+     * @param dataBlockId The data block that the record was appended to
+     * @param recordMBR The new record's {@link MBR}
+     * @return {@code true} if the {@link LeafEntry} was found, else {@code false}
      */
-    private Node findLeafNodeContainingDataBlock(Long dataBlockId) {
-        Node root = getRootNode();
-        return searchLeafRecursive(root, dataBlockId);
+
+
+    private boolean adjustLeafEntryToFitRecord(long dataBlockId, MBR recordMBR) {
+        ArrayList<Record> blockRecords = store.readDataFileBlock(dataBlockId);
+        if (blockRecords == null || blockRecords.isEmpty())
+            return false;
+
+        ArrayDeque<Node> path = findPathToLeafEntry(dataBlockId, new MBR(Bounds.findMinimumBoundsFromRecords(blockRecords)));
+        if (path == null)
+            return false;
+
+        Node leafNode = lockNodeContainingLeafEntry(path.pop(), dataBlockId);
+        if (leafNode == null)
+            return false;
+
+        for (Entry e : leafNode.getEntries()) {
+            if (e instanceof LeafEntry leafEntry && leafEntry.getDataBlockId() == dataBlockId) {
+                // Adjust existing MBR to include the new record
+                leafEntry.adjustMBRToFitMBR(recordMBR);
+                leafEntry.setRecordCount(blockRecords.size());
+                break;
+            }
+        }
+        store.updateIndexFileBlock(leafNode, totalLevels);
+        propagateUpwards(path, leafNode, null);
+        return true;
     }
 
 
     /**
-     * {@code searchLeafRecursive} method that searches a leaf node recursively from a {@link Node}.
+     * {@code insertLatched} method inserts an {@link Entry} at the given level while other threads use the tree. <p>
+     * It descends from the root with {@link #chooseSubTree}, reading only copies of the nodes, then latches the chosen
+     * {@link Node} exclusively and inserts the {@link Entry}. An overflowing {@link Node} is split with {@link #splitLatched}
+     * and the changes are propagated with {@link #propagateUpwards}. Forced reinsert is only used while the tree is built,
+     * because a concurrent query could miss the entries while they are being reinserted.
      *
-     * @param node The {@link Node} given.
-     * @param dataBlockId The {@code blockId} of the datafile in which the node is in.
-     * @return The leaf node
+     * @param dataEntry The {@link Entry} to be inserted.
+     * @param levelToAdd The level of the {@link Node} that will keep the {@link Entry}.
      */
 
 
-    private Node searchLeafRecursive(Node node, Long dataBlockId) {
-        if (node.getNodeLevelInTree() == getLeafLevel()) {
-            for (Entry entry : node.getEntries()) {
-                if (entry instanceof LeafEntry && ((LeafEntry) entry).getDataBlockId() == dataBlockId) {
-                    return node;
-                }
+    private void insertLatched(Entry dataEntry, int levelToAdd) {
+        while (true) {
+            ArrayDeque<Node> path = new ArrayDeque<>();
+            Node nodeCopy = nodeLatches.readNode(ROOT_NODE_BLOCK_ID, 0);
+            while (nodeCopy.getNodeLevelInTree() > levelToAdd) {
+                path.push(nodeCopy);
+                Entry bestEntry = chooseSubTree(nodeCopy, dataEntry.getMBR(), levelToAdd);
+                nodeCopy = nodeLatches.readNode(bestEntry.getChildNodeBlockId(), bestEntry.getChildNodeIndexInBlock());
             }
-            return null;
+
+            Lock nodeLatch = nodeLatches.writeLatch(nodeCopy);
+            nodeLatch.lock();
+            Node currentNode = store.readNodeForUpdate(nodeCopy.getNodeBlockId(), nodeCopy.getNodeIndexInBlock());
+            if (currentNode.getNodeLevelInTree() != levelToAdd) {
+                // The root was split after it was read, descend again
+                nodeLatch.unlock();
+                continue;
+            }
+
+            currentNode.insertEntry(dataEntry);
+            Node splitSibling = null;
+            if (currentNode.getEntries().size() > maxEntriesInNode)
+                splitSibling = splitLatched(currentNode);
+            else
+                store.updateIndexFileBlock(currentNode, totalLevels);
+
+            propagateUpwards(path, currentNode, splitSibling);
+            return;
         }
+    }
 
-        for (Entry entry : node.getEntries()) {
-            Node child = FilesHandler.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
-            if (child == null) continue;
-            Node result = searchLeafRecursive(child, dataBlockId);
-            if (result != null) return result;
+
+    /**
+     * {@code splitLatched} method splits an overflowing {@link Node} that is latched exclusively, following the R-link protocol.
+     * <p>The right half is written in a new {@link Node} that takes over the old right link and sequence number, and the
+     * split {@link Node} links to it and increases its sequence number. The root is split in place, like in {@link #handleSplit},
+     * so it stays in {@code ROOT_NODE_BLOCK_ID}.
+     *
+     * @param currentNode The overflowing {@link Node}.
+     * @return The new right sibling, or {@code null} when the root was split.
+     */
+
+
+    private Node splitLatched(Node currentNode) {
+        ArrayList<Node> splitNodes = currentNode.splitNode(maxEntriesInNode);
+        Node leftNode = splitNodes.get(0);
+        Node rightNode = splitNodes.get(1);
+
+        if (currentNode.getNodeBlockId() == ROOT_NODE_BLOCK_ID && currentNode.getNodeIndexInBlock() == 0) {
+            store.writeNewIndexFileBlock(leftNode);
+            store.writeNewIndexFileBlock(rightNode);
+
+            ArrayList<Entry> newRootEntries = new ArrayList<>();
+            newRootEntries.add(new Entry(leftNode));
+            newRootEntries.add(new Entry(rightNode));
+            currentNode.setEntries(newRootEntries);
+            currentNode.setNodeLevelInTree(currentNode.getNodeLevelInTree() + 1);
+            store.setLevelsOfTreeIndex(++totalLevels);
+            store.updateIndexFileBlock(currentNode, totalLevels);
+            return null;
         }
 
-        return null;
+        rightNode.setNodeSequenceNumber(currentNode.getNodeSequenceNumber());
+        rightNode.setRightSibling(currentNode.getRightSiblingBlockId(), currentNode.getRightSiblingIndexInBlock());
+        store.writeNewIndexFileBlock(rightNode);
+
+        currentNode.setEntries(leftNode.getEntries());
+        currentNode.setNodeSequenceNumber(currentNode.getNodeSequenceNumber() + 1);
+        currentNode.setRightSibling(rightNode.getNodeBlockId(), rightNode.getNodeIndexInBlock());
+        store.updateIndexFileBlock(currentNode, totalLevels);
+        return rightNode;
     }
 
 
     /**
-     * {@code condenseTree} method that handles underflow when deleting single {@link Record}
+     * {@code propagateUpwards} method adjusts the ancestors of a changed {@link Node}: the parent {@link Entry} is fitted to
+     * the child's new entries, and the {@link Entry} of a split sibling is added to the parent, which may split in turn.
+     * <p>Called while holding the child's exclusive latch, which is released once the parent is latched and updated,
+     * so a split sibling is never reachable without its parent {@link Entry} by another writer. Stops as soon as neither a
+     * parent's {@link MBR} nor its record count change.
      *
-     * @param node The node containing underflow.
-     * @throws IOException for any IOException errors.
+     * @param path The copies of the ancestors visited while descending, the parent on top.
+     * @param child The changed {@link Node}, latched exclusively.
+     * @param splitSibling The new right sibling of {@code child}, or {@code null}.
      */
 
 
-    private void condenseTree(Node node) throws IOException {
-        Map<Node, List<Entry>> eliminated = new HashMap<>();
+    private void propagateUpwards(ArrayDeque<Node> path, Node child, Node splitSibling) {
+        Lock childLatch = nodeLatches.writeLatch(child);
+        while (child.getNodeBlockId() != ROOT_NODE_BLOCK_ID || child.getNodeIndexInBlock() != 0) {
+            Node parent = lockParent(path, child);
+            Lock parentLatch = nodeLatches.writeLatch(parent);
+            MBR parentMBR = parent.getMBR();
+            long parentRecordCount = parent.getRecordCount();
+
+            Entry parentEntry = findParentEntry(parent, child);
+            parentEntry.adjustMBRToFitEntries(child.getEntries());
+            parentEntry.setChildNodeSequenceNumber(child.getNodeSequenceNumber());
+            if (splitSibling != null)
+                parent.insertEntry(new Entry(splitSibling));
+            childLatch.unlock();
+
+            Node parentSibling = null;
+            if (parent.getEntries().size() > maxEntriesInNode)
+                parentSibling = splitLatched(parent);
+            else
+                store.updateIndexFileBlock(parent, totalLevels);
+
+            if (parentSibling == null && splitSibling == null && sameBounds(parentMBR, parent.getMBR())
+                    && parentRecordCount == parent.getRecordCount()) {
+                parentLatch.unlock();
+                return;
+            }
+            child = parent;
+            childLatch = parentLatch;
+            splitSibling = parentSibling;
+        }
+        childLatch.unlock();
+    }
+
 
-        Node current = node;
-        while (current.getNodeBlockId() != ROOT_NODE_BLOCK_ID) {
-            Node parent = findParent(current);
-            if (parent == null) break;
+    /**
+     * {@code lockParent} helper method that latches exclusively the current parent of a latched {@link Node}.
+     * <p>The parent remembered while descending is checked first, moving right through its split siblings if the
+     * child's {@link Entry} was moved there. If the root was split meanwhile, the parent is searched again from the root.
+     *
+     * @param path The copies of the ancestors visited while descending, the parent on top.
+     * @param child The latched child {@link Node}.
+     * @return The parent {@link Node}, latched exclusively.
+     */
 
-            Entry parentEntry = findParentEntry(parent, current);
-            if (parentEntry == null) break;
 
-            if (current.getEntries().size() < Node.getMinEntriesInNode()) {
-                parent.getEntries().remove(parentEntry);
-                eliminated.put(current, new ArrayList<>(current.getEntries()));
-            } else {
-                parentEntry.adjustMBRToFitEntries(current.getEntries());
+    private Node lockParent(ArrayDeque<Node> path, Node child) {
+        Node expectedParent = path.isEmpty() ? null : path.pop();
+        while (true) {
+            if (expectedParent != null) {
+                Lock latch = nodeLatches.writeLatch(expectedParent);
+                latch.lock();
+                Node parent = store.readNodeForUpdate(expectedParent.getNodeBlockId(), expectedParent.getNodeIndexInBlock());
+                while (true) {
+                    if (parent.getNodeLevelInTree() == child.getNodeLevelInTree() + 1 && findParentEntry(parent, child) != null)
+                        return parent;
+                    if (!parent.hasRightSibling())
+                        break;
+                    Lock siblingLatch = nodeLatches.getLatch(parent.getRightSiblingBlockId(), parent.getRightSiblingIndexInBlock()).writeLock();
+                    siblingLatch.lock();
+                    latch.unlock();
+                    latch = siblingLatch;
+                    parent = store.readNodeForUpdate(parent.getRightSiblingBlockId(), parent.getRightSiblingIndexInBlock());
+                }
+                latch.unlock();
             }
 
-            FilesHandler.updateIndexFileBlock(current, totalLevels);
-            FilesHandler.updateIndexFileBlock(parent, totalLevels);
-            current = parent;
+            expectedParent = searchParent(nodeLatches.readNode(ROOT_NODE_BLOCK_ID, 0), child);
+            if (expectedParent == null)
+                throw new IllegalStateException("Parent of node " + child.getNodeBlockId() + ":" + child.getNodeIndexInBlock() + " not found.");
         }
+    }
 
-        Node root = getRootNode();
-        if (root.getEntries().size() == 1 && root.getNodeLevelInTree() > LEAF_LEVEL) {
-            Entry onlyEntry = root.getEntries().getFirst();
-            Node newRoot = FilesHandler.readNode(onlyEntry.getChildNodeBlockId(), onlyEntry.getChildNodeIndexInBlock());
-            newRoot.setNodeBlockId(ROOT_NODE_BLOCK_ID);
-            newRoot.setNodeIndexInBlock(0);
-            FilesHandler.setLevelsOfTreeIndex(--totalLevels);
-            FilesHandler.updateIndexFileBlock(newRoot, totalLevels);
-            System.out.println("Root condense, new level: " + totalLevels);
+
+    /**
+     * {@code searchParent} helper method for {@link #lockParent} that searches the tree for the parent of a {@link Node},
+     * reading copies of the nodes.
+     *
+     * @param nodeCopy The copy of the current {@link Node} being traversed.
+     * @param child The child {@link Node}.
+     * @return A copy of the parent {@link Node}, or {@code null} if it is not in this subtree.
+     */
+
+
+    private Node searchParent(Node nodeCopy, Node child) {
+        if (nodeCopy.getNodeLevelInTree() == child.getNodeLevelInTree() + 1)
+            return findParentEntry(nodeCopy, child) != null ? nodeCopy : null;
+        if (nodeCopy.getNodeLevelInTree() <= child.getNodeLevelInTree() + 1)
+            return null;
+
+        for (Entry entry : nodeCopy.getEntries()) {
+            for (Node childCopy : nodeLatches.readChildNodes(entry)) {
+                Node result = searchParent(childCopy, child);
+                if (result != null) return result;
+            }
         }
+        return null;
+    }
 
-        for (List<Entry> entryList : eliminated.values()) {
-            for (Entry e : entryList) {
-                int level;
-                if (e instanceof LeafEntry) {
-                    level = LEAF_LEVEL;
-                } else {
-                    Node child = FilesHandler.readNode(e.getChildNodeBlockId(), e.getChildNodeIndexInBlock());
-                    if (child == null) {
-                        System.out.println("Couldn't reinsert entry: child node not found.");
-                        continue;
+
+    /**
+     * {@code sameBounds} helper method that checks whether two {@link MBR}s have the same {@link Bounds}.
+     *
+     * @param MBRA The first {@link MBR}
+     * @param MBRB The second {@link MBR}
+     * @return {@code true} if the bounds are equal in every dimension, else {@code false}
+     */
+
+
+    private static boolean sameBounds(MBR MBRA, MBR MBRB) {
+        if (MBRA == null || MBRB == null)
+            return MBRA == MBRB;
+        for (int d = 0; d < MBRA.getBounds().size(); d++) {
+            if (MBRA.getBounds().get(d).getLower() != MBRB.getBounds().get(d).getLower()
+                    || MBRA.getBounds().get(d).getUpper() != MBRB.getBounds().get(d).getUpper())
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * {@code deleteRecord} method that deletes a single {@link Record} from R*Tree index using {@code recordToLeafMap} to map records to their blocks in datafile.
+     *
+     * <p>The record is removed from its data block while holding the block's {@link SpatialStore#getDataBlockLatch}.
+     * If the block becomes empty, its {@link LeafEntry} is removed from the leaf {@link Node}, and {@link #condenseTree}
+     * removes the nodes that become empty. Can run alongside queries and other inserts or deletes. Prints nothing, so that
+     * concurrent writers do not serialize on the console; the caller reports the result.
+     *
+     * @param recordId the recordId of the {@link Record} to be deleted.
+     * @return {@code true} if the record was deleted, {@code false} if it is not indexed
+     * @throws IOException to catch any IOException errors
+     * @throws IllegalStateException if the index has no {@link LeafEntry} for the record's data block
+     */
+
+
+    public boolean deleteRecord(long recordId) throws IOException {
+        checkNoSnapshotOpen();
+        Lock gate = updateGate.readLock();
+        gate.lock();
+        try {
+            //Search for record in Map
+            Long dataBlockId = recordToLeafMap.get(recordId);
+            if (dataBlockId == null || dataBlockId == UNINDEXED_RECORD)
+                return false;
+
+            Lock dataBlockLatch = store.getDataBlockLatch(dataBlockId);
+            dataBlockLatch.lock();
+            try {
+                ArrayList<Record> records = store.readDataFileBlock(dataBlockId);
+                if (records == null)
+                    return false;
+
+                Record deletedRecord = null;
+                for (Record r : records) {
+                    if (r.getRecordID() == recordId) {
+                        deletedRecord = r;
+                        break;
                     }
-                    level = child.getNodeLevelInTree();
                 }
-                insert(null, null, e, level);
+                if (deletedRecord == null)
+                    return false;
+                records.remove(deletedRecord);
+                store.overwriteDataFileBlock(dataBlockId, records);
+
+                // The LeafEntry of an empty block is removed, else it keeps the block with its new record count
+                MBR recordMBR = new MBR(Bounds.findMinimumBoundsFromRecord(deletedRecord));
+                boolean leafFound = records.isEmpty() ? removeLeafEntry(dataBlockId, recordMBR)
+                        : updateLeafEntryRecordCount(dataBlockId, recordMBR, records.size());
+                if (!leafFound)
+                    throw new IllegalStateException("No leaf node has the LeafEntry of data block " + dataBlockId);
+
+                recordToLeafMapUndo.putIfAbsent(recordId, dataBlockId);
+                recordToLeafMap.remove(recordId);
+            } finally {
+                dataBlockLatch.unlock();
             }
+            return true;
+        } finally {
+            gate.unlock();
+        }
+    }
 
+
+    /**
+     * {@code updateLeafEntryRecordCount} helper method for {@link #deleteRecord} that sets the record count of the
+     * {@link LeafEntry} of a data block that still has records, and propagates the change to the ancestors.
+     *
+     * @param dataBlockId The data block id
+     * @param recordMBR The {@link MBR} of the deleted record, used to find the leaf
+     * @param recordCount The records left in the data block
+     * @return {@code true} if the {@link LeafEntry} was found, else {@code false}
+     */
+
+
+    private boolean updateLeafEntryRecordCount(long dataBlockId, MBR recordMBR, long recordCount) {
+        ArrayDeque<Node> path = findPathToLeafEntry(dataBlockId, recordMBR);
+        if (path == null)
+            return false;
+
+        Node leafNode = lockNodeContainingLeafEntry(path.pop(), dataBlockId);
+        if (leafNode == null)
+            return false;
+
+        for (Entry e : leafNode.getEntries()) {
+            if (e instanceof LeafEntry leafEntry && leafEntry.getDataBlockId() == dataBlockId) {
+                leafEntry.setRecordCount(recordCount);
+                break;
+            }
         }
+        store.updateIndexFileBlock(leafNode, totalLevels);
+        propagateUpwards(path, leafNode, null);
+        return true;
     }
 
 
     /**
-     * {@code findParent} method finds a child {@link Node}'s parent.
+     * {@code removeLeafEntry} helper method for {@link #deleteRecord} that removes the {@link LeafEntry} of an empty data block.
      *
-     * @param child The child node.
-     * @return The child node's parent.
+     * @param dataBlockId The empty data block id
+     * @param recordMBR The {@link MBR} of the last record of the block, used to find the leaf
+     * @return {@code true} if the {@link LeafEntry} was found and removed, else {@code false}
      */
 
 
-    private Node findParent(Node child) {
-        Node root = getRootNode();
-        return searchParentRecursive(root, child.getNodeBlockId());
+    private boolean removeLeafEntry(long dataBlockId, MBR recordMBR) {
+        ArrayDeque<Node> path = findPathToLeafEntry(dataBlockId, recordMBR);
+        if (path == null)
+            return false;
+
+        Node leafNode = lockNodeContainingLeafEntry(path.pop(), dataBlockId);
+        if (leafNode == null)
+            return false;
+
+        leafNode.getEntries().removeIf(e -> e instanceof LeafEntry && ((LeafEntry) e).getDataBlockId() == dataBlockId);
+        store.updateIndexFileBlock(leafNode, totalLevels);
+        condenseTree(path, leafNode);
+        return true;
     }
 
 
     /**
-     * {@code searchParentRecursive} helper method for {@link #findParent} that searches the tree recursively for the parent.
+     * {@code findPathToLeafEntry} helper method that searches the tree for the leaf {@link Node} with the {@link LeafEntry}
+     * of a data block, visiting only entries that overlap with the given {@link MBR}.
      *
-     * @param current The current node being traversed.
-     * @param childId The node block id of the child {@link Node}
-     * @return The child node's parent.
+     * @param dataBlockId The data block Id
+     * @param blockMBR An {@link MBR} that overlaps with the {@link LeafEntry}'s {@link MBR}
+     * @return Copies of the nodes from the root to the leaf, the leaf on top, or {@code null} if not found
      */
 
 
-    private Node searchParentRecursive(Node current, long childId) {
-        if (current.getNodeLevelInTree() == LEAF_LEVEL) return null;
+    private ArrayDeque<Node> findPathToLeafEntry(long dataBlockId, MBR blockMBR) {
+        ArrayDeque<Node> path = new ArrayDeque<>();
+        if (searchLeafRecursive(nodeLatches.readNode(ROOT_NODE_BLOCK_ID, 0), dataBlockId, blockMBR, path))
+            return path;
+        return null;
+    }
 
-        for (Entry entry : current.getEntries()) {
-            if (entry.getChildNodeBlockId() == childId) return current;
-            Node next = FilesHandler.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
-            if (next != null) {
-                Node result = searchParentRecursive(next, childId);
-                if (result != null) return result;
+
+    /**
+     * {@code searchLeafRecursive} method that searches a leaf node recursively from a {@link Node}.
+     *
+     * @param nodeCopy The copy of the {@link Node} given.
+     * @param dataBlockId The {@code blockId} of the datafile in which the node is in.
+     * @param blockMBR An {@link MBR} that overlaps with the {@link LeafEntry}'s {@link MBR}
+     * @param path The nodes visited so far, the current one is pushed on top.
+     * @return {@code true} if the leaf was found in this subtree, else {@code false}
+     */
+
+
+    private boolean searchLeafRecursive(Node nodeCopy, long dataBlockId, MBR blockMBR, ArrayDeque<Node> path) {
+        path.push(nodeCopy);
+        if (nodeCopy.getNodeLevelInTree() == getLeafLevel()) {
+            for (Entry entry : nodeCopy.getEntries()) {
+                if (entry instanceof LeafEntry && ((LeafEntry) entry).getDataBlockId() == dataBlockId) {
+                    return true;
+                }
+            }
+        } else {
+            for (Entry entry : nodeCopy.getEntries()) {
+                if (!MBR.checkOverlap(entry.getMBR(), blockMBR)) continue;
+                for (Node child : nodeLatches.readChildNodes(entry)) {
+                    if (searchLeafRecursive(child, dataBlockId, blockMBR, path)) return true;
+                }
             }
         }
-        return null;
+        path.pop();
+        return false;
+    }
+
+
+    /**
+     * {@code lockNodeContainingLeafEntry} helper method that latches exclusively the leaf {@link Node} that was found with
+     * {@link #findPathToLeafEntry}, moving right through its split siblings if the {@link LeafEntry} was moved there.
+     *
+     * @param leafCopy The copy of the leaf {@link Node} found.
+     * @param dataBlockId The data block Id
+     * @return The leaf {@link Node}, latched exclusively, or {@code null} if the {@link LeafEntry} was not found.
+     */
+
+
+    private Node lockNodeContainingLeafEntry(Node leafCopy, long dataBlockId) {
+        Lock latch = nodeLatches.writeLatch(leafCopy);
+        latch.lock();
+        Node leafNode = store.readNodeForUpdate(leafCopy.getNodeBlockId(), leafCopy.getNodeIndexInBlock());
+        while (true) {
+            for (Entry entry : leafNode.getEntries()) {
+                if (entry instanceof LeafEntry && ((LeafEntry) entry).getDataBlockId() == dataBlockId)
+                    return leafNode;
+            }
+            if (!leafNode.hasRightSibling()) {
+                latch.unlock();
+                return null;
+            }
+            Lock siblingLatch = nodeLatches.getLatch(leafNode.getRightSiblingBlockId(), leafNode.getRightSiblingIndexInBlock()).writeLock();
+            siblingLatch.lock();
+            latch.unlock();
+            latch = siblingLatch;
+            leafNode = store.readNodeForUpdate(leafNode.getRightSiblingBlockId(), leafNode.getRightSiblingIndexInBlock());
+        }
+    }
+
+
+    /**
+     * {@code condenseTree} method that handles underflow when deleting single {@link Record}.
+     * <p>Nodes that become empty are removed from their parents, up to the root. Nodes with fewer than m entries are kept,
+     * instead of being removed and reinserted, because a concurrent query could miss their entries while they are reinserted.
+     * The ancestors' {@link MBR}s and record counts are then fitted to the remaining entries with {@link #propagateUpwards}.
+     * If the root becomes empty, it becomes a leaf again.
+     *
+     * @param path The copies of the ancestors visited while searching for the {@link Node}, the parent on top.
+     * @param node The node from which an {@link Entry} was removed, latched exclusively. Its latch is released.
+     */
+
+
+    private void condenseTree(ArrayDeque<Node> path, Node node) {
+        Lock nodeLatch = nodeLatches.writeLatch(node);
+        while (node.getEntries().isEmpty() && (node.getNodeBlockId() != ROOT_NODE_BLOCK_ID || node.getNodeIndexInBlock() != 0)) {
+            Node parent = lockParent(path, node);
+            parent.getEntries().remove(findParentEntry(parent, node));
+            store.updateIndexFileBlock(parent, totalLevels);
+            nodeLatch.unlock();
+            node = parent;
+            nodeLatch = nodeLatches.writeLatch(parent);
+        }
+        if (node.getNodeBlockId() != ROOT_NODE_BLOCK_ID || node.getNodeIndexInBlock() != 0) {
+            propagateUpwards(path, node, null);
+            return;
+        }
+        if (node.getEntries().isEmpty() && node.getNodeLevelInTree() > LEAF_LEVEL) {
+            // Every record was deleted, the empty root becomes a leaf again
+            node.setNodeLevelInTree(LEAF_LEVEL);
+            totalLevels = LEAF_LEVEL;
+            store.setLevelsOfTreeIndex(totalLevels);
+            store.updateIndexFileBlock(node, totalLevels);
+        }
+        nodeLatch.unlock();
     }
 
 
@@ -753,13 +1326,15 @@ public class RStarTree {
      *
      * @param parent The parent node.
      * @param child The child node.
-     * @return The parent entry
+     * @return The parent entry, or {@code null} if the parent does not point to the child
      */
 
 
     private Entry findParentEntry(Node parent, Node child) {
         for (Entry entry : parent.getEntries()) {
-            if (entry.getChildNodeBlockId() == child.getNodeBlockId()) return entry;
+            if (!(entry instanceof LeafEntry) && entry.getChildNodeBlockId() == child.getNodeBlockId()
+                    && entry.getChildNodeIndexInBlock() == child.getNodeIndexInBlock())
+                return entry;
         }
         return null;
     }
@@ -770,8 +1345,8 @@ public class RStarTree {
      *
      */
 
-    public static void printTreeStats() {
-        Node root = FilesHandler.readNode(RStarTree.getRootNodeBlockId(), 0);
+    public void printTreeStats() {
+        Node root = store.readNode(RStarTree.getRootNodeBlockId(), 0);
         Map<Integer, Integer> levelNodeCounts = new HashMap<>();
         traverseAndCount(root, levelNodeCounts);
 
@@ -782,7 +1357,7 @@ public class RStarTree {
                     int level = entry.getKey();
                     int count = entry.getValue();
                     String label = (level == RStarTree.getLeafLevel()) ? "Leaf" :
-                            (level == FilesHandler.getTotalLevelsFile()) ? "Root" : "Internal";
+                            (level == store.getTotalLevelsFile()) ? "Root" : "Internal";
                     System.out.printf("Level %d (%s): %d node(s)%n", level, label, count);
                 });
     }
@@ -796,14 +1371,14 @@ public class RStarTree {
      */
 
 
-    private static void traverseAndCount(Node node, Map<Integer, Integer> levelNodeCounts) {
+    private void traverseAndCount(Node node, Map<Integer, Integer> levelNodeCounts) {
         int level = node.getNodeLevelInTree();
         levelNodeCounts.put(level, levelNodeCounts.getOrDefault(level, 0) + 1);
 
         // Αν δεν είναι φύλλο, συνέχισε προς τα κάτω
         if (level > RStarTree.getLeafLevel()) {
             for (Entry entry : node.getEntries()) {
-                Node child = FilesHandler.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
+                Node child = store.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
                 if (child != null) {
                     traverseAndCount(child, levelNodeCounts);
                 }
@@ -812,6 +1387,75 @@ public class RStarTree {
     }
 
 
+    /**
+     * {@code checkInvariants} method that checks the structure of the tree and prints every violation found:
+     * every child is one level below its parent, every parent {@link Entry} contains the {@link MBR} of its child and
+     * every {@link LeafEntry} contains the records of its data block, and every {@link Entry}'s record count is the number of
+     * records in its subtree.
+     * <p>Used after concurrent inserts and deletes, when no writer is running.
+     *
+     * @return {@code true} if no violation was found, else {@code false}
+     */
+
+
+    boolean checkInvariants() {
+        Node root = nodeLatches.readNode(ROOT_NODE_BLOCK_ID, 0);
+        boolean valid = root.getNodeLevelInTree() == store.getTotalLevelsFile();
+        if (!valid)
+            System.out.println("Root level " + root.getNodeLevelInTree() + " != total levels " + store.getTotalLevelsFile());
+        return checkInvariantsRecursive(root) && valid;
+    }
+
+
+    /**
+     * {@code checkInvariantsRecursive} helper method for {@link #checkInvariants} that checks the subtree of a {@link Node}.
+     *
+     * @param node The copy of the {@link Node} being checked.
+     * @return {@code true} if no violation was found in the subtree, else {@code false}
+     */
+
+
+    private boolean checkInvariantsRecursive(Node node) {
+        boolean valid = true;
+        for (Entry entry : node.getEntries()) {
+            if (node.getNodeLevelInTree() == LEAF_LEVEL) {
+                long dataBlockId = ((LeafEntry) entry).getDataBlockId();
+                ArrayList<Record> records = store.readDataFileBlock(dataBlockId);
+                if (records == null || records.isEmpty()) {
+                    System.out.println("LeafEntry points to empty data block " + dataBlockId);
+                    valid = false;
+                } else if (!MBR.checkContainment(entry.getMBR(), new MBR(Bounds.findMinimumBoundsFromRecords(records)))) {
+                    System.out.println("LeafEntry MBR does not contain the records of data block " + dataBlockId);
+                    valid = false;
+                } else if (entry.getRecordCount() != records.size()) {
+                    System.out.println("LeafEntry record count " + entry.getRecordCount() + " != " + records.size()
+                            + " records of data block " + dataBlockId);
+                    valid = false;
+                }
+                continue;
+            }
+
+            Node child = nodeLatches.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
+            if (child.getNodeLevelInTree() != node.getNodeLevelInTree() - 1) {
+                System.out.println("Node " + child.getNodeBlockId() + ":" + child.getNodeIndexInBlock() + " has level "
+                        + child.getNodeLevelInTree() + " under a node of level " + node.getNodeLevelInTree());
+                valid = false;
+            }
+            if (!child.getEntries().isEmpty() && !MBR.checkContainment(entry.getMBR(), child.getMBR())) {
+                System.out.println("Entry MBR does not contain node " + child.getNodeBlockId() + ":" + child.getNodeIndexInBlock());
+                valid = false;
+            }
+            if (entry.getRecordCount() != child.getRecordCount()) {
+                System.out.println("Entry record count " + entry.getRecordCount() + " != " + child.getRecordCount()
+                        + " records of node " + child.getNodeBlockId() + ":" + child.getNodeIndexInBlock());
+                valid = false;
+            }
+            valid &= checkInvariantsRecursive(child);
+        }
+        return valid;
+    }
+
+
     /**
      * {@code bulkLoadFromRecords} method handles bulk loading of the R*Tree
      *
@@ -837,7 +1481,7 @@ public class RStarTree {
             ArrayList<Bounds> overallBounds = null;
             for (Record r : records) {
                 ArrayList<Bounds> boundsForDimensions = new ArrayList<>();
-                for (int i = 0; i < FilesHandler.getDataDimensions(); i++) {
+                for (int i = 0; i < store.getDataDimensions(); i++) {
                     double coord = r.getCoordinateFromDimension(i);
                     boundsForDimensions.add(new Bounds(coord, coord));
                 }
@@ -857,7 +1501,7 @@ public class RStarTree {
             }
 
             MBR mbr = new MBR(overallBounds);
-            leafEntries.add(new LeafEntry(dataBlockId, mbr));
+            leafEntries.add(new LeafEntry(dataBlockId, mbr, records.size()));
         }
 
         System.out.println("Created " + leafEntries.size() + " LeafEntries for " + recordsPerBlock.size() + " data blocks.");
@@ -866,20 +1510,22 @@ public class RStarTree {
 
 
         // 2. STR Bulk Loading Leaf Nodes
-        ArrayList<Node> leaves = buildLeafNodesSTR(leafEntries, Node.getMaxEntriesInNode());
+        ArrayList<Node> leaves = buildLeafNodesSTR(leafEntries, maxEntriesInNode);
 
         // 3. Bottom-Up Build
-        Node root = buildTreeBottomUp(leaves, Node.getMaxEntriesInNode());
+        Node root = buildTreeBottomUp(leaves, maxEntriesInNode);
 
         // 4. Root info
         root.setNodeBlockId(ROOT_NODE_BLOCK_ID);
         root.setNodeIndexInBlock(0);
 
         // 5. Save root
-        FilesHandler.updateIndexFileBlock(root, ROOT_NODE_BLOCK_ID);
+        store.updateIndexFileBlock(root, ROOT_NODE_BLOCK_ID);
 
         // 6. Flush buffer
-        FilesHandler.flushIndexBufferToDisk();
+        store.flushIndexBufferToDisk();
+        store.checkpoint();
+        store.printPageWriteStats();
     }
 
 
@@ -908,7 +1554,7 @@ public class RStarTree {
                 List<LeafEntry> group = slice.subList(j, Math.min(j + M/2, slice.size()));
                 Node leaf = new Node(LEAF_LEVEL, new ArrayList<>(group));
 
-                FilesHandler.writeNewIndexFileBlock(leaf);
+                store.writeNewIndexFileBlock(leaf);
                 leafNodes.add(leaf);
 
             }
@@ -938,8 +1584,8 @@ public class RStarTree {
                     entries.add(new Entry(child));
                 }
                 Node parent = new Node(currentLevel, entries);
-                FilesHandler.writeNewIndexFileBlock(parent);
-                FilesHandler.setLevelsOfTreeIndex(currentLevel);
+                store.writeNewIndexFileBlock(parent);
+                store.setLevelsOfTreeIndex(currentLevel);
                 return parent; // Root node
             }
 
@@ -965,7 +1611,7 @@ public class RStarTree {
 
                     Node parent = new Node (currentLevel, entries);
 
-                    FilesHandler.writeNewIndexFileBlock(parent);
+                    store.writeNewIndexFileBlock(parent);
 
                     newLevelNodes.add(parent);
                 }
@@ -974,7 +1620,7 @@ public class RStarTree {
             children = newLevelNodes;
             currentLevel++;
         }
-        FilesHandler.setLevelsOfTreeIndex(currentLevel);
+        store.setLevelsOfTreeIndex(currentLevel);
         return children.getFirst();
     }
 
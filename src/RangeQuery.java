@@ -1,4 +1,12 @@
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -12,77 +20,351 @@ import java.util.ArrayList;
 
 
 public class RangeQuery {
+    /** The most data blocks that one task of a parallel range query reads, a task with more is split */
+    static final int PARALLEL_THRESHOLD_BLOCKS = 8;
 
 
     /**
      * Executes a range query starting from the given {@code node} in the {@link RStarTree}.
      * It recursively explores only those branches where the {@link MBR} of the {@link Entry}
-     * overlaps with the {@code queryMBR}.
+     * overlaps with the {@code queryMBR}. Child nodes are read through {@link RStarTree#readChildNodes}, so the query can run while
+     * records are inserted or deleted.
      *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
      * @param node The current {@link Node} to explore.
      * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
      * @return A list of {@link Record} objects that fall within the query range.
      */
 
 
-    public static ArrayList<Record> rangeQuery(Node node, MBR queryMBR) {
-        ArrayList<Record> results = new ArrayList<>();
+    public static ArrayList<Record> rangeQuery(RStarTree tree, Node node, MBR queryMBR) {
+        return rangeQuery(tree, node, queryMBR, QueryResults.Projection.RECORDS).getRecords();
+    }
 
-        for (Entry entry : node.getEntries()) {
-            MBR entryMBR = entry.getMBR();
-
-            if (MBR.checkOverlap(entryMBR, queryMBR)) {
-                if (node.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
-                    LeafEntry leafEntry = (LeafEntry) entry;
-                    long dataBlockId = leafEntry.getDataBlockId();
-                    ArrayList<Record> records = FilesHandler.readDataFileBlock(dataBlockId);
-
-                    if (records != null) {
-                        for (Record record : records) {
-                            if (isRecordInRange(record, queryMBR)) {
-                                results.add(record);
-                            }
-                        }
-                    }
 
-                } else {
-                    long childBlockId = entry.getChildNodeBlockId();
-                    int childNodeIndex = entry.getChildNodeIndexInBlock();
+    /**
+     * Executes a range query starting from the given {@code node}, returning only the columns of the {@code projection}.
+     * With {@link QueryResults.Projection#IDS} or {@link QueryResults.Projection#COORDINATES} no name is decoded and no
+     * {@link Record} is built.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The current {@link Node} to explore.
+     * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
+     * @param projection The columns of the results.
+     * @return The {@link QueryResults} of the records that fall within the query range.
+     */
+
+
+    static QueryResults rangeQuery(RStarTree tree, Node node, MBR queryMBR, QueryResults.Projection projection) {
+        double[] lower = queryMBR.getLowerCorner();
+        double[] upper = queryMBR.getUpperCorner();
+        QueryResults results = new QueryResults(projection, lower.length);
+        rangeQuery(tree, node, queryMBR, lower, upper, results);
+        return results;
+    }
+
+
+    /**
+     * Returns a lazy {@link Iterator} over the records within the query range, starting from the given {@code node}.
+     * The tree is traversed with an explicit stack as the iterator is consumed, see {@link RangeQuerySpliterator}, so
+     * memory stays bounded by the tree height and a caller that stops early never visits the rest of the tree.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
+     * @return An {@link Iterator} of the records in the order of {@link #rangeQuery(RStarTree, Node, MBR)}.
+     */
+
+
+    static Iterator<Record> iterator(RStarTree tree, Node node, MBR queryMBR) {
+        return Spliterators.iterator(new RangeQuerySpliterator(tree, node, queryMBR));
+    }
+
+
+    /**
+     * Returns a lazy sequential {@link Stream} of the records within the query range, starting from the given
+     * {@code node}. Short-circuiting operations such as {@link Stream#limit} or {@link Stream#findFirst} stop the
+     * traversal as soon as they are satisfied.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
+     * @return A {@link Stream} of the records in the order of {@link #rangeQuery(RStarTree, Node, MBR)}.
+     */
+
+
+    static Stream<Record> stream(RStarTree tree, Node node, MBR queryMBR) {
+        return StreamSupport.stream(new RangeQuerySpliterator(tree, node, queryMBR), false);
+    }
+
+
+    /**
+     * Returns at most {@code limit} records within the query range, in the order of
+     * {@link #rangeQuery(RStarTree, Node, MBR)}, visiting only the part of the tree needed to find them.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
+     * @param limit The maximum number of records to return.
+     * @return A list of at most {@code limit} {@link Record} objects that fall within the query range.
+     */
+
+
+    static ArrayList<Record> rangeQuery(RStarTree tree, Node node, MBR queryMBR, int limit) {
+        return stream(tree, node, queryMBR).limit(limit).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+
+    /**
+     * Executes a range query starting from the given {@code node} on the common {@link ForkJoinPool}, see
+     * {@link #parallelRangeQuery(RStarTree, Node, MBR, QueryResults.Projection, ForkJoinPool)}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
+     * @param projection The columns of the results.
+     * @return The {@link QueryResults} of the records that fall within the query range.
+     */
+
+
+    static QueryResults parallelRangeQuery(RStarTree tree, Node node, MBR queryMBR, QueryResults.Projection projection) {
+        return parallelRangeQuery(tree, node, queryMBR, projection, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Executes a range query starting from the given {@code node}, splitting the overlapping subtrees into
+     * {@link ForkJoinPool} tasks so that the nodes and data blocks of different subtrees are read and filtered on
+     * different cores. A subtree with a single overlapping child is followed without forking, and a leaf node is only
+     * split into tasks of {@code PARALLEL_THRESHOLD_BLOCKS} data blocks when more of its blocks overlap the query, so
+     * small windows run sequentially in one task.
+     * <p>
+     * The results of the tasks are joined in tree order, so they are the same and in the same order as the ones of
+     * {@link #rangeQuery(RStarTree, Node, MBR, QueryResults.Projection)}. If the calling thread has an open
+     * {@link IndexSnapshot}, every task reads the snapshot's version.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The {@link Node} to start from, usually the root.
+     * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
+     * @param projection The columns of the results.
+     * @param pool The {@link ForkJoinPool} that runs the tasks.
+     * @return The {@link QueryResults} of the records that fall within the query range.
+     */
+
 
-                    Node childNode = FilesHandler.readNode(childBlockId, childNodeIndex);
-                    if (childNode != null) {
-                        results.addAll(rangeQuery(childNode, queryMBR));
+    static QueryResults parallelRangeQuery(RStarTree tree, Node node, MBR queryMBR, QueryResults.Projection projection,
+                                           ForkJoinPool pool) {
+        double[] lower = queryMBR.getLowerCorner();
+        double[] upper = queryMBR.getUpperCorner();
+        IndexSnapshot snapshot = tree.getStore().currentSnapshot();
+        return pool.invoke(new RangeQueryTask(tree, snapshot, queryMBR, lower, upper, projection, node, null, false));
+    }
+
+
+    /**
+     * {@code filterDataBlock} helper method that adds the records of a leaf entry's data block that fall within the query
+     * range, filtered over the coordinate columns of its {@link DataPage}.
+     *
+     * @param tree The {@link RStarTree} to read the block from.
+     * @param leafEntry The {@link LeafEntry} of the data block.
+     * @param lower The lower bound of the query in every dimension.
+     * @param upper The upper bound of the query in every dimension.
+     * @param results Receives the records that fall within the query range.
+     */
+
+
+    private static void filterDataBlock(RStarTree tree, LeafEntry leafEntry, double[] lower, double[] upper,
+                                        QueryResults results) {
+        DataPage page = tree.readDataPage(leafEntry.getDataBlockId());
+        if (page != null) {
+            int[] selection = new int[page.size()];
+            int selected = page.selectInRange(lower, upper, selection);
+            results.addRows(page, selection, selected);
+        }
+    }
+
+
+    /**
+     * A part of a parallel range query: a subtree to visit, the subtrees of some inner entries, or the data blocks of
+     * some leaf entries. The task binds the query's {@link IndexSnapshot} to the worker thread while it runs.
+     */
+
+
+    private static final class RangeQueryTask extends RecursiveTask<QueryResults> {
+        private final RStarTree tree;
+        private final IndexSnapshot snapshot;
+        private final MBR queryMBR;
+        private final double[] lower;
+        private final double[] upper;
+        private final QueryResults.Projection projection;
+        private final Node node;
+        private final List<Entry> entries;
+        private final boolean leafEntries;
+
+        RangeQueryTask(RStarTree tree, IndexSnapshot snapshot, MBR queryMBR, double[] lower, double[] upper,
+                       QueryResults.Projection projection, Node node, List<Entry> entries, boolean leafEntries) {
+            this.tree = tree;
+            this.snapshot = snapshot;
+            this.queryMBR = queryMBR;
+            this.lower = lower;
+            this.upper = upper;
+            this.projection = projection;
+            this.node = node;
+            this.entries = entries;
+            this.leafEntries = leafEntries;
+        }
+
+        @Override
+        protected QueryResults compute() {
+            IndexSnapshot previous = tree.getStore().bindSnapshot(snapshot);
+            try {
+                QueryResults results = new QueryResults(projection, lower.length);
+                if (node != null) {
+                    visit(node, results);
+                } else if (leafEntries) {
+                    for (Entry entry : entries)
+                        filterDataBlock(tree, (LeafEntry) entry, lower, upper, results);
+                } else {
+                    for (Entry entry : entries) {
+                        for (Node childNode : tree.readChildNodes(entry))
+                            visit(childNode, results);
                     }
                 }
+                return results;
+            } finally {
+                tree.getStore().bindSnapshot(previous);
             }
         }
 
-        return results;
+        private void visit(Node node, QueryResults results) {
+            ArrayList<Entry> overlapping = new ArrayList<>();
+            for (Entry entry : node.getEntries()) {
+                if (MBR.checkOverlap(entry.getMBR(), queryMBR))
+                    overlapping.add(entry);
+            }
+            tree.prefetchChildren(node, overlapping, true);
+
+            ArrayList<RangeQueryTask> subtasks = new ArrayList<>();
+            if (node.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
+                if (overlapping.size() <= PARALLEL_THRESHOLD_BLOCKS) {
+                    for (Entry entry : overlapping)
+                        filterDataBlock(tree, (LeafEntry) entry, lower, upper, results);
+                    return;
+                }
+                for (int from = 0; from < overlapping.size(); from += PARALLEL_THRESHOLD_BLOCKS) {
+                    int to = Math.min(from + PARALLEL_THRESHOLD_BLOCKS, overlapping.size());
+                    subtasks.add(new RangeQueryTask(tree, snapshot, queryMBR, lower, upper, projection, null,
+                            overlapping.subList(from, to), true));
+                }
+            } else {
+                if (overlapping.size() == 1) {
+                    for (Node childNode : tree.readChildNodes(overlapping.get(0)))
+                        visit(childNode, results);
+                    return;
+                }
+                for (Entry entry : overlapping)
+                    subtasks.add(new RangeQueryTask(tree, snapshot, queryMBR, lower, upper, projection, null,
+                            List.of(entry), false));
+            }
+            invokeAll(subtasks);
+            for (RangeQueryTask subtask : subtasks)
+                results.addResults(subtask.join());
+        }
     }
 
 
     /**
-     * Checks whether a given {@link Record} lies entirely within the specified {@link MBR}.
+     * Counts the records in range of a query starting from the given {@code node}, without returning them. The record
+     * count kept in every {@link Entry} is added for the entries that the query contains, so only the subtrees that
+     * partially overlap the query are visited, and only the data blocks of those leaf entries are read and filtered.
+     * The count is the size of {@link #rangeQuery(RStarTree, Node, MBR)} when no writer changes the tree, or when the
+     * query runs in an {@link IndexSnapshot}.
      *
-     * @param record The {@link Record} to check.
-     * @param queryMBR The query {@link MBR} defining the valid range for each dimension.
-     * @return {@code true} if the record's coordinates fall within the query MBR, {@code false} otherwise.
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The current {@link Node} to explore.
+     * @param queryMBR The {@link MBR} defining the query range (lower and upper bounds for each dimension).
+     * @return The number of records that fall within the query range.
+     */
+
+
+    static long rangeCount(RStarTree tree, Node node, MBR queryMBR) {
+        return rangeCount(tree, node, queryMBR, queryMBR.getLowerCorner(), queryMBR.getUpperCorner());
+    }
+
+
+    /**
+     * Recursive helper of {@link #rangeCount(RStarTree, Node, MBR)}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The current {@link Node} to explore.
+     * @param queryMBR The query {@link MBR}.
+     * @param lower The lower bound of the query in every dimension.
+     * @param upper The upper bound of the query in every dimension.
+     * @return The number of records of the subtree that fall within the query range.
      */
 
 
-    private static boolean isRecordInRange(Record record, MBR queryMBR) {
-        ArrayList<Double> coords = record.getCoordinates();
-        ArrayList<Bounds> bounds = queryMBR.getBounds();
+    private static long rangeCount(RStarTree tree, Node node, MBR queryMBR, double[] lower, double[] upper) {
+        long count = 0;
+        ArrayList<Entry> overlapping = new ArrayList<>();
+        for (Entry entry : node.getEntries()) {
+            if (MBR.checkContainment(queryMBR, entry.getMBR()))
+                count += entry.getRecordCount();
+            else if (MBR.checkOverlap(entry.getMBR(), queryMBR))
+                overlapping.add(entry);
+        }
+        tree.prefetchChildren(node, overlapping, true);
 
-        for (int i = 0; i < coords.size(); i++) {
-            double val = coords.get(i);
-            Bounds b = bounds.get(i);
-            if (val < b.getLower() || val > b.getUpper()) {
-                return false;
+        int[] selection = null;
+        for (Entry entry : overlapping) {
+            if (node.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
+                DataPage page = tree.readDataPage(((LeafEntry) entry).getDataBlockId());
+                if (page == null)
+                    continue;
+                if (selection == null || selection.length < page.size())
+                    selection = new int[page.size()];
+                count += page.selectInRange(lower, upper, selection);
+            } else {
+                for (Node childNode : tree.readChildNodes(entry))
+                    count += rangeCount(tree, childNode, queryMBR, lower, upper);
             }
         }
-        return true;
+        return count;
     }
-}
 
 
+    /**
+     * Recursive helper of {@link #rangeQuery(RStarTree, Node, MBR, QueryResults.Projection)}. The blocks of a node's
+     * overlapping entries are prefetched in block id order before they are visited. At the leaf level the records of a
+     * data block are filtered over the coordinate columns of its {@link DataPage}, and only the matching rows are added to
+     * the results.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to.
+     * @param node The current {@link Node} to explore.
+     * @param queryMBR The query {@link MBR}.
+     * @param lower The lower bound of the query in every dimension.
+     * @param upper The upper bound of the query in every dimension.
+     * @param results Receives the records that fall within the query range.
+     */
+
+
+    private static void rangeQuery(RStarTree tree, Node node, MBR queryMBR, double[] lower, double[] upper,
+                                   QueryResults results) {
+        ArrayList<Entry> overlapping = new ArrayList<>();
+        for (Entry entry : node.getEntries()) {
+            if (MBR.checkOverlap(entry.getMBR(), queryMBR))
+                overlapping.add(entry);
+        }
+        tree.prefetchChildren(node, overlapping, true);
+
+        for (Entry entry : overlapping) {
+            if (node.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
+                filterDataBlock(tree, (LeafEntry) entry, lower, upper, results);
+            } else {
+                for (Node childNode : tree.readChildNodes(entry)) {
+                    rangeQuery(tree, childNode, queryMBR, lower, upper, results);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+
+/**
+ *
+ *
+ * Class {@link RangeQuerySpliterator} runs a range query over an {@link RStarTree} lazily: every {@link #tryAdvance}
+ * returns the next {@link Record} in range, visiting the tree only as far as needed to find it.
+ * <p>
+ * The traversal keeps an explicit stack with the {@link Node}s still to visit on the path from the start node, and the
+ * matching rows of the one {@link DataPage} being returned, so its memory is bounded by the height of the tree and the
+ * size of a block, however many records the query returns. A consumer that stops early, e.g. through
+ * {@link java.util.stream.Stream#limit}, never reads the rest of the tree.
+ * <p>
+ * The records are returned in the same order as {@link RangeQuery#rangeQuery(RStarTree, Node, MBR)}. Nodes are read
+ * through {@link RStarTree#readChildNodes} when they are reached, so the query sees the tree as it is at that moment,
+ * or the {@link IndexSnapshot} bound to the consuming thread. A {@link RangeQuerySpliterator} is not thread-safe.
+ *
+ *
+ */
+
+
+class RangeQuerySpliterator implements Spliterator<Record> {
+    /** The tree that is queried */
+    private final RStarTree tree;
+
+    /** The query {@link MBR} */
+    private final MBR queryMBR;
+
+    /** The lower bound of the query in every dimension */
+    private final double[] lower;
+
+    /** The upper bound of the query in every dimension */
+    private final double[] upper;
+
+    /** The nodes whose entries are being visited, the deepest one first */
+    private final ArrayDeque<NodeCursor> stack = new ArrayDeque<>();
+
+    /** The page of the leaf entry being returned, {@code null} if there is none */
+    private DataPage page;
+
+    /** The matching rows of the {@code page} */
+    private int[] selection = new int[0];
+
+    /** The number of matching rows of the {@code page} */
+    private int selected;
+
+    /** The next matching row of the {@code page} to return */
+    private int nextSelected;
+
+
+    /**
+     * A node to visit, its entries that overlap the query once it is reached, and the index of the next one.
+     */
+
+
+    private static final class NodeCursor {
+        final Node node;
+        final boolean leaf;
+        List<Entry> entries;
+        int nextEntry;
+
+        NodeCursor(Node node) {
+            this.node = node;
+            this.leaf = node.getNodeLevelInTree() == RStarTree.getLeafLevel();
+        }
+    }
+
+
+    /**
+     * {@link RangeQuerySpliterator} constructor. No node is read until the first {@link #tryAdvance}.
+     *
+     * @param tree The {@link RStarTree} that the {@code node} belongs to
+     * @param node The node to start from, usually the root
+     * @param queryMBR The query {@link MBR}
+     */
+
+
+    RangeQuerySpliterator(RStarTree tree, Node node, MBR queryMBR) {
+        this.tree = tree;
+        this.queryMBR = queryMBR;
+        this.lower = queryMBR.getLowerCorner();
+        this.upper = queryMBR.getUpperCorner();
+        stack.push(new NodeCursor(node));
+    }
+
+
+    /**
+     * {@code overlappingEntries} helper method that finds the entries of a node that overlap the query when the node is
+     * reached, and prefetches their blocks in block id order.
+     *
+     * @param node The node
+     * @return The overlapping entries
+     */
+
+
+    private List<Entry> overlappingEntries(Node node) {
+        ArrayList<Entry> overlapping = new ArrayList<>();
+        for (Entry entry : node.getEntries()) {
+            if (MBR.checkOverlap(entry.getMBR(), queryMBR))
+                overlapping.add(entry);
+        }
+        tree.prefetchChildren(node, overlapping, true);
+        return overlapping;
+    }
+
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Record> action) {
+        while (nextSelected >= selected) {
+            if (!advanceToNextPage())
+                return false;
+        }
+        action.accept(page.getRecord(selection[nextSelected++]));
+        return true;
+    }
+
+
+    /**
+     * {@code advanceToNextPage} helper method that walks the tree to the next leaf entry that overlaps the query, and
+     * filters the rows of its {@link DataPage}.
+     *
+     * @return {@code false} if the whole tree is visited, else {@code true}
+     */
+
+
+    private boolean advanceToNextPage() {
+        page = null;
+        selected = 0;
+        nextSelected = 0;
+        while (!stack.isEmpty()) {
+            NodeCursor cursor = stack.peek();
+            if (cursor.entries == null)
+                cursor.entries = overlappingEntries(cursor.node);
+            if (cursor.nextEntry >= cursor.entries.size()) {
+                stack.pop();
+                continue;
+            }
+            Entry entry = cursor.entries.get(cursor.nextEntry++);
+            if (cursor.leaf) {
+                DataPage leafPage = tree.readDataPage(((LeafEntry) entry).getDataBlockId());
+                if (leafPage == null)
+                    continue;
+                if (selection.length < leafPage.size())
+                    selection = new int[leafPage.size()];
+                page = leafPage;
+                selected = leafPage.selectInRange(lower, upper, selection);
+                return true;
+            }
+
+            ArrayList<Node> childNodes = tree.readChildNodes(entry);
+            for (int i = childNodes.size() - 1; i >= 0; i--)
+                stack.push(new NodeCursor(childNodes.get(i)));
+        }
+        return false;
+    }
+
+
+    /**
+     * The traversal is sequential and is never split.
+     *
+     * @return {@code null}
+     */
+
+
+    @Override
+    public Spliterator<Record> trySplit() {
+        return null;
+    }
+
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
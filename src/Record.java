@@ -31,14 +31,15 @@ public class Record implements Serializable{
     /**
      * The {@link Record} constructor that receives a record in {@link String} format and parses it to {@link Record} format
      * @param recordInString A {@link Record} in {@link String} format
+     * @param dataDimensions The number of coordinates expected
      */
 
 
-    public Record(String recordInString) {
+    public Record(String recordInString, int dataDimensions) {
         String[] stringArray = recordInString.split(",");
 
         // Expecting: ID + name + coordinates
-        if (stringArray.length != FilesHandler.getDataDimensions() + 2)
+        if (stringArray.length != dataDimensions + 2)
             throw new IllegalArgumentException("Record input string is not correct: " + recordInString);
 
         recordID = Long.parseLong(stringArray[0]);
@@ -0,0 +1,65 @@
+
+
+/**
+ * {@code RecordPair} is a utility class representing a pair of {@link Record} objects, one of each joined dataset, and
+ * the distance between them.
+ *
+ * <p>This class is used by distance joins such as {@link ClosestPairsQuery}.</p>
+ *
+ */
+
+
+public class RecordPair {
+    private final Record left;
+    private final Record right;
+    private final double distance;
+
+
+    /**
+     * Constructs a new {@code RecordPair} with the given records and the distance between them.
+     *
+     * @param left The {@link Record} of the left dataset.
+     * @param right The {@link Record} of the right dataset.
+     * @param distance The distance between the two records.
+     */
+
+
+    public RecordPair(Record left, Record right, double distance) {
+        this.left = left;
+        this.right = right;
+        this.distance = distance;
+    }
+
+
+    /**
+     * Getter for the {@link Record} of the left dataset
+     * @return The left record
+     */
+
+
+    public Record getLeft() {
+        return left;
+    }
+
+
+    /**
+     * Getter for the {@link Record} of the right dataset
+     * @return The right record
+     */
+
+
+    public Record getRight() {
+        return right;
+    }
+
+
+    /**
+     * Getter for the {@code distance} between the two records
+     * @return The distance
+     */
+
+
+    public double getDistance() {
+        return distance;
+    }
+}
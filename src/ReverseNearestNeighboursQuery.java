@@ -0,0 +1,404 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * {@code ReverseNearestNeighboursQuery} class finds the records of an {@link RStarTree} that have a query point among
+ * their {@code k} nearest neighbours: the records {@code p} with fewer than {@code k} other records nearer to {@code p}
+ * than the query point.
+ * <p>
+ * It follows the filter and refinement steps of the TPL algorithm of Tao, Papadias and Lian. The filter step browses the
+ * tree by distance from the query point with one priority queue over entries and rows, like
+ * {@link NearestNeighboursIterator}. Every record that is reached is a candidate, unless at least {@code k} candidates
+ * found before it are nearer to it than the query point, and every entry is pruned when at least {@code k} candidates are
+ * nearer than the query point to every point of its {@link MBR}. A candidate {@code c} is nearer than the query point
+ * {@code q} to the points of the half-space on the side of {@code c} of the bisector of {@code q} and {@code c}, so an
+ * {@link MBR} is pruned by {@code c} when its farthest corner towards {@code q} is in that half-space.
+ * <p>
+ * The refinement step rejects a candidate when {@code k} other candidates or pruned records are nearer to it than the
+ * query point, and verifies each of the others by browsing its own nearest neighbours with a
+ * {@link NearestNeighboursIterator} until {@code k} of them, or the query point, are reached. The candidates are
+ * independent, so they can also be verified in parallel.
+ */
+
+
+class ReverseNearestNeighboursQuery {
+    /** The most candidates that one task of a parallel verification verifies, a task with more is split */
+    static final int PARALLEL_THRESHOLD_CANDIDATES = 4;
+
+    /** The tree that is queried */
+    private final RStarTree tree;
+
+    /** The query point */
+    private final double[] queryPoint;
+
+    /** The number of nearest neighbours */
+    private final int k;
+
+    /** The records that were not pruned by the filter step, nearest to the query point first */
+    private final ArrayList<Record> candidates = new ArrayList<>();
+
+    /** The coordinates of the {@code candidates} */
+    private final ArrayList<double[]> candidatePoints = new ArrayList<>();
+
+    /** The coordinates of the records that were pruned by the filter step */
+    private final ArrayList<double[]> prunedPoints = new ArrayList<>();
+
+
+    /**
+     * An element of the queue of the filter step: an {@link Entry} of a visited {@link Node}, or a row of a visited
+     * {@link DataPage}.
+     */
+
+
+    private static final class QueueElement {
+        final double distance;
+        final Node node;
+        final Entry entry;
+        final DataPage page;
+        final int row;
+
+        QueueElement(double distance, Node node, Entry entry, DataPage page, int row) {
+            this.distance = distance;
+            this.node = node;
+            this.entry = entry;
+            this.page = page;
+            this.row = row;
+        }
+    }
+
+
+    /**
+     * {@link ReverseNearestNeighboursQuery} constructor.
+     *
+     * @param tree The tree that is queried
+     * @param queryPoint The query point
+     * @param k The number of nearest neighbours
+     */
+
+
+    private ReverseNearestNeighboursQuery(RStarTree tree, ArrayList<Double> queryPoint, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("Parameter 'k' for the nearest neighbours must be a positive integer.");
+        this.tree = tree;
+        this.queryPoint = queryPoint.stream().mapToDouble(Double::doubleValue).toArray();
+        this.k = k;
+    }
+
+
+    /**
+     * Finds the records that have the {@code queryPoint} among their {@code k} nearest neighbours.
+     *
+     * @param tree The {@link RStarTree} to search.
+     * @param queryPoint The query point.
+     * @param k The number of nearest neighbours.
+     * @return The records, nearest to the query point first.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static ArrayList<Record> reverseNearestNeighbours(RStarTree tree, ArrayList<Double> queryPoint, int k) {
+        ReverseNearestNeighboursQuery query = new ReverseNearestNeighboursQuery(tree, queryPoint, k);
+        query.filter();
+        ArrayList<Record> results = new ArrayList<>();
+        for (int c = 0; c < query.candidates.size(); c++) {
+            if (query.verify(c))
+                results.add(query.candidates.get(c));
+        }
+        return results;
+    }
+
+
+    /**
+     * Finds the records that have the {@code queryPoint} among their {@code k} nearest neighbours, verifying the
+     * candidates in parallel in the common {@link ForkJoinPool}.
+     *
+     * @param tree The {@link RStarTree} to search.
+     * @param queryPoint The query point.
+     * @param k The number of nearest neighbours.
+     * @return The records, nearest to the query point first.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static ArrayList<Record> parallelReverseNearestNeighbours(RStarTree tree, ArrayList<Double> queryPoint, int k) {
+        return parallelReverseNearestNeighbours(tree, queryPoint, k, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Finds the records that have the {@code queryPoint} among their {@code k} nearest neighbours. The filter step runs
+     * in the calling thread, and the candidates are verified by tasks of the {@code pool} of at most
+     * {@code PARALLEL_THRESHOLD_CANDIDATES} candidates. The workers read the tree through the {@link IndexSnapshot} bound
+     * to the calling thread, if any.
+     *
+     * @param tree The {@link RStarTree} to search.
+     * @param queryPoint The query point.
+     * @param k The number of nearest neighbours.
+     * @param pool The pool that runs the tasks.
+     * @return The records, nearest to the query point first.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     */
+
+
+    static ArrayList<Record> parallelReverseNearestNeighbours(RStarTree tree, ArrayList<Double> queryPoint, int k,
+                                                              ForkJoinPool pool) {
+        ReverseNearestNeighboursQuery query = new ReverseNearestNeighboursQuery(tree, queryPoint, k);
+        query.filter();
+        return pool.invoke(query.new VerifyTask(tree.getStore().currentSnapshot(), 0, query.candidates.size()));
+    }
+
+
+    /**
+     * A range of candidates of a parallel verification. The task binds the query's {@link IndexSnapshot} to the worker
+     * thread while it runs, and returns the verified candidates in their order.
+     */
+
+
+    private final class VerifyTask extends RecursiveTask<ArrayList<Record>> {
+        private final IndexSnapshot snapshot;
+        private final int from;
+        private final int to;
+
+        VerifyTask(IndexSnapshot snapshot, int from, int to) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ArrayList<Record> compute() {
+            if (to - from > PARALLEL_THRESHOLD_CANDIDATES) {
+                int middle = (from + to) >>> 1;
+                VerifyTask second = new VerifyTask(snapshot, middle, to);
+                second.fork();
+                ArrayList<Record> results = new VerifyTask(snapshot, from, middle).compute();
+                results.addAll(second.join());
+                return results;
+            }
+
+            IndexSnapshot previous = tree.getStore().bindSnapshot(snapshot);
+            try {
+                ArrayList<Record> results = new ArrayList<>();
+                for (int c = from; c < to; c++) {
+                    if (verify(c))
+                        results.add(candidates.get(c));
+                }
+                return results;
+            } finally {
+                tree.getStore().bindSnapshot(previous);
+            }
+        }
+    }
+
+
+    /**
+     * {@code filter} helper method, the filter step: browses the tree by distance from the query point, keeping the
+     * records that are not pruned by the candidates found before them as candidates.
+     */
+
+
+    private void filter() {
+        if (k == 0)
+            return;
+        PriorityQueue<QueueElement> queue = new PriorityQueue<>(
+                Comparator.comparingDouble((QueueElement element) -> element.distance)
+                        .thenComparing(element -> element.page == null)); // rows before entries at the same distance
+        ArrayList<Double> point = new ArrayList<>(queryPoint.length);
+        for (double coordinate : queryPoint)
+            point.add(coordinate);
+        addEntries(tree.getRootNode(), point, queue);
+
+        double[] squaredDistances = new double[0];
+        while (!queue.isEmpty()) {
+            QueueElement element = queue.poll();
+            if (element.page != null) {
+                double[] recordPoint = new double[queryPoint.length];
+                for (int d = 0; d < recordPoint.length; d++)
+                    recordPoint[d] = element.page.getColumn(d)[element.row];
+                if (isPruned(recordPoint, recordPoint)) {
+                    prunedPoints.add(recordPoint);
+                } else {
+                    candidates.add(element.page.getRecord(element.row));
+                    candidatePoints.add(recordPoint);
+                }
+                continue;
+            }
+
+            if (isPruned(lowerCorner(element.entry.getMBR()), upperCorner(element.entry.getMBR())))
+                continue;
+            if (element.node.getNodeLevelInTree() != RStarTree.getLeafLevel()) {
+                for (Node childNode : tree.readChildNodes(element.entry))
+                    addEntries(childNode, point, queue);
+                continue;
+            }
+
+            DataPage page = tree.readDataPage(((LeafEntry) element.entry).getDataBlockId());
+            if (page == null)
+                continue;
+            if (squaredDistances.length < page.size())
+                squaredDistances = new double[page.size()];
+            page.squaredDistances(queryPoint, squaredDistances);
+            for (int row = 0; row < page.size(); row++)
+                queue.add(new QueueElement(Math.sqrt(squaredDistances[row]), null, null, page, row));
+        }
+    }
+
+
+    /**
+     * {@code addEntries} helper method that queues the entries of a {@link Node} by the minimum distance of their
+     * {@link MBR}s from the query point.
+     *
+     * @param node The node
+     * @param point The query point
+     * @param queue The queue of the filter step
+     */
+
+
+    private void addEntries(Node node, ArrayList<Double> point, PriorityQueue<QueueElement> queue) {
+        for (Entry entry : node.getEntries())
+            queue.add(new QueueElement(entry.getMBR().findMinDistanceFromPoint(point), node, entry, null, -1));
+    }
+
+
+    /**
+     * {@code isPruned} helper method that checks if at least {@code k} candidates are nearer than the query point to
+     * every point of a box, i.e. if the box is inside the half-spaces of the bisectors on the side of {@code k}
+     * candidates.
+     *
+     * @param lower The lower corner of the box
+     * @param upper The upper corner of the box, the same as {@code lower} for a point
+     * @return {@code true} if the box is pruned, else {@code false}
+     */
+
+
+    private boolean isPruned(double[] lower, double[] upper) {
+        if (candidatePoints.size() < k)
+            return false;
+        int pruning = 0;
+        for (double[] candidate : candidatePoints) {
+            if (isOnCandidateSide(candidate, lower, upper) && ++pruning >= k)
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * {@code isOnCandidateSide} helper method that checks if a candidate is nearer than the query point to every point of
+     * a box. A point {@code x} is nearer to the candidate {@code c} than to the query point {@code q} when
+     * {@code 2 (q - c) . x < |q|^2 - |c|^2}, so the box is on the side of the candidate when the corner that maximizes the
+     * left side is.
+     *
+     * @param candidate The candidate
+     * @param lower The lower corner of the box
+     * @param upper The upper corner of the box
+     * @return {@code true} if the whole box is on the candidate's side of the bisector, else {@code false}
+     */
+
+
+    private boolean isOnCandidateSide(double[] candidate, double[] lower, double[] upper) {
+        double farthest = 0;
+        double bound = 0;
+        for (int d = 0; d < queryPoint.length; d++) {
+            double coefficient = 2 * (queryPoint[d] - candidate[d]);
+            farthest += coefficient * (coefficient > 0 ? upper[d] : lower[d]);
+            bound += queryPoint[d] * queryPoint[d] - candidate[d] * candidate[d];
+        }
+        return farthest < bound;
+    }
+
+
+    /**
+     * {@code verify} helper method, the refinement step of one candidate: checks that fewer than {@code k} other records
+     * are nearer to the candidate than the query point. The other candidates and the pruned records are counted first,
+     * and the tree is only browsed from the candidate if they are not enough to reject it.
+     *
+     * @param c The index of the candidate
+     * @return {@code true} if the candidate has the query point among its {@code k} nearest neighbours, else {@code false}
+     */
+
+
+    private boolean verify(int c) {
+        double[] candidate = candidatePoints.get(c);
+        double squaredQueryDistance = squaredDistance(candidate, queryPoint);
+        int nearer = 0;
+        for (int o = 0; o < candidatePoints.size(); o++) {
+            if (o != c && squaredDistance(candidate, candidatePoints.get(o)) < squaredQueryDistance && ++nearer >= k)
+                return false;
+        }
+        for (double[] pruned : prunedPoints) {
+            if (squaredDistance(candidate, pruned) < squaredQueryDistance && ++nearer >= k)
+                return false;
+        }
+
+        Record record = candidates.get(c);
+        double queryDistance = Math.sqrt(squaredQueryDistance);
+        nearer = 0;
+        Iterator<RecordDistancePair> neighbours = new NearestNeighboursIterator(tree, tree.getRootNode(), record.getCoordinates());
+        while (neighbours.hasNext()) {
+            RecordDistancePair neighbour = neighbours.next();
+            if (neighbour.getDistance() >= queryDistance)
+                return true;
+            if (neighbour.getRecord().getRecordID() != record.getRecordID() && ++nearer >= k)
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * {@code squaredDistance} helper method that returns the squared distance of two points.
+     *
+     * @param a The first point
+     * @param b The second point
+     * @return The squared distance
+     */
+
+
+    private static double squaredDistance(double[] a, double[] b) {
+        double distance = 0;
+        for (int d = 0; d < a.length; d++)
+            distance += (a[d] - b[d]) * (a[d] - b[d]);
+        return distance;
+    }
+
+
+    /**
+     * {@code lowerCorner} helper method that returns the lower corner of an {@link MBR}.
+     *
+     * @param mbr The {@link MBR}
+     * @return The lower bound in every dimension
+     */
+
+
+    private static double[] lowerCorner(MBR mbr) {
+        List<Bounds> bounds = mbr.getBounds();
+        double[] corner = new double[bounds.size()];
+        for (int d = 0; d < corner.length; d++)
+            corner[d] = bounds.get(d).getLower();
+        return corner;
+    }
+
+
+    /**
+     * {@code upperCorner} helper method that returns the upper corner of an {@link MBR}.
+     *
+     * @param mbr The {@link MBR}
+     * @return The upper bound in every dimension
+     */
+
+
+    private static double[] upperCorner(MBR mbr) {
+        List<Bounds> bounds = mbr.getBounds();
+        double[] corner = new double[bounds.size()];
+        for (int d = 0; d < corner.length; d++)
+            corner[d] = bounds.get(d).getUpper();
+        return corner;
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.Arrays;
+
+
+/**
+ *
+ *
+ * Class {@link ScalarCoordinateKernels} is the plain Java implementation of the {@link CoordinateKernels}, used when the
+ * Vector API is not available and for the tails of the {@link VectorCoordinateKernels} loops.
+ *
+ *
+ */
+
+
+class ScalarCoordinateKernels implements CoordinateKernels {
+
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The first column selects its matching rows, and every next column only checks the rows still selected.
+     */
+
+
+    @Override
+    public int selectInRange(double[][] columns, int rows, double[] lower, double[] upper, int[] selection) {
+        if (columns.length == 0) {
+            for (int row = 0; row < rows; row++)
+                selection[row] = row;
+            return rows;
+        }
+
+        int selected = 0;
+        double[] column = columns[0];
+        double min = lower[0];
+        double max = upper[0];
+        for (int row = 0; row < rows; row++) {
+            double value = column[row];
+            if (!(value < min || value > max))
+                selection[selected++] = row;
+        }
+        return refineInRange(columns, lower, upper, selection, selected);
+    }
+
+
+    /**
+     * {@code refineInRange} helper method that keeps the selected rows whose coordinates are within the bounds in every
+     * dimension after the first.
+     *
+     * @param columns The coordinate columns
+     * @param lower The lower bound of every dimension
+     * @param upper The upper bound of every dimension
+     * @param selection The rows within the bounds of the first dimension, receives the rows that are kept
+     * @param selected The number of selected rows
+     * @return The number of rows kept
+     */
+
+
+    static int refineInRange(double[][] columns, double[] lower, double[] upper, int[] selection, int selected) {
+        for (int d = 1; d < columns.length && selected > 0; d++) {
+            double[] column = columns[d];
+            double min = lower[d];
+            double max = upper[d];
+            int kept = 0;
+            for (int i = 0; i < selected; i++) {
+                int row = selection[i];
+                double value = column[row];
+                if (!(value < min || value > max))
+                    selection[kept++] = row;
+            }
+            selected = kept;
+        }
+        return selected;
+    }
+
+
+    @Override
+    public void squaredDistances(double[][] columns, int rows, double[] point, double[] distances) {
+        sumSquaredDistances(columns, rows, point, distances);
+    }
+
+
+    /**
+     * {@code sumSquaredDistances} helper method that adds up the squared differences of every column, one column after
+     * the other. The JIT vectorizes its inner loop, so {@link VectorCoordinateKernels} uses it too.
+     *
+     * @param columns The coordinate columns
+     * @param rows The number of rows
+     * @param point The point, with a coordinate for every column
+     * @param distances Receives the squared distance of every row from the point, at least {@code rows} long
+     */
+
+
+    static void sumSquaredDistances(double[][] columns, int rows, double[] point, double[] distances) {
+        Arrays.fill(distances, 0, rows, 0.0);
+        for (int d = 0; d < columns.length; d++) {
+            double[] column = columns[d];
+            double coordinate = point[d];
+            for (int row = 0; row < rows; row++) {
+                double diff = column[row] - coordinate;
+                distances[row] += diff * diff;
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isDominated(double[][] columns, int rows, double[] point) {
+        return isDominated(columns, 0, rows, point);
+    }
+
+
+    /**
+     * {@code isDominated} kernel over a range of rows, used for the tail of the vectorized loop.
+     *
+     * @param columns The coordinate columns
+     * @param from The first row
+     * @param to The row after the last one
+     * @param point The point, with a coordinate for every column
+     * @return {@code true} if a row of the range dominates the point, else {@code false}
+     */
+
+
+    static boolean isDominated(double[][] columns, int from, int to, double[] point) {
+        for (int row = from; row < to; row++) {
+            if (dominates(columns, row, point))
+                return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    public int selectDominatedBy(double[][] columns, int rows, double[] point, int[] selection) {
+        return selectDominatedBy(columns, 0, rows, point, selection, 0);
+    }
+
+
+    /**
+     * {@code selectDominatedBy} kernel over a range of rows, used for the tail of the vectorized loop.
+     *
+     * @param columns The coordinate columns
+     * @param from The first row
+     * @param to The row after the last one
+     * @param point The point, with a coordinate for every column
+     * @param selection Receives the dominated rows in row order
+     * @param selected The number of rows already in the selection
+     * @return The number of rows in the selection
+     */
+
+
+    static int selectDominatedBy(double[][] columns, int from, int to, double[] point, int[] selection, int selected) {
+        for (int row = from; row < to; row++) {
+            boolean strictlyBetterInOne = false;
+            boolean dominated = true;
+            for (int d = 0; d < columns.length; d++) {
+                double value = columns[d][row];
+                if (point[d] > value) {
+                    dominated = false;
+                    break;
+                } else if (point[d] < value) {
+                    strictlyBetterInOne = true;
+                }
+            }
+            if (dominated && strictlyBetterInOne)
+                selection[selected++] = row;
+        }
+        return selected;
+    }
+
+
+    /**
+     * {@code dominates} helper method that checks whether a row dominates a point.
+     *
+     * @param columns The coordinate columns
+     * @param row The row
+     * @param point The point
+     * @return {@code true} if the row dominates the point, else {@code false}
+     */
+
+
+    private static boolean dominates(double[][] columns, int row, double[] point) {
+        boolean strictlyBetterInOne = false;
+        for (int d = 0; d < columns.length; d++) {
+            double value = columns[d][row];
+            if (value > point[d]) {
+                return false;
+            } else if (value < point[d]) {
+                strictlyBetterInOne = true;
+            }
+        }
+        return strictlyBetterInOne;
+    }
+}
@@ -0,0 +1,370 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+
+/**
+ * {@code SpatialJoin} class joins the records of two {@link RStarTree}s with the synchronized traversal of Brinkhoff,
+ * Kriegel and Seeger: the pairs of records whose distance is at most {@code epsilon}, or which intersect when
+ * {@code epsilon} is 0.
+ * <p>
+ * Both trees are traversed together from their roots. For every pair of nodes, only the entries that are within
+ * {@code epsilon} of the other node's {@link MBR} are kept, and they are paired with a plane sweep along the first
+ * dimension, so an entry is only compared with the entries of the other node whose first dimension bounds are within
+ * {@code epsilon} of its own. A pair of inner entries is joined by joining their child nodes, and when the trees have a
+ * different height the deeper tree is descended alone until the levels meet. A pair of leaf entries is joined by reading
+ * both data blocks once, selecting the rows of each block that are within {@code epsilon} of the other block, and
+ * comparing their distances with the coordinate kernels of {@link DataPage}.
+ * <p>
+ * The pairs are handed to a consumer as soon as they are found, so the join never keeps its results in memory. Every
+ * pair of records is found once. The join can also run in parallel, over the pairs of subtrees that the synchronized
+ * traversal finds near the roots.
+ */
+
+
+class SpatialJoin {
+    /**
+     * The level down to which a parallel join splits its pairs of subtrees into tasks, the pairs of nodes at or below it
+     * are joined by one task
+     */
+    static final int PARALLEL_JOIN_LEVEL = 2;
+
+    /** The left tree */
+    private final RStarTree left;
+
+    /** The right tree */
+    private final RStarTree right;
+
+    /** The largest distance of a joined pair */
+    private final double epsilon;
+
+    /** Receives the joined pairs */
+    private final BiConsumer<Record, Record> consumer;
+
+
+    /**
+     * {@link SpatialJoin} constructor.
+     *
+     * @param left The left tree
+     * @param right The right tree
+     * @param epsilon The largest distance of a joined pair
+     * @param consumer Receives the joined pairs
+     */
+
+
+    private SpatialJoin(RStarTree left, RStarTree right, double epsilon, BiConsumer<Record, Record> consumer) {
+        if (epsilon < 0)
+            throw new IllegalArgumentException("The join distance must not be negative.");
+        this.left = left;
+        this.right = right;
+        this.epsilon = epsilon;
+        this.consumer = consumer;
+    }
+
+
+    /**
+     * Joins the records of two trees: hands every pair of a left and a right {@link Record} whose distance is at most
+     * {@code epsilon} to the {@code consumer}, as soon as it is found.
+     *
+     * @param left The left {@link RStarTree}.
+     * @param right The right {@link RStarTree}, which may be the {@code left} one.
+     * @param epsilon The largest distance of a joined pair, 0 to join the records that intersect.
+     * @param consumer Receives the left and the right {@link Record} of every joined pair.
+     * @throws IllegalArgumentException if {@code epsilon} is negative.
+     */
+
+
+    static void join(RStarTree left, RStarTree right, double epsilon, BiConsumer<Record, Record> consumer) {
+        SpatialJoin join = new SpatialJoin(left, right, epsilon, consumer);
+        join.joinNodes(left.getRootNode(), right.getRootNode());
+    }
+
+
+    /**
+     * Joins the records of two trees in parallel in the common {@link ForkJoinPool}, see
+     * {@link #parallelJoin(RStarTree, RStarTree, double, BiConsumer, ForkJoinPool)}.
+     *
+     * @param left The left {@link RStarTree}.
+     * @param right The right {@link RStarTree}, which may be the {@code left} one.
+     * @param epsilon The largest distance of a joined pair, 0 to join the records that intersect.
+     * @param consumer Receives the left and the right {@link Record} of every joined pair, from several threads.
+     * @throws IllegalArgumentException if {@code epsilon} is negative.
+     */
+
+
+    static void parallelJoin(RStarTree left, RStarTree right, double epsilon, BiConsumer<Record, Record> consumer) {
+        parallelJoin(left, right, epsilon, consumer, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Joins the records of two trees in parallel. The pairs of subtrees found by the synchronized traversal are joined
+     * by separate tasks of the {@code pool}, down to the pairs of nodes at {@code PARALLEL_JOIN_LEVEL}. The workers read
+     * the trees through the {@link IndexSnapshot}s bound to the calling thread, if any.
+     * <p>The pairs are the same as the ones of {@link #join}, in no particular order, and the {@code consumer} is called
+     * from several threads at the same time, so it must be thread-safe.
+     *
+     * @param left The left {@link RStarTree}.
+     * @param right The right {@link RStarTree}, which may be the {@code left} one.
+     * @param epsilon The largest distance of a joined pair, 0 to join the records that intersect.
+     * @param consumer Receives the left and the right {@link Record} of every joined pair, from several threads.
+     * @param pool The pool that runs the tasks.
+     * @throws IllegalArgumentException if {@code epsilon} is negative.
+     */
+
+
+    static void parallelJoin(RStarTree left, RStarTree right, double epsilon, BiConsumer<Record, Record> consumer,
+                             ForkJoinPool pool) {
+        SpatialJoin join = new SpatialJoin(left, right, epsilon, consumer);
+        pool.invoke(join.new JoinTask(left.getStore().currentSnapshot(), right.getStore().currentSnapshot(),
+                left.getRootNode(), right.getRootNode()));
+    }
+
+
+    /**
+     * A pair of subtrees of a parallel join. The task binds the join's {@link IndexSnapshot}s to the worker thread while
+     * it runs.
+     */
+
+
+    private final class JoinTask extends RecursiveAction {
+        private final IndexSnapshot leftSnapshot;
+        private final IndexSnapshot rightSnapshot;
+        private final Node leftNode;
+        private final Node rightNode;
+
+        JoinTask(IndexSnapshot leftSnapshot, IndexSnapshot rightSnapshot, Node leftNode, Node rightNode) {
+            this.leftSnapshot = leftSnapshot;
+            this.rightSnapshot = rightSnapshot;
+            this.leftNode = leftNode;
+            this.rightNode = rightNode;
+        }
+
+        @Override
+        protected void compute() {
+            IndexSnapshot previousLeft = left.getStore().bindSnapshot(leftSnapshot);
+            IndexSnapshot previousRight = right.getStore().bindSnapshot(rightSnapshot);
+            try {
+                if (Math.max(leftNode.getNodeLevelInTree(), rightNode.getNodeLevelInTree()) <= PARALLEL_JOIN_LEVEL) {
+                    joinNodes(leftNode, rightNode);
+                    return;
+                }
+                ArrayList<JoinTask> subtasks = new ArrayList<>();
+                for (Node[] pair : childPairs(leftNode, rightNode))
+                    subtasks.add(new JoinTask(leftSnapshot, rightSnapshot, pair[0], pair[1]));
+                invokeAll(subtasks);
+            } finally {
+                right.getStore().bindSnapshot(previousRight);
+                left.getStore().bindSnapshot(previousLeft);
+            }
+        }
+    }
+
+
+    /**
+     * {@code joinNodes} helper method that joins the subtrees of a left and a right {@link Node}.
+     *
+     * @param leftNode The left node
+     * @param rightNode The right node
+     */
+
+
+    private void joinNodes(Node leftNode, Node rightNode) {
+        if (leftNode.getNodeLevelInTree() == RStarTree.getLeafLevel()
+                && rightNode.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
+            List<Entry> leftEntries = entriesNear(left, leftNode, rightNode.getMBR());
+            List<Entry> rightEntries = entriesNear(right, rightNode, leftNode.getMBR());
+            sweep(leftEntries, rightEntries, (leftEntry, rightEntry) ->
+                    joinDataBlocks((LeafEntry) leftEntry, (LeafEntry) rightEntry));
+            return;
+        }
+        for (Node[] pair : childPairs(leftNode, rightNode))
+            joinNodes(pair[0], pair[1]);
+    }
+
+
+    /**
+     * {@code childPairs} helper method that finds the pairs of nodes one level down the synchronized traversal of a left
+     * and a right {@link Node} that are not both leaves. When one node is higher in its tree than the other, only its
+     * children are paired with the other node.
+     *
+     * @param leftNode The left node
+     * @param rightNode The right node
+     * @return The pairs of the left and the right node to join
+     */
+
+
+    private List<Node[]> childPairs(Node leftNode, Node rightNode) {
+        ArrayList<Node[]> pairs = new ArrayList<>();
+        int leftLevel = leftNode.getNodeLevelInTree();
+        int rightLevel = rightNode.getNodeLevelInTree();
+        if (leftLevel > rightLevel) {
+            for (Entry leftEntry : entriesNear(left, leftNode, rightNode.getMBR())) {
+                for (Node leftChild : left.readChildNodes(leftEntry))
+                    pairs.add(new Node[]{leftChild, rightNode});
+            }
+        } else if (rightLevel > leftLevel) {
+            for (Entry rightEntry : entriesNear(right, rightNode, leftNode.getMBR())) {
+                for (Node rightChild : right.readChildNodes(rightEntry))
+                    pairs.add(new Node[]{leftNode, rightChild});
+            }
+        } else {
+            List<Entry> leftEntries = entriesNear(left, leftNode, rightNode.getMBR());
+            List<Entry> rightEntries = entriesNear(right, rightNode, leftNode.getMBR());
+            sweep(leftEntries, rightEntries, (leftEntry, rightEntry) -> {
+                for (Node leftChild : left.readChildNodes(leftEntry)) {
+                    for (Node rightChild : right.readChildNodes(rightEntry))
+                        pairs.add(new Node[]{leftChild, rightChild});
+                }
+            });
+        }
+        return pairs;
+    }
+
+
+    /**
+     * {@code entriesNear} helper method that restricts the entries of a {@link Node} to the ones within {@code epsilon}
+     * of the other node's {@link MBR}, and prefetches their blocks in block id order.
+     *
+     * @param tree The tree of the node
+     * @param node The node
+     * @param otherMBR The {@link MBR} of the other node
+     * @return The entries within {@code epsilon} of {@code otherMBR}
+     */
+
+
+    private List<Entry> entriesNear(RStarTree tree, Node node, MBR otherMBR) {
+        ArrayList<Entry> near = new ArrayList<>();
+        if (otherMBR == null)
+            return near;
+        for (Entry entry : node.getEntries()) {
+            if (MBR.findMinDistanceBetweenMBRs(entry.getMBR(), otherMBR) <= epsilon)
+                near.add(entry);
+        }
+        tree.prefetchChildren(node, near, true);
+        return near;
+    }
+
+
+    /**
+     * {@code sweep} helper method that pairs the left and the right entries within {@code epsilon} of each other with a
+     * plane sweep along the first dimension. The entries are sorted by their lower bound, and the entry with the smaller
+     * lower bound is compared with the entries of the other side until their lower bound is farther than {@code epsilon}
+     * from its upper bound, so every pair is found once.
+     *
+     * @param leftEntries The left entries
+     * @param rightEntries The right entries
+     * @param onPair Receives every pair of a left and a right entry within {@code epsilon} of each other
+     */
+
+
+    private void sweep(List<Entry> leftEntries, List<Entry> rightEntries, BiConsumer<Entry, Entry> onPair) {
+        Comparator<Entry> byLowerBound = Comparator.comparingDouble(SpatialJoin::lowerBound);
+        leftEntries.sort(byLowerBound);
+        rightEntries.sort(byLowerBound);
+
+        int i = 0;
+        int j = 0;
+        while (i < leftEntries.size() && j < rightEntries.size()) {
+            Entry leftEntry = leftEntries.get(i);
+            Entry rightEntry = rightEntries.get(j);
+            if (lowerBound(leftEntry) <= lowerBound(rightEntry)) {
+                double end = leftEntry.getMBR().getBounds().getFirst().getUpper() + epsilon;
+                for (int k = j; k < rightEntries.size() && lowerBound(rightEntries.get(k)) <= end; k++) {
+                    if (MBR.findMinDistanceBetweenMBRs(leftEntry.getMBR(), rightEntries.get(k).getMBR()) <= epsilon)
+                        onPair.accept(leftEntry, rightEntries.get(k));
+                }
+                i++;
+            } else {
+                double end = rightEntry.getMBR().getBounds().getFirst().getUpper() + epsilon;
+                for (int k = i; k < leftEntries.size() && lowerBound(leftEntries.get(k)) <= end; k++) {
+                    if (MBR.findMinDistanceBetweenMBRs(leftEntries.get(k).getMBR(), rightEntry.getMBR()) <= epsilon)
+                        onPair.accept(leftEntries.get(k), rightEntry);
+                }
+                j++;
+            }
+        }
+    }
+
+
+    /**
+     * {@code lowerBound} helper method that returns the lower bound of an entry in the first dimension.
+     *
+     * @param entry The entry
+     * @return The lower bound
+     */
+
+
+    private static double lowerBound(Entry entry) {
+        return entry.getMBR().getBounds().getFirst().getLower();
+    }
+
+
+    /**
+     * {@code joinDataBlocks} helper method that joins the records of a left and a right data block. The rows of each
+     * block within {@code epsilon} of the other block's {@link MBR} are selected over its coordinate columns, and the
+     * distances of every selected left row from the rows of the right block are computed at once.
+     *
+     * @param leftEntry The {@link LeafEntry} of the left data block
+     * @param rightEntry The {@link LeafEntry} of the right data block
+     */
+
+
+    private void joinDataBlocks(LeafEntry leftEntry, LeafEntry rightEntry) {
+        DataPage leftPage = left.readDataPage(leftEntry.getDataBlockId());
+        DataPage rightPage = right.readDataPage(rightEntry.getDataBlockId());
+        if (leftPage == null || rightPage == null)
+            return;
+
+        int[] leftRows = new int[leftPage.size()];
+        int leftSelected = selectNear(leftPage, rightEntry.getMBR(), leftRows);
+        int[] rightRows = new int[rightPage.size()];
+        int rightSelected = selectNear(rightPage, leftEntry.getMBR(), rightRows);
+        if (leftSelected == 0 || rightSelected == 0)
+            return;
+
+        double squaredEpsilon = epsilon * epsilon;
+        double[] point = new double[leftPage.getDimensions()];
+        double[] squaredDistances = new double[rightPage.size()];
+        for (int l = 0; l < leftSelected; l++) {
+            int leftRow = leftRows[l];
+            for (int d = 0; d < point.length; d++)
+                point[d] = leftPage.getColumn(d)[leftRow];
+            rightPage.squaredDistances(point, squaredDistances);
+            Record leftRecord = null;
+            for (int r = 0; r < rightSelected; r++) {
+                int rightRow = rightRows[r];
+                if (squaredDistances[rightRow] <= squaredEpsilon) {
+                    if (leftRecord == null)
+                        leftRecord = leftPage.getRecord(leftRow);
+                    consumer.accept(leftRecord, rightPage.getRecord(rightRow));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@code selectNear} helper method that selects the rows of a {@link DataPage} within {@code epsilon} of an
+     * {@link MBR} in every dimension.
+     *
+     * @param page The page
+     * @param mbr The {@link MBR}
+     * @param selection Receives the selected rows
+     * @return The number of selected rows
+     */
+
+
+    private int selectNear(DataPage page, MBR mbr, int[] selection) {
+        double[] lower = mbr.getLowerCorner();
+        double[] upper = mbr.getUpperCorner();
+        for (int d = 0; d < lower.length; d++) {
+            lower[d] -= epsilon;
+            upper[d] += epsilon;
+        }
+        return page.selectInRange(lower, upper, selection);
+    }
+}
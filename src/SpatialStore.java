@@ -0,0 +1,2656 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+import java.util.zip.CRC32C;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ *
+ * Class {@code SpatialStore} that organizes and executes all I/O and File operations of one spatial index in Memory.
+ * <p></p> Uses buffer in RAM that flushes after creation to limit I/O times. <p> All files are serialized to .dat files in
+ * the store's directory, and raw data that is used is accepted in csv format.
+ * <p><p>
+ * {@code datafile}: The serialized Records data from Raw CSV file format TO bytes in .dat <p>
+ * {@code indexfile}: The serialized classes and objects of the R*Tree that points to blocks in the datafile
+ * <p><p>
+ * Every store has its own files, block size, buffer pools, latches, metadata and {@link IndexSnapshot} versions, so
+ * several independent indexes can be opened and queried in the same JVM without sharing any state or memory budget.
+ * <p>
+ * Read methods are thread-safe. Deserialized blocks are kept in two shared {@link BufferPool}s, one for each file, so
+ * queries running in parallel do not read and deserialize the same blocks again and again. Concurrent writers protect
+ * the read-modify-write of a data block with its {@link #getDataBlockLatch}, and change index nodes only while holding
+ * their {@link NodeLatches} latch.
+ * <p>
+ * Index blocks are changed copy-on-write: writers change private copies in the {@code indexBuffer}, and
+ * {@link #flushIndexBufferToDisk} commits them as a new version of the index, together with the data blocks changed
+ * since the last commit. The images that open {@link IndexSnapshot}s still read are kept in {@link PageVersions}, and
+ * {@link #rollbackUpdates} discards every change since the last commit.
+ * <p>
+ * Changed data blocks are also kept in memory, in the {@code dataBuffer}, until they are committed, so the files only
+ * ever hold committed blocks. A commit appends the images of its blocks to the {@link WriteAheadLog} in one sequential
+ * write, and is durable once the log is forced, see {@link #awaitDurable}. The committed blocks are written in the files
+ * later by a {@link #checkpoint}, and the commits logged after the last checkpoint are replayed when the store is
+ * opened again after a crash.
+ * <p>
+ * Data blocks are kept in memory as columnar {@link DataPage}s, whose packed coordinate columns queries filter without
+ * building a {@link Record} per row. In the datafile they are written in the {@link DataPageFormat} the datafile was
+ * created with: Java-serialized, in the same columnar layout, or compressed with {@link CompressedDataPage}, which fits
+ * several times more records in a block and so reads fewer blocks per scan.
+ * <p>
+ * Every block ends with a CRC32C checksum of its content, which is verified when the block is read from the file, unless
+ * turned off with {@link #setVerifyChecksums}. A torn or corrupted block fails with an {@link IllegalStateException}
+ * instead of being read as an empty block, and {@link StoreChecker} verifies whole files.
+ * <p>
+ * A {@link WriteBehindFlusher} thread forces the log and writes the committed blocks in the files in the background, so
+ * every commit chooses its {@link Durability}: to return at once, after the log is forced, or after its blocks are in the
+ * files.
+ *
+ */
+
+
+class SpatialStore {
+    /**
+     * When a commit returns, compared to the moment its blocks reach the disk.
+     */
+
+
+    enum Durability {
+        /** Returns once the commit is in the log, which the {@link WriteBehindFlusher} forces within its interval */
+        ASYNC,
+        /** Returns once the log is forced, sharing the {@code fsync} with the commits that wait at the same time */
+        SYNC,
+        /** Returns once the {@link WriteBehindFlusher} wrote and forced the commit's blocks in the files */
+        CHECKPOINT
+    }
+
+
+    /**
+     * How the data blocks are encoded in the datafile, written in the datafile's metadata. Blocks start with a different
+     * byte in every format, so they are read whatever the format of the datafile.
+     */
+
+
+    enum DataPageFormat {
+        /** A Java-serialized {@link ArrayList} of {@link Record} */
+        SERIALIZED,
+        /** Columnar and compressed, see {@link CompressedDataPage} */
+        COMPRESSED,
+        /** Columnar and uncompressed, read without decoding the names, see {@link DataPage} */
+        COLUMNAR
+    }
+
+
+    /** Directory of the files used by {@link Main} */
+    static final String DEFAULT_DIRECTORY = "src/resources";
+
+    /** Default Block Size in Memory = 32KB*/
+    static final int DEFAULT_BLOCK_SIZE = 32 * 1024;
+
+    /** Default maximum amount of deserialized index blocks kept in the {@code indexPagePool} */
+    static final int DEFAULT_INDEX_POOL_CAPACITY = 1024;
+
+    /** Default maximum amount of deserialized data blocks kept in the {@code dataPagePool} */
+    static final int DEFAULT_DATA_POOL_CAPACITY = 4096;
+
+    /** Nodes that fit in an {@link IndexBlock} of {@code DEFAULT_BLOCK_SIZE} */
+    private static final int NODES_PER_DEFAULT_BLOCK = 40;
+
+    /** Bytes at the end of every block that hold the CRC32C checksum of the rest of the block */
+    static final int PAGE_CHECKSUM_SIZE = 4;
+
+    /** First field of the metadata blocks of the files with checksums, which older files start with their dimensions */
+    private static final int METADATA_FORMAT_MARKER = 0x53545232;
+
+    /** The log is checkpointed when it holds more than this many blocks */
+    private static final int CHECKPOINT_LOG_BLOCKS = 1024;
+
+    /** The most blocks that one coalesced read covers, gaps included */
+    static final int MAX_COALESCED_BLOCKS = 32;
+
+    /** The most unneeded blocks that a coalesced read covers to join two runs of needed blocks */
+    static final int MAX_COALESCING_GAP_BLOCKS = 2;
+
+    /** Number of latches that the data blocks are striped over */
+    private static final int DATA_BLOCK_LATCHES = 64;
+
+    /** The directory of the store's files */
+    private final String directory;
+
+    /** Path to the Raw CSV data file */
+    private final String pathToCsv;
+
+    /** Path to the DataFile */
+    private final String pathToDataFile;
+
+    /** Path to the Indexfile */
+    private final String pathToIndexFile;
+
+    /** Block Size of both files */
+    private final int blockSize;
+
+    /** Maximum amount of entries in a {@link Node} (M of the R*-tree), scaled to the block size */
+    private final int maxEntriesInNode;
+
+    /** Maximum amount of nodes in an {@link IndexBlock}, scaled to the block size and to the nodes' entries */
+    private final int maxNodesInIndexBlock;
+
+    /** User given data Dimensions (given csv file is 2 dimensional) */
+    private int dataDimensions;
+
+    /** The total blocks in the datafile, written in metadata block 0 */
+    private volatile int totalBlocksInDataFile;
+
+    /** The total Blocks in the Indexfile, written in the MetaData Block 0 */
+    private volatile int totalBlocksInIndexFile; //
+
+    /** The total levels of the tree , written in the MetaData Block 0.*/
+    private volatile int totalLevelsOfTreeIndex;
+
+    /** Latches for the read-modify-write of data blocks, block {@code i} uses latch {@code i % DATA_BLOCK_LATCHES} */
+    private final ReentrantLock[] dataBlockLatches = new ReentrantLock[DATA_BLOCK_LATCHES];
+
+    /** Latches of the index nodes */
+    private final NodeLatches nodeLatches;
+
+    /** Cached result of {@link #calculateMaxRecordsInBlock} */
+    private int maxRecordsInBlock;
+
+    /** The data dimensions that {@code maxRecordsInBlock} was calculated for, -1 if not calculated yet */
+    private volatile int maxRecordsInBlockDimensions = -1;
+
+    /** Serializes commits, rollbacks and checkpoints */
+    private final Object commitLock = new Object();
+
+    /** Serializes {@link #appendRecordToDataBlock}, kept apart from the store lock used when allocating index blocks */
+    private final Object dataFileAppendLock = new Object();
+
+    /** Index Buffer of BlockId's and IndexBlocks.*/
+    private final Map<Long, IndexBlock> indexBuffer = new ConcurrentHashMap<>();
+
+    /** The indexes of the nodes changed since the last commit, by the id of their block in the {@code indexBuffer} */
+    private final Map<Long, BitSet> dirtyIndexNodes = new ConcurrentHashMap<>();
+
+    /** Data blocks changed or appended since the last commit */
+    private final Map<Long, DataPage> dataBuffer = new ConcurrentHashMap<>();
+
+    /** Images of the committed data blocks that are in the log but not yet written in the datafile */
+    private final Map<Long, byte[]> unflushedDataPages = new ConcurrentHashMap<>();
+
+    /** Images of the committed index blocks that are in the log but not yet written in the indexfile */
+    private final Map<Long, byte[]> unflushedIndexPages = new ConcurrentHashMap<>();
+
+    /** The redo log of the commits since the last checkpoint */
+    private final WriteAheadLog writeAheadLog;
+
+    /** Background thread that writes the committed blocks of the log in the files */
+    private final WriteBehindFlusher flusher = new WriteBehindFlusher(this, WriteBehindFlusher.DEFAULT_FLUSH_INTERVAL_MILLIS);
+
+    /** Serializes the passes of the {@code flusher} and checkpoints, taken before the {@code commitLock} */
+    private final Object flushLock = new Object();
+
+    /** The format of the data blocks, written in the datafile's metadata */
+    private volatile DataPageFormat dataPageFormat = DataPageFormat.SERIALIZED;
+
+    /** Whether the checksum of a block is verified when the block is read from the file */
+    private volatile boolean verifyChecksums = true;
+
+    /** The durability of the commits that do not choose one */
+    private volatile Durability durability = Durability.SYNC;
+
+    /** The log sequence number of the last commit, guarded by the {@code commitLock} */
+    private long lastCommitLsn;
+
+    /** Total block changes made by writers, counting every change of the same block */
+    private final LongAdder logicalPageWrites = new LongAdder();
+
+    /** Total block images appended to the {@link WriteAheadLog} by commits */
+    private final LongAdder loggedPageWrites = new LongAdder();
+
+    /** Total block images written at their place in the files */
+    private final LongAdder physicalPageWrites = new LongAdder();
+
+    /** Total blocks read from the datafile and the indexfile, without the gaps of coalesced reads */
+    private final LongAdder physicalPageReads = new LongAdder();
+
+    /** Total blocks read only to fill the gaps of coalesced reads and dropped */
+    private final LongAdder gapPageReads = new LongAdder();
+
+    /** Total reads issued to the datafile and the indexfile, one for every run of a coalesced read */
+    private final LongAdder fileReads = new LongAdder();
+
+    /** Total changed nodes in the index blocks logged by commits */
+    private final LongAdder committedDirtyNodes = new LongAdder();
+
+    /** Shared pool of index blocks that are already written in the indexfile */
+    private final BufferPool<IndexBlock> indexPagePool;
+
+    /** Shared pool of decoded data blocks */
+    private final BufferPool<DataPage> dataPagePool;
+
+    /** Background I/O threads that load blocks into the pools ahead of the queries */
+    private final BlockPrefetcher prefetcher;
+
+    /** Whether queries prefetch the blocks they are about to read, off by default, see {@link #setPrefetching} */
+    private volatile boolean prefetching;
+
+    /** Whether the loads of many blocks use coalesced reads, else the blocks are read one by one when they are needed */
+    private volatile boolean coalescingReads = true;
+
+    /** Latency added to every read of the datafile and the indexfile, to simulate a slower device in benchmarks */
+    private volatile long readLatencyNanos;
+
+    /** Older images of the committed index blocks, read by open {@link IndexSnapshot}s */
+    private final PageVersions<IndexBlock> indexVersions = new PageVersions<>();
+
+    /** Older images of the committed data blocks, read by open {@link IndexSnapshot}s */
+    private final PageVersions<DataPage> dataVersions = new PageVersions<>();
+
+    /** The total blocks in the datafile at the last commit */
+    private volatile int committedTotalBlocksInDataFile;
+
+    /** The total blocks in the indexfile at the last commit */
+    private int committedTotalBlocksInIndexFile;
+
+    /** The total levels of the tree at the last commit */
+    private int committedLevelsOfTreeIndex;
+
+    /** The number of committed blocks of the indexfile, including the metadata block */
+    private long committedIndexBlocks = 1;
+
+    /** The current {@link IndexBlock} that is being written on*/
+    private IndexBlock currentIndexBlock;
+
+    /** Writing starts in block 1, block 0 is metadata */
+    private long currentBlockId = 1;
+
+    /** The snapshot bound to each thread */
+    private final ThreadLocal<IndexSnapshot> boundSnapshot = new ThreadLocal<>();
+
+    /** The open snapshots per version, guarded by {@code snapshotLock} */
+    private final TreeMap<Long, Integer> pinnedVersions = new TreeMap<>();
+
+    /** Guards the snapshot registry */
+    private final Object snapshotLock = new Object();
+
+    /** The version of the last commit */
+    private long committedVersion = 0;
+
+    /** The total levels of the tree at the last commit */
+    private int committedLevels = 1;
+
+
+    /**
+     * {@link SpatialStore} constructor with the default block size and buffer pool capacities.
+     *
+     * @param directory The directory of the {@code data.csv}, {@code datafile.dat} and {@code indexfile.dat} files
+     */
+
+
+    SpatialStore(String directory) {
+        this(directory, DEFAULT_BLOCK_SIZE, DEFAULT_INDEX_POOL_CAPACITY, DEFAULT_DATA_POOL_CAPACITY);
+    }
+
+
+    /**
+     * {@link SpatialStore} constructor. Nothing is read until {@link #initializeDataFile} and {@link #initializeIndexFile}
+     * are called.
+     *
+     * @param directory The directory of the {@code data.csv}, {@code datafile.dat} and {@code indexfile.dat} files
+     * @param blockSize The block size of both files in bytes, must match the block size of existing files
+     * @param indexPoolCapacity Maximum amount of deserialized index blocks kept in memory
+     * @param dataPoolCapacity Maximum amount of deserialized data blocks kept in memory
+     */
+
+
+    SpatialStore(String directory, int blockSize, int indexPoolCapacity, int dataPoolCapacity) {
+        this.directory = directory;
+        this.pathToCsv = Paths.get(directory, "data.csv").toString();
+        this.pathToDataFile = Paths.get(directory, "datafile.dat").toString();
+        this.pathToIndexFile = Paths.get(directory, "indexfile.dat").toString();
+        this.writeAheadLog = new WriteAheadLog(Paths.get(directory, "wal.log"));
+        this.blockSize = blockSize;
+        this.maxEntriesInNode = Math.max(Node.DEFAULT_MAX_ENTRIES,
+                (int) ((long) Node.DEFAULT_MAX_ENTRIES * blockSize / DEFAULT_BLOCK_SIZE));
+        this.maxNodesInIndexBlock = Math.max(maxEntriesInNode,
+                (int) ((long) NODES_PER_DEFAULT_BLOCK * Node.DEFAULT_MAX_ENTRIES * blockSize / DEFAULT_BLOCK_SIZE / maxEntriesInNode));
+        this.nodeLatches = new NodeLatches(this, maxNodesInIndexBlock);
+        this.indexPagePool = new BufferPool<>(indexPoolCapacity);
+        this.dataPagePool = new BufferPool<>(dataPoolCapacity);
+        this.prefetcher = new BlockPrefetcher("block-prefetcher-" + directory, BlockPrefetcher.DEFAULT_PREFETCH_THREADS);
+        for (int i = 0; i < DATA_BLOCK_LATCHES; i++)
+            dataBlockLatches[i] = new ReentrantLock();
+        this.currentIndexBlock = new IndexBlock(maxNodesInIndexBlock);
+    }
+
+
+    /**
+     * Getter for the directory of the store's files
+     *
+     * @return The directory
+     */
+
+
+    String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Getter for the block size of the store's files
+     *
+     * @return The block size in bytes
+     */
+
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Getter for M, the maximum amount of entries in a {@link Node} of the store. It grows with the block size from
+     * {@link Node#DEFAULT_MAX_ENTRIES} at {@code DEFAULT_BLOCK_SIZE}, so that larger pages hold wider nodes instead of
+     * more nodes; smaller pages keep the default and hold fewer nodes.
+     *
+     * @return M
+     */
+
+
+    int getMaxEntriesInNode() {
+        return maxEntriesInNode;
+    }
+
+
+    /**
+     * Getter for m = M/2, the minimum amount of entries in a {@link Node} of the store other than the root
+     *
+     * @return m
+     */
+
+
+    int getMinEntriesInNode() {
+        return (int) (0.5 * maxEntriesInNode);
+    }
+
+
+    /**
+     * Getter for the {@link NodeLatches} of the store's index nodes
+     *
+     * @return The {@link NodeLatches}
+     */
+
+
+    NodeLatches getNodeLatches() {
+        return nodeLatches;
+    }
+
+
+    /**
+     * Getter for the CSV filepath.
+     *
+     * @return CSV filepath
+     */
+
+
+    String getPathToCsv() {
+        return pathToCsv;
+    }
+
+
+
+    /**
+     * Getter for the datafile's filepath.
+     *
+     * @return Datafile filepath
+     */
+
+
+    String getPathToDataFile() {
+        return pathToDataFile;
+    }
+
+
+
+    /**
+     * Getter for the indexfile's filepath.
+     *
+     * @return Indexfile filepath
+     */
+
+
+    String getPathToIndexFile() {
+        return pathToIndexFile;
+    }
+
+
+    /**
+     * Getter for the data dimensions
+     *
+     * @return The data dimensions
+     */
+
+
+    int getDataDimensions() {
+        return dataDimensions;
+    }
+
+
+    /**
+     * {@code serialize} method that serializes any objects into a {@code ByteArray} using Java's {@link ByteArrayOutputStream}. Used to keep
+     * data in blocks of 32KB
+     *
+     * @param obj An {@link Object}
+     * @return The {@link Object}'s {@code ByteArray}
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(obj);
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Getter for the indexFile metadata block
+     *
+     * @return {@link ArrayList} of {@link Integer} describing the index file, in order:<p>
+     * [{@code dataDimensions}, {@code blockSize}, {@code totalBlocksInIndexFile}, {@code totalLevelsOfTreeIndex}]
+     */
+
+
+    ArrayList<Integer> getIndexMetaData() {
+        return readMetaDataBlock(pathToIndexFile);
+    }
+
+
+    /**
+     * Getter for the data file metadata block
+     *
+     * @return {@link ArrayList} of {@link Integer} describing the datafile, in order:
+     * <p>[{@code dataDimensions}, {@code blockSize}, {@code totalBlocksInDataFile}, the
+     * {@link DataPageFormat#ordinal} of the blocks]
+     */
+
+
+    ArrayList<Integer> getDataMetaData() {
+        return readMetaDataBlock(pathToDataFile);
+    }
+
+
+    /**
+     * {@code readMetaDataBlock} method reads a file's metadata block
+     *
+     * @param pathToFile The filepath of the file to be read.
+     * @return {@link ArrayList} of {@link Integer} describing the file.
+     * @throws IllegalStateException if the file was written by an older version of the store, or the block is corrupted
+     */
+
+
+    private ArrayList<Integer> readMetaDataBlock(String pathToFile) {
+        try {
+            byte[] block = readMetaDataBytes(pathToFile);
+            if (isOlderFormat(block))
+                throw new IllegalStateException(pathToFile + " was written by an older version of the store, without "
+                        + "checksums. Rebuild required: make new files from the csv file.");
+            verifyPage(block, pathToFile, 0);
+            ArrayList<Integer> storedMetaData = parseMetaDataBlock(block);
+            return new ArrayList<>(storedMetaData.subList(1, storedMetaData.size()));
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    /**
+     * {@code hasCurrentFileFormat} method checks that the existing datafile and indexfile were not written by an older
+     * version of the store, whose files must be rebuilt from the csv file before they are opened.
+     *
+     * @return {@code false} if a file has the older format, else {@code true}
+     */
+
+
+    boolean hasCurrentFileFormat() {
+        for (String pathToFile : List.of(pathToDataFile, pathToIndexFile)) {
+            try {
+                if (Files.exists(Paths.get(pathToFile)) && isOlderFormat(readMetaDataBytes(pathToFile)))
+                    return false;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * {@code readMetaDataBytes} helper method that reads the bytes of a file's metadata block.
+     *
+     * @param pathToFile The filepath of the file to be read.
+     * @return The block's bytes
+     * @throws IOException if the block cannot be read whole
+     */
+
+
+    private byte[] readMetaDataBytes(String pathToFile) throws IOException {
+        byte[] block = new byte[blockSize];
+        int bytesRead;
+        try (RandomAccessFile raf = new RandomAccessFile(new File(pathToFile), "r")) {
+            bytesRead = raf.read(block);
+        }
+        if (bytesRead != blockSize) {
+            throw new IOException("Could not read full metadata block (expected " + blockSize + ", got " + bytesRead + ")");
+        }
+        return block;
+    }
+
+
+    /**
+     * {@code isOlderFormat} helper method that checks if a metadata block was written by an older version of the store:
+     * its metadata can be read, but does not start with {@code METADATA_FORMAT_MARKER}. A block that cannot be read is
+     * left to the checksum, as a corrupted block.
+     *
+     * @param block The metadata block's bytes
+     * @return {@code true} if the block has the older format, else {@code false}
+     */
+
+
+    private static boolean isOlderFormat(byte[] block) {
+        try {
+            ArrayList<Integer> storedMetaData = parseMetaDataBlock(block);
+            return storedMetaData.isEmpty() || storedMetaData.get(0) != METADATA_FORMAT_MARKER;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * {@code parseMetaDataBlock} helper method that deserializes the metadata of a metadata block, as stored.
+     *
+     * @param block The metadata block's bytes
+     * @return The stored metadata, starting with {@code METADATA_FORMAT_MARKER} for the current format
+     * @throws IOException if the metadata cannot be read
+     * @throws ClassNotFoundException if the metadata cannot be deserialized
+     */
+
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Integer> parseMetaDataBlock(byte[] block) throws IOException, ClassNotFoundException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(block);
+        ObjectInputStream ois = new ObjectInputStream(bais);
+        int metaDataSize = (Integer) ois.readObject();
+        byte[] metadataBytes = new byte[metaDataSize];
+        int actuallyRead = bais.read(metadataBytes);
+        if (actuallyRead != metaDataSize) {
+            throw new IOException("Could not read full metadata content");
+        }
+        ObjectInputStream metadataStream = new ObjectInputStream(new ByteArrayInputStream(metadataBytes));
+        return (ArrayList<Integer>) metadataStream.readObject();
+    }
+
+
+    /**
+     * {@code updateMetaDataBlock} method that updates the given file's metadata block with the store's fields.
+     *
+     * @param pathToFile The filepath of the file to be updated.
+     */
+
+
+    private void updateMetaDataBlock(String pathToFile) {
+        ArrayList<Integer> fileMetaData = new ArrayList<>();
+        fileMetaData.add(dataDimensions);
+        fileMetaData.add(blockSize);
+        if (pathToFile.equals(pathToDataFile)) {
+            fileMetaData.add(totalBlocksInDataFile);
+            fileMetaData.add(dataPageFormat.ordinal());
+        } else if (pathToFile.equals(pathToIndexFile)) {
+            fileMetaData.add(totalBlocksInIndexFile);
+            fileMetaData.add(totalLevelsOfTreeIndex);
+        }
+        writeMetaDataBlock(pathToFile, fileMetaData);
+    }
+
+
+    /**
+     * {@code writeMetaDataBlock} method that writes a file's metadata block.
+     *
+     * @param pathToFile The filepath of the file to be updated.
+     * @param fileMetaData The metadata, in the order of {@link #getIndexMetaData} or {@link #getDataMetaData}
+     */
+
+
+    private void writeMetaDataBlock(String pathToFile, ArrayList<Integer> fileMetaData) {
+        try {
+            ArrayList<Integer> storedMetaData = new ArrayList<>();
+            storedMetaData.add(METADATA_FORMAT_MARKER);
+            storedMetaData.addAll(fileMetaData);
+            byte[] metaDataInBytes = serialize(storedMetaData);
+            byte[] metaDataSizeBytes = serialize(metaDataInBytes.length);
+            byte[] block = new byte[blockSize];
+            System.arraycopy(metaDataSizeBytes, 0, block, 0, metaDataSizeBytes.length);
+            System.arraycopy(metaDataInBytes, 0, block, metaDataSizeBytes.length, metaDataInBytes.length);
+            sealPage(block);
+            RandomAccessFile raf = new RandomAccessFile(new File(pathToFile), "rw");
+            raf.write(block);
+            raf.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * {@code checkBlockSize} helper method that checks that an existing file was written with the store's block size.
+     *
+     * @param fileMetaData The file's metadata block
+     */
+
+
+    private void checkBlockSize(ArrayList<Integer> fileMetaData) {
+        if (fileMetaData.get(1) != blockSize)
+            throw new IllegalStateException("File was written with block size " + fileMetaData.get(1)
+                    + ", the store uses " + blockSize);
+    }
+
+    //
+    //
+    //
+    //-------------------------------------------DATAFILE METHODS-------------------------------------------------------
+    //
+    //
+    //
+
+
+    /**
+     * Getter for the total number of blocks in the Datafile
+     *
+     * @return The number of blocks in the datafile
+     */
+
+
+    int getTotalBlocksInDataFile() {
+        return totalBlocksInDataFile;
+    }
+
+
+    /**
+     * Getter for the latch that protects the read-modify-write of a data block by concurrent inserts and deletes
+     *
+     * @param blockId The data block id
+     * @return The data block's {@link Lock}
+     */
+
+
+    Lock getDataBlockLatch(long blockId) {
+        return dataBlockLatches[(int) (blockId % DATA_BLOCK_LATCHES)];
+    }
+
+
+    /**
+     * Calculates the maximum amount of records that fit in a block. The result only depends on the data dimensions,
+     * so it is calculated once and reused by every {@link #appendRecordToDataBlock}.
+     *
+     * @return The maximum amount of records that fit in a block.
+     */
+
+    private int calculateMaxRecordsInBlock() {
+        if (maxRecordsInBlockDimensions == dataDimensions)
+            return maxRecordsInBlock;
+        ArrayList<Record> blockRecords = new ArrayList<>();
+        int i;
+        for (i = 0; i < 10000; i++) {
+            ArrayList<Double> coords = new ArrayList<>();
+            for (int d = 0; d < dataDimensions; d++)
+                coords.add(0.0);
+            Record record = new Record(0, "default_name", coords);
+            blockRecords.add(record);
+            byte[] recordInBytes = serializeOrEmpty(blockRecords);
+            byte[] lengthInBytes = serializeOrEmpty(recordInBytes.length);
+            if (lengthInBytes.length + recordInBytes.length > blockSize - PAGE_CHECKSUM_SIZE)
+                break;
+        }
+        maxRecordsInBlock = i - 1;
+        maxRecordsInBlockDimensions = dataDimensions;
+        return i - 1;
+    }
+
+
+    /**
+     * Helper method for {@link #calculateMaxRecordsInBlock} that returns a serialized object OR if unable to serialize, an empty
+     * byte array
+     *
+     * @param obj An {@link Object} to be serialized.
+     * @return A byte array.
+     */
+
+
+    private static byte[] serializeOrEmpty(Object obj) {
+        try {
+            return serialize(obj);
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+
+    /**
+     * {@code writeDataFileBlock} method that writes a serialized block in the datafile in memory using {@link BufferedOutputStream}.
+     * Used while the datafile is created, the blocks appended later are committed through the {@link WriteAheadLog}.
+     *
+     * @param records The records to be serialized into a block
+     */
+
+
+    private void writeDataFileBlock(ArrayList<Record> records) {
+        try {
+            byte[] block = toDataPage(records);
+            FileOutputStream fos = new FileOutputStream(pathToDataFile, true);
+            BufferedOutputStream bos = new BufferedOutputStream(fos);
+            bos.write(block);
+            dataPagePool.invalidate(totalBlocksInDataFile);
+            totalBlocksInDataFile++;
+            updateMetaDataBlock(pathToDataFile);
+            bos.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * {@code readDataFileBlock} method that reads a serialized block of {@link Record}, using the blockId as offset to position the
+     * block in the datafile. <p>
+     * Every call returns a new {@link ArrayList}, so the caller can modify it without affecting other threads. Queries that
+     * only need some rows should use {@link #readDataPage} instead.
+     *
+     * @param blockID The blockId offset
+     * @return {@link ArrayList} of deserialized {@link Record}.
+     */
+
+
+    ArrayList<Record> readDataFileBlock(long blockID) {
+        DataPage page = readDataPage(blockID);
+        return page == null ? null : new ArrayList<>(page.getRecords());
+    }
+
+
+    /**
+     * {@code readDataFileBlock} method that reads a data block as of a committed version.
+     *
+     * @param blockID The blockId offset
+     * @param version The committed version
+     * @return {@link ArrayList} of deserialized {@link Record}.
+     */
+
+
+    ArrayList<Record> readDataFileBlock(long blockID, long version) {
+        DataPage page = readDataPage(blockID, version);
+        return page == null ? null : new ArrayList<>(page.getRecords());
+    }
+
+
+    /**
+     * {@code readDataPage} method that reads a data block as a shared {@link DataPage}. <p>
+     * The block is served from the shared {@code dataPagePool} when possible, so queries running in parallel do not read
+     * and decode the same blocks again and again. Blocks changed since the last commit are read from the
+     * {@code dataBuffer}. If the current thread has an open {@link IndexSnapshot}, the block is read as of the snapshot's
+     * version.
+     *
+     * @param blockID The blockId offset
+     * @return The {@link DataPage}, or {@code null} if the block could not be read.
+     */
+
+
+    DataPage readDataPage(long blockID) {
+        IndexSnapshot snapshot = currentSnapshot();
+        if (snapshot != null)
+            return snapshot.readDataPage(blockID);
+
+        DataPage page = dataBuffer.get(blockID);
+        if (page == null)
+            page = dataPagePool.get(blockID, this::loadDataBlock);
+        return page;
+    }
+
+
+    /**
+     * {@code readDataPage} method that reads a data block as of a committed version. The latest committed image is read
+     * before the version chain, so a concurrent commit never makes a newer image visible to an older version.
+     *
+     * @param blockID The blockId offset
+     * @param version The committed version
+     * @return The {@link DataPage}, or {@code null} if the block could not be read.
+     */
+
+
+    DataPage readDataPage(long blockID, long version) {
+        DataPage page = dataPagePool.get(blockID, this::loadDataBlock);
+        DataPage versionedPage = dataVersions.read(blockID, version);
+        return versionedPage != null ? versionedPage : page;
+    }
+
+
+    /**
+     * {@code prefetchDataBlocks} method starts loading data blocks into the {@code dataPagePool} in the background, in
+     * the given order, see {@link BlockPrefetcher}. Blocks already in the pool or changed since the last commit are
+     * skipped, and runs of near blocks are loaded with one coalesced read, see {@link #loadDataBlocks}. Does nothing if
+     * prefetching is turned off.
+     *
+     * @param blockIDs The blocks that a query is about to read, in the order it will read them
+     */
+
+
+    void prefetchDataBlocks(long[] blockIDs) {
+        if (!prefetching)
+            return;
+        long[] missing = Arrays.stream(blockIDs)
+                .filter(blockID -> !dataPagePool.contains(blockID) && !dataBuffer.containsKey(blockID))
+                .toArray();
+        for (long[] run : splitIntoRuns(missing))
+            prefetcher.prefetch(() -> loadDataBlocks(run));
+    }
+
+
+    /**
+     * {@code prefetchIndexBlocks} method starts loading index blocks into the {@code indexPagePool} in the background, in
+     * the given order, see {@link BlockPrefetcher}. Blocks already in the pool or changed since the last commit are
+     * skipped, and so are repeated ids, since an {@link IndexBlock} holds many nodes. Runs of near blocks are loaded with
+     * one coalesced read, see {@link #loadIndexBlocks}. Does nothing if prefetching is turned off.
+     *
+     * @param blockIds The blocks of the nodes that a query is about to read, in the order it will read them
+     */
+
+
+    void prefetchIndexBlocks(long[] blockIds) {
+        if (!prefetching)
+            return;
+        long[] missing = Arrays.stream(blockIds)
+                .distinct()
+                .filter(blockId -> !indexPagePool.contains(blockId) && !indexBuffer.containsKey(blockId))
+                .toArray();
+        for (long[] run : splitIntoRuns(missing))
+            prefetcher.prefetch(() -> loadIndexBlocks(run));
+    }
+
+
+    /**
+     * {@code splitIntoRuns} helper method that splits block ids, in the order they are needed, into runs that one
+     * coalesced read can cover: increasing ids with gaps of at most {@code MAX_COALESCING_GAP_BLOCKS}, spanning at most
+     * {@code MAX_COALESCED_BLOCKS}. Ids sorted by block id form the fewest runs, other orders are kept and only their
+     * consecutive near ids are joined.
+     *
+     * @param blockIds The block ids, in the order they are needed
+     * @return The runs, in the same order
+     */
+
+
+    private static ArrayList<long[]> splitIntoRuns(long[] blockIds) {
+        ArrayList<long[]> runs = new ArrayList<>();
+        int first = 0;
+        for (int i = 1; i <= blockIds.length; i++) {
+            if (i == blockIds.length || blockIds[i] <= blockIds[i - 1]
+                    || blockIds[i] - blockIds[i - 1] > MAX_COALESCING_GAP_BLOCKS + 1
+                    || blockIds[i] - blockIds[first] >= MAX_COALESCED_BLOCKS) {
+                runs.add(Arrays.copyOfRange(blockIds, first, i));
+                first = i;
+            }
+        }
+        return runs;
+    }
+
+
+    /**
+     * Setter for whether queries prefetch the blocks they are about to read. It is off by default, since the
+     * {@code prefetch} benchmark of {@link QueryBenchmark} shows no steady gain, even with a simulated device latency.
+     * Turning it off stops the I/O threads.
+     *
+     * @param prefetching {@code true} to prefetch blocks
+     */
+
+
+    void setPrefetching(boolean prefetching) {
+        this.prefetching = prefetching;
+        if (!prefetching)
+            prefetcher.stop();
+    }
+
+
+    /**
+     * Getter for whether queries prefetch the blocks they are about to read
+     *
+     * @return {@code true} if blocks are prefetched
+     */
+
+
+    boolean isPrefetching() {
+        return prefetching;
+    }
+
+
+    /**
+     * Setter for whether {@link #loadDataBlocks} and {@link #loadIndexBlocks} load the missing blocks with coalesced reads.
+     * When it is off they do nothing, so neither do the prefetches, and every block is read on its own when a query asks
+     * for it. Benchmarks turn it off to measure the uncoalesced reads.
+     *
+     * @param coalescingReads {@code true} to coalesce the reads of many blocks
+     */
+
+
+    void setCoalescingReads(boolean coalescingReads) {
+        this.coalescingReads = coalescingReads;
+    }
+
+
+    /**
+     * Getter for whether the loads of many blocks use coalesced reads
+     *
+     * @return {@code true} if reads are coalesced
+     */
+
+
+    boolean isCoalescingReads() {
+        return coalescingReads;
+    }
+
+
+    /**
+     * Getter for the {@link BlockPrefetcher} of the store
+     *
+     * @return The prefetcher
+     */
+
+
+    BlockPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+
+    /**
+     * Setter for the latency added to every read of the datafile and the indexfile, on top of the file system's own.
+     * Benchmarks use it to measure queries against the latency of a device instead of the operating system's page cache.
+     *
+     * @param readLatencyMicros The added latency of a read in microseconds, 0 for none
+     */
+
+
+    void setReadLatency(long readLatencyMicros) {
+        if (readLatencyMicros < 0)
+            throw new IllegalArgumentException("Read latency must not be negative.");
+        this.readLatencyNanos = TimeUnit.MICROSECONDS.toNanos(readLatencyMicros);
+    }
+
+
+    /**
+     * {@code clearBufferPools} method empties the shared pools, so the next queries read every committed block from the
+     * files again. Used to measure cold-cache queries. The prefetches still running are stopped first, so that they do
+     * not fill the emptied pools with blocks of earlier queries.
+     */
+
+
+    void clearBufferPools() {
+        prefetcher.stop();
+        dataPagePool.clear();
+        indexPagePool.clear();
+    }
+
+
+    /**
+     * {@code loadDataBlock} helper method for {@link #readDataPage} that decodes a committed block, from its logged image
+     * if it was not written in the datafile yet, else directly from the datafile.
+     *
+     * @param blockID The blockId offset
+     * @return The decoded {@link DataPage}, or {@code null} if the block could not be read.
+     */
+
+
+    private DataPage loadDataBlock(long blockID) {
+        try {
+            byte[] block = unflushedDataPages.get(blockID);
+            if (block == null)
+                block = readPage(pathToDataFile, blockID);
+            return parseDataPage(block);
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+
+    /**
+     * {@code readPage} helper method that reads a whole block of a file and verifies its checksum.
+     *
+     * @param pathToFile The filepath of the file
+     * @param blockId The block id
+     * @return The block's bytes
+     * @throws IOException if the block could not be read
+     */
+
+
+    private byte[] readPage(String pathToFile, long blockId) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(new File(pathToFile), "r")) {
+            raf.seek(blockId * blockSize);
+            byte[] block = new byte[blockSize];
+            int bytesRead = raf.read(block);
+            awaitReadLatency();
+            physicalPageReads.increment();
+            fileReads.increment();
+            if (bytesRead != blockSize)
+                throw new IOException("Block size read was not " + blockSize + " bytes");
+            verifyPage(block, pathToFile, blockId);
+            return block;
+        }
+    }
+
+
+    /**
+     * {@code readPages} helper method that reads many blocks of a file and verifies their checksums. The sorted block ids
+     * are split into runs of adjacent or near adjacent blocks, at most {@code MAX_COALESCED_BLOCKS} long with gaps of at
+     * most {@code MAX_COALESCING_GAP_BLOCKS}, and every run is read with one scattering read. The blocks of the gaps are
+     * read into a scratch buffer and dropped.
+     *
+     * @param pathToFile The filepath of the file
+     * @param blockIds The block ids, sorted and without repeats
+     * @return The blocks' bytes, in the order of {@code blockIds}
+     * @throws IOException if a block could not be read
+     */
+
+
+    private byte[][] readPages(String pathToFile, long[] blockIds) throws IOException {
+        byte[][] blocks = new byte[blockIds.length][];
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.READ)) {
+            ByteBuffer gap = null;
+            int first = 0;
+            while (first < blockIds.length) {
+                int last = first;
+                while (last + 1 < blockIds.length
+                        && blockIds[last + 1] - blockIds[last] <= MAX_COALESCING_GAP_BLOCKS + 1
+                        && blockIds[last + 1] - blockIds[first] < MAX_COALESCED_BLOCKS)
+                    last++;
+
+                int runBlocks = (int) (blockIds[last] - blockIds[first] + 1);
+                ByteBuffer[] buffers = new ByteBuffer[runBlocks];
+                for (int i = 0; i < runBlocks; i++) {
+                    if (gap == null)
+                        gap = ByteBuffer.allocate(blockSize);
+                    buffers[i] = gap.duplicate().clear();
+                }
+                for (int i = first; i <= last; i++) {
+                    blocks[i] = new byte[blockSize];
+                    buffers[(int) (blockIds[i] - blockIds[first])] = ByteBuffer.wrap(blocks[i]);
+                }
+
+                long remaining = (long) runBlocks * blockSize;
+                channel.position(blockIds[first] * blockSize);
+                while (remaining > 0) {
+                    long bytesRead = channel.read(buffers);
+                    if (bytesRead < 0)
+                        throw new IOException("Blocks " + blockIds[first] + " to " + blockIds[last] + " are past the end of " + pathToFile);
+                    remaining -= bytesRead;
+                }
+                awaitReadLatency();
+                physicalPageReads.add(last - first + 1);
+                gapPageReads.add(runBlocks - (last - first + 1));
+                fileReads.increment();
+                first = last + 1;
+            }
+        }
+        for (int i = 0; i < blockIds.length; i++)
+            verifyPage(blocks[i], pathToFile, blockIds[i]);
+        return blocks;
+    }
+
+
+    /**
+     * {@code awaitReadLatency} helper method that waits for the latency set with {@link #setReadLatency}, if any.
+     */
+
+
+    private void awaitReadLatency() {
+        long deadline = System.nanoTime() + readLatencyNanos;
+        for (long remaining = readLatencyNanos; remaining > 0; remaining = deadline - System.nanoTime())
+            LockSupport.parkNanos(remaining);
+    }
+
+
+    /**
+     * A decoder of block images, {@link #parseDataPage} or {@link #parseIndexPage}.
+     *
+     * @param <T> The type of the decoded block
+     */
+
+
+    private interface PageParser<T> {
+        T parse(byte[] block) throws IOException, ClassNotFoundException;
+    }
+
+
+    /**
+     * {@code loadBlocks} helper method that loads the committed blocks missing from a {@link BufferPool} with coalesced
+     * reads, see {@link #readPages}. Blocks changed since the last commit are skipped, since the queries of the latest
+     * version read them from the buffer, and so are blocks committed but not flushed yet, which are loaded one by one from
+     * their logged image. The blocks are loaded through {@link BufferPool#loadAll}, so a query that asks for one of them
+     * at the same time waits for the coalesced read, and blocks that are already being loaded are not read again. Does
+     * nothing if coalesced reads are turned off, see {@link #setCoalescingReads}.
+     *
+     * @param pathToFile The filepath of the file
+     * @param pool The pool of the file's blocks
+     * @param buffer The blocks changed since the last commit
+     * @param unflushedPages The logged images of the blocks committed but not flushed yet
+     * @param blockIds The block ids, in any order
+     * @param parser The decoder of the file's blocks
+     * @param <T> The type of the decoded blocks
+     */
+
+
+    private <T> void loadBlocks(String pathToFile, BufferPool<T> pool, Map<Long, ?> buffer, Map<Long, byte[]> unflushedPages,
+                                long[] blockIds, PageParser<T> parser) {
+        if (!coalescingReads)
+            return;
+        long[] missing = Arrays.stream(blockIds)
+                .filter(blockId -> !pool.contains(blockId) && !buffer.containsKey(blockId) && !unflushedPages.containsKey(blockId))
+                .sorted().distinct().toArray();
+        if (missing.length == 0)
+            return;
+        pool.loadAll(missing, claimed -> {
+            try {
+                byte[][] blocks = readPages(pathToFile, claimed);
+                List<T> parsed = new ArrayList<>(claimed.length);
+                for (byte[] block : blocks)
+                    parsed.add(parser.parse(block));
+                return parsed;
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+            return null;
+        });
+    }
+
+
+    /**
+     * {@code loadDataBlocks} method loads the committed data blocks missing from the {@code dataPagePool} with coalesced
+     * reads, so the next {@link #readDataPage} calls for them are served from the pool. Used by scans and prefetches that
+     * know the blocks they are about to read.
+     *
+     * @param blockIDs The data block ids, in any order
+     */
+
+
+    void loadDataBlocks(long[] blockIDs) {
+        loadBlocks(pathToDataFile, dataPagePool, dataBuffer, unflushedDataPages, blockIDs, SpatialStore::parseDataPage);
+    }
+
+
+    /**
+     * {@code loadDataBlocks} method loads the committed data blocks of an id range missing from the {@code dataPagePool}
+     * with coalesced reads, see {@link #loadDataBlocks(long[])}. Used by the scans of the whole datafile, a window of
+     * {@code MAX_COALESCED_BLOCKS} at a time.
+     *
+     * @param firstBlockID The first block id
+     * @param endBlockID The block id after the last one
+     */
+
+
+    void loadDataBlocks(long firstBlockID, long endBlockID) {
+        loadDataBlocks(LongStream.range(firstBlockID, endBlockID).toArray());
+    }
+
+
+    /**
+     * {@code loadIndexBlocks} method loads the committed index blocks missing from the {@code indexPagePool} with
+     * coalesced reads, see {@link #loadDataBlocks}.
+     *
+     * @param blockIds The index block ids, in any order
+     */
+
+
+    void loadIndexBlocks(long[] blockIds) {
+        loadBlocks(pathToIndexFile, indexPagePool, indexBuffer, unflushedIndexPages, blockIds, SpatialStore::parseIndexPage);
+    }
+
+
+    /**
+     * {@code verifyPage} helper method that checks the checksum of a block read from a file, unless checksums are turned off.
+     *
+     * @param block The block's bytes
+     * @param pathToFile The filepath of the file, for the error message
+     * @param blockId The block id, for the error message
+     * @throws IllegalStateException if the checksum does not match
+     */
+
+
+    private void verifyPage(byte[] block, String pathToFile, long blockId) {
+        if (verifyChecksums && !isPageIntact(block))
+            throw new IllegalStateException("Checksum mismatch in block " + blockId + " of " + pathToFile);
+    }
+
+
+    /**
+     * {@code sealPage} helper method that writes the CRC32C checksum of a block's content in its last bytes.
+     *
+     * @param block The block's bytes
+     */
+
+
+    static void sealPage(byte[] block) {
+        ByteBuffer.wrap(block).putInt(block.length - PAGE_CHECKSUM_SIZE, pageChecksum(block));
+    }
+
+
+    /**
+     * {@code isPageIntact} helper method that checks a block's content against the checksum in its last bytes.
+     *
+     * @param block The block's bytes
+     * @return {@code true} if the checksum matches, else {@code false}
+     */
+
+
+    static boolean isPageIntact(byte[] block) {
+        return ByteBuffer.wrap(block).getInt(block.length - PAGE_CHECKSUM_SIZE) == pageChecksum(block);
+    }
+
+
+    /**
+     * {@code pageChecksum} helper method that computes the CRC32C checksum of a block's content.
+     *
+     * @param block The block's bytes
+     * @return The checksum
+     */
+
+
+    private static int pageChecksum(byte[] block) {
+        CRC32C crc = new CRC32C();
+        crc.update(block, 0, block.length - PAGE_CHECKSUM_SIZE);
+        return (int) crc.getValue();
+    }
+
+
+    /**
+     * Getter for whether block checksums are verified on read
+     *
+     * @return {@code true} if they are verified, the default
+     */
+
+
+    boolean isVerifyingChecksums() {
+        return verifyChecksums;
+    }
+
+
+    /**
+     * Setter of whether block checksums are verified on read. Blocks are always written with their checksum, so the
+     * verification can be turned off on hot read paths and back on at any time.
+     *
+     * @param verifyChecksums {@code true} to verify them
+     */
+
+
+    void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+
+    /**
+     * {@code toDataPage} helper method that serializes the records of a data block into a block image.
+     *
+     * @param records The records of the block
+     * @return The block image, {@code blockSize} bytes long
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private byte[] toDataPage(List<Record> records) throws IOException {
+        if (dataPageFormat != DataPageFormat.SERIALIZED) {
+            byte[] encoded = dataPageFormat == DataPageFormat.COMPRESSED ? CompressedDataPage.encode(records)
+                    : DataPage.encode(records);
+            if (encoded.length > blockSize - PAGE_CHECKSUM_SIZE)
+                throw new IllegalStateException("Block too large to fit in one data block");
+            byte[] block = new byte[blockSize];
+            System.arraycopy(encoded, 0, block, 0, encoded.length);
+            sealPage(block);
+            return block;
+        }
+        byte[] recordInBytes = serialize(new ArrayList<>(records));
+        byte[] metaDataLengthInBytes = serialize(recordInBytes.length);
+        if (metaDataLengthInBytes.length + recordInBytes.length > blockSize - PAGE_CHECKSUM_SIZE)
+            throw new IllegalStateException("Block too large to fit in one data block");
+        byte[] block = new byte[blockSize];
+        System.arraycopy(metaDataLengthInBytes, 0, block, 0, metaDataLengthInBytes.length);
+        System.arraycopy(recordInBytes, 0, block, metaDataLengthInBytes.length, recordInBytes.length);
+        sealPage(block);
+        return block;
+    }
+
+
+    /**
+     * {@code parseDataPage} helper method that decodes a data block image, of any {@link DataPageFormat}.
+     *
+     * @param block The block image
+     * @return The decoded {@link DataPage}
+     * @throws IOException if the image is incomplete
+     * @throws ClassNotFoundException to catch any deserialization errors
+     */
+
+
+    static DataPage parseDataPage(byte[] block) throws IOException, ClassNotFoundException {
+        if (CompressedDataPage.isCompressed(block))
+            return CompressedDataPage.decode(block);
+        if (DataPage.isColumnar(block))
+            return DataPage.decode(block);
+        ByteArrayInputStream bais = new ByteArrayInputStream(block);
+        ObjectInputStream ois = new ObjectInputStream(bais);
+        int recordDataLength = (Integer) ois.readObject();
+        byte[] recordBytes = new byte[recordDataLength];
+        int actuallyRead = bais.read(recordBytes);
+        if (actuallyRead != recordDataLength)
+            throw new IOException("Could not read full record data");
+        ObjectInputStream recordOis = new ObjectInputStream(new ByteArrayInputStream(recordBytes));
+        return DataPage.of((ArrayList<Record>) recordOis.readObject());
+    }
+
+
+    /**
+     * {@code initializeDataFile} method that depending on user input, reads the existing datafile's metadata, OR creates a new
+     * datafile by reading the Raw CSV data.
+     *
+     *
+     * @param dataDimensions User inputted dimensions.
+     * @param newDataFile Whether to create a new datafile or not
+     */
+
+
+    void initializeDataFile(int dataDimensions, boolean newDataFile) {
+        try {
+            if (!newDataFile && Files.exists(Paths.get(pathToDataFile))) {
+                recoverFromLog();
+                ArrayList<Integer> dataFileMetaData = readMetaDataBlock(pathToDataFile);
+                if (dataFileMetaData == null)
+                    throw new Exception("Could not read datafile's MetaData block");
+                checkBlockSize(dataFileMetaData);
+                this.dataDimensions = dataFileMetaData.get(0);
+                totalBlocksInDataFile = dataFileMetaData.get(2);
+                dataPageFormat = dataFileMetaData.size() > 3 ? DataPageFormat.values()[dataFileMetaData.get(3)]
+                        : DataPageFormat.SERIALIZED;
+            } else {
+                Files.deleteIfExists(Paths.get(pathToDataFile));
+                writeAheadLog.delete();
+                dataPagePool.clear();
+                dataVersions.clear();
+                dataBuffer.clear();
+                unflushedDataPages.clear();
+                this.dataDimensions = dataDimensions;
+                totalBlocksInDataFile = 1;
+                updateMetaDataBlock(pathToDataFile);
+                ArrayList<Record> blockRecords = new ArrayList<>();
+                BufferedReader csvReader = new BufferedReader(new FileReader(pathToCsv));
+                csvReader.readLine();
+                int maxRecordsInBlock = calculateMaxRecordsInBlock();
+                String line;
+                int currentSize = 0;
+
+                int nextEncodedCheck = 1;
+
+                while ((line = csvReader.readLine()) != null) {
+                    try {
+                        Record r = new Record(line, dataDimensions);
+                        if (dataPageFormat != DataPageFormat.SERIALIZED) {
+                            blockRecords.add(r);
+                            if (blockRecords.size() >= nextEncodedCheck)
+                                nextEncodedCheck = writeFullEncodedBlock(blockRecords);
+                            continue;
+                        }
+                        byte[] serialized = serialize(r);  // Αν δεν έχεις serialize(Record), μπορώ να σου τη δώσω
+
+                        if (serialized.length > blockSize - 100) {
+                            System.out.println("Skipping oversized record: " + r.getRecordID());
+                            continue;
+                        }
+
+                        if (currentSize + serialized.length > blockSize - PAGE_CHECKSUM_SIZE) {
+                            writeDataFileBlock(blockRecords);
+                            blockRecords.clear();
+                            currentSize = 0;
+                        }
+
+                        blockRecords.add(r);
+                        currentSize += serialized.length;
+
+                    } catch (Exception ex) {
+                        System.out.println("Skipping malformed record: " + line);
+                    }
+
+
+                }
+
+                csvReader.close();
+                while (dataPageFormat != DataPageFormat.SERIALIZED && !canSerializeBlock(blockRecords)) {
+                    List<Record> fullBlock = blockRecords.subList(0, largestFittingPrefix(blockRecords));
+                    writeDataFileBlock(new ArrayList<>(fullBlock));
+                    fullBlock.clear();
+                }
+                if (!blockRecords.isEmpty())
+                    writeDataFileBlock(blockRecords);
+                forceFile(pathToDataFile);
+            }
+            committedTotalBlocksInDataFile = totalBlocksInDataFile;
+            writeAheadLog.open();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    //
+    //
+    //
+    //-------------------------------------------INDEXFILE METHODS------------------------------------------------------
+    //
+    //
+    //
+
+
+    /**
+     * Getter for the total number of blocks in the index File
+     *
+     * @return Total blocks in the index file
+     */
+
+
+    int getTotalBlocksInIndexFile() {
+        return totalBlocksInIndexFile;
+    }
+
+
+    /**
+     * Getter for the total levels of the R*Tree index
+     *
+     * @return The total levels of the tree index
+     */
+
+
+    int getTotalLevelsFile() {
+        return totalLevelsOfTreeIndex;
+    }
+
+
+    /**
+     * Setter of the total levels of the R*Tree index, written in the metadata block with the next commit
+     * @param totalLevelsOfTreeIndex The new total levels to be set
+     */
+
+
+    void setLevelsOfTreeIndex(int totalLevelsOfTreeIndex) {
+        this.totalLevelsOfTreeIndex = totalLevelsOfTreeIndex;
+    }
+
+
+    /**
+     * {@code initializeIndexFile} method that either reads the metadata of the existing indexfile OR creates a new indexfile
+     * and initializes new metadata.
+     *
+     * @param dataDimensions User inputted data dimensions
+     * @param newFile Whether to create new file or not
+     */
+
+
+    void initializeIndexFile(int dataDimensions, boolean newFile) {
+        try {
+            if (!newFile && Files.exists(Paths.get(pathToIndexFile))) {
+                recoverFromLog();
+                ArrayList<Integer> indexFileMetaData = readMetaDataBlock(pathToIndexFile);
+                if (indexFileMetaData == null)
+                    throw new Exception("Could not read indexfile's MetaData block");
+                checkBlockSize(indexFileMetaData);
+                this.dataDimensions = indexFileMetaData.get(0);
+                totalLevelsOfTreeIndex = indexFileMetaData.get(3);
+                // New nodes continue in the last written block
+                committedIndexBlocks = Files.size(Paths.get(pathToIndexFile)) / blockSize;
+                totalBlocksInIndexFile = (int) Math.max(1, committedIndexBlocks - 1);
+            } else {
+                Files.deleteIfExists(Paths.get(pathToIndexFile));
+                writeAheadLog.delete();
+                indexPagePool.clear();
+                indexVersions.clear();
+                unflushedIndexPages.clear();
+                this.dataDimensions = dataDimensions;
+                totalLevelsOfTreeIndex = 1;
+                totalBlocksInIndexFile = 1;
+                committedIndexBlocks = 1;
+                updateMetaDataBlock(pathToIndexFile);
+            }
+            indexBuffer.clear();
+            currentBlockId = totalBlocksInIndexFile;
+            currentIndexBlock = getWritableIndexBlock(currentBlockId);
+            committedTotalBlocksInIndexFile = totalBlocksInIndexFile;
+            committedLevelsOfTreeIndex = totalLevelsOfTreeIndex;
+            writeAheadLog.open();
+            flusher.start();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * {@code writeNewIndexFileBlock} method checks whether the current {@link IndexBlock} has enough space to write a {@link Node},
+     * and adds it to the {@code indexBuffer}, or
+     * if the new node doesn't fit in the block, it creates a new {@link IndexBlock} in the {@code indexBuffer}, and adds the node
+     * inside it
+     *
+     * @param node The {@link Node} to be added to the {@code indexBuffer}
+     */
+
+
+    synchronized void writeNewIndexFileBlock(Node node) {
+        currentIndexBlock = getWritableIndexBlock(currentBlockId);
+        if (!currentIndexBlock.hasSpace()) {
+            currentBlockId++;
+            currentIndexBlock = getWritableIndexBlock(currentBlockId);
+            totalBlocksInIndexFile++;
+        }
+        node.setNodeBlockId(currentBlockId);
+        synchronized (currentIndexBlock) {
+            node.setNodeIndexInBlock(currentIndexBlock.getNodes().size());
+            currentIndexBlock.addNode(node);
+        }
+        markNodeDirty(currentBlockId, node.getNodeIndexInBlock());
+    }
+
+
+    /**
+     * {@code getWritableIndexBlock} returns the {@code indexBuffer}'s copy of an {@link IndexBlock}, copying the committed
+     * block on its first change since the last commit (copy-on-write), or a new empty block if it was never written.
+     *
+     * @param blockId The block id
+     * @return The {@link IndexBlock} that writers change
+     */
+
+
+    private IndexBlock getWritableIndexBlock(long blockId) {
+        return indexBuffer.computeIfAbsent(blockId, id -> {
+            if (id >= committedIndexBlocks)
+                return new IndexBlock(maxNodesInIndexBlock);
+            IndexBlock committedBlock = indexPagePool.get(id, this::loadIndexBlock);
+            if (committedBlock == null)
+                throw new IllegalStateException("Could not read IndexBlock with ID: " + id);
+            return committedBlock.copy();
+        });
+    }
+
+
+    /**
+     * {@code updateIndexFileBlock} updates an {@link IndexBlock}'s {@link Node} in the {@code indexBuffer} with new data.
+     * Firstly checks whether the block exists in the buffer
+     * and if not, it reads directly from the indexfile. The {@link Node} is marked dirty, so the next commit logs its block.
+     *
+     * @param node The node to be updated.
+     * @param totalLevelsOfTreeIndex unused from earlier version
+     */
+
+
+    void updateIndexFileBlock(Node node, int totalLevelsOfTreeIndex) {
+        long blockId = node.getNodeBlockId();
+        int nodeIndex = node.getNodeIndexInBlock();
+
+        IndexBlock indexBlock = getWritableIndexBlock(blockId);
+
+        // Αντικαθιστούμε το node στο σωστό index
+        synchronized (indexBlock) {
+            indexBlock.setNode(nodeIndex, node);
+        }
+        markNodeDirty(blockId, nodeIndex);
+    }
+
+
+    /**
+     * {@code markNodeDirty} helper method that records the change of a {@link Node} in the {@code indexBuffer}. Blocks that
+     * were copied into the buffer but have no dirty {@link Node}, e.g. by a writer that only searched them, are not logged.
+     *
+     * @param blockId The {@link Node}'s block id
+     * @param nodeIndex The {@link Node}'s index in the block
+     */
+
+
+    private void markNodeDirty(long blockId, int nodeIndex) {
+        logicalPageWrites.increment();
+        dirtyIndexNodes.compute(blockId, (id, dirtyNodes) -> {
+            if (dirtyNodes == null)
+                dirtyNodes = new BitSet();
+            dirtyNodes.set(nodeIndex);
+            return dirtyNodes;
+        });
+    }
+
+
+    /**
+     * {@code loadIndexBlock} reads a committed {@link IndexBlock}, from its logged image if it was not written in the
+     * indexfile yet, else directly from the indexfile. Rarely used to prevent big I/O times.
+     *
+     * @param blockId The block Id to be used as offset
+     * @return The committed {@link IndexBlock}
+     */
+
+    private IndexBlock loadIndexBlock(long blockId) {
+        try {
+            byte[] block = unflushedIndexPages.get(blockId);
+            if (block == null)
+                block = readPage(pathToIndexFile, blockId);
+            return parseIndexPage(block);
+        } catch (IOException | ClassNotFoundException e) { e.printStackTrace(); }
+        return null;
+    }
+
+
+    /**
+     * {@code toIndexPage} helper method that serializes an {@link IndexBlock} into a block image, prefixed with its length.
+     *
+     * @param block The {@link IndexBlock}
+     * @return The block image, {@code blockSize} bytes long, or {@code null} if the {@link IndexBlock} does not fit
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private byte[] toIndexPage(IndexBlock block) throws IOException {
+        byte[] blockInBytes = serialize(block);
+        if (blockInBytes.length + 4 > blockSize - PAGE_CHECKSUM_SIZE)
+            return null;
+        byte[] fileBlock = new byte[blockSize];
+        ByteBuffer.wrap(fileBlock).putInt(blockInBytes.length).put(blockInBytes);
+        sealPage(fileBlock);
+        return fileBlock;
+    }
+
+
+    /**
+     * {@code parseIndexPage} helper method that deserializes the {@link IndexBlock} of a block image.
+     *
+     * @param block The block image
+     * @return The deserialized {@link IndexBlock}
+     * @throws IOException if the image is incomplete
+     * @throws ClassNotFoundException to catch any deserialization errors
+     */
+
+
+    static IndexBlock parseIndexPage(byte[] block) throws IOException, ClassNotFoundException {
+        int blockLength = ByteBuffer.wrap(block).getInt();
+        if (blockLength <= 0 || blockLength + 4 > block.length) throw new IOException("Invalid index block length " + blockLength);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(block, 4, blockLength));
+        return (IndexBlock) ois.readObject();
+    }
+
+
+    /**
+     * {@code flushIndexBufferToDisk} commits the {@code indexBuffer} and the {@code dataBuffer}. The images of every changed
+     * block are appended to the {@link WriteAheadLog} in one sequential write, instead of every block being written at its
+     * place in the files; the files are updated later by {@link #checkpoint}.
+     * <p>The flush commits a new version: the new images of the index and data blocks are installed in the version chains
+     * before they replace the committed blocks, and the version is published to new {@link IndexSnapshot}s at the end.
+     * Must not run at the same time as writers (see {@link RStarTree#commitUpdates}).
+     *
+     * @return The log sequence number of the commit, durable once {@link #awaitDurable} returns for it
+     * @throws IllegalStateException if a changed block does not fit in a page, after rolling back every change since the
+     * last commit without writing the {@link WriteAheadLog}
+     */
+
+
+    long flushIndexBufferToDisk() {
+        synchronized (commitLock) {
+            long version = getCommittedVersion() + 1;
+            TreeMap<Long, byte[]> dataPages = new TreeMap<>();
+            TreeMap<Long, byte[]> indexPages = new TreeMap<>();
+            long lsn;
+            try {
+                try {
+                    for (Map.Entry<Long, DataPage> entry : dataBuffer.entrySet())
+                        dataPages.put(entry.getKey(), toDataPage(entry.getValue().getRecords()));
+                    for (Map.Entry<Long, IndexBlock> entry : indexBuffer.entrySet()) {
+                        if (dirtyIndexNodes.get(entry.getKey()) == null)
+                            continue;
+                        byte[] page = toIndexPage(entry.getValue());
+                        if (page == null)
+                            throw new IllegalStateException("Index block " + entry.getKey() + " too large to commit");
+                        indexPages.put(entry.getKey(), page);
+                    }
+                } catch (IllegalStateException e) {
+                    rollbackUpdates(); // a commit without the block would corrupt the tree, so nothing is logged
+                    throw e;
+                }
+                for (long blockId : indexPages.keySet())
+                    committedDirtyNodes.add(dirtyIndexNodes.get(blockId).cardinality());
+                lsn = writeAheadLog.appendCommit(dataPages, indexPages, totalBlocksInDataFile, totalBlocksInIndexFile,
+                        totalLevelsOfTreeIndex);
+                loggedPageWrites.add(dataPages.size() + indexPages.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not log the commit", e);
+            }
+
+            for (Map.Entry<Long, byte[]> page : dataPages.entrySet()) {
+                long blockId = page.getKey();
+                DataPage dataPage = dataBuffer.get(blockId);
+                if (blockId < committedTotalBlocksInDataFile)
+                    dataVersions.installBase(blockId, dataPagePool.get(blockId, this::loadDataBlock));
+                dataVersions.install(blockId, version, dataPage);
+                unflushedDataPages.put(blockId, page.getValue());
+                dataPagePool.put(blockId, dataPage);
+            }
+            for (Map.Entry<Long, byte[]> page : indexPages.entrySet()) {
+                long blockId = page.getKey();
+                IndexBlock block = indexBuffer.get(blockId);
+                if (blockId < committedIndexBlocks)
+                    indexVersions.installBase(blockId, indexPagePool.get(blockId, this::loadIndexBlock));
+                indexVersions.install(blockId, version, block);
+                unflushedIndexPages.put(blockId, page.getValue());
+                indexPagePool.put(blockId, block);
+                committedIndexBlocks = Math.max(committedIndexBlocks, blockId + 1);
+            }
+
+            committedTotalBlocksInDataFile = totalBlocksInDataFile;
+            committedTotalBlocksInIndexFile = totalBlocksInIndexFile;
+            committedLevelsOfTreeIndex = totalLevelsOfTreeIndex;
+            lastCommitLsn = lsn;
+            publishVersion(version, totalLevelsOfTreeIndex);
+            indexBuffer.clear();
+            dirtyIndexNodes.clear();
+            dataBuffer.clear();
+            reclaimBlockVersions(getOldestPinnedVersion());
+
+            try {
+                if (writeAheadLog.size() > (long) CHECKPOINT_LOG_BLOCKS * blockSize)
+                    flusher.request();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return lsn;
+        }
+    }
+
+
+    /**
+     * {@code awaitDurable} waits until a commit is as durable as its {@link Durability} requires. Commits that wait for
+     * the {@link WriteAheadLog} at the same time share one {@code fsync}.
+     *
+     * @param lsn The log sequence number returned by {@link #flushIndexBufferToDisk}
+     * @param durability The durability of the commit
+     */
+
+
+    void awaitDurable(long lsn, Durability durability) {
+        switch (durability) {
+            case ASYNC:
+                break;
+            case SYNC:
+                try {
+                    writeAheadLog.force(lsn);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not force the write-ahead log", e);
+                }
+                break;
+            case CHECKPOINT:
+                flusher.awaitFlushed(lsn);
+                break;
+        }
+    }
+
+
+    /**
+     * Getter for the durability of the commits that do not choose one
+     *
+     * @return The default {@link Durability}, {@link Durability#SYNC} unless changed
+     */
+
+
+    Durability getDurability() {
+        return durability;
+    }
+
+
+    /**
+     * Setter of the durability of the commits that do not choose one
+     *
+     * @param durability The new default {@link Durability}
+     */
+
+
+    void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+
+    /**
+     * {@code rollbackUpdates} discards every change since the last commit: the {@code indexBuffer} and the
+     * {@code dataBuffer} are dropped, so the files and the log are not touched at all.
+     * Must not run at the same time as writers (see {@link RStarTree#rollbackUpdates}).
+     */
+
+
+    void rollbackUpdates() {
+        synchronized (commitLock) {
+            indexBuffer.clear();
+            dirtyIndexNodes.clear();
+            dataBuffer.clear();
+            totalBlocksInDataFile = committedTotalBlocksInDataFile;
+            totalBlocksInIndexFile = committedTotalBlocksInIndexFile;
+            totalLevelsOfTreeIndex = committedLevelsOfTreeIndex;
+            currentBlockId = totalBlocksInIndexFile;
+            currentIndexBlock = getWritableIndexBlock(currentBlockId);
+        }
+    }
+
+
+    /**
+     * {@code writeBehind} method runs one pass of the {@link WriteBehindFlusher}: forces the {@link WriteAheadLog}, then
+     * writes the committed blocks that are only in the log in the files, with the committed metadata, and forces the
+     * files. The blocks are collected while holding the {@code commitLock} and written without it, so commits are not
+     * blocked by the page writes. The log is truncated by a {@link #checkpoint} once it is fully written in the files or
+     * grew past {@code CHECKPOINT_LOG_BLOCKS} blocks.
+     */
+
+
+    void writeBehind() {
+        synchronized (flushLock) {
+            Map<Long, byte[]> dataPages;
+            Map<Long, byte[]> indexPages;
+            ArrayList<Integer> dataFileMetaData;
+            ArrayList<Integer> indexFileMetaData;
+            long lsn;
+            synchronized (commitLock) {
+                dataPages = new TreeMap<>(unflushedDataPages);
+                indexPages = new TreeMap<>(unflushedIndexPages);
+                dataFileMetaData = getCommittedDataMetaData();
+                indexFileMetaData = getCommittedIndexMetaData();
+                lsn = lastCommitLsn;
+            }
+
+            try {
+                writeAheadLog.forceAll(); // the log always reaches the disk before the blocks it covers
+                if (dataPages.isEmpty() && indexPages.isEmpty()) {
+                    flusher.setFlushed(lsn);
+                    return;
+                }
+                writePages(pathToDataFile, dataPages);
+                writeMetaDataBlock(pathToDataFile, dataFileMetaData);
+                writePages(pathToIndexFile, indexPages);
+                writeMetaDataBlock(pathToIndexFile, indexFileMetaData);
+                forceFile(pathToDataFile);
+                forceFile(pathToIndexFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the committed blocks", e);
+            }
+            for (Map.Entry<Long, byte[]> page : dataPages.entrySet())
+                unflushedDataPages.remove(page.getKey(), page.getValue());
+            for (Map.Entry<Long, byte[]> page : indexPages.entrySet())
+                unflushedIndexPages.remove(page.getKey(), page.getValue());
+            flusher.setFlushed(lsn);
+
+            try {
+                if ((unflushedDataPages.isEmpty() && unflushedIndexPages.isEmpty())
+                        || writeAheadLog.size() > (long) CHECKPOINT_LOG_BLOCKS * blockSize)
+                    checkpoint();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * {@code checkpoint} writes every committed block that is only in the {@link WriteAheadLog} at its place in the files,
+     * in block id order, with the committed metadata, forces both files and truncates the log. Blocks commits while it
+     * runs, but not writers, which only change the buffers.
+     */
+
+
+    void checkpoint() {
+        synchronized (flushLock) {
+            synchronized (commitLock) {
+                try {
+                    writeAheadLog.forceAll();
+                    writePages(pathToDataFile, unflushedDataPages);
+                    writeMetaDataBlock(pathToDataFile, getCommittedDataMetaData());
+                    writePages(pathToIndexFile, unflushedIndexPages);
+                    writeMetaDataBlock(pathToIndexFile, getCommittedIndexMetaData());
+                    forceFile(pathToDataFile);
+                    forceFile(pathToIndexFile);
+
+                    writeAheadLog.truncate();
+                    unflushedDataPages.clear();
+                    unflushedIndexPages.clear();
+                    flusher.setFlushed(lastCommitLsn);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not checkpoint the store", e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Getter for the metadata of the datafile as of the last commit
+     *
+     * @return The metadata, in the order of {@link #getDataMetaData}
+     */
+
+
+    private ArrayList<Integer> getCommittedDataMetaData() {
+        return new ArrayList<>(List.of(dataDimensions, blockSize, committedTotalBlocksInDataFile, dataPageFormat.ordinal()));
+    }
+
+
+    /**
+     * Getter for the metadata of the indexfile as of the last commit
+     *
+     * @return The metadata, in the order of {@link #getIndexMetaData}
+     */
+
+
+    private ArrayList<Integer> getCommittedIndexMetaData() {
+        return new ArrayList<>(List.of(dataDimensions, blockSize, committedTotalBlocksInIndexFile,
+                committedLevelsOfTreeIndex));
+    }
+
+
+    /**
+     * {@code stopFlusher} method stops the {@link WriteBehindFlusher} and leaves the blocks that are only in the
+     * {@link WriteAheadLog} there. Used by {@link #close}, and to drop a store as if the process crashed.
+     */
+
+
+    void stopFlusher() {
+        flusher.stop();
+    }
+
+
+    /**
+     * Getter for the size of the {@link WriteAheadLog} that is forced. Truncating the log to it after {@link #stopFlusher}
+     * drops the {@link Durability#ASYNC} commits that a power loss could lose.
+     *
+     * @return The forced size of the log in bytes
+     */
+
+
+    long getDurableLogSize() {
+        return writeAheadLog.getDurableSize();
+    }
+
+
+    /**
+     * {@code close} method stops the {@link WriteBehindFlusher}, checkpoints the store and closes its
+     * {@link WriteAheadLog}, so the next open has nothing to recover. Must not run at the same time as writers.
+     */
+
+
+    void close() {
+        prefetcher.stop();
+        stopFlusher();
+        checkpoint();
+        try {
+            writeAheadLog.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * {@code recoverFromLog} replays the commits of the {@link WriteAheadLog} left by a crash: the block images of every
+     * complete commit are written in the files, in log order, and the metadata blocks are set to the last commit's. A
+     * commit torn by the crash is ignored. The log is deleted afterwards.
+     *
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private void recoverFromLog() throws IOException {
+        writeAheadLog.close();
+        ArrayList<WriteAheadLog.LoggedCommit> commits = writeAheadLog.readCommits(blockSize);
+        if (!commits.isEmpty()) {
+            TreeMap<Long, byte[]> dataPages = new TreeMap<>();
+            TreeMap<Long, byte[]> indexPages = new TreeMap<>();
+            for (WriteAheadLog.LoggedCommit commit : commits) {
+                dataPages.putAll(commit.dataPages());
+                indexPages.putAll(commit.indexPages());
+            }
+            WriteAheadLog.LoggedCommit lastCommit = commits.get(commits.size() - 1);
+
+            if (Files.exists(Paths.get(pathToDataFile))) {
+                writePages(pathToDataFile, dataPages);
+                ArrayList<Integer> dataFileMetaData = readMetaDataBlock(pathToDataFile);
+                dataFileMetaData.set(2, lastCommit.totalBlocksInDataFile());
+                writeMetaDataBlock(pathToDataFile, dataFileMetaData);
+                forceFile(pathToDataFile);
+            }
+            if (Files.exists(Paths.get(pathToIndexFile))) {
+                writePages(pathToIndexFile, indexPages);
+                ArrayList<Integer> indexFileMetaData = readMetaDataBlock(pathToIndexFile);
+                indexFileMetaData.set(2, lastCommit.totalBlocksInIndexFile());
+                indexFileMetaData.set(3, lastCommit.totalLevelsOfTreeIndex());
+                writeMetaDataBlock(pathToIndexFile, indexFileMetaData);
+                forceFile(pathToIndexFile);
+            }
+            dataPagePool.clear();
+            indexPagePool.clear();
+            System.out.println("Recovered " + commits.size() + " commits from the write-ahead log");
+        }
+        writeAheadLog.delete();
+    }
+
+
+    /**
+     * {@code writePages} helper method that writes block images at their place in a file, in block id order. Every run of
+     * adjacent blocks is written with one gathering write.
+     *
+     * @param pathToFile The filepath of the file
+     * @param pages The block images by block id
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private void writePages(String pathToFile, Map<Long, byte[]> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.WRITE)) {
+            ArrayList<ByteBuffer> run = new ArrayList<>();
+            long firstBlockId = -1;
+            for (Map.Entry<Long, byte[]> page : new TreeMap<>(pages).entrySet()) {
+                if (page.getKey() != firstBlockId + run.size()) {
+                    writeRun(channel, firstBlockId, run);
+                    run.clear();
+                    firstBlockId = page.getKey();
+                }
+                run.add(ByteBuffer.wrap(page.getValue()));
+            }
+            writeRun(channel, firstBlockId, run);
+        }
+    }
+
+
+    /**
+     * {@code writeRun} helper method for {@link #writePages} that writes adjacent blocks with one gathering write.
+     *
+     * @param channel The open file
+     * @param firstBlockId The block id of the first block
+     * @param run The block images, in block id order
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private void writeRun(FileChannel channel, long firstBlockId, ArrayList<ByteBuffer> run) throws IOException {
+        if (run.isEmpty())
+            return;
+        physicalPageWrites.add(run.size());
+        ByteBuffer[] buffers = run.toArray(new ByteBuffer[0]);
+        long remaining = (long) run.size() * blockSize;
+        channel.position(firstBlockId * blockSize);
+        while (remaining > 0)
+            remaining -= channel.write(buffers);
+    }
+
+
+    /**
+     * {@code forceFile} helper method that forces a file's content and metadata to the disk.
+     *
+     * @param pathToFile The filepath of the file
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private static void forceFile(String pathToFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+
+    /**
+     * {@code reclaimBlockVersions} drops the older block images that no open {@link IndexSnapshot} can read anymore.
+     *
+     * @param oldestVersion The version of the oldest open snapshot
+     */
+
+
+    void reclaimBlockVersions(long oldestVersion) {
+        indexVersions.reclaim(oldestVersion);
+        dataVersions.reclaim(oldestVersion);
+    }
+
+
+    /**
+     * Getter for the number of older block images kept for open {@link IndexSnapshot}s
+     *
+     * @return The kept index and data block images
+     */
+
+
+    int getBlockVersionCount() {
+        return indexVersions.getImageCount() + dataVersions.getImageCount();
+    }
+
+
+    /**
+     * Getter for the number of block changes made by writers. A block changed many times before a commit, e.g. by the
+     * reinserts of a build, counts once for every change.
+     *
+     * @return The logical page writes
+     */
+
+
+    long getLogicalPageWrites() {
+        return logicalPageWrites.sum();
+    }
+
+
+    /**
+     * Getter for the number of block images appended to the {@link WriteAheadLog}, one for every dirty block of a commit
+     *
+     * @return The logged page writes
+     */
+
+
+    long getLoggedPageWrites() {
+        return loggedPageWrites.sum();
+    }
+
+
+    /**
+     * Getter for the number of block images written at their place in the datafile and the indexfile
+     *
+     * @return The physical page writes
+     */
+
+
+    long getPhysicalPageWrites() {
+        return physicalPageWrites.sum();
+    }
+
+
+    /**
+     * Getter for the number of blocks read from the datafile and the indexfile, without the gaps of coalesced reads
+     *
+     * @return The physical page reads
+     */
+
+
+    long getPhysicalPageReads() {
+        return physicalPageReads.sum();
+    }
+
+
+    /**
+     * Getter for the number of blocks read only to fill the gaps of coalesced reads
+     *
+     * @return The gap page reads
+     */
+
+
+    long getGapPageReads() {
+        return gapPageReads.sum();
+    }
+
+
+    /**
+     * Getter for the number of block requests served by the shared pools, from memory or from the files
+     *
+     * @return The requests of the {@code indexPagePool} and the {@code dataPagePool}
+     */
+
+
+    long getPoolRequests() {
+        return indexPagePool.getHits() + indexPagePool.getMisses() + dataPagePool.getHits() + dataPagePool.getMisses();
+    }
+
+
+    /**
+     * Getter for the number of reads issued to the datafile and the indexfile, a coalesced read counts once per run
+     *
+     * @return The file reads
+     */
+
+
+    long getFileReads() {
+        return fileReads.sum();
+    }
+
+
+    /**
+     * Getter for the number of changed nodes in the index blocks logged by commits
+     *
+     * @return The committed dirty nodes
+     */
+
+
+    long getCommittedDirtyNodes() {
+        return committedDirtyNodes.sum();
+    }
+
+
+    /**
+     * {@code printPageWriteStats} method that prints the logical and physical page write counters
+     */
+
+
+    void printPageWriteStats() {
+        System.out.printf("Page writes: %d logical, %d logged (%d dirty nodes), %d physical%n", getLogicalPageWrites(),
+                getLoggedPageWrites(), getCommittedDirtyNodes(), getPhysicalPageWrites());
+    }
+
+
+    /**
+     * {@code appendRecordToDataBlock} is used in single {@link Record} inserts
+     * <p></p>Appends a {@link Record} to a datafile block if there is enough space, if not enough space,
+     * creates a new block in the datafile. Appends are serialized, and the last block is changed while holding its
+     * {@link #getDataBlockLatch}.
+     *
+     * @param record The {@link Record} to be added
+     * @return The blockId where the {@link Record} was saved
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    public long appendRecordToDataBlock(Record record) throws IOException {
+        synchronized (dataFileAppendLock) {
+            return appendRecordToLastDataBlock(record);
+        }
+    }
+
+
+    /**
+     * {@code appendRecordToLastDataBlock} helper method for {@link #appendRecordToDataBlock}, called while holding the
+     * {@code dataFileAppendLock}.
+     *
+     * @param record The {@link Record} to be added
+     * @return The blockId where the {@link Record} was saved
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private long appendRecordToLastDataBlock(Record record) throws IOException {
+        int maxRecords = calculateMaxRecordsInBlock();
+        long lastBlockId = getTotalBlocksInDataFile() - 1; // last block in the datafile
+
+        if (lastBlockId >= 1) {
+            Lock dataBlockLatch = getDataBlockLatch(lastBlockId);
+            dataBlockLatch.lock();
+            try {
+                ArrayList<Record> blockRecords = readDataFileBlock(lastBlockId);
+                if (blockRecords != null) {
+                    blockRecords.add(record);
+
+                    if (canSerializeBlock(blockRecords)
+                            && (dataPageFormat != DataPageFormat.SERIALIZED || blockRecords.size() <= maxRecords)) {
+                        overwriteDataFileBlock(lastBlockId, blockRecords);
+                        return lastBlockId;
+                    }
+                }
+            } finally {
+                dataBlockLatch.unlock();
+            }
+        }
+
+        // No space in existing blocks => new block, written in the datafile with the next commit
+        ArrayList<Record> newBlock = new ArrayList<>();
+        newBlock.add(record);
+        long newBlockId = getTotalBlocksInDataFile();
+        logicalPageWrites.increment();
+        dataBuffer.put(newBlockId, DataPage.of(newBlock));
+        totalBlocksInDataFile++;
+        return newBlockId;
+    }
+
+
+    /**
+     * {@code canSerializeBlock} helper method that checks whether the block with the new {@link Record} can be serialized.
+     *
+     * @param records {@link ArrayList} of {@link Record} to be written in the block
+     * @return Whether the block can be serialized or not
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private boolean canSerializeBlock(List<Record> records) throws IOException {
+        if (dataPageFormat != DataPageFormat.SERIALIZED)
+            return encodedDataPageSize(records) <= blockSize - PAGE_CHECKSUM_SIZE;
+        byte[] recordInBytes = serialize(new ArrayList<>(records));
+        byte[] metaDataLengthInBytes = serialize(recordInBytes.length);
+        return (metaDataLengthInBytes.length + recordInBytes.length) <= blockSize - PAGE_CHECKSUM_SIZE;
+    }
+
+
+    /**
+     * {@code encodedDataPageSize} helper method that computes the size of the records encoded in the columnar or the
+     * compressed {@link DataPageFormat}.
+     *
+     * @param records The records of the block
+     * @return The encoded size in bytes, without padding and checksum
+     */
+
+
+    private int encodedDataPageSize(List<Record> records) {
+        if (dataPageFormat == DataPageFormat.COMPRESSED)
+            return CompressedDataPage.encode(records).length;
+        return DataPage.encodedSize(records);
+    }
+
+
+    /**
+     * {@code writeFullEncodedBlock} helper method for {@link #initializeDataFile} that checks whether the records read
+     * so far still fit in one columnar or compressed block. If they do not, the largest prefix that fits is written as a
+     * block and removed from the list. The size is only checked every few records, since the records of a block are
+     * not known to have a fixed size.
+     *
+     * @param blockRecords The records read since the last written block
+     * @return The number of records at which the next check should be made
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private int writeFullEncodedBlock(ArrayList<Record> blockRecords) throws IOException {
+        int capacity = blockSize - PAGE_CHECKSUM_SIZE;
+        int encodedLength = encodedDataPageSize(blockRecords);
+        if (encodedLength <= capacity)
+            return blockRecords.size() + Math.max(1, (capacity - encodedLength) * blockRecords.size() / (2 * encodedLength));
+
+        List<Record> fullBlock = blockRecords.subList(0, largestFittingPrefix(blockRecords));
+        int written = fullBlock.size();
+        writeDataFileBlock(new ArrayList<>(fullBlock));
+        fullBlock.clear();
+        return written;
+    }
+
+
+    /**
+     * {@code largestFittingPrefix} helper method that finds with a binary search how many of the records, from the first
+     * one, fit in one columnar or compressed block.
+     *
+     * @param records Records that do not all fit in one block
+     * @return The number of records that fit, at least 1
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    private int largestFittingPrefix(List<Record> records) throws IOException {
+        int fitting = 0;
+        int notFitting = records.size();
+        while (notFitting - fitting > 1) {
+            int middle = (fitting + notFitting) >>> 1;
+            if (canSerializeBlock(records.subList(0, middle)))
+                fitting = middle;
+            else
+                notFitting = middle;
+        }
+        if (fitting == 0)
+            throw new IllegalStateException("Record too large to fit in one data block");
+        return fitting;
+    }
+
+
+    /**
+     * Getter for the format of the data blocks
+     *
+     * @return The {@link DataPageFormat} of the datafile
+     */
+
+
+    DataPageFormat getDataPageFormat() {
+        return dataPageFormat;
+    }
+
+
+    /**
+     * Setter of the format of the data blocks of a new datafile. Must be called before {@link #initializeDataFile}
+     * creates the datafile; an existing datafile keeps the format written in its metadata.
+     *
+     * @param dataPageFormat The {@link DataPageFormat}
+     */
+
+
+    void setDataPageFormat(DataPageFormat dataPageFormat) {
+        this.dataPageFormat = dataPageFormat;
+    }
+
+
+    /**
+     * {@code overwriteDataFileBlock} overwrites a Block of the datafile with the new {@link ArrayList} of {@link Record}.<p>
+     * The new records are kept in the {@code dataBuffer} until the next commit logs them, so the datafile, the
+     * {@code dataPagePool} and open {@link IndexSnapshot}s keep the committed records, and {@link #rollbackUpdates} only
+     * has to drop them.
+     *
+     * @param blockId The block Id used as offset
+     * @param records {@link ArrayList} of new {@link Record} to be serialized
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    public void overwriteDataFileBlock(long blockId, ArrayList<Record> records) throws IOException {
+        if (!canSerializeBlock(records))
+            throw new IllegalStateException("Block too large to overwrite");
+        logicalPageWrites.increment();
+        dataBuffer.put(blockId, DataPage.of(new ArrayList<>(records)));
+    }
+
+
+    /**
+     * {@code readNode} reads a {@link Node} using {@code blockIndex} and {@code nodeIndex} to find its position in the {@code indexBuffer}.
+     * If the {@link Node} is NOT in the {@code indexBuffer}, it is served from the shared {@code indexPagePool}, which reads
+     * it through the IndexFile with {@link #loadIndexBlock} only on the first request
+     *
+     * @param blockId The Node's Block id
+     * @param nodeIndex The Node's Index in the Block
+     * @return The Node in the indexBlock
+     */
+
+
+    Node readNode(long blockId, int nodeIndex) {
+        IndexBlock block = indexBuffer.get(blockId);
+        if (block == null) {
+            block = indexPagePool.get(blockId, this::loadIndexBlock);
+        }
+        if (block == null) {
+            throw new IllegalStateException("Node-block is null");
+        }
+        return block.getNodes().get(nodeIndex);
+    }
+
+
+
+    /**
+     * {@code readNodeForUpdate} reads a {@link Node} that is about to be changed. Its {@link IndexBlock} is copied into the
+     * {@code indexBuffer}, so every writer changes the same {@link Node} object until the buffer is committed, and the
+     * committed block stays unchanged.
+     * <p>Must be called while holding the {@link Node}'s exclusive {@link NodeLatches} latch.
+     *
+     * @param blockId The Node's Block id
+     * @param nodeIndex The Node's Index in the Block
+     * @return The Node in the indexBlock
+     */
+
+
+    Node readNodeForUpdate(long blockId, int nodeIndex) {
+        return getWritableIndexBlock(blockId).getNodes().get(nodeIndex);
+    }
+
+
+    /**
+     * {@code readNode} reads a {@link Node} as of a committed version, for an {@link IndexSnapshot}. The latest committed
+     * block is read before the version chain, so a concurrent commit never makes a newer image visible to an older version.
+     *
+     * @param blockId The Node's Block id
+     * @param nodeIndex The Node's Index in the Block
+     * @param version The committed version
+     * @return The Node in the committed indexBlock, shared and never changed
+     */
+
+
+    Node readNode(long blockId, int nodeIndex, long version) {
+        IndexBlock block = indexPagePool.get(blockId, this::loadIndexBlock);
+        IndexBlock versionedBlock = indexVersions.read(blockId, version);
+        if (versionedBlock != null)
+            block = versionedBlock;
+        if (block == null) {
+            throw new IllegalStateException("Node-block is null");
+        }
+        return block.getNodes().get(nodeIndex);
+    }
+
+
+    //
+    //
+    //
+    //-------------------------------------------SNAPSHOT METHODS-------------------------------------------------------
+    //
+    //
+    //
+
+
+    /**
+     * {@code openSnapshot} method pins the last committed version of the index and binds a new {@link IndexSnapshot} to the
+     * current thread.
+     *
+     * @return The open snapshot, to be closed by the same thread
+     */
+
+
+    IndexSnapshot openSnapshot() {
+        IndexSnapshot snapshot;
+        synchronized (snapshotLock) {
+            snapshot = new IndexSnapshot(this, committedVersion, committedLevels, boundSnapshot.get());
+            pinnedVersions.merge(snapshot.getVersion(), 1, Integer::sum);
+        }
+        boundSnapshot.set(snapshot);
+        return snapshot;
+    }
+
+
+    /**
+     * Getter for the snapshot of this store bound to the current thread
+     *
+     * @return The open snapshot, or {@code null} if the thread reads the latest version
+     */
+
+
+    IndexSnapshot currentSnapshot() {
+        return boundSnapshot.get();
+    }
+
+
+    /**
+     * {@code bindSnapshot} method binds an already open snapshot to the current thread, so the worker threads of a
+     * parallel query read the same version as the thread that opened it. The snapshot stays pinned until it is closed
+     * by its own thread, which must wait for the workers first.
+     *
+     * @param snapshot The open snapshot, or {@code null} to read the latest version
+     * @return The snapshot that was bound to the thread before, to restore when the work is done
+     */
+
+
+    IndexSnapshot bindSnapshot(IndexSnapshot snapshot) {
+        IndexSnapshot previous = boundSnapshot.get();
+        if (snapshot == null)
+            boundSnapshot.remove();
+        else
+            boundSnapshot.set(snapshot);
+        return previous;
+    }
+
+
+    /**
+     * {@code closeSnapshot} method unbinds a snapshot from the current thread, restoring the one bound before it, unpins its
+     * version and reclaims the block images that are not needed anymore. Called by {@link IndexSnapshot#close}.
+     *
+     * @param snapshot The snapshot to close
+     * @param previous The snapshot that was bound to the thread before
+     */
+
+
+    void closeSnapshot(IndexSnapshot snapshot, IndexSnapshot previous) {
+        if (boundSnapshot.get() == snapshot) {
+            if (previous == null)
+                boundSnapshot.remove();
+            else
+                boundSnapshot.set(previous);
+        }
+        synchronized (snapshotLock) {
+            pinnedVersions.computeIfPresent(snapshot.getVersion(), (v, count) -> count == 1 ? null : count - 1);
+        }
+        reclaimBlockVersions(getOldestPinnedVersion());
+    }
+
+
+    /**
+     * {@code publishVersion} method makes a new commit version visible to the snapshots opened from now on. Called by
+     * {@link #flushIndexBufferToDisk} after the new block images were installed.
+     *
+     * @param version The new version
+     * @param totalLevels The total levels of the tree at the new version
+     */
+
+
+    private void publishVersion(long version, int totalLevels) {
+        synchronized (snapshotLock) {
+            committedVersion = version;
+            committedLevels = totalLevels;
+        }
+    }
+
+
+    /**
+     * Getter for the version of the last commit
+     *
+     * @return The committed version
+     */
+
+
+    long getCommittedVersion() {
+        synchronized (snapshotLock) {
+            return committedVersion;
+        }
+    }
+
+
+    /**
+     * Getter for the version of the oldest open snapshot
+     *
+     * @return The oldest pinned version, or the committed version if no snapshot is open
+     */
+
+
+    long getOldestPinnedVersion() {
+        synchronized (snapshotLock) {
+            return pinnedVersions.isEmpty() ? committedVersion : pinnedVersions.firstKey();
+        }
+    }
+
+
+    /**
+     * Getter for the number of open snapshots
+     *
+     * @return The open snapshots
+     */
+
+
+    int getOpenSnapshots() {
+        synchronized (snapshotLock) {
+            int openSnapshots = 0;
+            for (int count : pinnedVersions.values())
+                openSnapshots += count;
+            return openSnapshots;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *
+ *
+ * Public class {@link StoreChecker} is an {@code fsck}-style tool that verifies the files of a {@link SpatialStore}.
+ * <p>
+ * It checks in two parallel passes, using every core:
+ * <ul>
+ *     <li>Every block of the datafile and the indexfile is read, in runs of {@code BLOCKS_PER_READ} blocks, and its
+ *     checksum is verified and its content deserialized.</li>
+ *     <li>The {@link RStarTree} is walked from the root, one fork-join task per {@link Node}, checking the structural
+ *     invariants: every child is one level below its parent and reached only once, every {@link Entry} contains the
+ *     {@link MBR} of its child, every {@link LeafEntry} contains the records of its data block, and no {@link Node} is
+ *     over-full or empty. Under-full nodes are counted, since deletes keep them (see {@link RStarTree#deleteRecord}).</li>
+ * </ul>
+ * Usage: {@code java StoreChecker [directory]}, the directory defaults to {@link SpatialStore#DEFAULT_DIRECTORY}.
+ * Opening the store replays its {@link WriteAheadLog} first, so the files are checked as of the last commit. The tree is
+ * opened without reading it whole, and a node or data block that cannot be read is reported as a violation, so that
+ * the check reports corrupted blocks instead of failing on them.
+ *
+ *
+ */
+
+
+public class StoreChecker {
+    /** Number of blocks read with one read while verifying the blocks */
+    private static final int BLOCKS_PER_READ = 64;
+
+    /** Violations print at most this many messages */
+    private static final int MAX_PRINTED_ERRORS = 50;
+
+    /** The checked tree */
+    private final RStarTree tree;
+
+    /** The store of the checked tree */
+    private final SpatialStore store;
+
+    /** The number of threads of both passes */
+    private final int threads;
+
+    /** Every violation found */
+    private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+    /** Blocks whose checksum and content were verified */
+    private final LongAdder checkedBlocks = new LongAdder();
+
+    /** Nodes whose invariants were checked */
+    private final LongAdder checkedNodes = new LongAdder();
+
+    /** Entries of the checked nodes */
+    private final LongAdder checkedEntries = new LongAdder();
+
+    /** Non-root nodes with fewer than the minimum entries */
+    private final LongAdder underfullNodes = new LongAdder();
+
+    /** Keys of the nodes reached by the walk, to find nodes reached twice */
+    private final Set<Long> reachedNodes = ConcurrentHashMap.newKeySet();
+
+
+    /**
+     * {@link StoreChecker} constructor.
+     *
+     * @param tree The {@link RStarTree} to check, with its {@link SpatialStore}
+     * @param threads The number of threads of both passes
+     */
+
+
+    StoreChecker(RStarTree tree, int threads) {
+        this.tree = tree;
+        this.store = tree.getStore();
+        this.threads = threads;
+    }
+
+
+    /**
+     * {@code check} method runs both passes and prints a report with the violations found.
+     *
+     * @return {@code true} if no violation was found, else {@code false}
+     * @throws Exception to catch any file errors
+     */
+
+
+    boolean check() throws Exception {
+        long startTime = System.nanoTime();
+        checkBlocks(Paths.get(store.getPathToDataFile()), store.getTotalBlocksInDataFile(), false);
+        checkBlocks(Paths.get(store.getPathToIndexFile()), store.getTotalBlocksInIndexFile() + 1, true);
+        double blocksMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        startTime = System.nanoTime();
+        Node root = null;
+        try {
+            root = tree.getRootNode();
+        } catch (IllegalStateException e) {
+            errors.add("Root node cannot be read: " + e.getMessage());
+        }
+        if (root != null) {
+            if (root.getNodeLevelInTree() != store.getTotalLevelsFile())
+                errors.add("Root level " + root.getNodeLevelInTree() + " != total levels " + store.getTotalLevelsFile());
+            reachedNodes.add(nodeKey(root.getNodeBlockId(), root.getNodeIndexInBlock()));
+            try (ForkJoinPool pool = new ForkJoinPool(threads)) {
+                pool.invoke(new NodeCheck(root, null, true));
+            }
+        }
+        double treeMillis = (System.nanoTime() - startTime) / 1_000_000.0;
+
+        int printed = 0;
+        for (String error : errors) {
+            if (printed++ == MAX_PRINTED_ERRORS) {
+                System.out.println("... " + (errors.size() - MAX_PRINTED_ERRORS) + " more");
+                break;
+            }
+            System.out.println(error);
+        }
+        long nodes = checkedNodes.sum();
+        System.out.printf("Blocks: %d verified in %.2f ms%n", checkedBlocks.sum(), blocksMillis);
+        System.out.printf("Nodes: %d checked in %.2f ms, %d under-full, average fill %.1f%%%n", nodes, treeMillis,
+                underfullNodes.sum(), nodes == 0 ? 0 : 100.0 * checkedEntries.sum() / (nodes * store.getMaxEntriesInNode()));
+        System.out.println(errors.isEmpty() ? "No violations found." : errors.size() + " violations found!");
+        return errors.isEmpty();
+    }
+
+
+    /**
+     * {@code checkBlocks} method verifies the checksum and the content of every block of a file in parallel.
+     *
+     * @param path The file
+     * @param expectedBlocks The number of blocks written in the file's metadata, including the metadata block
+     * @param indexFile Whether the file is the indexfile
+     * @throws Exception to catch any file errors
+     */
+
+
+    private void checkBlocks(Path path, long expectedBlocks, boolean indexFile) throws Exception {
+        int blockSize = store.getBlockSize();
+        long blocks = Files.size(path) / blockSize;
+        if (Files.size(path) % blockSize != 0)
+            errors.add(path + " ends with a partial block");
+        if (blocks < expectedBlocks)
+            errors.add(path + " has " + blocks + " blocks, its metadata expects " + expectedBlocks);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ArrayList<Future<?>> results = new ArrayList<>();
+            for (long first = 0; first < blocks; first += BLOCKS_PER_READ) {
+                long firstBlockId = first;
+                int count = (int) Math.min(BLOCKS_PER_READ, blocks - first);
+                results.add(executor.submit(() -> {
+                    checkBlockRun(channel, path, firstBlockId, count, indexFile);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results)
+                result.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * {@code checkBlockRun} helper method for {@link #checkBlocks} that reads adjacent blocks with one read and verifies
+     * each of them.
+     *
+     * @param channel The open file
+     * @param path The file, for the error messages
+     * @param firstBlockId The id of the first block
+     * @param count The number of blocks
+     * @param indexFile Whether the file is the indexfile
+     * @throws Exception to catch any file errors
+     */
+
+
+    private void checkBlockRun(FileChannel channel, Path path, long firstBlockId, int count, boolean indexFile) throws Exception {
+        int blockSize = store.getBlockSize();
+        ByteBuffer run = ByteBuffer.allocate(count * blockSize);
+        long position = firstBlockId * blockSize;
+        while (run.hasRemaining()) {
+            int read = channel.read(run, position + run.position());
+            if (read < 0)
+                break;
+        }
+        for (int i = 0; i < count; i++) {
+            long blockId = firstBlockId + i;
+            byte[] block = new byte[blockSize];
+            run.get(i * blockSize, block);
+            if (!SpatialStore.isPageIntact(block)) {
+                errors.add("Checksum mismatch in block " + blockId + " of " + path);
+                continue;
+            }
+            try {
+                if (blockId > 0 && indexFile)
+                    SpatialStore.parseIndexPage(block);
+                else if (blockId > 0)
+                    SpatialStore.parseDataPage(block);
+            } catch (Exception e) {
+                errors.add("Block " + blockId + " of " + path + " cannot be read: " + e);
+            }
+            checkedBlocks.increment();
+        }
+    }
+
+
+    /**
+     * {@code nodeKey} helper method that builds a unique key for a {@link Node}.
+     *
+     * @param blockId The {@link Node}'s {@link IndexBlock} id
+     * @param nodeIndex The {@link Node}'s index in the {@link IndexBlock}
+     * @return The key
+     */
+
+
+    private static long nodeKey(long blockId, int nodeIndex) {
+        return (blockId << 32) | nodeIndex;
+    }
+
+
+    /**
+     * Fork-join task that checks the invariants of a {@link Node} and forks a task for every child.
+     */
+
+
+    private class NodeCheck extends RecursiveAction {
+        /** The copy of the checked {@link Node} */
+        private final Node node;
+
+        /** The parent's {@link Entry} that points to the {@link Node}, {@code null} for the root */
+        private final Entry parentEntry;
+
+        /** Whether the {@link Node} is the root */
+        private final boolean root;
+
+
+        /**
+         * {@link NodeCheck} constructor.
+         *
+         * @param node The copy of the checked {@link Node}
+         * @param parentEntry The parent's {@link Entry}, {@code null} for the root
+         * @param root Whether the {@link Node} is the root
+         */
+
+
+        NodeCheck(Node node, Entry parentEntry, boolean root) {
+            this.node = node;
+            this.parentEntry = parentEntry;
+            this.root = root;
+        }
+
+
+        @Override
+        protected void compute() {
+            String name = "Node " + node.getNodeBlockId() + ":" + node.getNodeIndexInBlock();
+            checkedNodes.increment();
+            int entries = node.getEntries().size();
+            checkedEntries.add(entries);
+            if (entries > store.getMaxEntriesInNode())
+                errors.add(name + " has " + entries + " entries, more than " + store.getMaxEntriesInNode());
+            if (!root && entries == 0)
+                errors.add(name + " is empty");
+            else if (!root && entries < store.getMinEntriesInNode())
+                underfullNodes.increment();
+            if (parentEntry != null && entries > 0 && !MBR.checkContainment(parentEntry.getMBR(), node.getMBR()))
+                errors.add("Entry MBR does not contain " + name);
+
+            List<NodeCheck> children = new ArrayList<>();
+            for (Entry entry : node.getEntries()) {
+                if (node.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
+                    checkLeafEntry((LeafEntry) entry);
+                    continue;
+                }
+                if (!reachedNodes.add(nodeKey(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock()))) {
+                    errors.add("Node " + entry.getChildNodeBlockId() + ":" + entry.getChildNodeIndexInBlock()
+                            + " is reached more than once, under " + name);
+                    continue;
+                }
+                Node child;
+                try {
+                    child = tree.readNode(entry.getChildNodeBlockId(), entry.getChildNodeIndexInBlock());
+                } catch (IllegalStateException e) {
+                    errors.add("Node " + entry.getChildNodeBlockId() + ":" + entry.getChildNodeIndexInBlock()
+                            + " under " + name + " cannot be read: " + e.getMessage());
+                    continue;
+                }
+                if (child.getNodeLevelInTree() != node.getNodeLevelInTree() - 1) {
+                    errors.add("Node " + child.getNodeBlockId() + ":" + child.getNodeIndexInBlock() + " has level "
+                            + child.getNodeLevelInTree() + " under " + name + " of level " + node.getNodeLevelInTree());
+                    continue;
+                }
+                children.add(new NodeCheck(child, entry, false));
+            }
+            invokeAll(children);
+        }
+
+
+        /**
+         * {@code checkLeafEntry} helper method that checks that a {@link LeafEntry} contains the records of its data block.
+         *
+         * @param entry The {@link LeafEntry}
+         */
+
+
+        private void checkLeafEntry(LeafEntry entry) {
+            long dataBlockId = entry.getDataBlockId();
+            try {
+                ArrayList<Record> records = tree.readDataFileBlock(dataBlockId);
+                if (records == null || records.isEmpty())
+                    errors.add("LeafEntry points to empty data block " + dataBlockId);
+                else if (!MBR.checkContainment(entry.getMBR(), new MBR(Bounds.findMinimumBoundsFromRecords(records))))
+                    errors.add("LeafEntry MBR does not contain the records of data block " + dataBlockId);
+            } catch (IllegalStateException e) {
+                errors.add("LeafEntry points to unreadable data block " + dataBlockId + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        SpatialStore store = new SpatialStore(args.length > 0 ? args[0] : SpatialStore.DEFAULT_DIRECTORY);
+        if (!store.hasCurrentFileFormat()) {
+            System.out.println("The files were written by an older version of the store, without checksums. Rebuild required.");
+            System.exit(1);
+        }
+        store.initializeDataFile(0, false);
+        store.initializeIndexFile(0, false);
+        RStarTree tree = new RStarTree(store, store.getIndexMetaData(), false); // reads no node before the check
+        boolean valid = new StoreChecker(tree, Runtime.getRuntime().availableProcessors()).check();
+        store.close();
+        System.exit(valid ? 0 : 1);
+    }
+}
@@ -0,0 +1,127 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+
+/**
+ *
+ *
+ * Class {@link VectorCoordinateKernels} runs the {@link CoordinateKernels} with the {@code jdk.incubator.vector} API,
+ * on as many rows at once as the preferred vector shape of the CPU holds. The rows that do not fill a whole vector are
+ * handled by the {@link ScalarCoordinateKernels} loops.
+ * <p>
+ * Needs {@code --add-modules jdk.incubator.vector} to compile and to run; without it at runtime the class cannot be
+ * loaded and {@link CoordinateKernels#INSTANCE} falls back to the scalar kernels.
+ *
+ *
+ */
+
+
+class VectorCoordinateKernels implements CoordinateKernels {
+    /** The preferred vector shape of the CPU */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /** The bits of {@link VectorMask#toLong} that are lanes of {@code SPECIES} */
+    private static final long LANE_BITS = SPECIES.length() == 64 ? -1L : (1L << SPECIES.length()) - 1;
+
+
+    @Override
+    public String getName() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The first column is compared a whole vector of rows at a time, and the rows whose lanes are set are written to the
+     * selection. The next columns only check the rows still selected, which are too few and too scattered to gain from
+     * vectors, with the scalar loop.
+     */
+
+
+    @Override
+    public int selectInRange(double[][] columns, int rows, double[] lower, double[] upper, int[] selection) {
+        if (columns.length == 0) {
+            for (int row = 0; row < rows; row++)
+                selection[row] = row;
+            return rows;
+        }
+
+        double[] column = columns[0];
+        double min = lower[0];
+        double max = upper[0];
+        int loopBound = SPECIES.loopBound(rows);
+        int selected = 0;
+        int row = 0;
+        for (; row < loopBound; row += SPECIES.length()) {
+            DoubleVector values = DoubleVector.fromArray(SPECIES, column, row);
+            VectorMask<Double> outOfRange = values.compare(VectorOperators.LT, min)
+                    .or(values.compare(VectorOperators.GT, max));
+            for (long lanes = ~outOfRange.toLong() & LANE_BITS; lanes != 0; lanes &= lanes - 1)
+                selection[selected++] = row + Long.numberOfTrailingZeros(lanes);
+        }
+        for (; row < rows; row++) {
+            double value = column[row];
+            if (!(value < min || value > max))
+                selection[selected++] = row;
+        }
+        return ScalarCoordinateKernels.refineInRange(columns, lower, upper, selection, selected);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Runs the scalar loop, see {@link ScalarCoordinateKernels#sumSquaredDistances}: the loop is bound by memory rather
+     * than by arithmetic, and the JIT already vectorizes it, while the Vector API version measured slower than it in the
+     * {@code kernels} benchmark of {@link QueryBenchmark}.
+     */
+
+
+    @Override
+    public void squaredDistances(double[][] columns, int rows, double[] point, double[] distances) {
+        ScalarCoordinateKernels.sumSquaredDistances(columns, rows, point, distances);
+    }
+
+
+    @Override
+    public boolean isDominated(double[][] columns, int rows, double[] point) {
+        int loopBound = SPECIES.loopBound(rows);
+        int row = 0;
+        for (; row < loopBound; row += SPECIES.length()) {
+            VectorMask<Double> noHigher = SPECIES.maskAll(true);
+            VectorMask<Double> lowerInOne = SPECIES.maskAll(false);
+            for (int d = 0; d < columns.length; d++) {
+                DoubleVector values = DoubleVector.fromArray(SPECIES, columns[d], row);
+                noHigher = noHigher.andNot(values.compare(VectorOperators.GT, point[d]));
+                lowerInOne = lowerInOne.or(values.compare(VectorOperators.LT, point[d]));
+            }
+            if (noHigher.and(lowerInOne).anyTrue())
+                return true;
+        }
+        return ScalarCoordinateKernels.isDominated(columns, row, rows, point);
+    }
+
+
+    @Override
+    public int selectDominatedBy(double[][] columns, int rows, double[] point, int[] selection) {
+        int loopBound = SPECIES.loopBound(rows);
+        int selected = 0;
+        int row = 0;
+        for (; row < loopBound; row += SPECIES.length()) {
+            VectorMask<Double> noLower = SPECIES.maskAll(true);
+            VectorMask<Double> higherInOne = SPECIES.maskAll(false);
+            for (int d = 0; d < columns.length; d++) {
+                DoubleVector values = DoubleVector.fromArray(SPECIES, columns[d], row);
+                noLower = noLower.andNot(values.compare(VectorOperators.LT, point[d]));
+                higherInOne = higherInOne.or(values.compare(VectorOperators.GT, point[d]));
+            }
+            for (long lanes = noLower.and(higherInOne).toLong(); lanes != 0; lanes &= lanes - 1)
+                selection[selected++] = row + Long.numberOfTrailingZeros(lanes);
+        }
+        return ScalarCoordinateKernels.selectDominatedBy(columns, row, rows, point, selection, selected);
+    }
+}
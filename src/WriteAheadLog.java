@@ -0,0 +1,367 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+
+/**
+ *
+ *
+ * Class {@link WriteAheadLog} is the sequential, append-only redo log of a {@link SpatialStore}.
+ * <p>
+ * Every commit appends the full images of the data and index blocks it changed, followed by a commit record with the
+ * new metadata, in one sequential write. The commit is durable once the log is forced; the blocks themselves are written
+ * in the datafile and the indexfile later, by a checkpoint. Commits that wait for the log at the same time share one
+ * {@code fsync} (group commit): the first one forces everything appended so far and the others only wait for it.
+ * <p>
+ * Every log record is framed as {@code [payload length][CRC32C][payload]}. On open, {@link #readCommits} replays the
+ * commits up to the first incomplete or corrupted record, so a commit torn by a crash is ignored as a whole.
+ *
+ *
+ */
+
+
+class WriteAheadLog {
+    /** Record type of a data block image */
+    private static final byte DATA_PAGE = 0;
+
+    /** Record type of an index block image */
+    private static final byte INDEX_PAGE = 1;
+
+    /** Record type of the commit record that ends a commit */
+    private static final byte COMMIT = 2;
+
+    /** Bytes of the record header: payload length and checksum */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /** Path to the log file */
+    private final Path path;
+
+    /** The open log file, {@code null} while closed */
+    private FileChannel channel;
+
+    /** Bytes appended since the log was opened, never reset, used as log sequence number */
+    private long appendedLsn;
+
+    /** The log sequence number up to which the log is forced */
+    private long durableLsn;
+
+    /** The size of the log file up to which it is forced */
+    private long durableSize;
+
+    /** Whether a thread is forcing the log */
+    private boolean forcing;
+
+
+    /**
+     * A commit read back from the log.
+     *
+     * @param dataPages The data block images by block id
+     * @param indexPages The index block images by block id
+     * @param totalBlocksInDataFile The total blocks in the datafile after the commit
+     * @param totalBlocksInIndexFile The total blocks in the indexfile after the commit
+     * @param totalLevelsOfTreeIndex The total levels of the tree after the commit
+     */
+
+
+    record LoggedCommit(Map<Long, byte[]> dataPages, Map<Long, byte[]> indexPages, int totalBlocksInDataFile,
+                        int totalBlocksInIndexFile, int totalLevelsOfTreeIndex) {
+    }
+
+
+    /**
+     * {@link WriteAheadLog} constructor. The log is not opened until {@link #open}.
+     *
+     * @param path Path to the log file
+     */
+
+
+    WriteAheadLog(Path path) {
+        this.path = path;
+    }
+
+
+    /**
+     * {@code open} method opens the log for appending, creating it if it does not exist.
+     *
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    synchronized void open() throws IOException {
+        if (channel != null)
+            return;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        durableSize = channel.size();
+    }
+
+
+    /**
+     * {@code delete} method closes and deletes the log, used when the store's files are recreated.
+     *
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+
+    /**
+     * {@code close} method closes the log file.
+     *
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+
+    /**
+     * Getter for the size of the log file, used to decide when to checkpoint
+     *
+     * @return The size in bytes, 0 if the log is closed
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    synchronized long size() throws IOException {
+        return channel == null ? 0 : channel.size();
+    }
+
+
+    /**
+     * Getter for the size of the log file that is forced, the part of the log that survives a power loss. The commits
+     * appended after it are only in the OS page cache.
+     *
+     * @return The forced size in bytes
+     */
+
+
+    synchronized long getDurableSize() {
+        return durableSize;
+    }
+
+
+    /**
+     * {@code appendCommit} method appends the block images of a commit and its commit record in one write. The commit is
+     * not durable until {@link #force} returns for the returned log sequence number.
+     *
+     * @param dataPages The data block images by block id
+     * @param indexPages The index block images by block id
+     * @param totalBlocksInDataFile The total blocks in the datafile after the commit
+     * @param totalBlocksInIndexFile The total blocks in the indexfile after the commit
+     * @param totalLevelsOfTreeIndex The total levels of the tree after the commit
+     * @return The log sequence number of the end of the commit
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    long appendCommit(Map<Long, byte[]> dataPages, Map<Long, byte[]> indexPages, int totalBlocksInDataFile,
+                      int totalBlocksInIndexFile, int totalLevelsOfTreeIndex) throws IOException {
+        int size = 0;
+        for (byte[] page : dataPages.values())
+            size += RECORD_HEADER_SIZE + 9 + page.length;
+        for (byte[] page : indexPages.values())
+            size += RECORD_HEADER_SIZE + 9 + page.length;
+        size += RECORD_HEADER_SIZE + 13;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Map.Entry<Long, byte[]> page : dataPages.entrySet())
+            putPageRecord(buffer, DATA_PAGE, page.getKey(), page.getValue());
+        for (Map.Entry<Long, byte[]> page : indexPages.entrySet())
+            putPageRecord(buffer, INDEX_PAGE, page.getKey(), page.getValue());
+        ByteBuffer commit = ByteBuffer.allocate(13).put(COMMIT).putInt(totalBlocksInDataFile)
+                .putInt(totalBlocksInIndexFile).putInt(totalLevelsOfTreeIndex);
+        putRecord(buffer, commit.array());
+        buffer.flip();
+
+        synchronized (this) {
+            if (channel == null)
+                throw new IllegalStateException("The write-ahead log is not open");
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            appendedLsn += size;
+            return appendedLsn;
+        }
+    }
+
+
+    /**
+     * {@code putPageRecord} helper method for {@link #appendCommit} that adds the record of one block image.
+     *
+     * @param buffer The buffer of the commit
+     * @param type {@code DATA_PAGE} or {@code INDEX_PAGE}
+     * @param blockId The block id
+     * @param page The block image
+     */
+
+
+    private static void putPageRecord(ByteBuffer buffer, byte type, long blockId, byte[] page) {
+        putRecord(buffer, ByteBuffer.allocate(9 + page.length).put(type).putLong(blockId).put(page).array());
+    }
+
+
+    /**
+     * {@code putRecord} helper method that frames a record payload with its length and checksum.
+     *
+     * @param buffer The buffer of the commit
+     * @param payload The record payload
+     */
+
+
+    private static void putRecord(ByteBuffer buffer, byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+    }
+
+
+    /**
+     * {@code force} method waits until the log is durable up to a log sequence number. If no other thread is forcing the
+     * log, the calling thread forces everything appended so far, including the commits of other threads (group commit).
+     *
+     * @param lsn The log sequence number returned by {@link #appendCommit}
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    void force(long lsn) throws IOException {
+        long target;
+        long targetSize;
+        synchronized (this) {
+            while (durableLsn < lsn && forcing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the write-ahead log", e);
+                }
+            }
+            if (durableLsn >= lsn || channel == null)
+                return;
+            forcing = true;
+            target = appendedLsn;
+            targetSize = channel.position();
+        }
+        boolean forced = false;
+        try {
+            channel.force(false);
+            forced = true;
+        } finally {
+            synchronized (this) {
+                forcing = false;
+                durableLsn = Math.max(durableLsn, target);
+                if (forced)
+                    durableSize = Math.max(durableSize, targetSize);
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * {@code forceAll} method forces everything appended so far.
+     *
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    void forceAll() throws IOException {
+        long lsn;
+        synchronized (this) {
+            lsn = appendedLsn;
+        }
+        force(lsn);
+    }
+
+
+    /**
+     * {@code truncate} method drops the whole log after a checkpoint wrote every logged block in the files. Must only run
+     * after {@link #forceAll}, and while no commit is appended.
+     *
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    synchronized void truncate() throws IOException {
+        if (channel == null)
+            return;
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        durableSize = 0;
+    }
+
+
+    /**
+     * {@code readCommits} method reads the complete commits of the log, stopping at the first incomplete or corrupted
+     * record. The block images of a commit without its commit record are ignored.
+     *
+     * @param blockSize The block size of the store's files
+     * @return The complete commits, in log order
+     * @throws IOException to catch any IOException errors
+     */
+
+
+    ArrayList<LoggedCommit> readCommits(int blockSize) throws IOException {
+        ArrayList<LoggedCommit> commits = new ArrayList<>();
+        if (!Files.exists(path))
+            return commits;
+
+        try (InputStream in = Files.newInputStream(path);
+             DataInputStream log = new DataInputStream(new BufferedInputStream(in))) {
+            TreeMap<Long, byte[]> dataPages = new TreeMap<>();
+            TreeMap<Long, byte[]> indexPages = new TreeMap<>();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = log.readInt();
+                    int checksum = log.readInt();
+                    if (length <= 0 || length > blockSize + 9)
+                        break;
+                    payload = new byte[length];
+                    log.readFully(payload);
+                    CRC32C crc = new CRC32C();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+
+                ByteBuffer record = ByteBuffer.wrap(payload);
+                byte type = record.get();
+                if (type == COMMIT) {
+                    commits.add(new LoggedCommit(dataPages, indexPages, record.getInt(), record.getInt(), record.getInt()));
+                    dataPages = new TreeMap<>();
+                    indexPages = new TreeMap<>();
+                } else {
+                    long blockId = record.getLong();
+                    byte[] page = new byte[record.remaining()];
+                    record.get(page);
+                    (type == DATA_PAGE ? dataPages : indexPages).put(blockId, page);
+                }
+            }
+        }
+        return commits;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ *
+ *
+ * Class {@link WriteBehindFlusher} is the background thread of a {@link SpatialStore} that moves committed blocks from
+ * the {@link WriteAheadLog} to their place in the datafile and the indexfile.
+ * <p>
+ * Every {@code intervalMillis}, or sooner when requested, the flusher forces the log, so commits made with
+ * {@link SpatialStore.Durability#ASYNC} reach the disk within one interval, and then writes the committed blocks that are
+ * only in the log, in block id order with adjacent blocks coalesced into one write (see {@link SpatialStore#writeBehind}).
+ * Commits made with {@link SpatialStore.Durability#CHECKPOINT} wait in {@link #awaitFlushed} until a pass has written
+ * their blocks in the files.
+ *
+ *
+ */
+
+
+class WriteBehindFlusher {
+    /** Default time between two passes of the flusher */
+    static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    /** The store whose blocks are flushed */
+    private final SpatialStore store;
+
+    /** Time between two passes of the flusher */
+    private final long intervalMillis;
+
+    /** The flusher thread, {@code null} while stopped */
+    private Thread thread;
+
+    /** Whether a pass was requested before the interval ends */
+    private boolean requested;
+
+    /** Whether the flusher thread must stop */
+    private boolean stopping;
+
+    /** The log sequence number of the last commit whose blocks are written and forced in the files */
+    private long flushedLsn;
+
+    /** The error of the last pass, {@code null} if it succeeded */
+    private RuntimeException failure;
+
+
+    /**
+     * {@link WriteBehindFlusher} constructor. The thread is not started until {@link #start}.
+     *
+     * @param store The store whose blocks are flushed
+     * @param intervalMillis Time between two passes of the flusher
+     */
+
+
+    WriteBehindFlusher(SpatialStore store, long intervalMillis) {
+        this.store = store;
+        this.intervalMillis = intervalMillis;
+    }
+
+
+    /**
+     * {@code start} method starts the flusher thread, if it is not running already.
+     */
+
+
+    synchronized void start() {
+        if (thread != null)
+            return;
+        stopping = false;
+        thread = new Thread(this::run, "write-behind-flusher-" + store.getDirectory());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * {@code stop} method stops the flusher thread and waits for its running pass to finish. The blocks that are still
+     * only in the log are left there.
+     */
+
+
+    void stop() {
+        Thread runningThread;
+        synchronized (this) {
+            runningThread = thread;
+            if (runningThread == null)
+                return;
+            stopping = true;
+            notifyAll();
+        }
+        try {
+            runningThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            thread = null;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * {@code request} method wakes the flusher up for a pass before its interval ends.
+     */
+
+
+    synchronized void request() {
+        requested = true;
+        notifyAll();
+    }
+
+
+    /**
+     * {@code awaitFlushed} method waits until the blocks of a commit are written and forced in the files. If the flusher
+     * is not running, or its last pass failed, the calling thread checkpoints the store itself, so that the error of the
+     * checkpoint reaches the commit instead of the commit waiting for a pass that keeps failing.
+     *
+     * @param lsn The log sequence number of the commit
+     * @throws java.io.UncheckedIOException if the checkpoint fails
+     */
+
+
+    void awaitFlushed(long lsn) {
+        synchronized (this) {
+            requested = true;
+            notifyAll();
+            while (flushedLsn < lsn && thread != null && !stopping && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the write-behind flusher", e);
+                }
+            }
+            if (flushedLsn >= lsn)
+                return;
+        }
+        store.checkpoint();
+    }
+
+
+    /**
+     * {@code setFlushed} method records that the blocks of every commit up to a log sequence number are written and forced
+     * in the files, and wakes up the commits waiting for them.
+     *
+     * @param lsn The log sequence number of the last commit written
+     */
+
+
+    synchronized void setFlushed(long lsn) {
+        flushedLsn = Math.max(flushedLsn, lsn);
+        notifyAll();
+    }
+
+
+    /**
+     * {@code run} method of the flusher thread, that runs a pass every {@code intervalMillis} or when requested.
+     */
+
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                if (!requested && !stopping) {
+                    try {
+                        wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopping)
+                    return;
+                requested = false;
+            }
+            try {
+                store.writeBehind();
+                synchronized (this) {
+                    failure = null;
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}